@@ -19,7 +19,8 @@ CREATE TABLE `admin_apikey`  (
   `update_time` datetime NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `comment` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_bin NULL DEFAULT NULL,
   `is_free` tinyint(4) NULL DEFAULT 0 COMMENT '是否为免费的APIKey，0否，1是',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_update_time`(`update_time`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 10 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_bin ROW_FORMAT = Dynamic;
 
 -- ----------------------------
@@ -37,7 +38,8 @@ CREATE TABLE `prompt`  (
   `is_deleted` tinyint(4) UNSIGNED NULL DEFAULT 0 COMMENT '是否被删除,  0: 未删除, 1: 已删除',
   `target` tinyint(4) UNSIGNED NULL DEFAULT 0 COMMENT '针对的目标群体，0管理员，1用户。',
   PRIMARY KEY (`id`) USING BTREE,
-  UNIQUE INDEX `topic_UNIQUE`(`topic`) USING BTREE
+  UNIQUE INDEX `topic_UNIQUE`(`topic`) USING BTREE,
+  INDEX `idx_update_time`(`update_time`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 39 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_bin ROW_FORMAT = Dynamic;
 
 -- ----------------------------
@@ -82,7 +84,7 @@ CREATE TABLE `session_chat_record`  (
   `create_time` datetime NULL DEFAULT CURRENT_TIMESTAMP,
   `update_time` datetime NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   PRIMARY KEY (`session_chat_id`) USING BTREE,
-  INDEX `idx_session_id`(`session_id`) USING BTREE
+  INDEX `idx_session_id_chat_id`(`session_id`, `session_chat_id`, `token_num`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 6971 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_bin ROW_FORMAT = Dynamic;
 
 -- ----------------------------
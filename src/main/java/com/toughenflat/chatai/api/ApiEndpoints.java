@@ -0,0 +1,42 @@
+package com.toughenflat.chatai.api;
+
+import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
+import com.toughenflat.chatai.api.pinecone.PineconeApi;
+import org.springframework.util.StringUtils;
+
+/**
+ * 上游接口的地址, 默认为官方地址
+ * 可通过endpoint.openai-host、endpoint.pinecone-url指向代理或本地的mock服务(压测时避免消耗真实额度)
+ */
+public class ApiEndpoints {
+
+    private static volatile String openAIHost = OpenAIConst.HOST;
+
+    private static volatile String pineconeUrl = PineconeApi.PINECONE_API_URL;
+
+    /**
+     * 为空的配置保持默认地址
+     */
+    public static void init(String openAIHost, String pineconeUrl) {
+        if (!StringUtils.isEmpty(openAIHost)) {
+            // 各接口的路径拼接在host之后, 与OpenAIConst.HOST一样以/结尾
+            ApiEndpoints.openAIHost = openAIHost.endsWith("/") ? openAIHost : openAIHost + "/";
+        }
+        if (!StringUtils.isEmpty(pineconeUrl)) {
+            ApiEndpoints.pineconeUrl = pineconeUrl.endsWith("/")
+                    ? pineconeUrl.substring(0, pineconeUrl.length() - 1)
+                    : pineconeUrl;
+        }
+    }
+
+    public static String openAIHost() {
+        return openAIHost;
+    }
+
+    public static String pineconeUrl() {
+        return pineconeUrl;
+    }
+
+    private ApiEndpoints() {
+    }
+}
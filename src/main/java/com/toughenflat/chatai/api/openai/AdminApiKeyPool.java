@@ -0,0 +1,61 @@
+package com.toughenflat.chatai.api.openai;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * openai系统key池, 供静态的请求合并(ChatGPTSingleFlight、EmbeddingMicroBatcher)区分系统key和用户自带的key
+ * 1 系统key由选key策略按请求选出, 相同请求选中的key往往不同, 合并时统一按POOL处理
+ * 2 合并后的请求在发出时再按选key策略选一个系统key
+ * 由AdminApiKeyServiceImpl在加载系统key时更新
+ */
+public class AdminApiKeyPool {
+
+    /**
+     * 系统key在合并键中的统一标记, 不会与真实的key重复
+     */
+    public static final String POOL = "<admin-pool>";
+
+    private static volatile Set<String> apiKeys = Collections.emptySet();
+
+    private static volatile Supplier<String> selector = () -> null;
+
+    /**
+     * 替换系统key列表
+     */
+    public static void update(Collection<String> openAIKeys) {
+        apiKeys = Collections.unmodifiableSet(new HashSet<>(openAIKeys));
+    }
+
+    public static void setSelector(Supplier<String> openAISelector) {
+        selector = openAISelector;
+    }
+
+    public static boolean contains(String apiKey) {
+        return apiKey != null && apiKeys.contains(apiKey);
+    }
+
+    /**
+     * 合并键中使用的key: 系统key返回POOL, 用户自带的key原样返回
+     */
+    public static String mergeKey(String apiKey) {
+        return contains(apiKey) ? POOL : apiKey;
+    }
+
+    /**
+     * 发出请求时使用的key: 系统key按选key策略重新选择, 没有可用key时使用传入的key; 用户自带的key原样返回
+     */
+    public static String resolve(String apiKey) {
+        if (!contains(apiKey)) {
+            return apiKey;
+        }
+        String selected = selector.get();
+        return selected == null ? apiKey : selected;
+    }
+
+    private AdminApiKeyPool() {
+    }
+}
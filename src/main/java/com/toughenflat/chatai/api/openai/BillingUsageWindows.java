@@ -0,0 +1,86 @@
+package com.toughenflat.chatai.api.openai;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * 按日期窗口查询openai的使用额度, query为[start, end)内的使用额度(美分)查询, IO异常时以null结束
+ */
+public class BillingUsageWindows {
+
+    /**
+     * openai一次最多查询100天的使用额度
+     */
+    public static final int WINDOW_DAYS = 95;
+
+    /**
+     * 最多回溯的窗口数 (约10年), 防止接口异常时无限回溯
+     */
+    static final int MAX_WINDOWS = 40;
+
+    /**
+     * 从until(不含)向前回溯, 每批并发parallelism个窗口, 累加到第一个使用额度为0的窗口为止, 结果与串行回溯一致
+     * 任一窗口IO异常时以null结束
+     */
+    public static CompletableFuture<BigDecimal> backfill(BiFunction<LocalDate, LocalDate, CompletableFuture<BigDecimal>> query,
+                                                         LocalDate until, int parallelism) {
+        return backfill(query, until, Math.max(1, parallelism), BigDecimal.ZERO, 0);
+    }
+
+    private static CompletableFuture<BigDecimal> backfill(BiFunction<LocalDate, LocalDate, CompletableFuture<BigDecimal>> query,
+                                                          LocalDate end, int parallelism, BigDecimal total, int windows) {
+        if (windows >= MAX_WINDOWS) {
+            return CompletableFuture.completedFuture(total);
+        }
+        List<CompletableFuture<BigDecimal>> batch = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            LocalDate windowEnd = end.minusDays((long) i * WINDOW_DAYS);
+            batch.add(query.apply(windowEnd.minusDays(WINDOW_DAYS), windowEnd));
+        }
+        return CompletableFuture.allOf(batch.toArray(new CompletableFuture<?>[0])).thenCompose(v -> {
+            BigDecimal sum = total;
+            for (CompletableFuture<BigDecimal> window : batch) {
+                BigDecimal usage = window.join();
+                if (usage == null) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                // 此前长时间没使用过
+                if (usage.signum() <= 0) {
+                    return CompletableFuture.completedFuture(sum);
+                }
+                sum = sum.add(usage);
+            }
+            return backfill(query, end.minusDays((long) parallelism * WINDOW_DAYS), parallelism, sum, windows + parallelism);
+        });
+    }
+
+    /**
+     * 查询[start, end)的使用额度, 超过WINDOW_DAYS天时拆成多个窗口并发查询
+     */
+    public static CompletableFuture<BigDecimal> sumWindows(BiFunction<LocalDate, LocalDate, CompletableFuture<BigDecimal>> query,
+                                                           LocalDate start, LocalDate end) {
+        List<CompletableFuture<BigDecimal>> windows = new ArrayList<>();
+        for (LocalDate windowStart = start; windowStart.isBefore(end); windowStart = windowStart.plusDays(WINDOW_DAYS)) {
+            LocalDate windowEnd = windowStart.plusDays(WINDOW_DAYS);
+            windows.add(query.apply(windowStart, windowEnd.isBefore(end) ? windowEnd : end));
+        }
+        return CompletableFuture.allOf(windows.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            BigDecimal sum = BigDecimal.ZERO;
+            for (CompletableFuture<BigDecimal> window : windows) {
+                BigDecimal usage = window.join();
+                if (usage == null) {
+                    return null;
+                }
+                sum = sum.add(usage);
+            }
+            return sum;
+        });
+    }
+
+    private BillingUsageWindows() {
+    }
+}
@@ -1,24 +1,26 @@
 package com.toughenflat.chatai.api.openai;
 
-import cn.hutool.http.ContentType;
 import cn.hutool.json.JSONUtil;
 import com.alibaba.fastjson.JSON;
+import com.toughenflat.chatai.api.ApiEndpoints;
 import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingCache;
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingMicroBatcher;
 import com.toughenflat.chatai.api.openai.enums.OpenAiRespError;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
 import com.toughenflat.chatai.api.openai.req.EmbeddingReq;
+import com.toughenflat.chatai.api.openai.req.OpenAIRequestBody;
+import com.toughenflat.chatai.api.openai.resp.BillingSubscription;
 import com.toughenflat.chatai.api.openai.resp.BillingUsage;
 import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
 import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
 import com.toughenflat.chatai.api.openai.resp.CreditGrantsResp;
+import com.toughenflat.chatai.enums.HttpClientProfile;
 import com.toughenflat.chatai.exception.BaseException;
 import com.toughenflat.chatai.global.constant.GlobalConstant;
 import com.toughenflat.chatai.utils.DateTimeFormatterUtil;
 import com.toughenflat.chatai.utils.OkHttpClientUtil;
 import com.toughenflat.chatai.utils.ResultCode;
-import com.knuddels.jtokkit.Encodings;
-import com.knuddels.jtokkit.api.Encoding;
-import com.knuddels.jtokkit.api.EncodingType;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.*;
 import okhttp3.sse.EventSource;
@@ -34,15 +36,18 @@ import java.time.ZoneId;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 @Slf4j
 public class ChatGPTApi {
     private static final String AUTHORIZATION_STR = "Authorization";
-    private static Encoding enc;
 
-    static {
-        enc = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
-    }
+    /**
+     * 回溯使用额度时每批并发查询的窗口数
+     */
+    private static final int BILLING_PARALLELISM = 4;
 
     /**
      * 一次对话
@@ -60,13 +65,13 @@ public class ChatGPTApi {
      */
     public static ChatGPTResp sessionReq(ChatGPTReq gpt, String apiKey) {
         Request request = new Request.Builder()
-                .url(OpenAIConst.HOST + OpenAIConst.CHATGPT_MAPPING)
-                .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), JSONUtil.parseObj(gpt).toString()))
+                .url(ApiEndpoints.openAIHost() + OpenAIConst.CHATGPT_MAPPING)
+                .post(OpenAIRequestBody.of(gpt))
                 .header(AUTHORIZATION_STR, "Bearer " + apiKey)
                 .build();
         Response response = null;
         try {
-            response = OkHttpClientUtil.getClient().newCall(request).execute();
+            response = OkHttpClientUtil.getClient(HttpClientProfile.OPENAI_CHAT).newCall(request).execute();
 
             if (!response.isSuccessful()) {
                 OpenAiRespError openAiRespError = OpenAiRespError.get(response.code());
@@ -89,6 +94,26 @@ public class ChatGPTApi {
         return null;
     }
 
+    /**
+     * 一次对话, 异步
+     */
+    public static CompletableFuture<ChatGPTResp> oneShotReqAsync(ChatGPTReq gpt, String apiKey) {
+        return sessionReqAsync(gpt, apiKey);
+    }
+
+    /**
+     * 带上下文的对话, 异步
+     * 通过Call.enqueue交由OkHttp的Dispatcher执行, 不占用调用方线程
+     */
+    public static CompletableFuture<ChatGPTResp> sessionReqAsync(ChatGPTReq gpt, String apiKey) {
+        Request request = new Request.Builder()
+                .url(ApiEndpoints.openAIHost() + OpenAIConst.CHATGPT_MAPPING)
+                .post(OpenAIRequestBody.of(gpt))
+                .header(AUTHORIZATION_STR, "Bearer " + apiKey)
+                .build();
+        return enqueue(HttpClientProfile.OPENAI_CHAT, request, ChatGPTResp.class, "请求ChatGPT异常! {}");
+    }
+
     /**
      * 查询apiKey的余额
      *
@@ -98,13 +123,13 @@ public class ChatGPTApi {
     public static CreditGrantsResp creditGrants(String apiKey) {
 
         Request request = new Request.Builder()
-                .url(OpenAIConst.HOST + OpenAIConst.CREDIT_GRANTS_MAPPING)
+                .url(ApiEndpoints.openAIHost() + OpenAIConst.CREDIT_GRANTS_MAPPING)
                 .get()
                 .header(AUTHORIZATION_STR, "Bearer " + apiKey)
                 .build();
         Response response = null;
         try {
-            response = OkHttpClientUtil.getClient().newCall(request).execute();
+            response = OkHttpClientUtil.getClient(HttpClientProfile.OPENAI_BILLING).newCall(request).execute();
 
             if (!response.isSuccessful()) {
                 OpenAiRespError openAiRespError = OpenAiRespError.get(response.code());
@@ -130,51 +155,76 @@ public class ChatGPTApi {
 
     /**
      * 以流式输出的方式进行多轮对话
+     *
+     * @return 是否成功发起请求, 发起失败时不会回调eventSourceListener
      */
-    public static void streamSessionReq(ChatGPTReq chatGPTReq, String apiKey, EventSourceListener eventSourceListener) {
+    public static boolean streamSessionReq(ChatGPTReq chatGPTReq, String apiKey, EventSourceListener eventSourceListener) {
         if (Objects.isNull(eventSourceListener)) {
             log.error("参数异常：EventSourceListener不能为空");
             throw new BaseException(ResultCode.EMPTY_PARAM.msg);
         }
 
         try {
-            EventSource.Factory factory = EventSources.createFactory(OkHttpClientUtil.getClient());
-            String requestBody = JSONUtil.parseObj(chatGPTReq).toString();
+            EventSource.Factory factory = EventSources.createFactory(OkHttpClientUtil.getClient(HttpClientProfile.OPENAI_STREAM));
             Request request = new Request.Builder()
-                    .url(OpenAIConst.HOST + OpenAIConst.CHATGPT_MAPPING)
-                    .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), requestBody))
+                    .url(ApiEndpoints.openAIHost() + OpenAIConst.CHATGPT_MAPPING)
+                    .post(OpenAIRequestBody.of(chatGPTReq))
                     .header(AUTHORIZATION_STR, "Bearer " + apiKey)
                     .build();
 
             // 绑定请求 和 事件监听器
             factory.newEventSource(request, eventSourceListener);
+            return true;
         } catch (Exception e) {
             log.error("请求参数解析异常：{}", e);
+            return false;
         }
     }
 
     /**
-     * 文本编码
+     * 文本编码, 已缓存的文本(见EmbeddingCache)不再请求openai, 单条文本会与其他请求合并发送(见EmbeddingMicroBatcher)
      *
      * @param input
      * @param apiKey
      * @return
      */
     public static EmbeddingResp embeddings(List<String> input, String apiKey) {
+        return EmbeddingCache.embeddings(OpenAIConst.MODEL_NAME_EMBEDDING_ADA_002, input, misses -> misses.size() == 1
+                ? join(EmbeddingMicroBatcher.submit(apiKey, misses.get(0), ChatGPTApi::requestEmbeddingsAsync))
+                : requestEmbeddings(misses, apiKey));
+    }
+
+    /**
+     * 等待异步结果, 异常与同步请求保持一致(直接抛出BaseException)
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static EmbeddingResp requestEmbeddings(List<String> input, String apiKey) {
         EmbeddingReq embeddingReq = EmbeddingReq.builder().input(input).build();
         Request request = new Request.Builder()
-                .url(OpenAIConst.HOST + OpenAIConst.EMBEDDING_MAPPING)
-                .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), JSONUtil.parseObj(embeddingReq).toString()))
+                .url(ApiEndpoints.openAIHost() + OpenAIConst.EMBEDDING_MAPPING)
+                .post(OpenAIRequestBody.of(embeddingReq))
                 .header(AUTHORIZATION_STR, "Bearer " + apiKey)
                 .build();
         Response response = null;
         try {
-            response = OkHttpClientUtil.getClient().newCall(request).execute();
+            response = OkHttpClientUtil.getClient(HttpClientProfile.OPENAI_EMBEDDING).newCall(request).execute();
 
             if (!response.isSuccessful()) {
+                // 带上openai的响应码, 供调用方区分限流等可重试的错误
                 OpenAiRespError openAiRespError = OpenAiRespError.get(response.code());
-                log.error("Embedding异常! {}", openAiRespError.msg);
-                throw new BaseException(openAiRespError.msg);
+                String msg = openAiRespError != null ? openAiRespError.msg : response.message();
+                log.error("Embedding异常! {}", msg);
+                throw new BaseException(response.code(), msg);
             }
 
             String body = response.body().string();
@@ -191,6 +241,80 @@ public class ChatGPTApi {
         return null;
     }
 
+    /**
+     * 文本编码, 异步
+     *
+     * @param input
+     * @param apiKey
+     * @return
+     */
+    public static CompletableFuture<EmbeddingResp> embeddingsAsync(List<String> input, String apiKey) {
+        return EmbeddingCache.embeddingsAsync(OpenAIConst.MODEL_NAME_EMBEDDING_ADA_002, input, misses -> misses.size() == 1
+                ? EmbeddingMicroBatcher.submit(apiKey, misses.get(0), ChatGPTApi::requestEmbeddingsAsync)
+                : requestEmbeddingsAsync(misses, apiKey));
+    }
+
+    private static CompletableFuture<EmbeddingResp> requestEmbeddingsAsync(List<String> input, String apiKey) {
+        EmbeddingReq embeddingReq = EmbeddingReq.builder().input(input).build();
+        Request request = new Request.Builder()
+                .url(ApiEndpoints.openAIHost() + OpenAIConst.EMBEDDING_MAPPING)
+                .post(OpenAIRequestBody.of(embeddingReq))
+                .header(AUTHORIZATION_STR, "Bearer " + apiKey)
+                .build();
+        return enqueue(HttpClientProfile.OPENAI_EMBEDDING, request, body -> JSONUtil.toBean(body, EmbeddingResp.class),
+                true, "Embedding异常! {}");
+    }
+
+    /**
+     * 异步发送请求, 语义与同步版本保持一致:
+     * 响应码异常时以BaseException结束, IO异常时以null结束
+     */
+    private static <T> CompletableFuture<T> enqueue(HttpClientProfile profile, Request request, Class<T> respClass, String errorLog) {
+        return enqueue(profile, request, body -> JSONUtil.toBean(body, respClass), false, errorLog);
+    }
+
+    /**
+     * @param parser      响应体解析
+     * @param withErrCode 响应码异常时, BaseException是否带上openai的响应码 (用于区分限流等错误)
+     */
+    private static <T> CompletableFuture<T> enqueue(HttpClientProfile profile, Request request, Function<String, T> parser,
+                                                    boolean withErrCode, String errorLog) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = OkHttpClientUtil.getClient(profile).newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                log.error("okHttpClient异常! {}", e.getMessage());
+                future.complete(null);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response resp = response) {
+                    if (!resp.isSuccessful()) {
+                        OpenAiRespError openAiRespError = OpenAiRespError.get(resp.code());
+                        String msg = openAiRespError != null ? openAiRespError.msg : resp.message();
+                        log.error(errorLog, msg);
+                        future.completeExceptionally(withErrCode ? new BaseException(resp.code(), msg) : new BaseException(msg));
+                        return;
+                    }
+                    future.complete(parser.apply(resp.body().string()));
+                } catch (Exception e) {
+                    log.error("okHttpClient异常! {}", e.getMessage());
+                    future.complete(null);
+                }
+            }
+        });
+
+        // 调用方取消时同步取消底层请求
+        future.whenComplete((r, t) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
     /**
      * 估计字符串占多少个token
      *
@@ -198,7 +322,7 @@ public class ChatGPTApi {
      * @return
      */
     public static int getTokenNum(String message) {
-        return enc.encode(message).size();
+        return TokenCounter.count(message);
     }
 
     /**
@@ -208,99 +332,71 @@ public class ChatGPTApi {
      * @return
      */
     public static int getMessageTokenNum(String message) {
-        return enc.encode("role: {user}, message: {" + message + "}").size();
+        return TokenCounter.countMessage(message);
     }
 
     /**
-     * 获取apiKey的额度信息
+     * 获取apiKey的额度信息, 并发回溯全部使用记录 (增量查询见ApiKeyBillingHelper)
      *
      * @param apiKey ChatGPT密钥
-     * @return 额度用量
+     * @return 额度用量, IO异常时返回null
      */
     public static BillingUsage getBillingUsage(String apiKey) {
-        Response subResponse = null;
-        Response usageResponse = null;
-        try {
-            subResponse = OkHttpClientUtil.getClient()
-                    .newCall(
-                            new Request.Builder()
-                                    .url(OpenAIConst.HOST + OpenAIConst.SUBSCRIPTION_MAPPING)
-                                    .get()
-                                    .header(AUTHORIZATION_STR, "Bearer " + apiKey)
-                                    .build())
-                    .execute();
-
-            // openai请求错误
-            if (!subResponse.isSuccessful()) {
-                OpenAiRespError openAiRespError = OpenAiRespError.get(subResponse.code());
-                log.error("请求ChatGPT异常! {}", openAiRespError.msg);
-                throw new BaseException(openAiRespError.msg);
-            }
+        CompletableFuture<BillingSubscription> subscription = getSubscriptionAsync(apiKey);
+        CompletableFuture<BigDecimal> usage = BillingUsageWindows.backfill(
+                (start, end) -> getUsageAsync(apiKey, start, end), LocalDate.now().plusDays(1), BILLING_PARALLELISM);
+        BillingSubscription sub = join(subscription);
+        BigDecimal totalUsage = join(usage);
+        if (sub == null || totalUsage == null) {
+            return null;
+        }
+        return new BillingUsage(
+                sub.getTotalAmount(),
+                totalUsage.divide(new BigDecimal("100"), 2, RoundingMode.HALF_UP),
+                sub.getExpiredTime());
+    }
 
-            // 判断账号是否过期
-            Map subMap = JSON.parseObject(subResponse.body().string(), Map.class);
+    /**
+     * 查询apiKey的订阅信息(总额度、过期时间), 异步
+     * 响应码异常时以带响应码的BaseException结束, IO异常时以null结束
+     */
+    public static CompletableFuture<BillingSubscription> getSubscriptionAsync(String apiKey) {
+        Request request = new Request.Builder()
+                .url(ApiEndpoints.openAIHost() + OpenAIConst.SUBSCRIPTION_MAPPING)
+                .get()
+                .header(AUTHORIZATION_STR, "Bearer " + apiKey)
+                .build();
+        return enqueue(HttpClientProfile.OPENAI_BILLING, request, body -> {
+            Map subMap = JSON.parseObject(body, Map.class);
             long accessUntil = Long.parseLong(String.valueOf(subMap.get("access_until")));
+            LocalDate expiredTime = Instant.ofEpochMilli(accessUntil * GlobalConstant.TEN_K).atZone(ZoneId.systemDefault()).toLocalDate();
+            // 判断账号是否过期, 不抛异常, 因为特殊的apiKey过期了还能使用
             if (accessUntil * GlobalConstant.TEN_K < System.currentTimeMillis()) {
-                log.warn("检查到apiKey：{}过期，过期时间{}",
-                        apiKey,
-                        Instant.ofEpochMilli(accessUntil * GlobalConstant.TEN_K).atZone(ZoneId.systemDefault()).toLocalDate());
-                // 不抛异常, 因为特殊的apiKey过期了还能使用
-                // throw new BaseException(OpenAiRespError.OPENAI_APIKEY_EXPIRED.code, OpenAiRespError.OPENAI_APIKEY_EXPIRED.msg);
+                log.warn("检查到apiKey：{}过期，过期时间{}", apiKey, expiredTime);
             }
-
-            // 获取总额度
             BigDecimal totalAmount = BigDecimal.valueOf(Double.parseDouble(String.valueOf(subMap.get("hard_limit_usd"))));
+            return new BillingSubscription(totalAmount, expiredTime);
+        }, true, "请求ChatGPT异常! {}");
+    }
 
-            // 获取已使用额度 (滑动日期窗口获取, 因为openai一次只能拿100天的使用额度)
-            BigDecimal totalUsage = new BigDecimal(0);
-            LocalDate startDate = LocalDate.now().minusDays(95);
-            LocalDate endDate = LocalDate.now().plusDays(1);
-            while (true) {
-                // 查询日期范围内的使用额度
-                String usageUrl = OpenAIConst.HOST + String.format(
-                        OpenAIConst.USAGE_MAPPING,
-                        DateTimeFormatterUtil.DFT.format(startDate),
-                        DateTimeFormatterUtil.DFT.format(endDate));
-                usageResponse = OkHttpClientUtil.getClient()
-                        .newCall(
-                                new Request.Builder()
-                                        .url(usageUrl)
-                                        .get()
-                                        .header(AUTHORIZATION_STR, "Bearer " + apiKey)
-                                        .build())
-                        .execute();
-                Map usageMap = JSON.parseObject(usageResponse.body().string(), Map.class);
-                BigDecimal curUsage = BigDecimal.valueOf(Double.parseDouble(String.valueOf(usageMap.get("total_usage"))));
-
-                // 当在某次范围内查出的使用额度为0, 说明此前长时间没使用过
-                if (curUsage.compareTo(BigDecimal.ZERO) <= 0) {
-                    break;
-                }
-
-                // 累加使用额度
-                totalUsage = totalUsage.add(curUsage);
-
-                // 统计日期窗口向前滑动
-                endDate = startDate;
-                startDate = endDate.minusDays(95);
-            }
-
-            return new BillingUsage(
-                    totalAmount,
-                    totalUsage.divide(new BigDecimal("100"), 2, RoundingMode.HALF_UP),
-                    Instant.ofEpochMilli(accessUntil * GlobalConstant.TEN_K).atZone(ZoneId.systemDefault()).toLocalDate());
-
-        } catch (IOException e) {
-            log.error("okHttpClient异常! {}", e.getMessage());
-        } finally {
-            if (subResponse != null) {
-                subResponse.close();
-            }
-            if (usageResponse != null) {
-                usageResponse.close();
-            }
-        }
-        return null;
+    /**
+     * 查询[startDate, endDate)内的使用额度(美分), 异步; openai一次最多查询100天
+     * 响应码异常时以带响应码的BaseException结束, IO异常时以null结束
+     */
+    public static CompletableFuture<BigDecimal> getUsageAsync(String apiKey, LocalDate startDate, LocalDate endDate) {
+        String usageUrl = ApiEndpoints.openAIHost() + String.format(
+                OpenAIConst.USAGE_MAPPING,
+                DateTimeFormatterUtil.DFT.format(startDate),
+                DateTimeFormatterUtil.DFT.format(endDate));
+        Request request = new Request.Builder()
+                .url(usageUrl)
+                .get()
+                .header(AUTHORIZATION_STR, "Bearer " + apiKey)
+                .build();
+        return enqueue(HttpClientProfile.OPENAI_BILLING, request, body -> {
+            Map usageMap = JSON.parseObject(body, Map.class);
+            return BigDecimal.valueOf(Double.parseDouble(String.valueOf(usageMap.get("total_usage"))));
+        }, true, "请求ChatGPT异常! {}");
     }
 
 
@@ -0,0 +1,63 @@
+package com.toughenflat.chatai.api.openai;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 对ChatGPTReq中影响结果的字段做sha256, 用于响应缓存和相同请求合并
+ * 消息内容去掉首尾空白; user不参与计算; 变长字段写入长度, 避免拼接产生歧义
+ * 响应缓存与apiKey无关; 请求合并时带上apiKey(系统key统一为AdminApiKeyPool.POOL), 用户自带的key只与同一个key的调用方合并,
+ * 避免用户自带的key替其他用户发起请求、承担费用或把自身的报错传给其他用户
+ */
+public class ChatGPTReqHash {
+
+    public static String of(ChatGPTReq chatGPTReq) {
+        return newHasher(chatGPTReq).hash().toString();
+    }
+
+    /**
+     * 请求合并使用的键, 包含apiKey, 系统key由调用方替换为AdminApiKeyPool.POOL
+     */
+    public static String of(ChatGPTReq chatGPTReq, String apiKey) {
+        Hasher hasher = newHasher(chatGPTReq);
+        putString(hasher, apiKey);
+        return hasher.hash().toString();
+    }
+
+    private static Hasher newHasher(ChatGPTReq chatGPTReq) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, chatGPTReq.getModel());
+        putString(hasher, String.valueOf(chatGPTReq.getStream()));
+        putString(hasher, String.valueOf(chatGPTReq.getTemperature()));
+        putString(hasher, String.valueOf(chatGPTReq.getMax_tokens()));
+        putString(hasher, String.valueOf(chatGPTReq.getFrequency_penalty()));
+        putString(hasher, String.valueOf(chatGPTReq.getPresence_penalty()));
+        putString(hasher, String.valueOf(chatGPTReq.getStop()));
+        if (chatGPTReq.getMessages() == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(chatGPTReq.getMessages().size());
+            for (ContextMessage message : chatGPTReq.getMessages()) {
+                putString(hasher, message.getRole());
+                putString(hasher, message.getContent() == null ? null : message.getContent().trim());
+            }
+        }
+        return hasher;
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        hasher.putInt(bytes.length).putBytes(bytes);
+    }
+
+    private ChatGPTReqHash() {
+    }
+}
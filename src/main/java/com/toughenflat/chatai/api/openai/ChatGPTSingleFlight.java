@@ -0,0 +1,239 @@
+package com.toughenflat.chatai.api.openai;
+
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 合并进行中的相同请求 (请求相同的判断见ChatGPTReqHash)
+ * 使用系统key的请求不论选中哪个key都合并在一起, 使用用户自带key的请求只与同一个key的请求合并(见AdminApiKeyPool)
+ * 1 普通输出: 相同请求共享同一个上游调用的结果
+ * 2 流式输出: 相同请求共享同一个上游EventSource, 所有监听器收到相同的增量内容,
+ *   中途加入的监听器会先补发已收到的事件; 事件数超过MAX_REPLAY_EVENTS后不再缓存, 之后的相同请求单独发起上游调用
+ * 请求结束后立即移除, 不做结果缓存(缓存见ChatRespCacheHelper)
+ */
+@Slf4j
+public class ChatGPTSingleFlight {
+
+    private static final Map<String, CompletableFuture<ChatGPTResp>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private static final Map<String, FanOutListener> IN_FLIGHT_STREAM = new ConcurrentHashMap<>();
+
+    /**
+     * 流式输出补发缓存的事件数上限, 每个事件约为一个token
+     */
+    static final int MAX_REPLAY_EVENTS = 2048;
+
+    private static final LongAdder UPSTREAM_CALLS = new LongAdder();
+    private static final LongAdder COALESCED_CALLS = new LongAdder();
+
+    /**
+     * 单轮对话, 异步, 相同的请求共享一次上游调用
+     */
+    public static CompletableFuture<ChatGPTResp> oneShotReqAsync(ChatGPTReq chatGPTReq, String apiKey) {
+        String key = ChatGPTReqHash.of(chatGPTReq, AdminApiKeyPool.mergeKey(apiKey));
+        boolean[] leader = new boolean[1];
+        CompletableFuture<ChatGPTResp> shared = IN_FLIGHT.computeIfAbsent(key, k -> {
+            leader[0] = true;
+            return new CompletableFuture<>();
+        });
+        if (leader[0]) {
+            UPSTREAM_CALLS.increment();
+            ChatGPTApi.oneShotReqAsync(chatGPTReq, apiKey).whenComplete((resp, e) -> {
+                IN_FLIGHT.remove(key, shared);
+                if (e != null) {
+                    shared.completeExceptionally(e);
+                } else {
+                    shared.complete(resp);
+                }
+            });
+        } else {
+            COALESCED_CALLS.increment();
+        }
+        // 返回派生的future, 单个调用方取消时不影响其他调用方
+        return shared.thenApply(Function.identity());
+    }
+
+    /**
+     * 流式对话, 相同的请求共享一个上游EventSource
+     */
+    public static void streamSessionReq(ChatGPTReq chatGPTReq, String apiKey, EventSourceListener eventSourceListener) {
+        String key = ChatGPTReqHash.of(chatGPTReq, AdminApiKeyPool.mergeKey(apiKey));
+        while (true) {
+            FanOutListener fanOut = IN_FLIGHT_STREAM.get(key);
+            if (fanOut != null) {
+                if (fanOut.join(eventSourceListener)) {
+                    COALESCED_CALLS.increment();
+                    return;
+                }
+                // 已结束或不能再补发但还未移除
+                IN_FLIGHT_STREAM.remove(key, fanOut);
+                continue;
+            }
+
+            fanOut = new FanOutListener(key, eventSourceListener);
+            if (IN_FLIGHT_STREAM.putIfAbsent(key, fanOut) == null) {
+                UPSTREAM_CALLS.increment();
+                if (!ChatGPTApi.streamSessionReq(chatGPTReq, apiKey, fanOut)) {
+                    // 发起失败时不会有回调, 移除合并项, 期间加入的监听器各自单独请求
+                    for (EventSourceListener joined : fanOut.abort()) {
+                        ChatGPTApi.streamSessionReq(chatGPTReq, apiKey, joined);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上游调用次数与被合并的调用次数
+     */
+    public static Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("upstreamCalls", UPSTREAM_CALLS.sum());
+        stats.put("coalescedCalls", COALESCED_CALLS.sum());
+        stats.put("inFlight", (long) IN_FLIGHT.size());
+        stats.put("inFlightStream", (long) IN_FLIGHT_STREAM.size());
+        return stats;
+    }
+
+    /**
+     * 将一个上游EventSource的事件分发给多个监听器
+     * 事件分发与监听器加入都在同一把锁内进行, 保证每个监听器收到完整且有序的事件
+     */
+    static class FanOutListener extends EventSourceListener {
+        private final String key;
+        private final List<EventSourceListener> listeners = new ArrayList<>();
+        private final List<String[]> events = new ArrayList<>();
+        private EventSource eventSource;
+        private Response openResponse;
+        private boolean opened;
+        private boolean finished;
+        private boolean replayable = true;
+
+        FanOutListener(String key, EventSourceListener first) {
+            this.key = key;
+            this.listeners.add(first);
+        }
+
+        /**
+         * 加入监听, 补发已收到的事件; 上游已结束或事件过多不再缓存时返回false
+         */
+        synchronized boolean join(EventSourceListener listener) {
+            if (finished || !replayable) {
+                return false;
+            }
+            if (opened) {
+                dispatch(listener, l -> l.onOpen(eventSource, openResponse));
+                for (String[] event : events) {
+                    dispatch(listener, l -> l.onEvent(eventSource, event[0], event[1], event[2]));
+                }
+            }
+            listeners.add(listener);
+            return true;
+        }
+
+        @Override
+        public synchronized void onOpen(EventSource eventSource, Response response) {
+            this.eventSource = eventSource;
+            this.openResponse = response;
+            this.opened = true;
+            listeners.forEach(listener -> dispatch(listener, l -> l.onOpen(eventSource, response)));
+        }
+
+        @Override
+        public synchronized void onEvent(EventSource eventSource, String id, String type, String data) {
+            this.eventSource = eventSource;
+            if (replayable) {
+                if (events.size() < MAX_REPLAY_EVENTS) {
+                    events.add(new String[]{id, type, data});
+                } else {
+                    // 不再接受新的监听器, 已加入的监听器照常分发
+                    replayable = false;
+                    events.clear();
+                    IN_FLIGHT_STREAM.remove(key, this);
+                }
+            }
+            listeners.forEach(listener -> dispatch(listener, l -> l.onEvent(eventSource, id, type, data)));
+        }
+
+        @Override
+        public void onClosed(EventSource eventSource) {
+            List<EventSourceListener> snapshot = finish();
+            snapshot.forEach(listener -> dispatch(listener, l -> l.onClosed(eventSource)));
+        }
+
+        @Override
+        public void onFailure(EventSource eventSource, Throwable t, Response response) {
+            List<EventSourceListener> snapshot = finish();
+            // 响应体只能读取一次, 为每个监听器复制一份
+            byte[] body = null;
+            if (response != null && response.body() != null && snapshot.size() > 1) {
+                try {
+                    body = response.peekBody(Long.MAX_VALUE).bytes();
+                } catch (IOException e) {
+                    log.warn("读取sse异常响应失败! {}", e.getMessage());
+                }
+            }
+            for (EventSourceListener listener : snapshot) {
+                Response copy = body == null
+                        ? response
+                        : response.newBuilder().body(ResponseBody.create(response.body().contentType(), body)).build();
+                dispatch(listener, l -> l.onFailure(eventSource, t, copy));
+            }
+            if (response != null) {
+                response.close();
+            }
+        }
+
+        /**
+         * 标记结束并从合并表中移除, 之后的相同请求会发起新的上游调用
+         */
+        private synchronized List<EventSourceListener> finish() {
+            finished = true;
+            IN_FLIGHT_STREAM.remove(key, this);
+            return new ArrayList<>(listeners);
+        }
+
+        /**
+         * 上游请求发起失败时调用, 从合并表中移除, 返回发起者之外已加入的监听器
+         */
+        synchronized List<EventSourceListener> abort() {
+            List<EventSourceListener> joined = finish();
+            return joined.subList(1, joined.size());
+        }
+
+        /**
+         * 单个监听器异常(如前端已断开)不影响其他监听器
+         */
+        private static void dispatch(EventSourceListener listener, ListenerCall call) {
+            try {
+                call.accept(listener);
+            } catch (Exception e) {
+                log.warn("sse事件分发异常! {}", e.getMessage());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ListenerCall {
+        void accept(EventSourceListener listener) throws Exception;
+    }
+
+    private ChatGPTSingleFlight() {
+    }
+}
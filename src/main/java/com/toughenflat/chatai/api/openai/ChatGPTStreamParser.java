@@ -0,0 +1,111 @@
+package com.toughenflat.chatai.api.openai;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTStreamChunk;
+import com.toughenflat.chatai.api.openai.resp.Usage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+
+/**
+ * 流式输出数据块解析
+ * 基于Jackson的流式解析器逐个token扫描, 只提取choices[0].delta.content、finish_reason和usage,
+ * 其余字段直接跳过, 不构建ChatGPTResp对象图
+ */
+@Slf4j
+public class ChatGPTStreamParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 解析一个数据块
+     *
+     * @param data sse事件的data
+     * @return 解析结果, 数据格式异常时返回null
+     */
+    public static ChatGPTStreamChunk parse(String data) {
+        try (JsonParser parser = JSON_FACTORY.createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            ChatGPTStreamChunk chunk = new ChatGPTStreamChunk();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(field) && value == JsonToken.START_ARRAY) {
+                    parseChoices(parser, chunk);
+                } else if ("usage".equals(field) && value == JsonToken.START_OBJECT) {
+                    chunk.setUsage(parseUsage(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return chunk;
+        } catch (IOException e) {
+            log.error("解析流式数据异常：{}, data: {}", e.getMessage(), data);
+            return null;
+        }
+    }
+
+    /**
+     * 只读取第一个choice, 其余跳过
+     */
+    private static void parseChoices(JsonParser parser, ChatGPTStreamChunk chunk) throws IOException {
+        boolean first = true;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (first && token == JsonToken.START_OBJECT) {
+                parseChoice(parser, chunk);
+            } else {
+                parser.skipChildren();
+            }
+            first = false;
+        }
+    }
+
+    private static void parseChoice(JsonParser parser, ChatGPTStreamChunk chunk) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("delta".equals(field) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String deltaField = parser.getCurrentName();
+                    JsonToken deltaValue = parser.nextToken();
+                    if ("content".equals(deltaField) && deltaValue == JsonToken.VALUE_STRING) {
+                        chunk.setContent(parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if ("finish_reason".equals(field) && value == JsonToken.VALUE_STRING) {
+                chunk.setFinishReason(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static Usage parseUsage(JsonParser parser) throws IOException {
+        Usage usage = new Usage();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value != JsonToken.VALUE_NUMBER_INT) {
+                parser.skipChildren();
+                continue;
+            }
+            if ("prompt_tokens".equals(field)) {
+                usage.setPrompt_tokens(parser.getIntValue());
+            } else if ("completion_tokens".equals(field)) {
+                usage.setCompletion_tokens(parser.getIntValue());
+            } else if ("total_tokens".equals(field)) {
+                usage.setTotal_tokens(parser.getIntValue());
+            }
+        }
+        return usage;
+    }
+
+    private ChatGPTStreamParser() {
+    }
+}
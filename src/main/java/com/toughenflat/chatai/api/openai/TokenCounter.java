@@ -0,0 +1,73 @@
+package com.toughenflat.chatai.api.openai;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+
+/**
+ * token计数器
+ * 1 使用jtokkit的countTokens只计数, 不构建token列表
+ * 2 按内容的128位哈希缓存计数结果, 相同的prompt模板、检索到的文档片段不会被重复编码
+ */
+public class TokenCounter {
+    private static final Encoding ENC = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * 缓存条目上限, 每个条目只保存哈希和计数, 不保存原文
+     */
+    private static final long MAX_CACHE_SIZE = 100_000L;
+
+    /**
+     * 区分纯文本计数和一轮上下文对话计数
+     */
+    private static final int KIND_TEXT = 0;
+    private static final int KIND_MESSAGE = 1;
+
+    private static final String MESSAGE_PREFIX = "role: {user}, message: {";
+    private static final String MESSAGE_SUFFIX = "}";
+
+    private static final Cache<HashCode, Integer> CACHE = Caffeine.newBuilder()
+            .maximumSize(MAX_CACHE_SIZE)
+            .recordStats()
+            .build();
+
+    /**
+     * 估计字符串占多少个token
+     */
+    public static int count(String text) {
+        return CACHE.get(hash(KIND_TEXT, text), key -> ENC.countTokens(text));
+    }
+
+    /**
+     * 估计一轮上下文对话占多少个token
+     */
+    public static int countMessage(String message) {
+        String text = String.valueOf(message);
+        return CACHE.get(hash(KIND_MESSAGE, text), key -> ENC.countTokens(MESSAGE_PREFIX + text + MESSAGE_SUFFIX));
+    }
+
+    /**
+     * 缓存命中情况
+     */
+    public static CacheStats stats() {
+        return CACHE.stats();
+    }
+
+    private static HashCode hash(int kind, String text) {
+        return HASH_FUNCTION.newHasher()
+                .putInt(kind)
+                .putUnencodedChars(text)
+                .hash();
+    }
+
+    private TokenCounter() {
+    }
+}
@@ -0,0 +1,217 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单个apiKey的熔断器
+ * CLOSED: 正常使用; 最近WINDOW_SIZE次请求失败率达到阈值, 或连续失败达到阈值时转为OPEN
+ * OPEN: 不参与轮询; 冷却时间结束后转为HALF_OPEN
+ * HALF_OPEN: 只放行一个探测请求, 成功则转为CLOSED, 失败则转为OPEN且冷却时间翻倍;
+ *            探测请求没有结果(被取消、其他4xx、选中后命中缓存未发出等)时释放名额, 超过冷却时间仍未释放的探测视为失效, 重新放行
+ * 同时记录该key当前进行中的请求数, 供选key策略使用
+ */
+public class ApiKeyCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 5;
+    private static final double FAILURE_RATE_THRESHOLD = 0.5;
+    private static final int CONSECUTIVE_FAILURE_THRESHOLD = 3;
+
+    private static final long BASE_COOL_DOWN_MILLIS = 30_000L;
+    private static final long MAX_COOL_DOWN_MILLIS = 300_000L;
+
+    /**
+     * 耗时的指数加权平均系数
+     */
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final boolean[] window = new boolean[WINDOW_SIZE];
+    private int windowCount;
+    private int windowNext;
+    private int windowFailures;
+    private int consecutiveFailures;
+
+    /**
+     * volatile: CLOSED状态下选key不需要加锁
+     */
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private long coolDownMillis = BASE_COOL_DOWN_MILLIS;
+    private boolean probing;
+    private long probeStartedAt;
+
+    /**
+     * volatile: 选key策略无锁读取
+     */
+    private volatile double ewmaLatencyMillis;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public synchronized void onSuccess(long latencyMillis) {
+        ewmaLatencyMillis = ewmaLatencyMillis == 0
+                ? latencyMillis
+                : EWMA_ALPHA * latencyMillis + (1 - EWMA_ALPHA) * ewmaLatencyMillis;
+        record(false);
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            probing = false;
+            coolDownMillis = BASE_COOL_DOWN_MILLIS;
+            resetWindow();
+        }
+    }
+
+    public synchronized void onFailure(long now) {
+        record(true);
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            probing = false;
+            coolDownMillis = Math.min(MAX_COOL_DOWN_MILLIS, coolDownMillis * 2);
+            open(now);
+            return;
+        }
+        if (state == State.CLOSED && (consecutiveFailures >= CONSECUTIVE_FAILURE_THRESHOLD
+                || (windowCount >= MIN_CALLS && (double) windowFailures / windowCount >= FAILURE_RATE_THRESHOLD))) {
+            open(now);
+        }
+    }
+
+    /**
+     * 是否可以被选中, 不改变状态
+     */
+    public boolean isAvailable() {
+        return state == State.CLOSED || isAvailableSlow(System.currentTimeMillis());
+    }
+
+    public boolean isAvailable(long now) {
+        return state == State.CLOSED || isAvailableSlow(now);
+    }
+
+    private synchronized boolean isAvailableSlow(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - openedAt >= coolDownMillis;
+            default:
+                return !probing || isProbeStale(now);
+        }
+    }
+
+    /**
+     * 选中该key时调用, OPEN状态冷却结束后转为HALF_OPEN并占用唯一的探测名额
+     */
+    public boolean tryAcquire() {
+        return state == State.CLOSED || tryAcquireSlow(System.currentTimeMillis());
+    }
+
+    public boolean tryAcquire(long now) {
+        return state == State.CLOSED || tryAcquireSlow(now);
+    }
+
+    private synchronized boolean tryAcquireSlow(long now) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - openedAt < coolDownMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                startProbe(now);
+                return true;
+            default:
+                if (probing && !isProbeStale(now)) {
+                    return false;
+                }
+                startProbe(now);
+                return true;
+        }
+    }
+
+    /**
+     * 请求没有计入成功或失败时调用, 释放HALF_OPEN状态的探测名额, 下一个请求继续探测
+     */
+    public void releaseProbe() {
+        if (state == State.HALF_OPEN) {
+            releaseProbeSlow();
+        }
+    }
+
+    private synchronized void releaseProbeSlow() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    private void startProbe(long now) {
+        probing = true;
+        probeStartedAt = now;
+    }
+
+    private boolean isProbeStale(long now) {
+        return now - probeStartedAt >= coolDownMillis;
+    }
+
+    /**
+     * 健康分, 范围(0, 1]: 成功率越高、平均耗时越低分数越高
+     */
+    public synchronized double score() {
+        double successRate = windowCount == 0 ? 1D : 1D - (double) windowFailures / windowCount;
+        return successRate / (1D + ewmaLatencyMillis / 10_000D);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public double getEwmaLatencyMillis() {
+        return ewmaLatencyMillis;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void incrementInFlight() {
+        inFlight.incrementAndGet();
+    }
+
+    public void decrementInFlight() {
+        inFlight.decrementAndGet();
+    }
+
+    public synchronized double getFailureRate() {
+        return windowCount == 0 ? 0D : (double) windowFailures / windowCount;
+    }
+
+    private void open(long now) {
+        state = State.OPEN;
+        openedAt = now;
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == WINDOW_SIZE) {
+            if (window[windowNext]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowNext] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowNext = (windowNext + 1) % WINDOW_SIZE;
+    }
+
+    private void resetWindow() {
+        windowCount = 0;
+        windowNext = 0;
+        windowFailures = 0;
+    }
+}
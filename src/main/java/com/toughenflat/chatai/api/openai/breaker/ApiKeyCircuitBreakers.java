@@ -0,0 +1,98 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各apiKey的熔断器, 由ApiKeyHealthInterceptor根据实际请求结果更新, 选key时据此跳过不可用的key
+ * 只跟踪系统key: 熔断器在加载系统key快照时创建(见ApiKeySelector), 不在快照中的key(如用户自带的key)不记录
+ */
+public class ApiKeyCircuitBreakers {
+
+    private static final Map<String, ApiKeyCircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    /**
+     * 获取或创建系统key的熔断器
+     */
+    public static ApiKeyCircuitBreaker get(String apiKey) {
+        return BREAKERS.computeIfAbsent(apiKey, key -> new ApiKeyCircuitBreaker());
+    }
+
+    /**
+     * 获取已跟踪的熔断器, 不是系统key时返回null
+     */
+    public static ApiKeyCircuitBreaker find(String apiKey) {
+        return BREAKERS.get(apiKey);
+    }
+
+    /**
+     * 系统key快照更新后, 移除已不在快照中的key
+     */
+    public static void retain(Collection<String> apiKeys) {
+        BREAKERS.keySet().retainAll(apiKeys instanceof Set ? apiKeys : new HashSet<>(apiKeys));
+    }
+
+    public static void onSuccess(String apiKey, long latencyMillis) {
+        ApiKeyCircuitBreaker breaker = BREAKERS.get(apiKey);
+        if (breaker != null) {
+            breaker.onSuccess(latencyMillis);
+        }
+    }
+
+    public static void onFailure(String apiKey) {
+        ApiKeyCircuitBreaker breaker = BREAKERS.get(apiKey);
+        if (breaker != null) {
+            breaker.onFailure(System.currentTimeMillis());
+        }
+    }
+
+    public static void releaseProbe(String apiKey) {
+        ApiKeyCircuitBreaker breaker = BREAKERS.get(apiKey);
+        if (breaker != null) {
+            breaker.releaseProbe();
+        }
+    }
+
+    public static boolean isAvailable(String apiKey) {
+        ApiKeyCircuitBreaker breaker = BREAKERS.get(apiKey);
+        return breaker == null || breaker.isAvailable(System.currentTimeMillis());
+    }
+
+    public static boolean tryAcquire(String apiKey) {
+        ApiKeyCircuitBreaker breaker = BREAKERS.get(apiKey);
+        return breaker == null || breaker.tryAcquire(System.currentTimeMillis());
+    }
+
+    public static double score(String apiKey) {
+        ApiKeyCircuitBreaker breaker = BREAKERS.get(apiKey);
+        return breaker == null ? 1D : breaker.score();
+    }
+
+    /**
+     * 各key的状态, key做脱敏处理
+     */
+    public static Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        BREAKERS.forEach((apiKey, breaker) -> {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("state", breaker.getState());
+            stat.put("failureRate", breaker.getFailureRate());
+            stat.put("ewmaLatencyMillis", breaker.getEwmaLatencyMillis());
+            stat.put("score", breaker.score());
+            stat.put("inFlight", breaker.getInFlight());
+            stats.put(mask(apiKey), stat);
+        });
+        return stats;
+    }
+
+    static String mask(String apiKey) {
+        return apiKey.length() <= 10 ? "***" : apiKey.substring(0, 6) + "***" + apiKey.substring(apiKey.length() - 4);
+    }
+
+    private ApiKeyCircuitBreakers() {
+    }
+}
@@ -0,0 +1,53 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * 根据openai请求的实际结果更新对应apiKey的熔断器
+ * 耗时统计到收到响应头为止, 流式请求同样适用
+ * 429、401及5xx、网络异常计为失败; 其他4xx通常是请求本身的问题, 不计入; 主动取消的请求不计入
+ * 不计入的请求释放熔断器的探测名额, 避免HALF_OPEN的key一直等不到探测结果
+ * 同时将响应头中的限流信息记录到该key的额度 (见ApiKeyQuota)
+ */
+public class ApiKeyHealthInterceptor implements Interceptor {
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String authorization = chain.request().header(AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            return chain.proceed(chain.request());
+        }
+        String apiKey = authorization.substring(BEARER.length());
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                ApiKeyCircuitBreakers.releaseProbe(apiKey);
+            } else {
+                ApiKeyCircuitBreakers.onFailure(apiKey);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            ApiKeyCircuitBreakers.releaseProbe(apiKey);
+            throw e;
+        }
+        int code = response.code();
+        ApiKeyQuotas.update(apiKey, code, response.headers());
+        if (code == 429 || code == 401 || code >= 500) {
+            ApiKeyCircuitBreakers.onFailure(apiKey);
+        } else if (response.isSuccessful()) {
+            ApiKeyCircuitBreakers.onSuccess(apiKey, (System.nanoTime() - start) / 1_000_000);
+        } else {
+            ApiKeyCircuitBreakers.releaseProbe(apiKey);
+        }
+        return response;
+    }
+}
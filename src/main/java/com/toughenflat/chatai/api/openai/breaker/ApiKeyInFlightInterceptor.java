@@ -0,0 +1,115 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 统计各apiKey进行中的请求数
+ * 从发出请求开始计数, 到响应体被关闭为止 (流式请求即整个流结束), 请求异常时立即结束计数
+ * 支持openai的Authorization: Bearer和pinecone的Api-Key两种请求头
+ */
+public class ApiKeyInFlightInterceptor implements Interceptor {
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+    private static final String API_KEY = "Api-Key";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        String apiKey = apiKey(chain);
+        if (apiKey == null) {
+            return chain.proceed(chain.request());
+        }
+
+        // 只统计系统key
+        ApiKeyCircuitBreaker breaker = ApiKeyCircuitBreakers.find(apiKey);
+        if (breaker == null) {
+            return chain.proceed(chain.request());
+        }
+        breaker.incrementInFlight();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            breaker.decrementInFlight();
+            throw e;
+        }
+        if (response.body() == null) {
+            breaker.decrementInFlight();
+            return response;
+        }
+        return response.newBuilder().body(new InFlightResponseBody(response.body(), breaker)).build();
+    }
+
+    private static String apiKey(Chain chain) {
+        String authorization = chain.request().header(AUTHORIZATION);
+        if (authorization != null && authorization.startsWith(BEARER)) {
+            return authorization.substring(BEARER.length());
+        }
+        return chain.request().header(API_KEY);
+    }
+
+    /**
+     * 响应体关闭时结束计数, 只计一次
+     */
+    private static class InFlightResponseBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final ApiKeyCircuitBreaker breaker;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private BufferedSource source;
+
+        InFlightResponseBody(ResponseBody delegate, ApiKeyCircuitBreaker breaker) {
+            this.delegate = delegate;
+            this.breaker = breaker;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public synchronized BufferedSource source() {
+            if (source == null) {
+                source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            finish();
+                        }
+                    }
+                });
+            }
+            return source;
+        }
+
+        @Override
+        public void close() {
+            try {
+                super.close();
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                breaker.decrementInFlight();
+            }
+        }
+    }
+}
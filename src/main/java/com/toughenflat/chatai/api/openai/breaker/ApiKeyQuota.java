@@ -0,0 +1,204 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import okhttp3.Headers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个apiKey的实时额度, 来自openai响应头:
+ * x-ratelimit-limit/remaining/reset-requests, x-ratelimit-limit/remaining/reset-tokens, retry-after(-ms)
+ * 剩余额度低于NEAR_EXHAUSTED_RATIO或收到429时, 在重置时间之前视为受限, 选key时尽量绕开
+ */
+public class ApiKeyQuota {
+    public static final String LIMIT_REQUESTS = "x-ratelimit-limit-requests";
+    public static final String REMAINING_REQUESTS = "x-ratelimit-remaining-requests";
+    public static final String RESET_REQUESTS = "x-ratelimit-reset-requests";
+    public static final String LIMIT_TOKENS = "x-ratelimit-limit-tokens";
+    public static final String REMAINING_TOKENS = "x-ratelimit-remaining-tokens";
+    public static final String RESET_TOKENS = "x-ratelimit-reset-tokens";
+    public static final String RETRY_AFTER = "retry-after";
+    public static final String RETRY_AFTER_MS = "retry-after-ms";
+
+    /**
+     * 剩余额度低于上限的该比例时视为即将耗尽
+     */
+    private static final double NEAR_EXHAUSTED_RATIO = 0.05;
+
+    /**
+     * 429响应没有给出等待时间时的默认受限时间
+     */
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1_000L;
+
+    private long limitRequests = -1;
+    private long remainingRequests = -1;
+    private long resetRequestsAt;
+    private long limitTokens = -1;
+    private long remainingTokens = -1;
+    private long resetTokensAt;
+    private long retryAfterUntil;
+
+    /**
+     * volatile: 选key时无锁读取
+     */
+    private volatile long throttledUntil;
+
+    public synchronized void update(int code, Headers headers, long now) {
+        String value = headers.get(LIMIT_REQUESTS);
+        if (value != null) {
+            limitRequests = parseLong(value, limitRequests);
+        }
+        value = headers.get(REMAINING_REQUESTS);
+        if (value != null) {
+            remainingRequests = parseLong(value, remainingRequests);
+        }
+        value = headers.get(RESET_REQUESTS);
+        if (value != null) {
+            resetRequestsAt = now + parseDurationMillis(value);
+        }
+        value = headers.get(LIMIT_TOKENS);
+        if (value != null) {
+            limitTokens = parseLong(value, limitTokens);
+        }
+        value = headers.get(REMAINING_TOKENS);
+        if (value != null) {
+            remainingTokens = parseLong(value, remainingTokens);
+        }
+        value = headers.get(RESET_TOKENS);
+        if (value != null) {
+            resetTokensAt = now + parseDurationMillis(value);
+        }
+        if (code == 429) {
+            retryAfterUntil = now + retryAfterMillis(headers);
+        }
+
+        long until = retryAfterUntil;
+        if (isNearExhausted(limitRequests, remainingRequests)) {
+            until = Math.max(until, resetRequestsAt);
+        }
+        if (isNearExhausted(limitTokens, remainingTokens)) {
+            until = Math.max(until, resetTokensAt);
+        }
+        throttledUntil = until;
+    }
+
+    /**
+     * 是否受限: 重置时间之前额度即将耗尽, 或处于429的等待时间内
+     */
+    public boolean isThrottled(long now) {
+        return now < throttledUntil;
+    }
+
+    public long getThrottledUntil() {
+        return throttledUntil;
+    }
+
+    public synchronized Map<String, Object> stats(long now) {
+        Map<String, Object> stat = new LinkedHashMap<>();
+        stat.put("remainingRequests", remainingRequests);
+        stat.put("limitRequests", limitRequests);
+        stat.put("remainingTokens", remainingTokens);
+        stat.put("limitTokens", limitTokens);
+        stat.put("throttledMillis", Math.max(0, throttledUntil - now));
+        return stat;
+    }
+
+    /**
+     * 429响应需要等待的时间: 优先retry-after-ms/retry-after, 其次是已耗尽那一项额度的重置时间, 都没有时取默认值
+     */
+    public static long retryAfterMillis(Headers headers) {
+        String value = headers.get(RETRY_AFTER_MS);
+        if (value != null) {
+            long millis = parseLong(value, -1);
+            if (millis >= 0) {
+                return millis;
+            }
+        }
+        value = headers.get(RETRY_AFTER);
+        if (value != null) {
+            // 也可能是HTTP日期格式, 此时忽略
+            try {
+                return (long) (Double.parseDouble(value.trim()) * 1000);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        long millis = -1;
+        if ("0".equals(trim(headers.get(REMAINING_REQUESTS))) && headers.get(RESET_REQUESTS) != null) {
+            millis = parseDurationMillis(headers.get(RESET_REQUESTS));
+        }
+        if ("0".equals(trim(headers.get(REMAINING_TOKENS))) && headers.get(RESET_TOKENS) != null) {
+            millis = Math.max(millis, parseDurationMillis(headers.get(RESET_TOKENS)));
+        }
+        return millis >= 0 ? millis : DEFAULT_RETRY_AFTER_MILLIS;
+    }
+
+    /**
+     * 解析openai的重置时间格式, 如 20ms、1s、1.5s、6m0s、1h2m3s, 无法解析时返回0
+     */
+    public static long parseDurationMillis(String value) {
+        double millis = 0;
+        double number = 0;
+        double fraction = 0;
+        boolean hasNumber = false;
+        String text = value.trim();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (fraction > 0) {
+                    number += (c - '0') * fraction;
+                    fraction /= 10;
+                } else {
+                    number = number * 10 + (c - '0');
+                }
+                hasNumber = true;
+                continue;
+            }
+            if (c == '.') {
+                fraction = 0.1;
+                continue;
+            }
+            if (!hasNumber) {
+                return 0;
+            }
+            long unit;
+            if (c == 'm' && i + 1 < text.length() && text.charAt(i + 1) == 's') {
+                unit = 1;
+                i++;
+            } else if (c == 'h') {
+                unit = TimeUnit.HOURS.toMillis(1);
+            } else if (c == 'm') {
+                unit = TimeUnit.MINUTES.toMillis(1);
+            } else if (c == 's') {
+                unit = TimeUnit.SECONDS.toMillis(1);
+            } else {
+                return 0;
+            }
+            millis += number * unit;
+            number = 0;
+            fraction = 0;
+            hasNumber = false;
+        }
+        // 没有单位的数字按秒计
+        if (hasNumber) {
+            millis += number * 1000;
+        }
+        return (long) Math.ceil(millis);
+    }
+
+    private static boolean isNearExhausted(long limit, long remaining) {
+        return limit > 0 && remaining >= 0 && remaining <= limit * NEAR_EXHAUSTED_RATIO;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+}
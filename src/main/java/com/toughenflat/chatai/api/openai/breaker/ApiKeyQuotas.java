@@ -0,0 +1,62 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import okhttp3.Headers;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 各apiKey的实时额度, 由ApiKeyHealthInterceptor根据openai响应头更新, 选key时据此绕开即将耗尽的key
+ * 与熔断器一样只跟踪系统key快照中的key (见ApiKeySelector), 用户自带的key不记录
+ */
+public class ApiKeyQuotas {
+
+    private static final Map<String, ApiKeyQuota> QUOTAS = new ConcurrentHashMap<>();
+
+    public static ApiKeyQuota get(String apiKey) {
+        return QUOTAS.computeIfAbsent(apiKey, key -> new ApiKeyQuota());
+    }
+
+    /**
+     * 获取已跟踪的额度, 不是系统key时返回null
+     */
+    public static ApiKeyQuota find(String apiKey) {
+        return QUOTAS.get(apiKey);
+    }
+
+    /**
+     * 系统key快照更新后, 移除已不在快照中的key
+     */
+    public static void retain(Collection<String> apiKeys) {
+        QUOTAS.keySet().retainAll(apiKeys instanceof Set ? apiKeys : new HashSet<>(apiKeys));
+    }
+
+    public static void update(String apiKey, int code, Headers headers) {
+        ApiKeyQuota quota = QUOTAS.get(apiKey);
+        if (quota != null) {
+            quota.update(code, headers, System.currentTimeMillis());
+        }
+    }
+
+    public static boolean isThrottled(String apiKey) {
+        ApiKeyQuota quota = QUOTAS.get(apiKey);
+        return quota != null && quota.isThrottled(System.currentTimeMillis());
+    }
+
+    /**
+     * 各key的额度, key做脱敏处理
+     */
+    public static Map<String, Map<String, Object>> stats() {
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        QUOTAS.forEach((apiKey, quota) -> stats.put(ApiKeyCircuitBreakers.mask(apiKey), quota.stats(now)));
+        return stats;
+    }
+
+    private ApiKeyQuotas() {
+    }
+}
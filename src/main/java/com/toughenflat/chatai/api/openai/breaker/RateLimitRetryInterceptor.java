@@ -0,0 +1,77 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * openai返回429时按响应头给出的等待时间重试, 而不是直接让用户请求失败
+ * 1 等待到该key不再受限为止 (响应头的等待时间见ApiKeyQuota.retryAfterMillis, 系统key还要等到ApiKeyQuota的受限时间结束),
+ *   不会在key仍受限时重试同一个key
+ * 2 等待期间占用Dispatcher的并发名额, 因此所有重试的总等待时间不超过maxTotalWaitMillis, 超过或重试次数用完时返回原429响应
+ * 3 额度用完(insufficient_quota)的429重试无意义, 直接返回
+ * 4 等待期间请求被取消则立即结束
+ */
+@Slf4j
+public class RateLimitRetryInterceptor implements Interceptor {
+    private static final String INSUFFICIENT_QUOTA = "insufficient_quota";
+
+    private static final String AUTHORIZATION = "Authorization";
+    private static final String BEARER = "Bearer ";
+
+    private final int maxRetries;
+    private final long maxTotalWaitMillis;
+
+    public RateLimitRetryInterceptor(int maxRetries, long maxTotalWaitMillis) {
+        this.maxRetries = maxRetries;
+        this.maxTotalWaitMillis = maxTotalWaitMillis;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        long totalWaitMillis = 0;
+        for (int retry = 0; retry < maxRetries && response.code() == 429; retry++) {
+            long waitMillis = Math.max(ApiKeyQuota.retryAfterMillis(response.headers()), throttledMillis(chain));
+            // 加少量抖动, 避免同时被限流的请求同时重试
+            waitMillis += ThreadLocalRandom.current().nextLong(waitMillis / 10 + 1);
+            if (totalWaitMillis + waitMillis > maxTotalWaitMillis || isInsufficientQuota(response)) {
+                return response;
+            }
+            totalWaitMillis += waitMillis;
+            response.close();
+            log.warn("openai限流, {}ms后第{}次重试", waitMillis, retry + 1);
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待重试时被中断");
+            }
+            if (chain.call().isCanceled()) {
+                throw new IOException("Canceled");
+            }
+            response = chain.proceed(chain.request());
+        }
+        return response;
+    }
+
+    /**
+     * 系统key在ApiKeyQuota中剩余的受限时间, 不是系统key时为0
+     */
+    private static long throttledMillis(Chain chain) {
+        String authorization = chain.request().header(AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            return 0;
+        }
+        ApiKeyQuota quota = ApiKeyQuotas.find(authorization.substring(BEARER.length()));
+        return quota == null ? 0 : Math.max(0, quota.getThrottledUntil() - System.currentTimeMillis());
+    }
+
+    private static boolean isInsufficientQuota(Response response) throws IOException {
+        return response.body() != null && response.peekBody(4096).string().contains(INSUFFICIENT_QUOTA);
+    }
+}
@@ -27,6 +27,7 @@ public class OpenAIConst {
      */
     public static final String MODEL_NAME_CHATGPT_3_5 = "gpt-3.5-turbo";
     public static final String MODEL_NAME_CHATGPT_4 = "gpt-4";
+    public static final String MODEL_NAME_EMBEDDING_ADA_002 = "text-embedding-ada-002";
 
     public static final int MAX_TOKENS = 4000;
 
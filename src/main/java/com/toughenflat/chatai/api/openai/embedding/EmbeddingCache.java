@@ -0,0 +1,194 @@
+package com.toughenflat.chatai.api.openai.embedding;
+
+import com.google.common.hash.Hashing;
+import com.toughenflat.chatai.api.openai.resp.Embedding;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import com.toughenflat.chatai.api.openai.resp.Usage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 文本向量缓存, 键为(模型, 文本的sha256)
+ * 按顺序查询各存储层(本地内存映射文件 -> redis), 下层命中的结果回填到上层,
+ * 只把未命中的文本发送给openai, 再按原顺序拼装成EmbeddingResp
+ * 未初始化存储层时直接透传
+ */
+public class EmbeddingCache {
+
+    private static volatile List<EmbeddingStore> stores = Collections.emptyList();
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    public static void init(List<EmbeddingStore> embeddingStores) {
+        stores = new ArrayList<>(embeddingStores);
+    }
+
+    public static String key(String model, String text) {
+        return model + ":" + Hashing.sha256().hashString(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 文本编码, upstream只会收到未命中的文本(已去重)
+     */
+    public static EmbeddingResp embeddings(String model, List<String> input, Function<List<String>, EmbeddingResp> upstream) {
+        Lookup lookup = lookup(model, input);
+        if (lookup.misses.isEmpty()) {
+            return lookup.toResp(model, null);
+        }
+        return lookup.toResp(model, upstream.apply(new ArrayList<>(lookup.misses.values())));
+    }
+
+    /**
+     * 文本编码, 异步
+     */
+    public static CompletableFuture<EmbeddingResp> embeddingsAsync(String model, List<String> input,
+                                                                   Function<List<String>, CompletableFuture<EmbeddingResp>> upstream) {
+        Lookup lookup = lookup(model, input);
+        if (lookup.misses.isEmpty()) {
+            return CompletableFuture.completedFuture(lookup.toResp(model, null));
+        }
+        return upstream.apply(new ArrayList<>(lookup.misses.values())).thenApply(resp -> lookup.toResp(model, resp));
+    }
+
+    /**
+     * 命中情况, 按文本条数统计
+     */
+    public static Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", HITS.sum());
+        stats.put("misses", MISSES.sum());
+        return stats;
+    }
+
+    private static Lookup lookup(String model, List<String> input) {
+        List<String> keys = new ArrayList<>(input.size());
+        for (String text : input) {
+            keys.add(key(model, text));
+        }
+
+        Map<String, float[]> found = new HashMap<>();
+        List<String> remaining = keys;
+        List<EmbeddingStore> currentStores = stores;
+        for (int i = 0; i < currentStores.size() && !remaining.isEmpty(); i++) {
+            Map<String, float[]> hits = currentStores.get(i).getAll(remaining);
+            if (hits.isEmpty()) {
+                continue;
+            }
+            found.putAll(hits);
+            // 回填到上层存储
+            for (int j = 0; j < i; j++) {
+                currentStores.get(j).putAll(hits);
+            }
+            List<String> next = new ArrayList<>();
+            for (String key : remaining) {
+                if (!found.containsKey(key)) {
+                    next.add(key);
+                }
+            }
+            remaining = next;
+        }
+
+        Map<String, String> misses = new LinkedHashMap<>();
+        for (int i = 0; i < input.size(); i++) {
+            if (!found.containsKey(keys.get(i))) {
+                misses.put(keys.get(i), input.get(i));
+            }
+        }
+        HITS.add(input.size() - misses.size());
+        MISSES.add(misses.size());
+        return new Lookup(keys, found, misses);
+    }
+
+    private static class Lookup {
+        private final List<String> keys;
+        private final Map<String, float[]> found;
+        /**
+         * 未命中的键 -> 文本, 保持首次出现的顺序
+         */
+        private final Map<String, String> misses;
+
+        Lookup(List<String> keys, Map<String, float[]> found, Map<String, String> misses) {
+            this.keys = keys;
+            this.found = found;
+            this.misses = misses;
+        }
+
+        /**
+         * 合并缓存结果和上游结果, 上游请求失败或返回的向量与未命中的文本对不上时返回null
+         */
+        EmbeddingResp toResp(String model, EmbeddingResp upstreamResp) {
+            Usage usage = new Usage();
+            usage.setPrompt_tokens(0);
+            usage.setTotal_tokens(0);
+            if (!misses.isEmpty()) {
+                if (upstreamResp == null || upstreamResp.getData() == null
+                        || upstreamResp.getData().size() != misses.size()) {
+                    return null;
+                }
+                List<String> missKeys = new ArrayList<>(misses.keySet());
+                Map<String, float[]> fetched = new HashMap<>();
+                for (Embedding embedding : upstreamResp.getData()) {
+                    Integer index = embedding.getIndex();
+                    if (index == null || index < 0 || index >= missKeys.size() || embedding.getEmbedding() == null) {
+                        return null;
+                    }
+                    fetched.put(missKeys.get(index), toArray(embedding.getEmbedding()));
+                }
+                if (fetched.size() != missKeys.size()) {
+                    return null;
+                }
+                found.putAll(fetched);
+                for (EmbeddingStore store : stores) {
+                    store.putAll(fetched);
+                }
+                if (upstreamResp.getUsage() != null) {
+                    usage = upstreamResp.getUsage();
+                }
+            }
+
+            List<Embedding> data = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                Embedding embedding = new Embedding();
+                embedding.setObject("embedding");
+                embedding.setIndex(i);
+                embedding.setEmbedding(toList(found.get(keys.get(i))));
+                data.add(embedding);
+            }
+            EmbeddingResp resp = new EmbeddingResp();
+            resp.setObject("list");
+            resp.setModel(upstreamResp != null ? upstreamResp.getModel() : model);
+            resp.setData(data);
+            resp.setUsage(usage);
+            return resp;
+        }
+    }
+
+    private static float[] toArray(List<Float> list) {
+        float[] array = new float[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static List<Float> toList(float[] array) {
+        List<Float> list = new ArrayList<>(array.length);
+        for (float v : array) {
+            list.add(v);
+        }
+        return list;
+    }
+
+    private EmbeddingCache() {
+    }
+}
@@ -0,0 +1,231 @@
+package com.toughenflat.chatai.api.openai.embedding;
+
+import com.toughenflat.chatai.api.openai.AdminApiKeyPool;
+import com.toughenflat.chatai.api.openai.TokenCounter;
+import com.toughenflat.chatai.api.openai.resp.Embedding;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import com.toughenflat.chatai.api.openai.resp.Usage;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * 单条文本编码的微批处理
+ * 单条请求在windowMillis内合并成一个批量请求, 结果再分发给各个调用方
+ * 使用系统key的请求不论选中哪个key都放入同一个批次, 发送时再选key(见AdminApiKeyPool); 用户自带的key按key分批
+ * 窗口为0时不做合并
+ */
+@Slf4j
+public class EmbeddingMicroBatcher {
+
+    private static volatile long windowMillis = 5L;
+    private static volatile int maxBatchSize = 64;
+
+    private static final Map<String, Batch> PENDING = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService SCHEDULER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "embedding-micro-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final LongAdder BATCHES = new LongAdder();
+    private static final LongAdder ITEMS = new LongAdder();
+    private static final AtomicLong MAX_BATCH_SIZE = new AtomicLong();
+    /**
+     * 请求在窗口中等待的时间 (微秒)
+     */
+    private static final LongAdder WAIT_MICROS = new LongAdder();
+    private static final AtomicLong MAX_WAIT_MICROS = new AtomicLong();
+
+    public static void configure(long window, int maxSize) {
+        windowMillis = window;
+        maxBatchSize = maxSize;
+    }
+
+    /**
+     * 提交单条文本, upstream为批量请求的方法, 参数为文本和发送时使用的key; 同一批次使用创建该批次的调用方传入的upstream
+     */
+    public static CompletableFuture<EmbeddingResp> submit(String apiKey, String text,
+                                                          BiFunction<List<String>, String, CompletableFuture<EmbeddingResp>> upstream) {
+        if (windowMillis <= 0) {
+            return upstream.apply(Collections.singletonList(text), apiKey);
+        }
+        String bucket = AdminApiKeyPool.mergeKey(apiKey);
+        while (true) {
+            Batch batch = PENDING.computeIfAbsent(bucket, key -> {
+                Batch created = new Batch(key, apiKey, upstream);
+                SCHEDULER.schedule(() -> flush(created), windowMillis, TimeUnit.MILLISECONDS);
+                return created;
+            });
+            CompletableFuture<EmbeddingResp> future = batch.add(text, maxBatchSize);
+            if (future == null) {
+                // 批次已发送, 等待其移除后创建新批次
+                PENDING.remove(bucket, batch);
+                continue;
+            }
+            if (batch.isFull(maxBatchSize)) {
+                flush(batch);
+            }
+            return future;
+        }
+    }
+
+    /**
+     * 批次数、平均/最大批次大小、平均/最大等待时间
+     */
+    public static Map<String, Object> stats() {
+        long batches = BATCHES.sum();
+        long items = ITEMS.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("windowMillis", windowMillis);
+        stats.put("batches", batches);
+        stats.put("items", items);
+        stats.put("avgBatchSize", batches == 0 ? 0D : (double) items / batches);
+        stats.put("maxBatchSize", MAX_BATCH_SIZE.get());
+        stats.put("avgWaitMicros", items == 0 ? 0L : WAIT_MICROS.sum() / items);
+        stats.put("maxWaitMicros", MAX_WAIT_MICROS.get());
+        return stats;
+    }
+
+    private static void flush(Batch batch) {
+        List<Item> items = batch.close();
+        PENDING.remove(batch.bucket, batch);
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        BATCHES.increment();
+        ITEMS.add(items.size());
+        MAX_BATCH_SIZE.accumulateAndGet(items.size(), Math::max);
+        List<String> texts = new ArrayList<>(items.size());
+        for (Item item : items) {
+            long waitMicros = (now - item.submitNanos) / 1000;
+            WAIT_MICROS.add(waitMicros);
+            MAX_WAIT_MICROS.accumulateAndGet(waitMicros, Math::max);
+            texts.add(item.text);
+        }
+
+        CompletableFuture<EmbeddingResp> future;
+        try {
+            // 系统key的批次在发送时选一次key
+            future = batch.upstream.apply(texts, AdminApiKeyPool.resolve(batch.apiKey));
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((resp, e) -> {
+            for (int i = 0; i < items.size(); i++) {
+                Item item = items.get(i);
+                if (e != null) {
+                    item.future.completeExceptionally(e);
+                } else {
+                    item.future.complete(single(resp, i, item.text));
+                }
+            }
+        });
+    }
+
+    /**
+     * 从批量结果中取出第index条, 构造单条的响应; 批量请求失败时返回null, 与单条请求的语义一致
+     */
+    private static EmbeddingResp single(EmbeddingResp resp, int index, String text) {
+        if (resp == null || resp.getData() == null) {
+            return null;
+        }
+        Embedding embedding = null;
+        for (Embedding item : resp.getData()) {
+            if (item.getIndex() != null && item.getIndex() == index) {
+                embedding = item;
+                break;
+            }
+        }
+        if (embedding == null) {
+            return null;
+        }
+        Embedding copy = new Embedding();
+        copy.setObject(embedding.getObject());
+        copy.setIndex(0);
+        copy.setEmbedding(embedding.getEmbedding());
+
+        // 批量请求的usage按各条文本估算拆分
+        Usage usage = new Usage();
+        int tokens = TokenCounter.count(text);
+        usage.setPrompt_tokens(tokens);
+        usage.setTotal_tokens(tokens);
+
+        EmbeddingResp single = new EmbeddingResp();
+        single.setObject(resp.getObject());
+        single.setModel(resp.getModel());
+        single.setData(Collections.singletonList(copy));
+        single.setUsage(usage);
+        return single;
+    }
+
+    private static class Item {
+        private final String text;
+        private final long submitNanos = System.nanoTime();
+        private final CompletableFuture<EmbeddingResp> future = new CompletableFuture<>();
+
+        Item(String text) {
+            this.text = text;
+        }
+    }
+
+    private static class Batch {
+        private final String bucket;
+        /**
+         * 创建该批次的调用方传入的key, 系统key没有可选的key时使用
+         */
+        private final String apiKey;
+        private final BiFunction<List<String>, String, CompletableFuture<EmbeddingResp>> upstream;
+        private List<Item> items = new ArrayList<>();
+
+        Batch(String bucket, String apiKey, BiFunction<List<String>, String, CompletableFuture<EmbeddingResp>> upstream) {
+            this.bucket = bucket;
+            this.apiKey = apiKey;
+            this.upstream = upstream;
+        }
+
+        /**
+         * 加入批次, 批次已发送或已满时返回null
+         */
+        synchronized CompletableFuture<EmbeddingResp> add(String text, int maxSize) {
+            if (items == null || items.size() >= maxSize) {
+                return null;
+            }
+            Item item = new Item(text);
+            items.add(item);
+            return item.future;
+        }
+
+        synchronized boolean isFull(int maxSize) {
+            return items != null && items.size() >= maxSize;
+        }
+
+        /**
+         * 关闭批次, 只有第一次调用返回批次内容
+         */
+        synchronized List<Item> close() {
+            List<Item> closed = items;
+            items = null;
+            return closed;
+        }
+    }
+
+    private EmbeddingMicroBatcher() {
+    }
+}
@@ -0,0 +1,20 @@
+package com.toughenflat.chatai.api.openai.embedding;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 文本向量的存储层, 键为EmbeddingCache.key(model, text)
+ */
+public interface EmbeddingStore {
+
+    /**
+     * 批量获取, 只返回命中的部分
+     */
+    Map<String, float[]> getAll(Collection<String> keys);
+
+    /**
+     * 批量写入
+     */
+    void putAll(Map<String, float[]> embeddings);
+}
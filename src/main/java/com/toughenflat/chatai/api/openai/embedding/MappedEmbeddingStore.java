@@ -0,0 +1,263 @@
+package com.toughenflat.chatai.api.openai.embedding;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 基于内存映射文件的本地向量存储, 只追加不修改, 重启后从文件重建索引
+ * 文件按固定大小分段: embedding-000000.seg, embedding-000001.seg ...
+ * 段数超过上限时删除最旧的段及其索引, 按写入顺序淘汰, 磁盘占用和索引大小都有上限
+ * 记录格式: [记录长度 int][键长度 short][键 UTF-8][维度 int][向量 float * 维度], 记录长度为0表示段内数据结束
+ */
+@Slf4j
+public class MappedEmbeddingStore implements EmbeddingStore, Closeable {
+    private static final String SEGMENT_NAME = "embedding-%06d.seg";
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("embedding-(\\d{6})\\.seg");
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    /**
+     * 段号 -> 段, 段号只增不减
+     */
+    private final ConcurrentSkipListMap<Integer, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    private final Map<Integer, RandomAccessFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * 键 -> (段号 << 32 | 段内偏移)
+     */
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+
+    /**
+     * 当前段的写入位置, 只在持有锁时修改
+     */
+    private int writePosition;
+
+    /**
+     * 不限制段数
+     */
+    public MappedEmbeddingStore(File dir, int segmentSize) throws IOException {
+        this(dir, segmentSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSegments 最多保留的段数, 至少为2, 保证淘汰时仍保留最近写入的数据
+     */
+    public MappedEmbeddingStore(File dir, int segmentSize, int maxSegments) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建目录: " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(2, maxSegments);
+        for (int segmentNo : existingSegments()) {
+            openSegment(segmentNo);
+            writePosition = scan(segmentNo);
+        }
+        if (segments.isEmpty()) {
+            openSegment(0);
+            writePosition = 0;
+        }
+        evictOldSegments();
+        log.info("加载本地向量缓存成功！目录: {}, 段数: {}, 向量数: {}", dir, segments.size(), index.size());
+    }
+
+    @Override
+    public Map<String, float[]> getAll(Collection<String> keys) {
+        Map<String, float[]> result = new HashMap<>();
+        for (String key : keys) {
+            Long location = index.get(key);
+            if (location != null) {
+                float[] vector = read(location);
+                if (vector != null) {
+                    result.put(key, vector);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void putAll(Map<String, float[]> embeddings) {
+        for (Map.Entry<String, float[]> entry : embeddings.entrySet()) {
+            if (index.containsKey(entry.getKey())) {
+                continue;
+            }
+            try {
+                append(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                log.error("写入本地向量缓存异常! {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+        for (RandomAccessFile file : files.values()) {
+            file.close();
+        }
+    }
+
+    private void append(String key, float[] vector) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int recordLength = 4 + 2 + keyBytes.length + 4 + vector.length * 4;
+        // 末尾保留4字节写入结束标记
+        if (recordLength + 4 > segmentSize) {
+            throw new IOException("向量过大, 超过单个段的容量");
+        }
+        if (writePosition + recordLength + 4 > segments.lastEntry().getValue().capacity()) {
+            openSegment(segments.lastKey() + 1);
+            writePosition = 0;
+            evictOldSegments();
+        }
+        int segmentNo = segments.lastKey();
+        MappedByteBuffer segment = segments.get(segmentNo);
+        int pos = writePosition;
+
+        int p = pos + 4;
+        segment.putShort(p, (short) keyBytes.length);
+        p += 2;
+        for (byte b : keyBytes) {
+            segment.put(p++, b);
+        }
+        segment.putInt(p, vector.length);
+        p += 4;
+        for (float v : vector) {
+            segment.putFloat(p, v);
+            p += 4;
+        }
+        // 最后写入记录长度, 写入过程中崩溃时该记录不会被重建
+        segment.putInt(pos, recordLength);
+
+        writePosition = pos + recordLength;
+        index.put(key, ((long) segmentNo << 32) | pos);
+    }
+
+    /**
+     * 所在段已被淘汰时返回null
+     */
+    private float[] read(long location) {
+        MappedByteBuffer segment = segments.get((int) (location >>> 32));
+        if (segment == null) {
+            return null;
+        }
+        int p = (int) location + 4;
+        int keyLength = segment.getShort(p);
+        p += 2 + keyLength;
+        int dim = segment.getInt(p);
+        p += 4;
+        float[] vector = new float[dim];
+        for (int i = 0; i < dim; i++) {
+            vector[i] = segment.getFloat(p);
+            p += 4;
+        }
+        return vector;
+    }
+
+    /**
+     * 扫描段内记录重建索引, 返回段内数据结束的位置
+     */
+    private int scan(int segmentNo) {
+        MappedByteBuffer segment = segments.get(segmentNo);
+        int capacity = segment.capacity();
+        int pos = 0;
+        while (pos + 4 <= capacity) {
+            int recordLength = segment.getInt(pos);
+            if (recordLength <= 0 || pos + recordLength > capacity) {
+                break;
+            }
+            int keyLength = segment.getShort(pos + 4);
+            byte[] keyBytes = new byte[keyLength];
+            for (int i = 0; i < keyLength; i++) {
+                keyBytes[i] = segment.get(pos + 6 + i);
+            }
+            index.put(new String(keyBytes, StandardCharsets.UTF_8), ((long) segmentNo << 32) | pos);
+            pos += recordLength;
+        }
+        return pos;
+    }
+
+    /**
+     * 段数超过上限时删除最旧的段, 并移除指向这些段的索引
+     * 正在读取被删除段的线程仍持有映射, 不受影响
+     */
+    private void evictOldSegments() {
+        while (segments.size() > maxSegments) {
+            int segmentNo = segments.firstKey();
+            segments.remove(segmentNo);
+            index.values().removeIf(location -> (int) (location >>> 32) == segmentNo);
+            RandomAccessFile file = files.remove(segmentNo);
+            try {
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException e) {
+                log.warn("关闭本地向量缓存段异常! {}", e.getMessage());
+            }
+            File segmentFile = new File(dir, String.format(SEGMENT_NAME, segmentNo));
+            if (!segmentFile.delete()) {
+                log.warn("删除本地向量缓存段失败! {}", segmentFile);
+            }
+            log.info("淘汰本地向量缓存段: {}, 剩余向量数: {}", segmentFile.getName(), index.size());
+        }
+    }
+
+    /**
+     * 目录中已有的段号, 升序
+     */
+    private List<Integer> existingSegments() {
+        List<Integer> segmentNos = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                Matcher matcher = SEGMENT_PATTERN.matcher(name);
+                if (matcher.matches()) {
+                    segmentNos.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        segmentNos.sort(Integer::compare);
+        return segmentNos;
+    }
+
+    private void openSegment(int segmentNo) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(dir, String.format(SEGMENT_NAME, segmentNo)), "rw");
+        // 已有的段按文件实际大小映射, 修改段大小配置不影响已写入的数据
+        if (file.length() < segmentSize) {
+            file.setLength(segmentSize);
+        }
+        MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        files.put(segmentNo, file);
+        segments.put(segmentNo, segment);
+    }
+}
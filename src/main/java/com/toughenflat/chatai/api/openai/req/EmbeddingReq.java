@@ -1,5 +1,6 @@
 package com.toughenflat.chatai.api.openai.req;
 
+import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
 import lombok.Builder;
 import lombok.Data;
 
@@ -17,7 +18,7 @@ public class EmbeddingReq {
     /**
      * 模型名字
      */
-    private String model = "text-embedding-ada-002";
+    private String model = OpenAIConst.MODEL_NAME_EMBEDDING_ADA_002;
 
     private List<String> input;
 
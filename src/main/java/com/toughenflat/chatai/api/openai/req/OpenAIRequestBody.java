@@ -0,0 +1,200 @@
+package com.toughenflat.chatai.api.openai.req;
+
+import cn.hutool.http.ContentType;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 直接将ChatGPTReq/EmbeddingReq以JSON格式写入okio的BufferedSink,
+ * 不再经过JSONObject对象树和中间String, 减少长上下文、大批量编码请求的CPU和GC开销。
+ * 输出与JSONUtil.parseObj(req).toString()等价: 字段为null时不输出。
+ */
+public abstract class OpenAIRequestBody extends RequestBody {
+    private static final MediaType JSON = MediaType.parse(ContentType.JSON.getValue());
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    public static OpenAIRequestBody of(ChatGPTReq req) {
+        return new OpenAIRequestBody() {
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                writeChatGPTReq(sink, req);
+            }
+        };
+    }
+
+    public static OpenAIRequestBody of(EmbeddingReq req) {
+        return new OpenAIRequestBody() {
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                writeEmbeddingReq(sink, req);
+            }
+        };
+    }
+
+    static void writeChatGPTReq(BufferedSink sink, ChatGPTReq req) throws IOException {
+        JsonObjectWriter writer = new JsonObjectWriter(sink);
+        writer.field("model", req.getModel());
+        if (req.getMessages() != null) {
+            writer.name("messages");
+            sink.writeByte('[');
+            List<ContextMessage> messages = req.getMessages();
+            for (int i = 0; i < messages.size(); i++) {
+                if (i > 0) {
+                    sink.writeByte(',');
+                }
+                ContextMessage message = messages.get(i);
+                JsonObjectWriter messageWriter = new JsonObjectWriter(sink);
+                messageWriter.field("role", message.getRole());
+                messageWriter.field("content", message.getContent());
+                messageWriter.end();
+            }
+            sink.writeByte(']');
+        }
+        writer.field("user", req.getUser());
+        writer.field("temperature", req.getTemperature());
+        writer.field("stream", req.getStream());
+        writer.field("stop", req.getStop());
+        writer.field("max_tokens", req.getMax_tokens());
+        writer.field("frequency_penalty", req.getFrequency_penalty());
+        writer.field("presence_penalty", req.getPresence_penalty());
+        writer.end();
+    }
+
+    static void writeEmbeddingReq(BufferedSink sink, EmbeddingReq req) throws IOException {
+        JsonObjectWriter writer = new JsonObjectWriter(sink);
+        writer.field("model", req.getModel());
+        writer.field("input", req.getInput());
+        writer.field("user", req.getUser());
+        writer.end();
+    }
+
+    /**
+     * 写出JSON字符串, 仅对需要转义的字符做转义, 其余区间整段按UTF-8写出
+     */
+    static void writeString(BufferedSink sink, String value) throws IOException {
+        sink.writeByte('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c == '"') {
+                replacement = "\\\"";
+            } else if (c == '\\') {
+                replacement = "\\\\";
+            } else if (c == '\n') {
+                replacement = "\\n";
+            } else if (c == '\r') {
+                replacement = "\\r";
+            } else if (c == '\t') {
+                replacement = "\\t";
+            } else if (c < 0x20) {
+                replacement = null;
+            } else {
+                continue;
+            }
+            if (last < i) {
+                sink.writeUtf8(value, last, i);
+            }
+            if (replacement != null) {
+                sink.writeUtf8(replacement);
+            } else {
+                sink.writeUtf8("\\u")
+                        .writeByte(HEX[(c >> 12) & 0xf])
+                        .writeByte(HEX[(c >> 8) & 0xf])
+                        .writeByte(HEX[(c >> 4) & 0xf])
+                        .writeByte(HEX[c & 0xf]);
+            }
+            last = i + 1;
+        }
+        if (last < length) {
+            sink.writeUtf8(value, last, length);
+        }
+        sink.writeByte('"');
+    }
+
+    /**
+     * 顺序写出一个JSON对象的字段, 负责逗号分隔和null值跳过
+     */
+    private static class JsonObjectWriter {
+        private final BufferedSink sink;
+        private boolean first = true;
+
+        JsonObjectWriter(BufferedSink sink) throws IOException {
+            this.sink = sink;
+            sink.writeByte('{');
+        }
+
+        void name(String name) throws IOException {
+            if (!first) {
+                sink.writeByte(',');
+            }
+            first = false;
+            writeString(sink, name);
+            sink.writeByte(':');
+        }
+
+        void field(String name, String value) throws IOException {
+            if (value != null) {
+                name(name);
+                writeString(sink, value);
+            }
+        }
+
+        void field(String name, Integer value) throws IOException {
+            if (value != null) {
+                name(name);
+                sink.writeDecimalLong(value);
+            }
+        }
+
+        void field(String name, Double value) throws IOException {
+            if (value != null) {
+                name(name);
+                // 与hutool保持一致, 去掉小数末尾的0, 如0.0输出为0
+                sink.writeUtf8(BigDecimal.valueOf(value).stripTrailingZeros().toPlainString());
+            }
+        }
+
+        void field(String name, Boolean value) throws IOException {
+            if (value != null) {
+                name(name);
+                sink.writeUtf8(value ? "true" : "false");
+            }
+        }
+
+        void field(String name, List<String> values) throws IOException {
+            if (values != null) {
+                name(name);
+                sink.writeByte('[');
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        sink.writeByte(',');
+                    }
+                    String value = values.get(i);
+                    if (value == null) {
+                        sink.writeUtf8("null");
+                    } else {
+                        writeString(sink, value);
+                    }
+                }
+                sink.writeByte(']');
+            }
+        }
+
+        void end() throws IOException {
+            sink.writeByte('}');
+        }
+    }
+}
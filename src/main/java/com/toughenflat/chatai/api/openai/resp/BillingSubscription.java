@@ -0,0 +1,23 @@
+package com.toughenflat.chatai.api.openai.resp;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * apiKey的订阅信息: 总额度和过期时间
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BillingSubscription {
+    /**
+     * 总额度: 美元
+     */
+    private BigDecimal totalAmount;
+
+    private LocalDate expiredTime;
+}
@@ -0,0 +1,23 @@
+package com.toughenflat.chatai.api.openai.resp;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * 已统计过的使用额度: until(不含)之前的使用额度合计, 下次只需查询until之后的窗口
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BillingUsageCheckpoint {
+    /**
+     * 使用额度: 美分
+     */
+    private BigDecimal usageCents;
+
+    private LocalDate until;
+}
@@ -0,0 +1,24 @@
+package com.toughenflat.chatai.api.openai.resp;
+
+import lombok.Data;
+
+/**
+ * 流式输出的一个数据块中真正被用到的字段: choices[0].delta.content、choices[0].finish_reason和usage
+ */
+@Data
+public class ChatGPTStreamChunk {
+    /**
+     * 本次增量返回的内容
+     */
+    private String content;
+
+    /**
+     * stop 表示内容返回完毕
+     */
+    private String finishReason;
+
+    /**
+     * 请求使用的Tokens, 只有最后一个数据块可能携带
+     */
+    private Usage usage;
+}
@@ -2,10 +2,12 @@ package com.toughenflat.chatai.api.pinecone;
 
 import cn.hutool.http.ContentType;
 import cn.hutool.json.JSONUtil;
+import com.toughenflat.chatai.api.ApiEndpoints;
 import com.toughenflat.chatai.api.pinecone.req.PineconeDeleteReq;
 import com.toughenflat.chatai.api.pinecone.req.PineconeInsertReq;
 import com.toughenflat.chatai.api.pinecone.req.PineconeQueryReq;
 import com.toughenflat.chatai.api.pinecone.resp.PineconeQueryResp;
+import com.toughenflat.chatai.enums.HttpClientProfile;
 import com.toughenflat.chatai.exception.BaseException;
 import com.toughenflat.chatai.utils.OkHttpClientUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -22,13 +24,13 @@ public class PineconeApi {
      *  使用Pinecone作为向量数据库需要填写(另外需要在表admin_apikey中插入一条记录，type为4，name为Pinecone的apikey)
      *  TODO
      */
-    private static final String PINECONE_API_URL = "https://test-5fadb34.svc.asia-southeast1-gcp-free.pinecone.io";
+    public static final String PINECONE_API_URL = "https://test-5fadb34.svc.asia-southeast1-gcp-free.pinecone.io";
 
     // 插入Pinecone向量库
     public static String insertEmbedding(PineconeInsertReq pineconeInsertReq, String apiKey){
 
         Request request = new Request.Builder()
-                .url(PINECONE_API_URL + "/vectors/upsert")
+                .url(ApiEndpoints.pineconeUrl() + "/vectors/upsert")
                 .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), JSONUtil.parseObj(pineconeInsertReq).toString()))
                 .header("accept", "application/json")
                 .header("content-type", "application/json")
@@ -36,7 +38,7 @@ public class PineconeApi {
                 .build();
         Response response = null;
         try {
-            response = OkHttpClientUtil.getClient().newCall(request).execute();
+            response = OkHttpClientUtil.getClient(HttpClientProfile.PINECONE).newCall(request).execute();
 
             if(!response.isSuccessful()){
                 log.error("插入Pinecone向量库异常：{}", response.message());
@@ -62,7 +64,7 @@ public class PineconeApi {
     public static PineconeQueryResp queryEmbedding(PineconeQueryReq pineconeQueryReq, String apiKey){
 
         Request request = new Request.Builder()
-                .url(PINECONE_API_URL + "/query")
+                .url(ApiEndpoints.pineconeUrl() + "/query")
                 .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), JSONUtil.parseObj(pineconeQueryReq).toString()))
                 .header("accept", "application/json")
                 .header("content-type", "application/json")
@@ -70,7 +72,7 @@ public class PineconeApi {
                 .build();
         Response response = null;
         try {
-            response = OkHttpClientUtil.getClient().newCall(request).execute();
+            response = OkHttpClientUtil.getClient(HttpClientProfile.PINECONE).newCall(request).execute();
 
             if(!response.isSuccessful()){
                 log.error("查询Pinecone向量库异常：{}", response.message());
@@ -97,7 +99,7 @@ public class PineconeApi {
     public static String deleteEmbedding(PineconeDeleteReq pineconeDeleteReq, String apiKey){
 
         Request request = new Request.Builder()
-                .url(PINECONE_API_URL + "/vectors/delete")
+                .url(ApiEndpoints.pineconeUrl() + "/vectors/delete")
                 .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), JSONUtil.parseObj(pineconeDeleteReq).toString()))
                 .header("accept", "application/json")
                 .header("content-type", "application/json")
@@ -105,7 +107,7 @@ public class PineconeApi {
                 .build();
         Response response = null;
         try {
-            response = OkHttpClientUtil.getClient().newCall(request).execute();
+            response = OkHttpClientUtil.getClient(HttpClientProfile.PINECONE).newCall(request).execute();
 
             if(!response.isSuccessful()){
                 log.error("删除Pinecone向量库异常：{}", response.message());
@@ -0,0 +1,27 @@
+package com.toughenflat.chatai.config;
+
+import com.toughenflat.chatai.api.ApiEndpoints;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 上游接口地址配置, 不配置时使用官方地址
+ * 例: endpoint.openai-host=http://127.0.0.1:18080/
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "endpoint")
+public class ApiEndpointProperties {
+
+    private String openaiHost;
+
+    private String pineconeUrl;
+
+    @PostConstruct
+    public void init() {
+        ApiEndpoints.init(openaiHost, pineconeUrl);
+    }
+}
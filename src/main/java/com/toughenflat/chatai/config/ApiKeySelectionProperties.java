@@ -0,0 +1,21 @@
+package com.toughenflat.chatai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 系统apiKey的选key策略, 按ApiType的typeName区分, 未配置的类型使用轮询
+ * 可选策略: round-robin, least-in-flight, ewma-latency, priority-weighted
+ * 例: apikey.strategy.openai=least-in-flight
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "apikey")
+public class ApiKeySelectionProperties {
+
+    private Map<String, String> strategy = new HashMap<>();
+}
@@ -4,6 +4,7 @@ import com.baomidou.mybatisplus.core.injector.ISqlInjector;
 import com.baomidou.mybatisplus.extension.injector.LogicSqlInjector;
 import com.baomidou.mybatisplus.extension.plugins.PaginationInterceptor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.TaskExecutor;
@@ -55,6 +56,23 @@ public class ChatAiConfig {
         return executor;
     }
 
+    /**
+     * 文档编码流水线专用线程池, 批次在其中等待限流和重试退避, 不占用异步线程池
+     * 线程数固定, 排满后由调用线程执行
+     */
+    @Bean(name = "embeddingThreadPool")
+    public TaskExecutor embeddingThreadPool(@Value("${embedding.pipeline.threads:8}") int threads,
+                                            @Value("${embedding.pipeline.queueCapacity:1024}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("embedding-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        log.info("创建文档编码线程池 poolSize is [" + threads + "] queueCapacity is [" + queueCapacity + "].");
+        return executor;
+    }
+
     /**
      * 逻辑删除
      * @return
@@ -0,0 +1,97 @@
+package com.toughenflat.chatai.config;
+
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingCache;
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingMicroBatcher;
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingStore;
+import com.toughenflat.chatai.api.openai.embedding.MappedEmbeddingStore;
+import com.toughenflat.chatai.redis.EmbeddingRedisHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文本向量缓存配置: 本地内存映射文件 + redis, 以及单条编码请求的微批处理
+ */
+@Slf4j
+@Configuration
+public class EmbeddingCacheConfig {
+
+    /**
+     * 本地存储目录, 为空时不启用本地存储
+     */
+    @Value("${embedding.cache.dir:}")
+    private String dir;
+
+    /**
+     * 本地存储单个段文件的大小 (MB)
+     */
+    @Value("${embedding.cache.segmentSizeMb:64}")
+    private int segmentSizeMb;
+
+    /**
+     * 本地存储的总大小上限 (MB), 超出时删除最旧的段
+     */
+    @Value("${embedding.cache.maxSizeMb:1024}")
+    private long maxSizeMb;
+
+    @Value("${embedding.cache.redis.enabled:true}")
+    private boolean redisEnabled;
+
+    @Value("${embedding.cache.redis.ttlDays:30}")
+    private long redisTtlDays;
+
+    /**
+     * 单条文本编码请求的合并窗口 (毫秒), 为0时不合并
+     */
+    @Value("${embedding.microBatch.windowMillis:5}")
+    private long microBatchWindowMillis;
+
+    @Value("${embedding.microBatch.maxBatchSize:64}")
+    private int microBatchMaxSize;
+
+    @Resource
+    private EmbeddingRedisHelper embeddingRedisHelper;
+
+    private MappedEmbeddingStore mappedEmbeddingStore;
+
+    @PostConstruct
+    public void init() {
+        List<EmbeddingStore> stores = new ArrayList<>();
+        // 单个段按一个MappedByteBuffer映射, 不能超过2G
+        long segmentSize = (long) segmentSizeMb * 1024 * 1024;
+        if (!StringUtils.isEmpty(dir) && (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)) {
+            log.error("本地向量缓存段大小配置错误, 应在1~2047MB之间: {}MB, 不启用本地存储", segmentSizeMb);
+        } else if (!StringUtils.isEmpty(dir)) {
+            try {
+                int maxSegments = (int) Math.min(Integer.MAX_VALUE, maxSizeMb / segmentSizeMb);
+                mappedEmbeddingStore = new MappedEmbeddingStore(new File(dir), (int) segmentSize, maxSegments);
+                stores.add(mappedEmbeddingStore);
+            } catch (IOException e) {
+                log.error("本地向量缓存初始化失败! {}", e.getMessage());
+            }
+        }
+        if (redisEnabled) {
+            embeddingRedisHelper.setTtl(Duration.ofDays(redisTtlDays));
+            stores.add(embeddingRedisHelper);
+        }
+        EmbeddingCache.init(stores);
+        EmbeddingMicroBatcher.configure(microBatchWindowMillis, microBatchMaxSize);
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (mappedEmbeddingStore != null) {
+            mappedEmbeddingStore.close();
+        }
+    }
+}
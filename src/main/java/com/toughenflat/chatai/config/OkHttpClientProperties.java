@@ -0,0 +1,78 @@
+package com.toughenflat.chatai.config;
+
+import com.toughenflat.chatai.enums.HttpClientProfile;
+import com.toughenflat.chatai.utils.OkHttpClientUtil;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OkHttp客户端配置, 按HttpClientProfile的profileName区分
+ * 例: okhttp.profiles.openai-stream.max-requests-per-host=256
+ */
+@Data
+@Slf4j
+@Component
+@ConfigurationProperties(prefix = "okhttp")
+public class OkHttpClientProperties {
+
+    private Map<String, Profile> profiles = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Map<HttpClientProfile, Profile> profileMap = new EnumMap<>(HttpClientProfile.class);
+        profiles.forEach((name, profile) -> {
+            HttpClientProfile httpClientProfile = HttpClientProfile.get(name);
+            if (httpClientProfile == null) {
+                log.warn("未知的OkHttp客户端配置: {}", name);
+                return;
+            }
+            profileMap.put(httpClientProfile, profile);
+        });
+        OkHttpClientUtil.init(profileMap);
+    }
+
+    @Data
+    public static class Profile {
+        /**
+         * 超时时间 (秒)
+         */
+        private long connectTimeout = 60L;
+        private long readTimeout = 60L;
+        private long writeTimeout = 60L;
+
+        /**
+         * 连接池最大空闲连接数
+         */
+        private int maxIdleConnections = 50;
+
+        /**
+         * 空闲连接存活时间 (秒)
+         */
+        private long keepAlive = 60L;
+
+        /**
+         * Dispatcher的最大并发请求数, 以及对同一host的最大并发请求数
+         */
+        private int maxRequests = 64;
+        private int maxRequestsPerHost = 5;
+
+        /**
+         * 是否启用HTTP/2, 关闭后只使用HTTP/1.1
+         */
+        private boolean http2 = true;
+
+        /**
+         * openai返回429时的最大重试次数, 以及所有重试的总等待时间上限 (毫秒), 超过该值时不再重试
+         * 总等待时间不会超过读超时的1/4; 只对统计apiKey健康状况的profile生效
+         */
+        private int rateLimitMaxRetries = 2;
+        private long rateLimitMaxWaitMillis = 2_000L;
+    }
+}
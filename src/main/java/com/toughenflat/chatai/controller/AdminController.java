@@ -1,6 +1,16 @@
 package com.toughenflat.chatai.controller;
 
+import com.toughenflat.chatai.api.openai.ChatGPTSingleFlight;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyCircuitBreakers;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyQuotas;
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingCache;
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingMicroBatcher;
 import com.toughenflat.chatai.service.AdminApiKeyService;
+import com.toughenflat.chatai.service.ChatService;
+import com.toughenflat.chatai.service.FileChatService;
+import com.toughenflat.chatai.service.helper.ChatRespCacheHelper;
+import com.toughenflat.chatai.service.helper.HedgedRequestHelper;
+import com.toughenflat.chatai.utils.OkHttpClientUtil;
 import com.toughenflat.chatai.utils.ReturnResult;
 import org.springframework.web.bind.annotation.*;
 
@@ -13,6 +23,14 @@ public class AdminController {
 
     @Resource
     private AdminApiKeyService adminApiKeyService;
+    @Resource
+    private ChatRespCacheHelper chatRespCacheHelper;
+    @Resource
+    private HedgedRequestHelper hedgedRequestHelper;
+    @Resource
+    private ChatService chatService;
+    @Resource
+    private FileChatService fileChatService;
 
     /**
      * 刷新系统用的ApiKey缓存
@@ -20,7 +38,83 @@ public class AdminController {
      */
     @GetMapping("/flushApiKey")
     public ReturnResult flushApiKey(){
-        adminApiKeyService.load();
+        adminApiKeyService.flush();
         return ReturnResult.ok();
     }
+
+    /**
+     * 查看各上游HTTP客户端的排队数、并发数和连接池情况
+     * @return
+     */
+    @GetMapping("/httpClientStats")
+    public ReturnResult httpClientStats(){
+        return ReturnResult.ok().data("httpClientStats", OkHttpClientUtil.stats());
+    }
+
+    /**
+     * 查看单轮对话/翻译响应缓存的命中情况
+     * @return
+     */
+    @GetMapping("/chatRespCacheStats")
+    public ReturnResult chatRespCacheStats(){
+        return ReturnResult.ok().data("chatRespCacheStats", chatRespCacheHelper.stats());
+    }
+
+    /**
+     * 查看相同请求合并的情况
+     * @return
+     */
+    @GetMapping("/singleFlightStats")
+    public ReturnResult singleFlightStats(){
+        return ReturnResult.ok().data("singleFlightStats", ChatGPTSingleFlight.stats());
+    }
+
+    /**
+     * 查看文本向量缓存的命中情况
+     * @return
+     */
+    @GetMapping("/embeddingCacheStats")
+    public ReturnResult embeddingCacheStats(){
+        return ReturnResult.ok().data("embeddingCacheStats", EmbeddingCache.stats());
+    }
+
+    /**
+     * 查看单条文本编码请求的合并情况
+     * @return
+     */
+    @GetMapping("/embeddingMicroBatchStats")
+    public ReturnResult embeddingMicroBatchStats(){
+        return ReturnResult.ok().data("embeddingMicroBatchStats", EmbeddingMicroBatcher.stats());
+    }
+
+    /**
+     * 查看对冲请求的情况
+     * @return
+     */
+    @GetMapping("/hedgeStats")
+    public ReturnResult hedgeStats(){
+        return ReturnResult.ok().data("hedgeStats", hedgedRequestHelper.stats());
+    }
+
+    /**
+     * 查看各apiKey的熔断状态和健康分
+     * @return
+     */
+    @GetMapping("/apiKeyHealth")
+    public ReturnResult apiKeyHealth(){
+        return ReturnResult.ok()
+                .data("apiKeyHealth", ApiKeyCircuitBreakers.stats())
+                .data("apiKeyQuota", ApiKeyQuotas.stats());
+    }
+
+    /**
+     * 查看[会话窗口]缓存的命中率、淘汰次数和占用容量
+     * @return
+     */
+    @GetMapping("/sessionWindowCacheStats")
+    public ReturnResult sessionWindowCacheStats(){
+        return ReturnResult.ok()
+                .data("chatWindowCacheStats", chatService.windowCacheStats())
+                .data("fileChatWindowCacheStats", fileChatService.windowCacheStats());
+    }
 }
@@ -12,7 +12,6 @@ import org.springframework.web.bind.annotation.*;
 import com.alibaba.fastjson.JSON;
 import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
-import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
 import com.toughenflat.chatai.api.openai.resp.CreditGrantsResp;
 import com.toughenflat.chatai.dto.AddSessionRequest;
 import com.toughenflat.chatai.dto.OneShotChatRequest;
@@ -21,6 +20,7 @@ import com.toughenflat.chatai.dto.SessionChatRequest;
 import com.toughenflat.chatai.entity.SessionChatRecordEntity;
 import com.toughenflat.chatai.entity.UserSessionEntity;
 import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.enums.HttpClientProfile;
 import com.toughenflat.chatai.enums.SessionType;
 import com.toughenflat.chatai.utils.OkHttpClientUtil;
 import com.toughenflat.chatai.utils.ResultCode;
@@ -41,6 +41,7 @@ import java.text.DateFormat;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 
@@ -59,6 +60,9 @@ public class ChatController {
     @Resource
     private ChatService chatService;
 
+    @Resource
+    private FileChatService fileChatService;
+
     @Resource
     private UserSessionService userSessionService;
 
@@ -81,17 +85,17 @@ public class ChatController {
      * 调用openai的ChatGPT接口实现单论对话
      */
     @PostMapping("/chat/oneShot")
-    public ReturnResult oneShot(@RequestBody @Valid OneShotChatRequest req) {
+    public CompletableFuture<ReturnResult> oneShot(@RequestBody @Valid OneShotChatRequest req) {
         if (StringUtils.isEmpty(req.getMessage()) || req.getUserId() == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM));
         }
 
         // 若用户上传了apikey则使用用户的，否则采用本系统的
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
-                ? userApiKeyEntity.getApikey() : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                ? userApiKeyEntity.getApikey() : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL));
         }
         SessionType sessionType = SessionType.get(req.getSessionType());
         ChatGPTReq gptReq = ChatGPTReq.builder()
@@ -99,12 +103,10 @@ public class ChatController {
                 .messages(ImmutableList.of(new ContextMessage(Role.USER.name, req.getMessage())))
                 .max_tokens(OpenAIConst.MAX_TOKENS - sessionType.maxContextToken)
                 .build();
-        ChatGPTResp resp = chatService.oneShotChat(req.getUserId(), gptReq, apiKey);
-
-        if (resp == null) {
-            return ReturnResult.error();
-        }
-        return ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage());
+        return chatService.oneShotChatAsync(req.getUserId(), gptReq, apiKey, Boolean.TRUE.equals(req.getUseCache()))
+                .thenApply(resp -> resp == null
+                        ? ReturnResult.error()
+                        : ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage()));
     }
 
 
@@ -151,18 +153,18 @@ public class ChatController {
      * 调用openai的ChatGPT接口实现多轮对话
      */
     @PostMapping("/chat/session")
-    public ReturnResult chatSession(@RequestBody @Valid SessionChatRequest req) {
+    public CompletableFuture<ReturnResult> chatSession(@RequestBody @Valid SessionChatRequest req) {
         if (StringUtils.isEmpty(req.getMessage()) || req.getUserId() == null || req.getSessionId() == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM));
         }
 
         // 若用户上传了apikey则使用用户的，否则采用本系统的
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL));
         }
 
         SessionType sessionType = SessionType.get(req.getSessionType());
@@ -171,12 +173,11 @@ public class ChatController {
                 .max_tokens(OpenAIConst.MAX_TOKENS - sessionType.maxContextToken)
                 .build();
 
-        ChatGPTResp resp = chatService.sessionChat(
-                req.getUserId(), req.getSessionId(), gptReq, req.getMessage(), apiKey, sessionType);
-        if (resp == null) {
-            return ReturnResult.error();
-        }
-        return ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage());
+        return chatService.sessionChatAsync(
+                        req.getUserId(), req.getSessionId(), gptReq, req.getMessage(), apiKey, sessionType)
+                .thenApply(resp -> resp == null
+                        ? ReturnResult.error()
+                        : ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage()));
     }
 
     /**
@@ -211,6 +212,7 @@ public class ChatController {
 
         sessionChatRecordService.truncateSessionChatRecord(sessionId);
         chatService.refreshWindowRecordCache(sessionId);
+        fileChatService.refreshWindowRecordCache(sessionId);
         return ReturnResult.ok();
     }
 
@@ -226,6 +228,7 @@ public class ChatController {
         userSessionService.removeById(sessionId);
         sessionChatRecordService.truncateSessionChatRecord(sessionId);
         chatService.refreshWindowRecordCache(sessionId);
+        fileChatService.refreshWindowRecordCache(sessionId);
         return ReturnResult.ok();
     }
 
@@ -280,7 +283,7 @@ public class ChatController {
      */
     @PostMapping("/chat/getAudioToken")
     public ReturnResult getAudioToken() throws IOException {
-        OkHttpClient client = OkHttpClientUtil.getClient();
+        OkHttpClient client = OkHttpClientUtil.getClient(HttpClientProfile.BAIDU);
         okhttp3.RequestBody body = okhttp3.RequestBody.create(MediaType.parse(CONTENT_TYPE_JSON), "");
         Request request = new Request.Builder()
                 .url("https://aip.baidubce.com/oauth/2.0/token?client_id=" + BaiDuConst.API_KEY + "&client_secret="
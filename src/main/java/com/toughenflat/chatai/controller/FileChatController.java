@@ -4,7 +4,6 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
-import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
 import com.toughenflat.chatai.dto.ChatWithFileRequest;
 import com.toughenflat.chatai.dto.SessionChatRequest;
 import com.toughenflat.chatai.dto.StreamSessionChatRequest;
@@ -26,6 +25,7 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import javax.annotation.Resource;
 import javax.validation.Valid;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 @RestController
@@ -96,7 +96,7 @@ public class FileChatController {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
             return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
         }
@@ -117,19 +117,19 @@ public class FileChatController {
      * @return
      */
     @PostMapping("/file/chatWithFile")
-    public ReturnResult chatWithFile(@RequestBody @Valid SessionChatRequest req) {
+    public CompletableFuture<ReturnResult> chatWithFile(@RequestBody @Valid SessionChatRequest req) {
 
         if (StringUtils.isEmpty(req.getMessage()) || req.getUserId() == null || req.getSessionId() == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM));
         }
 
         // 若用户上传了apikey则使用用户的，否则采用本系统的
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.getBestByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL));
         }
 
         SessionType sessionType = SessionType.get(req.getSessionType());
@@ -138,13 +138,11 @@ public class FileChatController {
                 .max_tokens(OpenAIConst.MAX_TOKENS - sessionType.maxContextToken)
                 .build();
 
-        ChatGPTResp resp = fileChatService.chatWithFile(
-                req.getUserId(), req.getSessionId(), req.getMessage(), apiKey, gptReq, usePinecone);
-
-        if (resp == null) {
-            return ReturnResult.error();
-        }
-        return ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage());
+        return fileChatService.chatWithFileAsync(
+                        req.getUserId(), req.getSessionId(), req.getMessage(), apiKey, gptReq, usePinecone)
+                .thenApply(resp -> resp == null
+                        ? ReturnResult.error()
+                        : ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage()));
     }
 
     /**
@@ -164,7 +162,7 @@ public class FileChatController {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.getBestByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
             return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
         }
@@ -52,7 +52,7 @@ public class PromptController {
     @PostMapping("/admin")
     public ReturnResult add(@RequestBody PromptEntity promptEntity) {
         promptService.save(promptEntity);
-        promptService.load();
+        promptService.flush();
         return ReturnResult.ok();
     }
 
@@ -64,8 +64,10 @@ public class PromptController {
      */
     @PutMapping("/admin")
     public ReturnResult edit(@RequestBody PromptEntity promptEntity) {
+        // 由数据库刷新update_time, 增量刷新依赖它发现变更
+        promptEntity.setUpdateTime(null);
         promptService.update(promptEntity, new QueryWrapper<PromptEntity>().eq("id", promptEntity.getId()));
-        promptService.load();
+        promptService.flush();
         return ReturnResult.ok();
     }
 
@@ -78,7 +80,7 @@ public class PromptController {
     @DeleteMapping("/admin/{promptId}")
     public ReturnResult delete(@PathVariable Integer promptId) {
         promptService.removeById(promptId);
-        promptService.load();
+        promptService.flush();
         return ReturnResult.ok();
     }
 }
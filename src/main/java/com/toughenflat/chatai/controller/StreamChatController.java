@@ -88,7 +88,7 @@ public class StreamChatController {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
             return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
         }
@@ -130,7 +130,7 @@ public class StreamChatController {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
             return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
         }
@@ -165,7 +165,7 @@ public class StreamChatController {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.getBestByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
             return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
         }
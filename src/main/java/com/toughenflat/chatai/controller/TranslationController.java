@@ -5,7 +5,6 @@ import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
 import com.toughenflat.chatai.api.openai.enums.Role;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
 import com.toughenflat.chatai.api.openai.req.ContextMessage;
-import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
 import com.toughenflat.chatai.dto.TranslationRequest;
 import com.toughenflat.chatai.entity.UserApiKeyEntity;
 import com.toughenflat.chatai.enums.ApiType;
@@ -22,6 +21,7 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import javax.validation.Valid;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @CrossOrigin
@@ -46,9 +46,9 @@ public class TranslationController {
      * @return
      */
     @PostMapping("/translate")
-    public ReturnResult translate(@RequestBody @Valid TranslationRequest req) {
+    public CompletableFuture<ReturnResult> translate(@RequestBody @Valid TranslationRequest req) {
         if (StringUtils.isEmpty(req.getMessage()) || req.getUserId() == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.EMPTY_PARAM));
         }
 
         String reqMsg = String.format(promptService.getByTopic(Prompt.TRANSLATE.topic), req.getLanguage(), req.getMessage());
@@ -57,23 +57,22 @@ public class TranslationController {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(req.getUserId(), ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
-            return ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL);
+            return CompletableFuture.completedFuture(ReturnResult.error().codeAndMessage(ResultCode.ADMIN_APIKEY_NULL));
         }
 
-        // 调用对话接口
+        // 调用对话接口, 翻译结果应当是确定的, temperature为0, 相同的原文和语言直接命中缓存
         ChatGPTReq gptReq = ChatGPTReq.builder()
                 .messages(ImmutableList.of(new ContextMessage(Role.USER.name, reqMsg)))
                 .model(OpenAIConst.MODEL_NAME_CHATGPT_3_5)
+                .temperature(0D)
                 .build();
 
-        ChatGPTResp resp = chatService.oneShotChat(req.getUserId(), gptReq, apiKey);
-
-        if (resp.getMessage() == null) {
-            return ReturnResult.error();
-        }
-        return ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage());
+        return chatService.oneShotChatAsync(req.getUserId(), gptReq, apiKey, true)
+                .thenApply(resp -> resp == null || resp.getMessage() == null
+                        ? ReturnResult.error()
+                        : ReturnResult.ok().data(NAME_MESSAGE, resp.getMessage()));
     }
 
 }
@@ -15,4 +15,9 @@ public class OneShotChatRequest {
     private String userId;
 
     private Integer sessionType = 0;
+
+    /**
+     * 是否允许返回缓存的结果, 相同的问题直接复用之前的回答
+     */
+    private Boolean useCache = false;
 }
@@ -8,6 +8,7 @@ import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Date;
 
 @Builder
 @Data
@@ -54,4 +55,10 @@ public class AdminApiKeyEntity {
 
     @TableField(value = "is_free")
     private Integer isFree;
+
+    /**
+     * 由数据库维护, 用于增量刷新缓存; 更新时不要带上该字段, 否则数据库不会自动更新
+     */
+    @TableField(value = "update_time")
+    private Date updateTime;
 }
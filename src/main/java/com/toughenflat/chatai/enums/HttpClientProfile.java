@@ -0,0 +1,53 @@
+package com.toughenflat.chatai.enums;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 上游HTTP客户端配置, 每种配置拥有独立的连接池和Dispatcher
+ * 配置项见application.properties中的okhttp.profiles.[profileName].*
+ */
+public enum HttpClientProfile {
+    // openai普通对话
+    OPENAI_CHAT("openai-chat", true, true),
+    // openai流式对话, 连接会被长时间占用
+    OPENAI_STREAM("openai-stream", true, true),
+    // openai文本编码
+    OPENAI_EMBEDDING("openai-embedding", true, true),
+    // openai账单查询, 定时任务使用
+    OPENAI_BILLING("openai-billing", false, false),
+    // pinecone向量库
+    PINECONE("pinecone", false, true),
+    // 微信登录
+    WECHAT("wechat", false, false),
+    // 百度语音
+    BAIDU("baidu", false, false),
+    // 其他
+    DEFAULT("default", false, false);
+
+    public final String profileName;
+
+    /**
+     * 请求结果是否计入apiKey的熔断器 (见ApiKeyHealthInterceptor)
+     */
+    public final boolean keyHealthTracked;
+
+    /**
+     * 是否统计apiKey进行中的请求数 (见ApiKeyInFlightInterceptor)
+     */
+    public final boolean keyInFlightTracked;
+
+    HttpClientProfile(String profileName, boolean keyHealthTracked, boolean keyInFlightTracked) {
+        this.profileName = profileName;
+        this.keyHealthTracked = keyHealthTracked;
+        this.keyInFlightTracked = keyInFlightTracked;
+    }
+
+    private static final Map<String, HttpClientProfile> MAP = Arrays.stream(values())
+            .collect(Collectors.toMap(item -> item.profileName, item -> item));
+
+    public static HttpClientProfile get(String profileName) {
+        return MAP.get(profileName);
+    }
+}
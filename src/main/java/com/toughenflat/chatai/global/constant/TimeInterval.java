@@ -8,6 +8,8 @@ public class TimeInterval {
 
     public static final long ONE_HOUR = 60 * 60 * 1000L;
 
+    public static final long ONE_DAY = 24 * 60 * 60 * 1000L;
+
     private TimeInterval() {
     }
 }
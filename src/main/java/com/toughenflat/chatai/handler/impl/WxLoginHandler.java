@@ -6,6 +6,7 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.toughenflat.chatai.entity.UserEntity;
 import com.toughenflat.chatai.entity.UserLoginRecord;
+import com.toughenflat.chatai.enums.HttpClientProfile;
 import com.toughenflat.chatai.enums.UserLevel;
 import com.toughenflat.chatai.handler.LoginHandler;
 import com.toughenflat.chatai.service.UserLoginRecordService;
@@ -53,7 +54,7 @@ public class WxLoginHandler implements LoginHandler {
         Request request = new Request.Builder()
                 .url(requestHost)
                 .build();
-        try (Response response = OkHttpClientUtil.getClient().newCall(request).execute()) {
+        try (Response response = OkHttpClientUtil.getClient(HttpClientProfile.WECHAT).newCall(request).execute()) {
             assert response.isSuccessful();
             String wxBody = response.body().string();
             JSONObject wxJsonBody = JSONObject.parseObject(wxBody);
@@ -2,6 +2,17 @@ package com.toughenflat.chatai.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Date;
+import java.util.List;
 
 public interface AdminApiKeyMapper extends BaseMapper<AdminApiKeyEntity> {
+
+    /**
+     * 查询update_time不早于since的行, 包括已逻辑删除的行, 用于增量刷新缓存
+     */
+    @Select("select * from admin_apikey where update_time >= #{since}")
+    List<AdminApiKeyEntity> selectChangedSince(@Param("since") Date since);
 }
@@ -2,6 +2,17 @@ package com.toughenflat.chatai.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.toughenflat.chatai.entity.PromptEntity;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.Date;
+import java.util.List;
 
 public interface PromptMapper  extends BaseMapper<PromptEntity>{
+
+    /**
+     * 查询update_time不早于since的行, 包括已逻辑删除的行, 用于增量刷新缓存
+     */
+    @Select("select * from prompt where update_time >= #{since}")
+    List<PromptEntity> selectChangedSince(@Param("since") Date since);
 }
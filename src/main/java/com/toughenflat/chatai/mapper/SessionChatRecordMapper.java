@@ -2,10 +2,37 @@ package com.toughenflat.chatai.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.util.List;
 
 /**
  * @Author: huangpenglong
  * @Date: 2023/3/17 22:09
  */
 public interface SessionChatRecordMapper extends BaseMapper<SessionChatRecordEntity> {
+
+    /**
+     * 从新到旧查询会话中id小于beforeId的limit条记录的id和token数, 只走(session_id, session_chat_id, token_num)索引, 不读content
+     */
+    @Select("select session_chat_id, token_num from session_chat_record " +
+            "where session_id = #{sessionId} and session_chat_id < #{beforeId} " +
+            "order by session_chat_id desc limit #{limit}")
+    List<SessionChatRecordEntity> selectTokenPageBefore(@Param("sessionId") Integer sessionId,
+                                                        @Param("beforeId") Integer beforeId,
+                                                        @Param("limit") int limit);
+
+    /**
+     * 从旧到新查询会话中id不小于fromId的记录
+     */
+    @Select("select * from session_chat_record " +
+            "where session_id = #{sessionId} and session_chat_id >= #{fromId} order by session_chat_id asc")
+    List<SessionChatRecordEntity> selectFromId(@Param("sessionId") Integer sessionId, @Param("fromId") Integer fromId);
+
+    /**
+     * 查询会话的第一条记录
+     */
+    @Select("select * from session_chat_record where session_id = #{sessionId} order by session_chat_id asc limit 1")
+    SessionChatRecordEntity selectFirst(@Param("sessionId") Integer sessionId);
 }
@@ -1,12 +1,17 @@
 package com.toughenflat.chatai.redis;
 
+import com.toughenflat.chatai.api.openai.resp.BillingUsageCheckpoint;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 import javax.annotation.Resource;
+import java.math.BigDecimal;
 import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @Author: huangpenglong
@@ -19,6 +24,13 @@ public class AdminApiKeyRedisHelper {
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
 
+    /**
+     * 已统计使用额度的hash字段
+     */
+    private static final String BILLING_KEY = "key";
+    private static final String BILLING_USAGE = "usage";
+    private static final String BILLING_UNTIL = "until";
+
     /**
      * 判断当前的openai免费key是否受限
      * @param apiKeyId
@@ -50,4 +62,39 @@ public class AdminApiKeyRedisHelper {
         // 若存在则新增
         return Integer.parseInt(String.valueOf(redisTemplate.opsForValue().increment(key, count)));
     }
+
+    /**
+     * 获取该key已统计过的使用额度, 没有记录时返回null
+     * @param apiKeyId
+     * @param apiKey 记录时的apikey, 不一致(该id换了key)时视为没有记录
+     */
+    public BillingUsageCheckpoint getBillingCheckpoint(int apiKeyId, String apiKey){
+        String key = String.format(RedisKeys.ADMIN_OPENAI_BILLING_CHECKPOINT, apiKeyId);
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
+        if (entries.isEmpty() || !String.valueOf(apiKey.hashCode()).equals(String.valueOf(entries.get(BILLING_KEY)))) {
+            return null;
+        }
+        return new BillingUsageCheckpoint(
+                new BigDecimal(String.valueOf(entries.get(BILLING_USAGE))),
+                LocalDate.parse(String.valueOf(entries.get(BILLING_UNTIL))));
+    }
+
+    /**
+     * 记录该key已统计过的使用额度
+     * @param apiKeyId
+     * @param apiKey
+     * @param checkpoint
+     */
+    public void setBillingCheckpoint(int apiKeyId, String apiKey, BillingUsageCheckpoint checkpoint){
+        String key = String.format(RedisKeys.ADMIN_OPENAI_BILLING_CHECKPOINT, apiKeyId);
+        Map<String, Object> entries = new HashMap<>();
+        entries.put(BILLING_KEY, String.valueOf(apiKey.hashCode()));
+        entries.put(BILLING_USAGE, checkpoint.getUsageCents().toPlainString());
+        entries.put(BILLING_UNTIL, checkpoint.getUntil().toString());
+        redisTemplate.opsForHash().putAll(key, entries);
+    }
+
+    public void deleteBillingCheckpoint(int apiKeyId){
+        redisTemplate.delete(String.format(RedisKeys.ADMIN_OPENAI_BILLING_CHECKPOINT, apiKeyId));
+    }
 }
@@ -0,0 +1,54 @@
+package com.toughenflat.chatai.redis;
+
+import cn.hutool.json.JSONUtil;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+
+/**
+ * 单轮对话响应的共享缓存, 多个实例之间复用
+ */
+@Slf4j
+@Component
+public class ChatRespRedisHelper {
+
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * 获取缓存的响应, 不存在或redis异常时返回null
+     * @param hash
+     * @return
+     */
+    public ChatGPTResp get(String hash){
+        try {
+            Object o = redisTemplate.opsForValue().get(String.format(RedisKeys.CHAT_RESP_CACHE, hash));
+            if(StringUtils.isEmpty(o)){
+                return null;
+            }
+            return JSONUtil.toBean(String.valueOf(o), ChatGPTResp.class);
+        } catch (Exception e) {
+            log.warn("读取响应缓存异常! {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 缓存响应
+     * @param hash
+     * @param resp
+     * @param ttl
+     */
+    public void set(String hash, ChatGPTResp resp, Duration ttl){
+        try {
+            redisTemplate.opsForValue().set(String.format(RedisKeys.CHAT_RESP_CACHE, hash), JSONUtil.toJsonStr(resp), ttl);
+        } catch (Exception e) {
+            log.warn("写入响应缓存异常! {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.toughenflat.chatai.redis;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.Collections;
+
+/**
+ * 集群协调: leader租约、缓存快照和通知
+ */
+@Component
+public class ClusterRedisHelper {
+
+    /**
+     * 租约不存在时获取租约
+     */
+    private static final RedisScript<Long> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 else return 0 end",
+            Long.class);
+
+    /**
+     * 只有租约持有者才能续期
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end",
+            Long.class);
+
+    /**
+     * 只有租约持有者才能释放
+     */
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end",
+            Long.class);
+
+    /**
+     * 租约脚本的参数按原始字符串传递, 不经过JSON序列化
+     */
+    private static final RedisSerializer<String> ARGS_SERIALIZER = new StringRedisSerializer();
+    private static final RedisSerializer<Long> RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * 租约不存在时获取租约
+     * @param name 租约名
+     * @param nodeId 当前节点id
+     * @param ttl 租约时长
+     * @return 是否获取成功
+     */
+    public boolean tryAcquireLease(String name, String nodeId, Duration ttl){
+        return execute(ACQUIRE_SCRIPT, name, nodeId, String.valueOf(ttl.toMillis()));
+    }
+
+    /**
+     * 续期当前节点持有的租约
+     * @return 租约已被其他节点持有或已过期时返回false
+     */
+    public boolean renewLease(String name, String nodeId, Duration ttl){
+        return execute(RENEW_SCRIPT, name, nodeId, String.valueOf(ttl.toMillis()));
+    }
+
+    public void releaseLease(String name, String nodeId){
+        execute(RELEASE_SCRIPT, name, nodeId);
+    }
+
+    private boolean execute(RedisScript<Long> script, String name, Object... args){
+        Long ok = redisTemplate.execute(script, ARGS_SERIALIZER, RESULT_SERIALIZER,
+                Collections.singletonList(String.format(RedisKeys.CLUSTER_LEADER_LEASE, name)), args);
+        return ok != null && ok == 1L;
+    }
+
+    public void setSnapshot(String name, String json){
+        redisTemplate.opsForValue().set(String.format(RedisKeys.CLUSTER_SNAPSHOT, name), json);
+    }
+
+    public String getSnapshot(String name){
+        Object o = redisTemplate.opsForValue().get(String.format(RedisKeys.CLUSTER_SNAPSHOT, name));
+        return o == null ? null : String.valueOf(o);
+    }
+
+    public void publish(String message){
+        redisTemplate.convertAndSend(RedisKeys.CLUSTER_CHANNEL, message);
+    }
+
+    public Object deserialize(byte[] body){
+        return redisTemplate.getValueSerializer().deserialize(body);
+    }
+}
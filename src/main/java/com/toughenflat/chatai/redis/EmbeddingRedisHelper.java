@@ -0,0 +1,102 @@
+package com.toughenflat.chatai.redis;
+
+import com.toughenflat.chatai.api.openai.embedding.EmbeddingStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文本向量的共享缓存, 向量以小端float字节的Base64字符串保存
+ */
+@Slf4j
+@Component
+public class EmbeddingRedisHelper implements EmbeddingStore {
+
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private Duration ttl = Duration.ofDays(30);
+
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    @Override
+    public Map<String, float[]> getAll(Collection<String> keys) {
+        Map<String, float[]> result = new HashMap<>();
+        List<String> cacheKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            cacheKeys.add(String.format(RedisKeys.EMBEDDING_CACHE, key));
+        }
+        try {
+            List<Object> values = redisTemplate.opsForValue().multiGet(cacheKeys);
+            if (values == null) {
+                return result;
+            }
+            int i = 0;
+            for (String key : keys) {
+                Object value = values.get(i++);
+                if (value != null) {
+                    result.put(key, decode(String.valueOf(value)));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("读取向量缓存异常! {}", e.getMessage());
+        }
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAll(Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate.getKeySerializer();
+        RedisSerializer<Object> valueSerializer = (RedisSerializer<Object>) redisTemplate.getValueSerializer();
+        Expiration expiration = Expiration.from(ttl);
+        try {
+            // 管道批量写入, 避免大文档逐条往返
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<String, float[]> entry : embeddings.entrySet()) {
+                    connection.set(
+                            keySerializer.serialize(String.format(RedisKeys.EMBEDDING_CACHE, entry.getKey())),
+                            valueSerializer.serialize(encode(entry.getValue())),
+                            expiration,
+                            RedisStringCommands.SetOption.upsert());
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("写入向量缓存异常! {}", e.getMessage());
+        }
+    }
+
+    static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    static float[] decode(String value) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[buffer.remaining() / 4];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -29,5 +29,52 @@ public class RedisKeys {
      * admin:openai:freekey:limit:[apikeyId]
      */
     public static final String ADMIN_OPENAI_FREE_KEY_LIMIT = "admin:openai:freekey:limit:%s";
+
+    /**
+     * 管理员用的openai key已统计过的使用额度 （见BillingUsageCheckpoint）
+     * admin:openai:billing:[apikeyId]
+     */
+    public static final String ADMIN_OPENAI_BILLING_CHECKPOINT = "admin:openai:billing:%s";
+
+    /**
+     * 单轮对话/翻译的响应缓存 （请求哈希见ChatRespCacheHelper）
+     * chat:resp:cache:[请求哈希]
+     */
+    public static final String CHAT_RESP_CACHE = "chat:resp:cache:%s";
+
+    /**
+     * 文本向量缓存 （键见EmbeddingCache.key）
+     * embedding:[模型]:[文本sha256]
+     */
+    public static final String EMBEDDING_CACHE = "embedding:%s";
+
+    /**
+     * 定时加载任务的leader租约, 值为leader节点的id （见ClusterLeaderHelper）
+     * cluster:leader:[租约名]
+     */
+    public static final String CLUSTER_LEADER_LEASE = "cluster:leader:%s";
+
+    /**
+     * leader计算出的缓存快照 (JSON)
+     * cluster:snapshot:[快照名]
+     */
+    public static final String CLUSTER_SNAPSHOT = "cluster:snapshot:%s";
+
+    /**
+     * 快照更新、重新加载请求的通知频道
+     */
+    public static final String CLUSTER_CHANNEL = "cluster:channel";
+
+    /**
+     * 多个节点共享的[会话窗口] (SessionWindowCodec编码的字节, 见SessionWindowRedisHelper)
+     * chat:window:[窗口缓存名]:[会话ID]
+     */
+    public static final String SESSION_WINDOW = "chat:window:%s:%s";
+
+    /**
+     * [会话窗口]变化的通知频道, 收到后丢弃本地副本
+     */
+    public static final String SESSION_WINDOW_CHANNEL = "chat:window:channel";
+
     private RedisKeys(){}
 }
@@ -0,0 +1,126 @@
+package com.toughenflat.chatai.redis;
+
+import com.toughenflat.chatai.utils.SessionWindowStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 多个节点共享的[会话窗口], 值为二进制原样保存, 不经过JSON序列化; 窗口变化通过pub/sub通知其他节点
+ */
+@Slf4j
+@Component
+public class SessionWindowRedisHelper implements SessionWindowStore {
+
+    /**
+     * 当前窗口的头部与ARGV[1]一致时替换, 否则删除
+     */
+    private static final RedisScript<Long> COMPARE_AND_SET_SCRIPT = new DefaultRedisScript<>(
+            "local cur = redis.call('get', KEYS[1]) " +
+                    "if cur and string.sub(cur, 1, string.len(ARGV[1])) == ARGV[1] then " +
+                    "redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) return 1 end " +
+                    "redis.call('del', KEYS[1]) return 0",
+            Long.class);
+
+    private static final RedisSerializer<String> KEY_SERIALIZER = new StringRedisSerializer();
+    private static final RedisSerializer<byte[]> ARGS_SERIALIZER = RedisSerializer.byteArray();
+    private static final RedisSerializer<Long> RESULT_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+
+    private static final String SEPARATOR = "|";
+
+    @Value("${window.cache.redis.ttlMinutes:30}")
+    private long ttlMinutes;
+
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final String nodeId = UUID.randomUUID().toString().substring(0, 8);
+
+    private final Map<String, Consumer<Integer>> listeners = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                onMessage(String.valueOf(redisTemplate.getValueSerializer().deserialize(message.getBody())));
+            } catch (Exception e) {
+                log.warn("处理会话窗口通知异常! {}", e.getMessage());
+            }
+        }, new ChannelTopic(RedisKeys.SESSION_WINDOW_CHANNEL));
+    }
+
+    @Override
+    public byte[] get(String name, Integer sessionId) {
+        byte[] key = key(name, sessionId);
+        return redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+    }
+
+    @Override
+    public void putIfAbsent(String name, Integer sessionId, byte[] value) {
+        byte[] key = key(name, sessionId);
+        redisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(key, value,
+                Expiration.from(Duration.ofMinutes(ttlMinutes)), RedisStringCommands.SetOption.ifAbsent()));
+    }
+
+    @Override
+    public boolean compareAndSet(String name, Integer sessionId, byte[] expectedHeader, byte[] value) {
+        byte[] ttlMillis = String.valueOf(Duration.ofMinutes(ttlMinutes).toMillis()).getBytes(StandardCharsets.UTF_8);
+        Long ok = redisTemplate.execute(COMPARE_AND_SET_SCRIPT, ARGS_SERIALIZER, RESULT_SERIALIZER,
+                Collections.singletonList(String.format(RedisKeys.SESSION_WINDOW, name, sessionId)),
+                expectedHeader, value, ttlMillis);
+        return ok != null && ok == 1L;
+    }
+
+    @Override
+    public void delete(String name, Integer sessionId) {
+        redisTemplate.delete(String.format(RedisKeys.SESSION_WINDOW, name, sessionId));
+    }
+
+    @Override
+    public void publishInvalidation(String name, Integer sessionId) {
+        redisTemplate.convertAndSend(RedisKeys.SESSION_WINDOW_CHANNEL, name + SEPARATOR + sessionId + SEPARATOR + nodeId);
+    }
+
+    @Override
+    public void onInvalidation(String name, Consumer<Integer> listener) {
+        listeners.put(name, listener);
+    }
+
+    private void onMessage(String message) {
+        String[] parts = message.split("\\" + SEPARATOR, 3);
+        if (parts.length != 3 || nodeId.equals(parts[2])) {
+            return;
+        }
+        Consumer<Integer> listener = listeners.get(parts[0]);
+        if (listener != null) {
+            listener.accept(Integer.valueOf(parts[1]));
+        }
+    }
+
+    private static byte[] key(String name, Integer sessionId) {
+        return KEY_SERIALIZER.serialize(String.format(RedisKeys.SESSION_WINDOW, name, sessionId));
+    }
+}
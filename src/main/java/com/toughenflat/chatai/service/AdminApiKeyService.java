@@ -31,12 +31,24 @@ public interface AdminApiKeyService extends IService<AdminApiKeyEntity> {
      */
     String roundRobinGetByType(ApiType apiTypes);
 
+    /**
+     * 根据apikey的类型，使用该类型配置的选key策略获取一个apiKey (默认轮询)
+     * @param apiTypes
+     * @return
+     */
+    String selectByType(ApiType apiTypes);
+
 
     /**
      * 刷新缓存
      */
     void load();
 
+    /**
+     * 手动刷新缓存, 集群部署时由leader节点刷新后同步到其他节点
+     */
+    void flush();
+
     /**
      * 根据apikey的类型，获取优先级最高的apikey
      * @param apiTypes
@@ -3,9 +3,14 @@ package com.toughenflat.chatai.service;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
 import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
 import com.toughenflat.chatai.api.openai.resp.CreditGrantsResp;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
 import com.toughenflat.chatai.enums.SessionType;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 public interface ChatService {
 
     /**
@@ -13,6 +18,17 @@ public interface ChatService {
      */
     ChatGPTResp oneShotChat(String userId, ChatGPTReq chatGPTReq, String apiKey);
 
+    /**
+     * 单轮聊天-普通输出, 异步
+     */
+    CompletableFuture<ChatGPTResp> oneShotChatAsync(String userId, ChatGPTReq chatGPTReq, String apiKey);
+
+    /**
+     * 单轮聊天-普通输出, 异步, 结果可缓存
+     * useCache为false时只缓存temperature为0的请求
+     */
+    CompletableFuture<ChatGPTResp> oneShotChatAsync(String userId, ChatGPTReq chatGPTReq, String apiKey, boolean useCache);
+
     /**
      * 单轮聊天-流式输出
      */
@@ -24,6 +40,12 @@ public interface ChatService {
     ChatGPTResp sessionChat(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
                             String message, String apiKey, SessionType sessionType);
 
+    /**
+     * 多轮聊天-普通输出, 异步
+     */
+    CompletableFuture<ChatGPTResp> sessionChatAsync(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
+                                                    String message, String apiKey, SessionType sessionType);
+
     /**
      * 单轮聊天-流式输出
      */
@@ -41,10 +63,20 @@ public interface ChatService {
     void clearUserCache(String userId);
 
     /**
-     * 手动刷新缓存
+     * 手动刷新缓存: 使[会话窗口]缓存失效, 截断、删除会话记录后调用
      */
     void refreshWindowRecordCache(Integer sessionId);
 
+    /**
+     * 将已持久化的询问和应答追加到[会话窗口]缓存, 不重新查库
+     */
+    void appendWindowRecords(Integer sessionId, SessionType sessionType, List<SessionChatRecordEntity> records);
+
+    /**
+     * 查看[会话窗口]缓存的命中率、淘汰次数和占用容量
+     */
+    Map<String, Object> windowCacheStats();
+
     /**
      * 获取API-Key的额度
      */
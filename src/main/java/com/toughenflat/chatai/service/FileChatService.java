@@ -2,9 +2,14 @@ package com.toughenflat.chatai.service;
 
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
 import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author zxw
  * @Desriiption: 文件对话业务
@@ -34,6 +39,18 @@ public interface FileChatService {
      */
     ChatGPTResp chatWithFile(String userId, Integer sessionId, String message, String apiKey, ChatGPTReq chatGPTReq, boolean usePinecone);
 
+    /**
+     *  与文件进行对话，异步返回
+     * @param userId
+     * @param sessionId
+     * @param message
+     * @param apiKey
+     * @param chatGPTReq
+     * @param usePinecone
+     * @return
+     */
+    CompletableFuture<ChatGPTResp> chatWithFileAsync(String userId, Integer sessionId, String message, String apiKey, ChatGPTReq chatGPTReq, boolean usePinecone);
+
     /**
      *  删除向量库的索引，不可恢复
      * @param userId
@@ -60,4 +77,16 @@ public interface FileChatService {
      * @param sessionId
      */
     void refreshWindowRecordCache(Integer sessionId);
+
+    /**
+     * 将已持久化的询问和应答追加到会话窗口缓存, 不重新查库
+     * @param sessionId
+     * @param records
+     */
+    void appendWindowRecords(Integer sessionId, List<SessionChatRecordEntity> records);
+
+    /**
+     * 查看[会话窗口]缓存的命中率、淘汰次数和占用容量
+     */
+    Map<String, Object> windowCacheStats();
 }
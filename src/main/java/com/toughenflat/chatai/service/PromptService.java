@@ -30,6 +30,14 @@ public interface PromptService extends IService<PromptEntity> {
      */
     String getByTopic(String topic);
 
+    /**
+     * 根据 `主题` 获取提示的token数
+     * 实现：缓存, 加载缓存时预先计算
+     * @param topic
+     * @return
+     */
+    int getTokenNumByTopic(String topic);
+
     /**
      * 根据枚举类`PromptType`获取提示列表
      * @param promptType
@@ -41,4 +49,9 @@ public interface PromptService extends IService<PromptEntity> {
      * 加载缓存
      */
     void load();
+
+    /**
+     * 手动刷新缓存, 集群部署时由leader节点刷新后同步到其他节点
+     */
+    void flush();
 }
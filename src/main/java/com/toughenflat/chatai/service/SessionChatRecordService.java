@@ -11,6 +11,13 @@ public interface SessionChatRecordService extends IService<SessionChatRecordEnti
      */
     List<SessionChatRecordEntity> getSessionRecord(Integer sessionId);
 
+    /**
+     * 获取会话最近的聊天记录(从旧到新): 从最新的记录往前累加token数, 加上下一条会超过maxTokens时停止
+     *
+     * @param keepFirst 是否另外保留会话的第一条记录(游戏/专家会话), 其token数也计入maxTokens
+     */
+    List<SessionChatRecordEntity> getRecentSessionRecord(Integer sessionId, int maxTokens, boolean keepFirst);
+
     /**
      * 清空聊天记录
      */
@@ -0,0 +1,111 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.toughenflat.chatai.api.openai.BillingUsageWindows;
+import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.resp.BillingSubscription;
+import com.toughenflat.chatai.api.openai.resp.BillingUsage;
+import com.toughenflat.chatai.api.openai.resp.BillingUsageCheckpoint;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.redis.AdminApiKeyRedisHelper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * 增量查询系统key的额度信息
+ * 1 settleDays天之前的使用额度视为不再变化, 统计结果记录到redis (见BillingUsageCheckpoint), 下次只查询记录之后的窗口
+ * 2 没有记录时按窗口向前回溯, 每批并发parallelism个窗口, 遇到使用额度为0的窗口停止 (见BillingUsageWindows)
+ * 3 所有请求都是异步的, 整体并发由openai-billing客户端的Dispatcher限制 (okhttp.profiles.openai-billing.*)
+ */
+@Slf4j
+@Component
+public class ApiKeyBillingHelper {
+
+    @Value("${billing.refresh.parallelism:4}")
+    private int parallelism;
+
+    @Value("${billing.refresh.settleDays:1}")
+    private int settleDays;
+
+    @Resource
+    private AdminApiKeyRedisHelper adminApiKeyRedisHelper;
+
+    /**
+     * 查询key的额度信息, IO异常时以null结束, openai返回错误时以BaseException结束
+     */
+    public CompletableFuture<BillingUsage> refresh(AdminApiKeyEntity entity) {
+        String apiKey = entity.getName();
+        BiFunction<LocalDate, LocalDate, CompletableFuture<BigDecimal>> query =
+                (start, end) -> ChatGPTApi.getUsageAsync(apiKey, start, end);
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        LocalDate settled = LocalDate.now().minusDays(settleDays);
+
+        BillingUsageCheckpoint checkpoint = getCheckpoint(entity);
+        LocalDate settledEnd = checkpoint != null && checkpoint.getUntil().isAfter(settled) ? checkpoint.getUntil() : settled;
+        CompletableFuture<BigDecimal> settledUsage;
+        if (checkpoint == null) {
+            settledUsage = BillingUsageWindows.backfill(query, settledEnd, parallelism);
+        } else if (checkpoint.getUntil().isBefore(settledEnd)) {
+            settledUsage = BillingUsageWindows.sumWindows(query, checkpoint.getUntil(), settledEnd)
+                    .thenApply(usage -> usage == null ? null : checkpoint.getUsageCents().add(usage));
+        } else {
+            settledUsage = CompletableFuture.completedFuture(checkpoint.getUsageCents());
+        }
+        CompletableFuture<BigDecimal> recentUsage = query.apply(settledEnd, tomorrow);
+        CompletableFuture<BillingSubscription> subscription = ChatGPTApi.getSubscriptionAsync(apiKey);
+
+        return CompletableFuture.allOf(settledUsage, recentUsage, subscription).thenApply(v -> {
+            BigDecimal settledCents = settledUsage.join();
+            BigDecimal recentCents = recentUsage.join();
+            BillingSubscription sub = subscription.join();
+            if (settledCents == null || recentCents == null || sub == null) {
+                return null;
+            }
+            if (checkpoint == null || !checkpoint.getUntil().equals(settledEnd)) {
+                setCheckpoint(entity, new BillingUsageCheckpoint(settledCents, settledEnd));
+            }
+            return new BillingUsage(
+                    sub.getTotalAmount(),
+                    settledCents.add(recentCents).divide(new BigDecimal("100"), 2, RoundingMode.HALF_UP),
+                    sub.getExpiredTime());
+        });
+    }
+
+    /**
+     * 该key不再使用时删除记录
+     */
+    public void clear(AdminApiKeyEntity entity) {
+        try {
+            adminApiKeyRedisHelper.deleteBillingCheckpoint(entity.getId());
+        } catch (Exception e) {
+            log.warn("删除apiKey额度记录异常! {}", e.getMessage());
+        }
+    }
+
+    /**
+     * redis不可用时按没有记录处理
+     */
+    private BillingUsageCheckpoint getCheckpoint(AdminApiKeyEntity entity) {
+        try {
+            return adminApiKeyRedisHelper.getBillingCheckpoint(entity.getId(), entity.getName());
+        } catch (Exception e) {
+            log.warn("读取apiKey额度记录异常! {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void setCheckpoint(AdminApiKeyEntity entity, BillingUsageCheckpoint checkpoint) {
+        try {
+            adminApiKeyRedisHelper.setBillingCheckpoint(entity.getId(), entity.getName(), checkpoint);
+        } catch (Exception e) {
+            log.warn("记录apiKey额度异常! {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.google.common.collect.ImmutableMap;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyCircuitBreaker;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyCircuitBreakers;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyQuota;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyQuotas;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.utils.AtomicTokenBucket;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 无锁的apiKey轮询
+ * 1 key列表、熔断器、免费key的令牌桶、轮询下标放在同一个不可变快照中, 刷新时整体替换
+ * 2 每种类型一个原子下标, 选key只需一次getAndIncrement, 不加全局锁
+ * 3 免费key的限流(每分钟3次)使用进程内令牌桶判断, 不在选key时访问redis;
+ *   使用后通过freeKeyUsed回调异步与redis对账, 其他实例已用完时调用exhaust清空本地令牌
+ * 4 除轮询外, 可按ApiType配置其他选key策略(见Strategy), 策略选中的key不可用时退回轮询
+ * 5 额度即将耗尽或处于429等待期的key(见ApiKeyQuota)先跳过, 所有key都受限时才使用
+ */
+public class ApiKeySelector {
+    /**
+     * 免费key每分钟的请求上限
+     */
+    public static final int FREE_KEY_LIMIT_PER_MINUTE = 3;
+
+    /**
+     * apiKey类型一般不会超过26个
+     */
+    private static final int MAX_TYPES = 26;
+
+    private final Consumer<AdminApiKeyEntity> freeKeyUsed;
+
+    private volatile Snapshot snapshot = new Snapshot(ImmutableMap.of());
+
+    private volatile Map<ApiType, Strategy> strategies = ImmutableMap.of();
+
+    public ApiKeySelector(Consumer<AdminApiKeyEntity> freeKeyUsed) {
+        this.freeKeyUsed = freeKeyUsed;
+    }
+
+    /**
+     * 替换key列表, 同时重置轮询下标和令牌桶
+     */
+    public void update(Map<Integer, List<AdminApiKeyEntity>> keys) {
+        this.snapshot = new Snapshot(keys);
+        // 熔断器和额度只保留当前快照中的key
+        Set<String> names = new HashSet<>();
+        keys.values().forEach(entities -> entities.forEach(entity -> names.add(entity.getName())));
+        ApiKeyCircuitBreakers.retain(names);
+        ApiKeyQuotas.retain(names);
+    }
+
+    /**
+     * 设置各类型的选key策略, 未设置的类型使用轮询
+     */
+    public void setStrategies(Map<ApiType, Strategy> strategies) {
+        Map<ApiType, Strategy> copy = new EnumMap<>(ApiType.class);
+        copy.putAll(strategies);
+        this.strategies = copy;
+    }
+
+    public Strategy getStrategy(ApiType apiType) {
+        return strategies.getOrDefault(apiType, Strategy.ROUND_ROBIN);
+    }
+
+    /**
+     * 按该类型配置的策略获取一个可用的key, 没有可用的key时返回null
+     */
+    public String select(ApiType apiType) {
+        Strategy strategy = getStrategy(apiType);
+        if (strategy == Strategy.ROUND_ROBIN) {
+            return roundRobin(apiType);
+        }
+        Snapshot current = this.snapshot;
+        Candidate[] candidates = current.candidates.get(apiType.typeNo);
+        if (candidates == null || candidates.length == 0) {
+            return null;
+        }
+        if (candidates.length == 1) {
+            return candidates[0].entity.getName();
+        }
+
+        // 扫描起点轮转, 负载相同时依次落到不同的key上
+        long index = current.cursors.getAndIncrement(apiType.typeNo) & Long.MAX_VALUE;
+        Candidate candidate = strategy.choose(candidates, (int) (index % candidates.length), System.currentTimeMillis());
+        if (candidate != null && acquire(candidate)) {
+            return candidate.entity.getName();
+        }
+        return roundRobin(apiType);
+    }
+
+    /**
+     * 轮询获取一个可用的key, 跳过已限流的免费key和熔断中的key, 没有可用的key时返回null
+     */
+    public String roundRobin(ApiType apiType) {
+        Snapshot current = this.snapshot;
+        Candidate[] candidates = current.candidates.get(apiType.typeNo);
+        if (candidates == null || candidates.length == 0) {
+            return null;
+        }
+        // 只有一个key，无需轮询 (即使熔断也返回, 没有其他key可以替代)
+        if (candidates.length == 1) {
+            return candidates[0].entity.getName();
+        }
+
+        int size = candidates.length;
+        long now = System.currentTimeMillis();
+        // 第一轮跳过额度受限的key, 第二轮不再跳过
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < size; i++) {
+                // 下标只增不减, 溢出后去掉符号位仍然均匀
+                long index = current.cursors.getAndIncrement(apiType.typeNo) & Long.MAX_VALUE;
+                Candidate candidate = candidates[(int) (index % size)];
+                if (pass == 0 && candidate.quota.isThrottled(now)) {
+                    continue;
+                }
+                if (acquire(candidate)) {
+                    return candidate.entity.getName();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 占用该key: 免费key需要有令牌, 熔断器需要放行
+     */
+    private boolean acquire(Candidate candidate) {
+        if (candidate.freeKeyBucket != null) {
+            if (!candidate.breaker.isAvailable() || !candidate.freeKeyBucket.tryAcquire()
+                    || !candidate.breaker.tryAcquire()) {
+                return false;
+            }
+            freeKeyUsed.accept(candidate.entity);
+            return true;
+        }
+        return candidate.breaker.tryAcquire();
+    }
+
+    /**
+     * 其他实例已用完该免费key的额度, 本地一分钟内不再使用
+     */
+    public void exhaust(Integer keyId) {
+        AtomicTokenBucket bucket = snapshot.freeKeyBuckets.get(keyId);
+        if (bucket != null) {
+            bucket.drainUntil(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+        }
+    }
+
+    /**
+     * 选key策略, 只在未熔断且额度未受限的key中选择; 进行中的请求数和耗时来自ApiKeyCircuitBreaker
+     */
+    public enum Strategy {
+        /**
+         * 轮询
+         */
+        ROUND_ROBIN("round-robin") {
+            @Override
+            Candidate choose(Candidate[] candidates, int offset, long now) {
+                return candidates[offset];
+            }
+        },
+        /**
+         * 进行中的请求数最少
+         */
+        LEAST_IN_FLIGHT("least-in-flight") {
+            @Override
+            Candidate choose(Candidate[] candidates, int offset, long now) {
+                Candidate best = null;
+                int bestLoad = Integer.MAX_VALUE;
+                for (int i = 0; i < candidates.length; i++) {
+                    Candidate candidate = candidates[(offset + i) % candidates.length];
+                    if (!candidate.isUsable(now)) {
+                        continue;
+                    }
+                    int load = candidate.breaker.getInFlight();
+                    if (load < bestLoad) {
+                        best = candidate;
+                        bestLoad = load;
+                        if (load == 0) {
+                            break;
+                        }
+                    }
+                }
+                return best;
+            }
+        },
+        /**
+         * 平均耗时 * (进行中的请求数 + 1) 最小, 慢key和忙key都少分流量
+         */
+        EWMA_LATENCY("ewma-latency") {
+            @Override
+            Candidate choose(Candidate[] candidates, int offset, long now) {
+                Candidate best = null;
+                double bestCost = Double.MAX_VALUE;
+                for (int i = 0; i < candidates.length; i++) {
+                    Candidate candidate = candidates[(offset + i) % candidates.length];
+                    if (!candidate.isUsable(now)) {
+                        continue;
+                    }
+                    // 还没有耗时数据的key按1ms计, 保证新key能被探测到
+                    double cost = (candidate.breaker.getEwmaLatencyMillis() + 1D) * (candidate.breaker.getInFlight() + 1);
+                    if (cost < bestCost) {
+                        best = candidate;
+                        bestCost = cost;
+                    }
+                }
+                return best;
+            }
+        },
+        /**
+         * 按优先级加权随机, 优先级小于1的key按1计
+         */
+        PRIORITY_WEIGHTED("priority-weighted") {
+            @Override
+            Candidate choose(Candidate[] candidates, int offset, long now) {
+                long total = 0;
+                for (Candidate candidate : candidates) {
+                    if (candidate.isUsable(now)) {
+                        total += candidate.weight;
+                    }
+                }
+                if (total == 0) {
+                    return null;
+                }
+                long random = ThreadLocalRandom.current().nextLong(total);
+                for (Candidate candidate : candidates) {
+                    if (!candidate.isUsable(now)) {
+                        continue;
+                    }
+                    random -= candidate.weight;
+                    if (random < 0) {
+                        return candidate;
+                    }
+                }
+                return null;
+            }
+        };
+
+        public final String strategyName;
+
+        Strategy(String strategyName) {
+            this.strategyName = strategyName;
+        }
+
+        /**
+         * 从offset开始扫描, 返回选中的key, 没有可用的key时返回null
+         */
+        abstract Candidate choose(Candidate[] candidates, int offset, long now);
+
+        private static final Map<String, Strategy> MAP = Arrays.stream(values())
+                .collect(Collectors.toMap(item -> item.strategyName, item -> item));
+
+        public static Strategy get(String strategyName) {
+            return MAP.get(strategyName);
+        }
+    }
+
+    private static class Candidate {
+        private final AdminApiKeyEntity entity;
+        private final ApiKeyCircuitBreaker breaker;
+        private final ApiKeyQuota quota;
+        /**
+         * 非免费key为null
+         */
+        private final AtomicTokenBucket freeKeyBucket;
+        /**
+         * 按优先级加权时的权重
+         */
+        private final int weight;
+
+        Candidate(AdminApiKeyEntity entity, AtomicTokenBucket freeKeyBucket) {
+            this.entity = entity;
+            this.breaker = ApiKeyCircuitBreakers.get(entity.getName());
+            this.quota = ApiKeyQuotas.get(entity.getName());
+            this.freeKeyBucket = freeKeyBucket;
+            this.weight = entity.getPriority() == null ? 1 : Math.max(1, entity.getPriority());
+        }
+
+        boolean isUsable(long now) {
+            return breaker.isAvailable() && !quota.isThrottled(now);
+        }
+    }
+
+    private static class Snapshot {
+        private final Map<Integer, Candidate[]> candidates;
+        private final Map<Integer, AtomicTokenBucket> freeKeyBuckets;
+        private final AtomicLongArray cursors = new AtomicLongArray(MAX_TYPES);
+
+        Snapshot(Map<Integer, List<AdminApiKeyEntity>> keys) {
+            Map<Integer, Candidate[]> candidateMap = new HashMap<>();
+            Map<Integer, AtomicTokenBucket> buckets = new HashMap<>();
+            keys.forEach((type, entities) -> {
+                Candidate[] array = new Candidate[entities.size()];
+                for (int i = 0; i < array.length; i++) {
+                    AdminApiKeyEntity entity = entities.get(i);
+                    AtomicTokenBucket bucket = null;
+                    if (ApiType.OPENAI.typeNo.equals(type) && Integer.valueOf(1).equals(entity.getIsFree())) {
+                        bucket = new AtomicTokenBucket(FREE_KEY_LIMIT_PER_MINUTE, 1, TimeUnit.MINUTES);
+                        buckets.put(entity.getId(), bucket);
+                    }
+                    array[i] = new Candidate(entity, bucket);
+                }
+                candidateMap.put(type, array);
+            });
+            this.candidates = ImmutableMap.copyOf(candidateMap);
+            this.freeKeyBuckets = ImmutableMap.copyOf(buckets);
+        }
+    }
+}
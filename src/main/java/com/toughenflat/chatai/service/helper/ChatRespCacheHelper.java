@@ -0,0 +1,146 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.toughenflat.chatai.api.openai.ChatGPTReqHash;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.openai.resp.ChoiceMessages;
+import com.toughenflat.chatai.redis.ChatRespRedisHelper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 单轮对话/翻译的响应缓存
+ * 1 本地Caffeine + redis两级缓存, 命中时不再请求openai
+ * 2 只缓存temperature为0(结果确定)或调用方主动要求缓存的请求
+ * 3 缓存键见ChatGPTReqHash, 与apiKey、user无关
+ */
+@Component
+public class ChatRespCacheHelper {
+    private static final String FINISH_REASON_STOP = "stop";
+
+    /**
+     * 本地缓存容量和过期时间
+     */
+    @Value("${chat.respCache.localMaxSize:10000}")
+    private long localMaxSize;
+
+    @Value("${chat.respCache.localExpireMinutes:10}")
+    private long localExpireMinutes;
+
+    /**
+     * redis缓存过期时间
+     */
+    @Value("${chat.respCache.redisTtlHours:24}")
+    private long redisTtlHours;
+
+    @Resource
+    private ChatRespRedisHelper chatRespRedisHelper;
+
+    private Cache<String, ChatGPTResp> localCache;
+
+    private Duration redisTtl;
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypasses = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        localCache = Caffeine.newBuilder()
+                .maximumSize(localMaxSize)
+                .expireAfterWrite(localExpireMinutes, TimeUnit.MINUTES)
+                .build();
+        redisTtl = Duration.ofHours(redisTtlHours);
+    }
+
+    /**
+     * 命中缓存时直接返回, 否则调用upstream并缓存成功的响应
+     *
+     * @param chatGPTReq 请求
+     * @param useCache   调用方是否要求缓存, 为false时只缓存temperature为0的请求
+     * @param upstream   实际的请求
+     * @return
+     */
+    public CompletableFuture<ChatGPTResp> getOrRequest(ChatGPTReq chatGPTReq, boolean useCache,
+                                                       Supplier<CompletableFuture<ChatGPTResp>> upstream) {
+        if (!isCacheable(chatGPTReq, useCache)) {
+            bypasses.increment();
+            return upstream.get();
+        }
+
+        String hash = hash(chatGPTReq);
+        ChatGPTResp cached = localCache.getIfPresent(hash);
+        if (cached != null) {
+            localHits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        cached = chatRespRedisHelper.get(hash);
+        if (cached != null) {
+            redisHits.increment();
+            localCache.put(hash, cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        misses.increment();
+        return upstream.get().thenApply(resp -> {
+            if (isCompleted(resp)) {
+                localCache.put(hash, resp);
+                chatRespRedisHelper.set(hash, resp, redisTtl);
+            }
+            return resp;
+        });
+    }
+
+    /**
+     * 命中情况
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("localHits", localHits.sum());
+        stats.put("redisHits", redisHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("bypasses", bypasses.sum());
+        stats.put("localSize", localCache.estimatedSize());
+        return stats;
+    }
+
+    static boolean isCacheable(ChatGPTReq chatGPTReq, boolean useCache) {
+        if (Boolean.TRUE.equals(chatGPTReq.getStream()) || CollectionUtils.isEmpty(chatGPTReq.getMessages())) {
+            return false;
+        }
+        return useCache || (chatGPTReq.getTemperature() != null && chatGPTReq.getTemperature() == 0D);
+    }
+
+    /**
+     * 只缓存正常结束的响应, 被max_tokens截断或内容为空的不缓存
+     */
+    static boolean isCompleted(ChatGPTResp resp) {
+        if (resp == null || CollectionUtils.isEmpty(resp.getChoices())) {
+            return false;
+        }
+        ChoiceMessages choice = resp.getChoices().get(0);
+        return choice != null
+                && choice.getMessage() != null
+                && !StringUtils.isEmpty(choice.getMessage().getContent())
+                && FINISH_REASON_STOP.equals(choice.getFinish_reason());
+    }
+
+    static String hash(ChatGPTReq chatGPTReq) {
+        return ChatGPTReqHash.of(chatGPTReq);
+    }
+}
@@ -0,0 +1,200 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.alibaba.fastjson.JSON;
+import com.toughenflat.chatai.redis.ClusterRedisHelper;
+import com.toughenflat.chatai.redis.RedisKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 定时加载任务的leader选举和缓存快照分发
+ * 1 各节点定期抢占/续期redis中的租约, 持有租约的节点为leader
+ * 2 leader负责查库、查额度, 计算出的快照写入redis并通过pub/sub通知, 其他节点直接应用快照
+ * 3 非leader节点的手动刷新请求会转发给leader
+ * 4 关闭选举或redis异常时每个节点都视为leader, 与单机行为一致
+ */
+@Slf4j
+@Component
+public class ClusterLeaderHelper {
+
+    private static final String LEASE_NAME = "cache-loader";
+
+    private static final String SNAPSHOT = "snapshot";
+    private static final String RELOAD = "reload";
+    private static final String SEPARATOR = "|";
+
+    @Value("${cluster.leader.enabled:true}")
+    private boolean enabled;
+
+    @Value("${cluster.leader.leaseSeconds:30}")
+    private long leaseSeconds;
+
+    @Resource
+    private ClusterRedisHelper clusterRedisHelper;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private TaskExecutor queueThreadPool;
+
+    private final String nodeId = hostName() + ":" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final Map<String, Consumer<String>> snapshotListeners = new ConcurrentHashMap<>();
+    private final Map<String, Runnable> reloaders = new ConcurrentHashMap<>();
+
+    private volatile boolean leader;
+    private volatile boolean elected;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                onMessage(String.valueOf(clusterRedisHelper.deserialize(message.getBody())));
+            } catch (Exception e) {
+                log.warn("处理集群通知异常! {}", e.getMessage());
+            }
+        }, new ChannelTopic(RedisKeys.CLUSTER_CHANNEL));
+    }
+
+    /**
+     * 抢占或续期租约, 续期间隔应小于租约时长的一半
+     */
+    @Scheduled(fixedRateString = "${cluster.leader.renewMillis:10000}")
+    public synchronized void heartbeat() {
+        if (!enabled) {
+            leader = true;
+            elected = true;
+            return;
+        }
+        boolean wasLeader = leader;
+        try {
+            Duration ttl = Duration.ofSeconds(leaseSeconds);
+            leader = (wasLeader && clusterRedisHelper.renewLease(LEASE_NAME, nodeId, ttl))
+                    || clusterRedisHelper.tryAcquireLease(LEASE_NAME, nodeId, ttl);
+        } catch (Exception e) {
+            log.warn("leader租约续期异常, 按单机处理! {}", e.getMessage());
+            leader = true;
+        }
+        elected = true;
+        if (wasLeader != leader) {
+            log.info("节点{}{}定时加载任务的leader", nodeId, leader ? "成为" : "不再是");
+        }
+    }
+
+    public boolean isLeader() {
+        if (!elected) {
+            heartbeat();
+        }
+        return leader;
+    }
+
+    /**
+     * leader发布快照: 写入redis后通知其他节点
+     */
+    public void publishSnapshot(String name, Object snapshot) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            clusterRedisHelper.setSnapshot(name, JSON.toJSONString(snapshot));
+            clusterRedisHelper.publish(SNAPSHOT + SEPARATOR + name + SEPARATOR + nodeId);
+        } catch (Exception e) {
+            log.warn("发布快照{}异常! {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取leader最近一次发布的快照, 没有或redis异常时返回null
+     */
+    public String getSnapshot(String name) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            return clusterRedisHelper.getSnapshot(name);
+        } catch (Exception e) {
+            log.warn("读取快照{}异常! {}", name, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 非leader节点请求leader重新加载
+     */
+    public void requestReload(String name) {
+        try {
+            clusterRedisHelper.publish(RELOAD + SEPARATOR + name + SEPARATOR + nodeId);
+        } catch (Exception e) {
+            log.warn("请求重新加载{}异常! {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * 注册快照监听: 非leader节点收到快照更新通知时调用
+     */
+    public void onSnapshot(String name, Consumer<String> listener) {
+        snapshotListeners.put(name, listener);
+    }
+
+    /**
+     * 注册重新加载: leader收到其他节点的重新加载请求时调用
+     */
+    public void onReload(String name, Runnable reloader) {
+        reloaders.put(name, reloader);
+    }
+
+    private void onMessage(String message) {
+        String[] parts = message.split("\\" + SEPARATOR, 3);
+        if (parts.length != 3 || nodeId.equals(parts[2])) {
+            return;
+        }
+        String name = parts[1];
+        if (SNAPSHOT.equals(parts[0]) && !isLeader()) {
+            Consumer<String> listener = snapshotListeners.get(name);
+            if (listener != null) {
+                queueThreadPool.execute(() -> listener.accept(getSnapshot(name)));
+            }
+        } else if (RELOAD.equals(parts[0]) && isLeader()) {
+            Runnable reloader = reloaders.get(name);
+            if (reloader != null) {
+                queueThreadPool.execute(reloader);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (enabled && leader) {
+            try {
+                clusterRedisHelper.releaseLease(LEASE_NAME, nodeId);
+            } catch (Exception e) {
+                log.warn("释放leader租约异常! {}", e.getMessage());
+            }
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
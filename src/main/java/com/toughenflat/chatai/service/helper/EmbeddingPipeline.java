@@ -0,0 +1,292 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.RateLimiter;
+import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.TokenCounter;
+import com.toughenflat.chatai.api.openai.resp.Embedding;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import com.toughenflat.chatai.api.openai.resp.Usage;
+import com.toughenflat.chatai.api.openai.enums.OpenAiRespError;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.exception.BaseException;
+import com.toughenflat.chatai.service.AdminApiKeyService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 大文档的文本编码流水线
+ * 1 按token上限把分块切成多个批次
+ * 2 批次在专用线程池(embeddingThreadPool)中并发执行, 使用系统key时每次请求按选key策略(selectByType)选择openai key,
+ *   避开熔断和限额中的key, 每个key单独限流
+ * 3 限流(429)、服务端错误(5xx)和网络异常的批次重新选key单独重试, 其他错误(如key无效)不重试;
+ *   任意批次最终失败时取消其余批次, 最后按原顺序拼装结果
+ * 4 免费key每分钟只能请求3次, 有付费key时不使用; 限流器在ACQUIRE_TIMEOUT_MILLIS内拿不到许可时换key重试
+ * 用户使用自己的key时只使用该key
+ */
+@Slf4j
+@Component
+public class EmbeddingPipeline {
+
+    /**
+     * 单个批次的token上限和分块数上限
+     */
+    @Value("${embedding.pipeline.maxBatchTokens:8000}")
+    private int maxBatchTokens;
+
+    @Value("${embedding.pipeline.maxBatchSize:256}")
+    private int maxBatchSize;
+
+    /**
+     * 单个批次的最大重试次数
+     */
+    @Value("${embedding.pipeline.maxRetries:3}")
+    private int maxRetries;
+
+    /**
+     * 每个key每秒允许的请求数, 免费key按每分钟3次限制
+     */
+    @Value("${embedding.pipeline.permitsPerSecondPerKey:5}")
+    private double permitsPerSecondPerKey;
+
+    private static final double FREE_KEY_PERMITS_PER_SECOND = 3D / 60;
+
+    private static final long RETRY_BACKOFF_MILLIS = 500L;
+
+    /**
+     * 等待系统key限流许可的最长时间, 超时后换key, 避免免费key长时间占用线程
+     */
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 2_000L;
+
+    @Resource
+    private AdminApiKeyService adminApiKeyService;
+    @Resource
+    private TaskExecutor embeddingThreadPool;
+
+    /**
+     * 用户自己的key也会限流, 长时间不用的限流器自动移除
+     */
+    private final Cache<String, RateLimiter> rateLimiters = Caffeine.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 文本编码, 任意批次重试后仍失败时返回null; 不可重试的错误(如key无效)以BaseException抛出
+     */
+    public EmbeddingResp embed(List<String> chunks, String apiKey) {
+        Map<String, AdminApiKeyEntity> adminKeys = resolveAdminKeys(apiKey);
+        List<List<String>> batches = split(chunks, maxBatchTokens, maxBatchSize);
+
+        AtomicBoolean aborted = new AtomicBoolean();
+        CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+        List<CompletableFuture<EmbeddingResp>> futures = new ArrayList<>(batches.size());
+        for (int i = 0; i < batches.size(); i++) {
+            List<String> batch = batches.get(i);
+            int batchNo = i;
+            CompletableFuture<EmbeddingResp> future = CompletableFuture.supplyAsync(
+                    () -> embedBatch(batch, batchNo, apiKey, adminKeys, aborted), embeddingThreadPool);
+            future.whenComplete((resp, e) -> {
+                if (e != null || resp == null) {
+                    firstFailure.complete(null);
+                }
+            });
+            futures.add(future);
+        }
+        CompletableFuture.anyOf(
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null),
+                firstFailure).join();
+
+        if (firstFailure.isDone()) {
+            // 还在排队的批次不再执行, 执行中的批次不再重试
+            aborted.set(true);
+            futures.forEach(future -> future.cancel(false));
+            BaseException error = firstError(futures);
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+        List<EmbeddingResp> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<EmbeddingResp> future : futures) {
+            results.add(future.join());
+        }
+        log.info("文本编码完成, 分块数: {}, 批次数: {}, 使用系统key: {}", chunks.size(), batches.size(), !adminKeys.isEmpty());
+        return merge(results);
+    }
+
+    /**
+     * 按token上限和分块数上限切分批次, 单个分块超过上限时独占一个批次
+     */
+    static List<List<String>> split(List<String> chunks, int maxBatchTokens, int maxBatchSize) {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (String chunk : chunks) {
+            int tokens = TokenCounter.count(chunk);
+            if (!current.isEmpty() && (currentTokens + tokens > maxBatchTokens || current.size() >= maxBatchSize)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(chunk);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * 已完成的批次中第一个不可重试的错误
+     */
+    private static BaseException firstError(List<CompletableFuture<EmbeddingResp>> futures) {
+        for (CompletableFuture<EmbeddingResp> future : futures) {
+            if (future.isCompletedExceptionally() && !future.isCancelled()) {
+                Throwable cause = future.handle((resp, e) -> e).join();
+                if (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof BaseException) {
+                    return (BaseException) cause;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 每次尝试重新选key, 可重试的失败退避后重试, 不可重试的错误直接抛出
+     */
+    private EmbeddingResp embedBatch(List<String> batch, int batchNo, String apiKey,
+                                     Map<String, AdminApiKeyEntity> adminKeys, AtomicBoolean aborted) {
+        for (int attempt = 0; attempt <= maxRetries && !aborted.get(); attempt++) {
+            String key = selectKey(apiKey, adminKeys);
+            RateLimiter rateLimiter = rateLimiter(key, adminKeys.get(key));
+            if (adminKeys.isEmpty()) {
+                // 用户自己的key没有其他key可换, 等待许可
+                rateLimiter.acquire();
+            } else if (!rateLimiter.tryAcquire(ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("第{}批文本编码, 第{}次尝试, key限流中, 换key重试", batchNo, attempt + 1);
+                continue;
+            }
+            try {
+                EmbeddingResp resp = ChatGPTApi.embeddings(batch, key);
+                if (resp != null && resp.getData() != null && resp.getData().size() == batch.size()) {
+                    return resp;
+                }
+                log.warn("第{}批文本编码失败, 第{}次尝试, 网络异常或结果不完整", batchNo, attempt + 1);
+            } catch (BaseException e) {
+                if (!isRetryable(e)) {
+                    log.error("第{}批文本编码失败, 不可重试: {}", batchNo, e.getMessage());
+                    throw e;
+                }
+                log.warn("第{}批文本编码失败, 第{}次尝试, {}", batchNo, attempt + 1, e.getMessage());
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_BACKOFF_MILLIS << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (!aborted.get()) {
+            log.error("第{}批文本编码失败, 已达到最大重试次数", batchNo);
+        }
+        return null;
+    }
+
+    /**
+     * 限流(429)和服务端错误(5xx)可以重试, 其他响应码(如401 key无效、400请求错误)重试也不会成功
+     */
+    static boolean isRetryable(BaseException e) {
+        return e.getCode() == OpenAiRespError.OPENAI_LIMIT_ERROR.code || (e.getCode() >= 500 && e.getCode() < 600);
+    }
+
+    /**
+     * apiKey是系统key时返回所有openai系统key(按名称索引), 用户自己的key返回空
+     */
+    private Map<String, AdminApiKeyEntity> resolveAdminKeys(String apiKey) {
+        List<AdminApiKeyEntity> adminKeys = adminApiKeyService.getListByType(ApiType.OPENAI);
+        if (CollectionUtils.isEmpty(adminKeys) || adminKeys.stream().noneMatch(key -> key.getName().equals(apiKey))) {
+            return Collections.emptyMap();
+        }
+        Map<String, AdminApiKeyEntity> keys = new HashMap<>(adminKeys.size() * 2);
+        adminKeys.forEach(key -> keys.put(key.getName(), key));
+        return keys;
+    }
+
+    /**
+     * 用户自己的key只使用该key; 系统key按选key策略选择, 有付费key时跳过免费key, 没有可用key时使用调用方传入的key
+     */
+    private String selectKey(String apiKey, Map<String, AdminApiKeyEntity> adminKeys) {
+        if (adminKeys.isEmpty()) {
+            return apiKey;
+        }
+        boolean hasPaidKey = adminKeys.values().stream().anyMatch(key -> !isFree(key));
+        String selected = null;
+        for (int i = 0; i < adminKeys.size(); i++) {
+            selected = adminApiKeyService.selectByType(ApiType.OPENAI);
+            if (selected == null || !hasPaidKey || !isFree(adminKeys.get(selected))) {
+                break;
+            }
+        }
+        return selected == null ? apiKey : selected;
+    }
+
+    private static boolean isFree(AdminApiKeyEntity key) {
+        return key != null && Integer.valueOf(1).equals(key.getIsFree());
+    }
+
+    private RateLimiter rateLimiter(String name, AdminApiKeyEntity key) {
+        return rateLimiters.get(name, k -> RateLimiter.create(
+                isFree(key) ? FREE_KEY_PERMITS_PER_SECOND : permitsPerSecondPerKey));
+    }
+
+    /**
+     * 按批次顺序拼装结果, 重新编号并累加usage
+     */
+    static EmbeddingResp merge(List<EmbeddingResp> results) {
+        List<Embedding> data = new ArrayList<>();
+        int promptTokens = 0;
+        int totalTokens = 0;
+        for (EmbeddingResp resp : results) {
+            List<Embedding> batchData = new ArrayList<>(resp.getData());
+            batchData.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+            for (Embedding embedding : batchData) {
+                embedding.setIndex(data.size());
+                data.add(embedding);
+            }
+            if (resp.getUsage() != null) {
+                promptTokens += resp.getUsage().getPrompt_tokens() == null ? 0 : resp.getUsage().getPrompt_tokens();
+                totalTokens += resp.getUsage().getTotal_tokens() == null ? 0 : resp.getUsage().getTotal_tokens();
+            }
+        }
+        Usage usage = new Usage();
+        usage.setPrompt_tokens(promptTokens);
+        usage.setTotal_tokens(totalTokens);
+
+        EmbeddingResp merged = new EmbeddingResp();
+        merged.setObject("list");
+        merged.setModel(results.isEmpty() ? null : results.get(0).getModel());
+        merged.setData(data);
+        merged.setUsage(usage);
+        return merged;
+    }
+}
@@ -0,0 +1,293 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.service.AdminApiKeyService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * 对冲请求: 请求在耗时分位数阈值内没有返回时, 使用另一个系统key再发一次相同的请求,
+ * 先返回的结果生效, 另一个请求被取消
+ * 1 只对使用系统key的请求对冲, 用户自己的key不会被替换; 对冲使用的key按选key策略选择, 避开熔断和限额中的key
+ * 2 对冲预算: 每个请求积累budgetPercent%个额度, 每次对冲消耗1个, 保证额外流量不超过budgetPercent%
+ * 3 耗时样本少于minSamples时分位数不可靠, 不对冲
+ */
+@Slf4j
+@Component
+public class HedgedRequestHelper {
+
+    @Value("${chat.hedge.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 对冲阈值使用的耗时分位数
+     */
+    @Value("${chat.hedge.percentile:95}")
+    private double percentile;
+
+    /**
+     * 对冲阈值的下限 (毫秒), 样本不足时也使用该值
+     */
+    @Value("${chat.hedge.minDelayMillis:3000}")
+    private long minDelayMillis;
+
+    /**
+     * 对冲请求占总请求的比例上限 (%)
+     */
+    @Value("${chat.hedge.budgetPercent:5}")
+    private int budgetPercent;
+
+    /**
+     * 开始对冲所需的最少耗时样本数
+     */
+    @Value("${chat.hedge.minSamples:64}")
+    private int minSamples;
+
+    /**
+     * 预算额度上限, 避免长时间空闲后积累过多额度导致突发对冲
+     */
+    private static final long MAX_BUDGET = 10 * 100L;
+
+    @Resource
+    private AdminApiKeyService adminApiKeyService;
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "hedged-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LatencyWindow latencyWindow = new LatencyWindow(1024);
+
+    /**
+     * 实际的请求, 测试时替换
+     */
+    private BiFunction<ChatGPTReq, String, CompletableFuture<ChatGPTResp>> upstream = ChatGPTApi::sessionReqAsync;
+
+    /**
+     * 对冲额度, 单位为1/100次
+     */
+    private final AtomicLong budget = new AtomicLong();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetRejects = new LongAdder();
+
+    /**
+     * 带上下文的对话, 异步, 超过阈值未返回时对冲
+     */
+    public CompletableFuture<ChatGPTResp> sessionReqAsync(ChatGPTReq chatGPTReq, String apiKey) {
+        long start = System.nanoTime();
+        if (!enabled || !isAdminKey(apiKey) || latencyWindow.size() < minSamples) {
+            return record(upstream.apply(chatGPTReq, apiKey), start);
+        }
+        requests.increment();
+        budget.accumulateAndGet(budgetPercent, (current, delta) -> Math.min(MAX_BUDGET, current + delta));
+
+        CompletableFuture<ChatGPTResp> result = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        AtomicReference<CompletableFuture<ChatGPTResp>> hedge = new AtomicReference<>();
+
+        CompletableFuture<ChatGPTResp> primary = record(upstream.apply(chatGPTReq, apiKey), start);
+        primary.whenComplete((resp, e) -> onAttemptComplete(result, running, resp, e, false));
+
+        ScheduledFuture<?> timer = scheduler.schedule(() -> {
+            if (result.isDone() || !tryAcquireBudget()) {
+                return;
+            }
+            String hedgeKey = anotherKey(apiKey);
+            if (hedgeKey == null) {
+                return;
+            }
+            running.incrementAndGet();
+            hedges.increment();
+            log.info("请求超过{}ms未返回, 使用另一个key对冲", hedgeDelayMillis());
+            CompletableFuture<ChatGPTResp> hedgeFuture = upstream.apply(chatGPTReq, hedgeKey);
+            hedge.set(hedgeFuture);
+            hedgeFuture.whenComplete((resp, e) -> onAttemptComplete(result, running, resp, e, true));
+            if (result.isDone()) {
+                hedgeFuture.cancel(true);
+            }
+        }, hedgeDelayMillis(), TimeUnit.MILLISECONDS);
+
+        // 任意一方返回后取消定时器和另一方的请求
+        result.whenComplete((resp, e) -> {
+            timer.cancel(false);
+            primary.cancel(true);
+            CompletableFuture<ChatGPTResp> hedgeFuture = hedge.get();
+            if (hedgeFuture != null) {
+                hedgeFuture.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 对冲统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hedgeDelayMillis", hedgeDelayMillis());
+        stats.put("requests", requests.sum());
+        stats.put("hedges", hedges.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("budgetRejects", budgetRejects.sum());
+        stats.put("latencySamples", latencyWindow.size());
+        return stats;
+    }
+
+    /**
+     * 成功的结果直接生效; 失败时若还有请求在进行则等待, 否则以该结果结束
+     */
+    private void onAttemptComplete(CompletableFuture<ChatGPTResp> result, AtomicInteger running,
+                                   ChatGPTResp resp, Throwable e, boolean isHedge) {
+        int remaining = running.decrementAndGet();
+        if (e == null && resp != null) {
+            if (result.complete(resp) && isHedge) {
+                hedgeWins.increment();
+            }
+            return;
+        }
+        if (remaining == 0) {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(null);
+            }
+        }
+    }
+
+    /**
+     * 记录成功请求的耗时, 返回原future, 保证取消时能取消底层的Call
+     */
+    private CompletableFuture<ChatGPTResp> record(CompletableFuture<ChatGPTResp> future, long start) {
+        future.whenComplete((resp, e) -> {
+            if (e == null && resp != null) {
+                latencyWindow.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
+        return future;
+    }
+
+    private long hedgeDelayMillis() {
+        return Math.max(minDelayMillis, latencyWindow.percentile(percentile));
+    }
+
+    private boolean tryAcquireBudget() {
+        while (true) {
+            long current = budget.get();
+            if (current < 100) {
+                budgetRejects.increment();
+                return false;
+            }
+            if (budget.compareAndSet(current, current - 100)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isAdminKey(String apiKey) {
+        List<AdminApiKeyEntity> keys = adminApiKeyService.getListByType(ApiType.OPENAI);
+        return !CollectionUtils.isEmpty(keys) && keys.size() > 1
+                && keys.stream().anyMatch(key -> key.getName().equals(apiKey));
+    }
+
+    /**
+     * 按选key策略选择与原请求不同的系统key, 选不到时不对冲
+     */
+    private String anotherKey(String apiKey) {
+        List<AdminApiKeyEntity> keys = adminApiKeyService.getListByType(ApiType.OPENAI);
+        int attempts = CollectionUtils.isEmpty(keys) ? 0 : keys.size();
+        for (int i = 0; i < attempts; i++) {
+            String key = adminApiKeyService.selectByType(ApiType.OPENAI);
+            if (key == null) {
+                return null;
+            }
+            if (!key.equals(apiKey)) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    void setUpstream(BiFunction<ChatGPTReq, String, CompletableFuture<ChatGPTResp>> upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * 最近N次成功请求的耗时, 分位数每隔REFRESH_INTERVAL个样本重新计算一次
+     */
+    static class LatencyWindow {
+        static final int REFRESH_INTERVAL = 64;
+
+        private final long[] samples;
+        private int count;
+        private int next;
+        /**
+         * 上次重新计算后新增的样本数
+         */
+        private int sinceRefresh;
+        private int refreshes;
+        private volatile long[] sorted = new long[0];
+
+        LatencyWindow(int size) {
+            this.samples = new long[size];
+        }
+
+        synchronized void add(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+            if (++sinceRefresh >= REFRESH_INTERVAL) {
+                sinceRefresh = 0;
+                refreshes++;
+                long[] copy = Arrays.copyOf(samples, count);
+                Arrays.sort(copy);
+                sorted = copy;
+            }
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        synchronized int refreshes() {
+            return refreshes;
+        }
+
+        long percentile(double p) {
+            long[] current = sorted;
+            if (current.length == 0) {
+                return 0L;
+            }
+            int index = (int) Math.ceil(p / 100 * current.length) - 1;
+            return current[Math.max(0, Math.min(current.length - 1, index))];
+        }
+    }
+}
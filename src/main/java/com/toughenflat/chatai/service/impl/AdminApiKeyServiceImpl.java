@@ -1,10 +1,13 @@
 package com.toughenflat.chatai.service.impl;
 
+import com.alibaba.fastjson.JSON;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.google.common.collect.ImmutableMap;
-import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.AdminApiKeyPool;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyCircuitBreakers;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyQuotas;
 import com.toughenflat.chatai.api.openai.enums.OpenAiRespError;
-import com.toughenflat.chatai.api.openai.resp.BillingUsage;
+import com.toughenflat.chatai.config.ApiKeySelectionProperties;
 import com.toughenflat.chatai.entity.AdminApiKeyEntity;
 import com.toughenflat.chatai.enums.ApiType;
 import com.toughenflat.chatai.exception.BaseException;
@@ -12,19 +15,34 @@ import com.toughenflat.chatai.global.constant.TimeInterval;
 import com.toughenflat.chatai.mapper.AdminApiKeyMapper;
 import com.toughenflat.chatai.redis.AdminApiKeyRedisHelper;
 import com.toughenflat.chatai.service.AdminApiKeyService;
+import com.toughenflat.chatai.service.helper.ApiKeyBillingHelper;
+import com.toughenflat.chatai.service.helper.ApiKeySelector;
+import com.toughenflat.chatai.service.helper.ClusterLeaderHelper;
+import com.toughenflat.chatai.utils.HighWaterMark;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CountDownLatch;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -36,8 +54,30 @@ public class AdminApiKeyServiceImpl extends ServiceImpl<AdminApiKeyMapper, Admin
     @Resource
     private AdminApiKeyRedisHelper adminApiKeyRedisHelper;
 
-    private Map<Integer, List<AdminApiKeyEntity>> cache = ImmutableMap.of();
-    private int[] roundRobinIndex;
+    @Resource
+    private ApiKeySelectionProperties apiKeySelectionProperties;
+
+    @Resource
+    private ApiKeyBillingHelper apiKeyBillingHelper;
+
+    @Resource
+    private ClusterLeaderHelper clusterLeaderHelper;
+
+    /**
+     * 集群快照名 (见ClusterLeaderHelper)
+     */
+    private static final String SNAPSHOT_NAME = "adminApiKey";
+
+    private volatile Map<Integer, List<AdminApiKeyEntity>> cache = ImmutableMap.of();
+
+    private final ApiKeySelector apiKeySelector = new ApiKeySelector(this::onFreeKeyUsed);
+
+    /**
+     * 全量加载和增量刷新互斥
+     */
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    private final HighWaterMark highWaterMark = new HighWaterMark();
 
     @Override
     public List<AdminApiKeyEntity> getListByType(ApiType apiTypes) {
@@ -55,90 +95,236 @@ public class AdminApiKeyServiceImpl extends ServiceImpl<AdminApiKeyMapper, Admin
         return false;
     }
 
-    @Override
-    public String roundRobinGetByType(ApiType apiTypes) {
-        String apiKeyName = null;
-        if (!CollectionUtils.isEmpty(cache)) {
-            // 根据apikey类型获取对应的apikey列表
-            List<AdminApiKeyEntity> adminApiKeyEntities = cache.get(apiTypes.typeNo);
-
-            // 只有一个key，无需轮询
-            if (adminApiKeyEntities.size() == 1) {
-                return adminApiKeyEntities.get(0).getName();
+    @PostConstruct
+    public void initStrategies() {
+        Map<ApiType, ApiKeySelector.Strategy> strategies = new EnumMap<>(ApiType.class);
+        apiKeySelectionProperties.getStrategy().forEach((typeName, strategyName) -> {
+            ApiType apiType = Arrays.stream(ApiType.values())
+                    .filter(item -> item.typeName.equals(typeName)).findFirst().orElse(null);
+            ApiKeySelector.Strategy strategy = ApiKeySelector.Strategy.get(strategyName);
+            if (apiType == null || strategy == null) {
+                log.warn("未知的选key策略配置: apikey.strategy.{}={}", typeName, strategyName);
+                return;
             }
+            strategies.put(apiType, strategy);
+        });
+        apiKeySelector.setStrategies(strategies);
+        log.info("选key策略: {}", strategies);
+    }
 
-            synchronized (AdminApiKeyServiceImpl.class) {
-                AdminApiKeyEntity adminApiKeyEntity = null;
-                int index;
-
-                int roundTime = 0;
-                do {
-                    // 根据apikey类型获取轮询下标
-                    index = roundRobinIndex[apiTypes.typeNo];
-
-                    // 下标即将越界置为0
-                    if (index == Integer.MAX_VALUE) {
-                        index = 0;
-                    }
+    /**
+     * 请求合并(见AdminApiKeyPool)发出时按选key策略选择openai系统key
+     */
+    @PostConstruct
+    public void initKeyPool() {
+        AdminApiKeyPool.setSelector(() -> selectByType(ApiType.OPENAI));
+    }
 
-                    adminApiKeyEntity = adminApiKeyEntities.get(index % adminApiKeyEntities.size());
+    @PostConstruct
+    public void initCluster() {
+        clusterLeaderHelper.onSnapshot(SNAPSHOT_NAME, this::applySnapshot);
+        clusterLeaderHelper.onReload(SNAPSHOT_NAME, this::load);
+    }
 
-                    roundRobinIndex[apiTypes.typeNo] = ++index;
-                    roundTime++;
-                    if (roundTime > adminApiKeyEntities.size()) {
-                        return null;
-                    }
-                }
-                // 若当前请求类型是openai且轮询到的key是免费类型的，那么需要判断该key是否受限。(是则继续轮询，否则跳出轮询使用该key)
-                while (ApiType.OPENAI.equals(apiTypes) && adminApiKeyEntity.getIsFree() == 1
-                        && adminApiKeyRedisHelper.judgeOpenAiFreeKeyLimit(adminApiKeyEntity.getId()));
+    @Override
+    public String selectByType(ApiType apiTypes) {
+        String apiKeyName = apiKeySelector.select(apiTypes);
+        log.debug("使用{}策略获取apikey类型为{}的apikey, 获取结果:{}",
+                apiKeySelector.getStrategy(apiTypes).strategyName, apiTypes.typeName, apiKeyName != null);
+        return apiKeyName;
+    }
 
-                apiKeyName = adminApiKeyEntity.getName();
+    @Override
+    public String roundRobinGetByType(ApiType apiTypes) {
+        String apiKeyName = apiKeySelector.roundRobin(apiTypes);
+        log.debug("轮询获取apikey类型为{}的apikey, 获取结果:{}", apiTypes.typeName, apiKeyName != null);
+        return apiKeyName;
+    }
 
-                // 若当前请求类型是openai的轮询到的key是免费类型的，那么需要记录限制信息（1分钟不能超过3次请求）
-                if (ApiType.OPENAI.equals(apiTypes) && adminApiKeyEntity.getIsFree() == 1) {
-                    adminApiKeyRedisHelper.incrOpenAiFreeKeyLimit(adminApiKeyEntity.getId(), 1);
+    /**
+     * 免费key被使用后异步记录到redis（1分钟不能超过3次请求）, 多个实例共享该限制;
+     * 若redis中的次数已超过限制, 说明其他实例已用完额度, 本地不再使用该key
+     */
+    private void onFreeKeyUsed(AdminApiKeyEntity adminApiKeyEntity) {
+        queueThreadPool.execute(() -> {
+            try {
+                int count = adminApiKeyRedisHelper.incrOpenAiFreeKeyLimit(adminApiKeyEntity.getId(), 1);
+                if (count > ApiKeySelector.FREE_KEY_LIMIT_PER_MINUTE) {
+                    apiKeySelector.exhaust(adminApiKeyEntity.getId());
                 }
-                log.info("正在轮询获取apikey类型为{}的apikey, 当前下标为:{}, apikey为:{}", apiTypes.typeName, index, apiKeyName);
+            } catch (Exception e) {
+                log.warn("记录免费key使用次数异常! {}", e.getMessage());
             }
-        }
-        return apiKeyName;
+        });
     }
 
     /**
-     * 1 多线程判断apiKey是否能够被使用
-     * 2 重置轮询下标
+     * 1 并发判断apiKey是否能够被使用 (额度增量查询见ApiKeyBillingHelper)
+     * 2 全部判断完成后整体替换缓存, 同时重置轮询下标; 期间继续使用旧缓存, 不阻塞调用方
+     * 3 上一次加载未完成时不重复加载
+     * 4 集群部署时只有leader节点查询额度并发布快照, 其他节点直接应用快照; 还没有快照时在本地加载
      * 定时任务：每隔1小时执行一次
      */
     @Scheduled(initialDelay = TimeInterval.ZERO, fixedRate = TimeInterval.ONE_HOUR)
     @Override
     public void load() {
-        Map<Integer, List<AdminApiKeyEntity>> collect = new ConcurrentHashMap<>();
-        List<AdminApiKeyEntity> adminApiKeyEntityList = baseMapper.selectList(null);
-
-        // 使用减少计数辅助类让主线程等待多线程执行完毕
-        CountDownLatch countDownLatch = new CountDownLatch(adminApiKeyEntityList.size());
-        for (AdminApiKeyEntity adminApiKeyEntity : adminApiKeyEntityList) {
-            queueThreadPool.execute(() -> {
-                try {
-                    if (isValidOpenAiApiKey(adminApiKeyEntity)) {
-                        if (!collect.containsKey(adminApiKeyEntity.getType())) {
-                            collect.putIfAbsent(adminApiKeyEntity.getType(), new CopyOnWriteArrayList<>());
-                        }
-                        collect.get(adminApiKeyEntity.getType()).add(adminApiKeyEntity);
+        if (!clusterLeaderHelper.isLeader() && applySnapshot(clusterLeaderHelper.getSnapshot(SNAPSHOT_NAME))) {
+            return;
+        }
+        if (!loading.compareAndSet(false, true)) {
+            log.info("AdminApiKey库缓存正在加载中, 跳过本次加载");
+            return;
+        }
+        List<AdminApiKeyEntity> adminApiKeyEntityList;
+        try {
+            adminApiKeyEntityList = baseMapper.selectList(null);
+        } catch (RuntimeException e) {
+            loading.set(false);
+            throw e;
+        }
+        highWaterMark.reset(adminApiKeyEntityList.stream().map(AdminApiKeyEntity::getUpdateTime).collect(Collectors.toList()));
+
+        List<CompletableFuture<Boolean>> futures = adminApiKeyEntityList.stream()
+                .map(this::isValidApiKeyAsync)
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((v, t) -> {
+            try {
+                Map<Integer, List<AdminApiKeyEntity>> collect = new HashMap<>();
+                for (int i = 0; i < adminApiKeyEntityList.size(); i++) {
+                    if (Boolean.TRUE.equals(futures.get(i).getNow(false))) {
+                        AdminApiKeyEntity adminApiKeyEntity = adminApiKeyEntityList.get(i);
+                        collect.computeIfAbsent(adminApiKeyEntity.getType(), type -> new ArrayList<>()).add(adminApiKeyEntity);
                     }
-                } finally {
-                    countDownLatch.countDown();
                 }
-            });
+                swap(collect);
+                publishSnapshot(collect);
+            } catch (Exception e) {
+                log.error("加载AdminApiKey库缓存异常! {}", e.getMessage());
+            } finally {
+                loading.set(false);
+            }
+        });
+    }
+
+    /**
+     * 增量刷新: 按update_time高水位轮询admin_apikey的变更, 只处理变更的行, 在轮询间隔内生效
+     * 1 逻辑删除的key移出缓存
+     * 2 新增或配置(类型、key、优先级、是否免费)变化的key重新判断是否可用
+     * 3 只有额度信息被更新的行(如全量加载时写回的额度)跳过
+     * 集群部署时由leader轮询, 结果以快照同步到其他节点
+     */
+    @Scheduled(initialDelayString = "${cache.changeFeed.pollMillis:5000}", fixedDelayString = "${cache.changeFeed.pollMillis:5000}")
+    public void pollChanges() {
+        Date since = highWaterMark.since();
+        if (since == null || !clusterLeaderHelper.isLeader() || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        List<AdminApiKeyEntity> changedRows;
+        try {
+            changedRows = baseMapper.selectChangedSince(since);
+        } catch (RuntimeException e) {
+            loading.set(false);
+            log.warn("查询AdminApiKey变更异常! {}", e.getMessage());
+            return;
+        }
+        changedRows.forEach(row -> highWaterMark.advance(row.getUpdateTime()));
+        // 重叠窗口内的行每次轮询都会被查出, 已处理过的(包括校验未通过而不在缓存中的key)不再重复校验
+        changedRows = changedRows.stream()
+                .filter(row -> highWaterMark.markProcessed(row.getId(), row.getUpdateTime()))
+                .collect(Collectors.toList());
+
+        Map<Integer, AdminApiKeyEntity> current = cache.values().stream().flatMap(List::stream)
+                .collect(Collectors.toMap(AdminApiKeyEntity::getId, entity -> entity));
+        Set<Integer> removed = new HashSet<>();
+        List<AdminApiKeyEntity> changed = new ArrayList<>();
+        for (AdminApiKeyEntity row : changedRows) {
+            AdminApiKeyEntity cached = current.get(row.getId());
+            if (Integer.valueOf(1).equals(row.getIsDeleted())) {
+                if (cached != null) {
+                    removed.add(row.getId());
+                }
+            } else if (cached == null || !sameConfig(cached, row)) {
+                changed.add(row);
+            }
+        }
+        if (removed.isEmpty() && changed.isEmpty()) {
+            loading.set(false);
+            return;
+        }
+
+        List<CompletableFuture<Boolean>> futures = changed.stream()
+                .map(this::isValidApiKeyAsync)
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((v, t) -> {
+            try {
+                Map<Integer, AdminApiKeyEntity> merged = new HashMap<>();
+                cache.values().forEach(list -> list.forEach(entity -> merged.put(entity.getId(), entity)));
+                removed.forEach(merged::remove);
+                for (int i = 0; i < changed.size(); i++) {
+                    AdminApiKeyEntity row = changed.get(i);
+                    if (Boolean.TRUE.equals(futures.get(i).getNow(false))) {
+                        merged.put(row.getId(), row);
+                    } else {
+                        merged.remove(row.getId());
+                    }
+                }
+                Map<Integer, List<AdminApiKeyEntity>> collect = merged.values().stream()
+                        .collect(Collectors.groupingBy(AdminApiKeyEntity::getType));
+                swap(collect);
+                publishSnapshot(collect);
+                log.info("增量刷新AdminApiKey库缓存, 变更{}个, 删除{}个", changed.size(), removed.size());
+            } catch (Exception e) {
+                log.error("增量刷新AdminApiKey库缓存异常! {}", e.getMessage());
+            } finally {
+                loading.set(false);
+            }
+        });
+    }
+
+    private static boolean sameConfig(AdminApiKeyEntity cached, AdminApiKeyEntity row) {
+        return Objects.equals(cached.getType(), row.getType())
+                && Objects.equals(cached.getName(), row.getName())
+                && Objects.equals(cached.getPriority(), row.getPriority())
+                && Objects.equals(cached.getIsFree(), row.getIsFree());
+    }
+
+    private void publishSnapshot(Map<Integer, List<AdminApiKeyEntity>> collect) {
+        if (clusterLeaderHelper.isLeader()) {
+            clusterLeaderHelper.publishSnapshot(SNAPSHOT_NAME,
+                    collect.values().stream().flatMap(List::stream).collect(Collectors.toList()));
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (clusterLeaderHelper.isLeader()) {
+            load();
+        } else {
+            clusterLeaderHelper.requestReload(SNAPSHOT_NAME);
+        }
+    }
+
+    /**
+     * 应用leader发布的快照
+     * @return 快照为空或无法解析时返回false
+     */
+    private boolean applySnapshot(String json) {
+        if (StringUtils.isEmpty(json)) {
+            return false;
         }
         try {
-            countDownLatch.await();
-        } catch (InterruptedException e) {
-            log.error("error{}", e.getMessage());
-            Thread.currentThread().interrupt();
+            List<AdminApiKeyEntity> entities = JSON.parseArray(json, AdminApiKeyEntity.class);
+            swap(entities.stream().collect(Collectors.groupingBy(AdminApiKeyEntity::getType)));
+            // 成为leader后从快照的位置开始增量刷新
+            highWaterMark.reset(entities.stream().map(AdminApiKeyEntity::getUpdateTime).collect(Collectors.toList()));
+            return true;
+        } catch (Exception e) {
+            log.warn("应用AdminApiKey快照异常! {}", e.getMessage());
+            return false;
         }
+    }
 
+    private void swap(Map<Integer, List<AdminApiKeyEntity>> collect) {
         // 排序
         Map<Integer, List<AdminApiKeyEntity>> sortedCollect = collect.entrySet().stream().collect(
                 Collectors.toMap(
@@ -153,14 +339,15 @@ public class AdminApiKeyServiceImpl extends ServiceImpl<AdminApiKeyMapper, Admin
 
         // 复制到缓存中
         this.cache = ImmutableMap.copyOf(sortedCollect);
+        // 替换轮询快照, 同时重置轮询下标
+        apiKeySelector.update(this.cache);
+        List<AdminApiKeyEntity> openAIKeys = this.cache.get(ApiType.OPENAI.typeNo);
+        AdminApiKeyPool.update(openAIKeys == null ? Collections.emptyList()
+                : openAIKeys.stream().map(AdminApiKeyEntity::getName).collect(Collectors.toList()));
         if (CollectionUtils.isEmpty(this.cache)) {
-            this.roundRobinIndex = new int[2];
             return;
         }
 
-        // apiKey类型一般不会超过26个, 这边手动设置
-        this.roundRobinIndex = new int[26];
-
         log.info("加载AdminApiKey库缓存成功！, 有效的openai的apikey数量:{}",
                 cache.get(ApiType.OPENAI.typeNo) != null ? cache.get(ApiType.OPENAI.typeNo).size() : 0);
     }
@@ -170,53 +357,91 @@ public class AdminApiKeyServiceImpl extends ServiceImpl<AdminApiKeyMapper, Admin
         if (!CollectionUtils.isEmpty(cache)) {
             // 根据apikey类型获取对应的apikey列表
             List<AdminApiKeyEntity> adminApiKeyEntities = cache.get(apiTypes.typeNo);
+            if (CollectionUtils.isEmpty(adminApiKeyEntities)) {
+                return null;
+            }
 
-            return CollectionUtils.isEmpty(adminApiKeyEntities) ? null : adminApiKeyEntities.get(0).getName();
+            // 在未熔断且额度未受限的key中, 取优先级最高的一组里健康分最高的key; 全部熔断时退回优先级最高的key
+            AdminApiKeyEntity best = null;
+            double bestScore = -1;
+            for (AdminApiKeyEntity entity : adminApiKeyEntities) {
+                if (best != null && !best.getPriority().equals(entity.getPriority())) {
+                    break;
+                }
+                if (!ApiKeyCircuitBreakers.isAvailable(entity.getName()) || ApiKeyQuotas.isThrottled(entity.getName())) {
+                    continue;
+                }
+                double score = ApiKeyCircuitBreakers.score(entity.getName());
+                if (score > bestScore) {
+                    best = entity;
+                    bestScore = score;
+                }
+            }
+            if (best != null && ApiKeyCircuitBreakers.tryAcquire(best.getName())) {
+                return best.getName();
+            }
+            return adminApiKeyEntities.get(0).getName();
         }
         return null;
     }
 
     /**
-     * 判断当前的openai的apiKey是否有效
+     * 判断当前的openai的apiKey是否有效, 数据库更新在queueThreadPool中执行
      *
      * @param adminApiKeyEntity 管理员密钥
-     * @return 有效与否
+     * @return 有效与否, 不会异常结束
      */
-    private boolean isValidOpenAiApiKey(AdminApiKeyEntity adminApiKeyEntity) {
+    private CompletableFuture<Boolean> isValidApiKeyAsync(AdminApiKeyEntity adminApiKeyEntity) {
         // 非openai类型，放行
         if (!ApiType.OPENAI.typeNo.equals(adminApiKeyEntity.getType())) {
-            return true;
+            return CompletableFuture.completedFuture(true);
         }
 
-        // 判断该APIKey是否有余额, 余额不足则删掉apiKey, 不加载到缓存
-        try {
-            BillingUsage billingUsage = ChatGPTApi.getBillingUsage(adminApiKeyEntity.getName());
+        return apiKeyBillingHelper.refresh(adminApiKeyEntity).handleAsync((billingUsage, t) -> {
+            try {
+                if (t != null) {
+                    throw t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                }
+                // IO异常大概率是网络问题, 暂时不删除apiKey, 暂时放行
+                if (billingUsage == null) {
+                    return true;
+                }
+                // 余额不足
+                if (billingUsage.getTotalAmount().compareTo(billingUsage.getTotalUsage()) <= 0) {
+                    log.error("{}的额度使用完毕！", adminApiKeyEntity.getName());
+                    deleteApiKey(adminApiKeyEntity);
+                    return false;
+                }
+                // 余额充足，更新信息
+                adminApiKeyEntity.setTotalAmount(billingUsage.getTotalAmount());
+                adminApiKeyEntity.setTotalUsage(billingUsage.getTotalUsage());
+                adminApiKeyEntity.setExpiredTime(billingUsage.getExpiredTime());
 
-            // IO异常大概率是网络问题, 暂时不删除apiKey, 暂时放行
-            if (billingUsage == null) {
+                // 只写回额度信息, update_time由数据库更新
+                baseMapper.updateById(AdminApiKeyEntity.builder()
+                        .id(adminApiKeyEntity.getId())
+                        .totalAmount(billingUsage.getTotalAmount())
+                        .totalUsage(billingUsage.getTotalUsage())
+                        .expiredTime(billingUsage.getExpiredTime())
+                        .build());
                 return true;
             }
-            // 余额不足
-            if (billingUsage.getTotalAmount().compareTo(billingUsage.getTotalUsage()) <= 0) {
-                log.error("{}的额度使用完毕！", adminApiKeyEntity.getName());
-                baseMapper.deleteById(adminApiKeyEntity.getId());
+            // 捕获请求openai错误的异常, 删掉这个apiKey, 不加载到缓存
+            catch (BaseException e) {
+                log.error("apiKey:{}, error:{}", adminApiKeyEntity.getName(), e.getMsg());
+                if (e.getCode() != OpenAiRespError.OPENAI_LIMIT_ERROR.code) {
+                    deleteApiKey(adminApiKeyEntity);
+                }
+                return false;
+            } catch (Throwable e) {
+                log.error("apiKey:{}, 判断是否有效异常:{}", adminApiKeyEntity.getName(), e.getMessage());
                 return false;
             }
-            // 余额充足，更新信息
-            adminApiKeyEntity.setTotalAmount(billingUsage.getTotalAmount());
-            adminApiKeyEntity.setTotalUsage(billingUsage.getTotalUsage());
-            adminApiKeyEntity.setExpiredTime(billingUsage.getExpiredTime());
+        }, queueThreadPool);
+    }
 
-            baseMapper.updateById(adminApiKeyEntity);
-            return true;
-        }
-        // 捕获请求openai错误的异常, 删掉这个apiKey, 不加载到缓存
-        catch (BaseException e) {
-            log.error("apiKey:{}, error:{}", adminApiKeyEntity.getName(), e.getMsg());
-            if (e.getCode() != OpenAiRespError.OPENAI_LIMIT_ERROR.code) {
-                baseMapper.deleteById(adminApiKeyEntity.getId());
-            }
-            return false;
-        }
+    private void deleteApiKey(AdminApiKeyEntity adminApiKeyEntity) {
+        baseMapper.deleteById(adminApiKeyEntity.getId());
+        apiKeyBillingHelper.clear(adminApiKeyEntity);
     }
 }
@@ -1,10 +1,9 @@
 package com.toughenflat.chatai.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.ChatGPTSingleFlight;
 import com.toughenflat.chatai.api.openai.enums.Role;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
 import com.toughenflat.chatai.api.openai.req.ContextMessage;
@@ -13,45 +12,47 @@ import com.toughenflat.chatai.api.openai.resp.CreditGrantsResp;
 import com.toughenflat.chatai.entity.SessionChatRecordEntity;
 import com.toughenflat.chatai.entity.UserSessionEntity;
 import com.toughenflat.chatai.enums.SessionType;
+import com.toughenflat.chatai.redis.SessionWindowRedisHelper;
 import com.toughenflat.chatai.service.*;
 import com.toughenflat.chatai.sse.OpenAIOneShotChatSSEListener;
 import com.toughenflat.chatai.sse.OpenAISessionChatSSEListener;
+import com.toughenflat.chatai.service.helper.ChatRespCacheHelper;
 import com.toughenflat.chatai.service.helper.ExpertChatHelper;
+import com.toughenflat.chatai.service.helper.HedgedRequestHelper;
+import com.toughenflat.chatai.utils.SessionWindow;
+import com.toughenflat.chatai.utils.SessionWindowCache;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class ChatServiceImpl implements ChatService {
     /**
-     * 缓存某个会话的token总数不超过k的[会话窗口]
-     * Ps: 关于Caffeine Cache可以参考https://www.cnblogs.com/rickiyang/p/11074158.html
+     * [会话窗口]缓存的容量 (MB), 按窗口内容的字节数计算
      */
-    private LoadingCache<Integer, Deque<SessionChatRecordEntity>> normalWindowRecordCache = Caffeine.newBuilder()
-            .initialCapacity(1024)
-            // 手动设置10分钟缓存过期
-            .expireAfterAccess(10L, TimeUnit.MINUTES)
-            // 缓存填充策略: 同步加载. 缓存中有则用, 没有则调用loadWindowRecordCache获得value并存入缓存中
-            .build(sessionId -> this.loadNormalWindowRecordCache(sessionId));
-
-    private LoadingCache<Integer, Deque<SessionChatRecordEntity>> gameWindowRecordCache =
-            Caffeine.newBuilder().initialCapacity(1024)
-                    // 手动设置10分钟缓存过期，
-                    .expireAfterAccess(10L, TimeUnit.MINUTES)
-                    //缓存填充策略：同步加载。缓存中有则用，没有则调用loadWindowRecordCache获得value并存入缓存中
-                    .build(sessionId -> this.loadGameWindowRecordCache(sessionId));
+    @Value("${window.cache.maxMegabytes:64}")
+    private long windowCacheMaxMegabytes;
 
+    /**
+     * 是否在redis中共享[会话窗口], 本地缓存作为近端缓存
+     */
+    @Value("${window.cache.redis.enabled:true}")
+    private boolean windowCacheRedisEnabled;
 
-    // 缓存某个会话窗口的token总数
-    private Map<Integer, Integer> windowRecordTokensCache = new HashMap<>();
+    /**
+     * 缓存某个会话的token总数不超过k的[会话窗口], 普通/游戏/专家会话共用, 窗口的token总数保存在SessionWindow中
+     * 10分钟未访问过期
+     */
+    private SessionWindowCache windowRecordCache;
 
     @Resource
     private UserSessionService userSessionService;
@@ -61,7 +62,19 @@ public class ChatServiceImpl implements ChatService {
     private TaskExecutor queueThreadPool;
     @Resource
     private ExpertChatHelper expertChatHelper;
+    @Resource
+    private ChatRespCacheHelper chatRespCacheHelper;
+    @Resource
+    private HedgedRequestHelper hedgedRequestHelper;
+    @Resource
+    private SessionWindowRedisHelper sessionWindowRedisHelper;
+
 
+    @PostConstruct
+    public void initWindowRecordCache() {
+        windowRecordCache = new SessionWindowCache("chat", windowCacheMaxMegabytes << 20, 10L,
+                windowCacheRedisEnabled ? sessionWindowRedisHelper : null);
+    }
 
     @Override
     public ChatGPTResp oneShotChat(String userId, ChatGPTReq chatGPTReq, String apiKey) {
@@ -71,152 +84,148 @@ public class ChatServiceImpl implements ChatService {
 
     @Override
     public void streamOneShotChat(String userId, ChatGPTReq chatGPTReq, String apiKey, SseEmitter sseEmitter) {
-        ChatGPTApi.streamSessionReq(
+        ChatGPTSingleFlight.streamSessionReq(
                 chatGPTReq,
                 apiKey,
                 new OpenAIOneShotChatSSEListener(sseEmitter, userId)
         );
     }
 
+    @Override
+    public CompletableFuture<ChatGPTResp> oneShotChatAsync(String userId, ChatGPTReq chatGPTReq, String apiKey) {
+        return oneShotChatAsync(userId, chatGPTReq, apiKey, false);
+    }
+
+    @Override
+    public CompletableFuture<ChatGPTResp> oneShotChatAsync(String userId, ChatGPTReq chatGPTReq, String apiKey, boolean useCache) {
+        return chatRespCacheHelper.getOrRequest(chatGPTReq, useCache, () -> ChatGPTSingleFlight.oneShotReqAsync(chatGPTReq, apiKey));
+    }
+
     @Override
     public ChatGPTResp sessionChat(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
                                    String message, String apiKey, SessionType sessionType) {
-        // 从缓存中获取[会话窗口]
-        Deque<SessionChatRecordEntity> windowRecords = getWindowRecordsBySessionTypeAndId(sessionType, sessionId);
+        SessionChatRecordEntity askRecord = prepareSessionChatReq(userId, sessionId, chatGPTReq, message, apiKey, sessionType);
+        ChatGPTResp resp = ChatGPTApi.sessionReq(chatGPTReq, apiKey);
+        handleSessionChatResp(userId, sessionId, askRecord, resp, sessionType);
+        return resp;
+    }
+
+    @Override
+    public CompletableFuture<ChatGPTResp> sessionChatAsync(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
+                                                           String message, String apiKey, SessionType sessionType) {
+        SessionChatRecordEntity askRecord = prepareSessionChatReq(userId, sessionId, chatGPTReq, message, apiKey, sessionType);
+        return hedgedRequestHelper.sessionReqAsync(chatGPTReq, apiKey)
+                .thenApply(resp -> {
+                    handleSessionChatResp(userId, sessionId, askRecord, resp, sessionType);
+                    return resp;
+                });
+    }
+
+    @Override
+    public void streamSessionChat(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
+                                  String message, String apiKey, SseEmitter sseEmitter, SessionType sessionType) {
+        // 构建管道
+        SessionChatRecordEntity askRecord = prepareSessionChatReq(userId, sessionId, chatGPTReq, message, apiKey, sessionType);
+
+        ChatGPTSingleFlight.streamSessionReq(
+                chatGPTReq,
+                apiKey,
+                new OpenAISessionChatSSEListener(sseEmitter, askRecord, null, sessionType));
+    }
+
+    /**
+     * 根据[会话窗口]构造请求的上下文, 并返回待持久化的询问记录
+     */
+    private SessionChatRecordEntity prepareSessionChatReq(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
+                                                          String message, String apiKey, SessionType sessionType) {
+        // 从缓存中获取[会话窗口], 窗口不可变, 直接使用缓存中的对象
+        SessionWindow window = getWindowBySessionTypeAndId(sessionType, sessionId);
 
         // 获取[会话窗口]的token总数
-        int windowRecordsTokens = windowRecordTokensCache.getOrDefault(sessionId, 0);
+        int windowRecordsTokens = window.totalTokens();
 
         log.info("userId={}的用户获取session_id={}的会话窗口成功，上下文窗口大小为：{}," +
                         " 总tokens数为：{}，正在使用的apiKey为：{}， 当前询问的内容为：【{}】",
-                userId, sessionId, windowRecords.size(), windowRecordsTokens, apiKey, message);
+                userId, sessionId, window.size(), windowRecordsTokens, apiKey, message);
 
         String originMsg = message;
         // 专家会话的问题拼上要回复的语言
         if (sessionType.equals(SessionType.EXPERT_CHAT)) {
             message += "(用" + expertChatHelper.getExpertChatLanguage(sessionId) + "回答)";
         }
-        // 若[会话窗口]加入当前对话后，token总数一旦超过K，那就指定从第几个位置开始弹出记录。
+        // 若[会话窗口]加入当前对话后，token总数一旦超过K，那就指定从第几个位置开始丢弃记录。
         int askTokenNum = ChatGPTApi.getMessageTokenNum(message);
-        int pollIndex = sessionType.equals(SessionType.NORMAL_CHAT) ? 0 : 1;
-        pollWindowRecordsKeepKToken(windowRecords, askTokenNum + windowRecordsTokens,
-                pollIndex, sessionType.maxContextToken);
-        windowRecords.offerLast(new SessionChatRecordEntity(Role.USER.name, message));
-
-        // 将[会话窗口]转换成ChatGPT接收的格式，并且发送请求
-        List<ContextMessage> askContentList = windowRecords.stream()
-                .map(item -> new ContextMessage(item.getRole(), item.getContent()))
-                .collect(Collectors.toList());
-        chatGPTReq.setMessages(askContentList);
-        ChatGPTResp resp = ChatGPTApi.sessionReq(chatGPTReq, apiKey);
+        int keepHead = sessionType.equals(SessionType.NORMAL_CHAT) ? 0 : 1;
+        window = window.trim(keepHead, askTokenNum + windowRecordsTokens, sessionType.maxContextToken);
 
-        // 请求失败, 则把刚刚的问题撤回
+        // [会话窗口]加上当前询问作为ChatGPT的上下文, 是窗口的视图, 不逐条复制
+        chatGPTReq.setMessages(window.toMessages(new ContextMessage(Role.USER.name, message)));
+
+        //  保存专家会话的原始问题的tokenNum
+        if (sessionType.equals(SessionType.EXPERT_CHAT)) {
+            askTokenNum = ChatGPTApi.getMessageTokenNum(originMsg);
+        }
+        return new SessionChatRecordEntity(sessionId, Role.USER.name, originMsg, askTokenNum);
+    }
+
+    /**
+     * 处理多轮聊天的应答: 应答成功则异步持久化并更新[会话窗口]缓存
+     */
+    private void handleSessionChatResp(String userId, Integer sessionId, SessionChatRecordEntity askRecord,
+                                       ChatGPTResp resp, SessionType sessionType) {
+        // 请求失败, 窗口是副本, 无需撤回问题
         if (resp == null) {
-            windowRecords.pollLast();
-            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中应答失败！！");
-            return null;
+            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中应答失败！！", userId, sessionId);
+            return;
         }
         log.info("远方的ChatGPT对userId={}的用户在session_id={}的会话中应答成功，响应token数量为{}。正准备将响应信息给前端...",
                 userId, sessionId, resp.getUsage().getCompletion_tokens());
 
-        if (sessionType.equals(SessionType.EXPERT_CHAT)) {
-            askTokenNum = ChatGPTApi.getMessageTokenNum(originMsg);
-        }
-        // 构造询问和应答的数据对象
-        SessionChatRecordEntity askRecord = new SessionChatRecordEntity(
-                sessionId, Role.USER.name, originMsg, askTokenNum);
+        // 构造应答的数据对象
         SessionChatRecordEntity replyRecord = new SessionChatRecordEntity(
                 sessionId, Role.ASSISTANT.name, resp.getMessage(), resp.getUsage().getCompletion_tokens());
 
         // 异步处理持久化和缓存更新
         queueThreadPool.execute(() -> {
             // 持久化数据
-            sessionChatRecordService.saveBatch(ImmutableList.of(askRecord, replyRecord));
+            List<SessionChatRecordEntity> records = ImmutableList.of(askRecord, replyRecord);
+            sessionChatRecordService.saveBatch(records);
 
             // 更新[会话窗口]缓存数据。
-            if (sessionType.equals(SessionType.NORMAL_CHAT)) {
-                normalWindowRecordCache.refresh(sessionId);
-            } else {
-                gameWindowRecordCache.refresh(sessionId);
-            }
+            appendWindowRecords(sessionId, sessionType, records);
         });
-
-        return resp;
-    }
-
-    @Override
-    public void streamSessionChat(String userId, Integer sessionId, ChatGPTReq chatGPTReq,
-                                  String message, String apiKey, SseEmitter sseEmitter, SessionType sessionType) {
-        // 从缓存中获取[会话窗口]
-        Deque<SessionChatRecordEntity> windowRecords = getWindowRecordsBySessionTypeAndId(sessionType, sessionId);
-
-        // 获取[会话窗口]的token总数
-        int windowRecordsTokens = windowRecordTokensCache.getOrDefault(sessionId, 0);
-
-        log.info("userId={}的用户获取session_id={}的会话窗口成功，上下文窗口大小为：{}," +
-                        " 总tokens数为：{}，正在使用的apiKey为：{}， 当前询问的内容为：【{}】",
-                userId, sessionId, windowRecords.size(), windowRecordsTokens, apiKey, message);
-
-
-        // 若[会话窗口]加入当前对话后，token总数一旦超过K，那就指定从第几个位置开始弹出记录。
-        String originMsg = message;
-        // 专家会话的问题拼上要回复的语言
-        if (sessionType.equals(SessionType.EXPERT_CHAT)) {
-            message += "(用" + expertChatHelper.getExpertChatLanguage(sessionId) + "回答)";
-        }
-        int askTokenNum = ChatGPTApi.getMessageTokenNum(message);
-        int pollIndex = sessionType.equals(SessionType.NORMAL_CHAT) ? 0 : 1;
-        pollWindowRecordsKeepKToken(windowRecords, askTokenNum + windowRecordsTokens,
-                pollIndex, sessionType.maxContextToken);
-        windowRecords.offerLast(new SessionChatRecordEntity(Role.USER.name, message));
-
-        // 将[会话窗口]转换成ChatGPT接收的格式
-        List<ContextMessage> askContentList = windowRecords.stream()
-                .map(item -> new ContextMessage(item.getRole(), item.getContent()))
-                .collect(Collectors.toList());
-        chatGPTReq.setMessages(askContentList);
-        windowRecords.pollLast();  // 预防请求失败，先弹出最后一条记录
-
-        //  保存专家会话的原始问题的tokenNum
-        if (sessionType.equals(SessionType.EXPERT_CHAT)) {
-            askTokenNum = ChatGPTApi.getMessageTokenNum(originMsg);
-        }
-        // 构建管道
-        SessionChatRecordEntity askRecord = new SessionChatRecordEntity(
-                sessionId, Role.USER.name, originMsg, askTokenNum);
-
-        ChatGPTApi.streamSessionReq(
-                chatGPTReq,
-                apiKey,
-                new OpenAISessionChatSSEListener(sseEmitter, askRecord, null, sessionType));
     }
 
     /**
-     * 刷新缓存
+     * 刷新缓存: 截断、删除会话后使[会话窗口]失效, 下次访问时从数据库重新加载
      *
      * @param sessionId
      */
     @Override
     public void refreshWindowRecordCache(Integer sessionId) {
+        windowRecordCache.invalidate(sessionId);
+    }
 
-        UserSessionEntity userSessionEntity = userSessionService.getById(sessionId);
-        if (userSessionEntity == null) {
-            return;
-        }
-        SessionType sessionType = SessionType.get(userSessionEntity.getType());
-
+    @Override
+    public void appendWindowRecords(Integer sessionId, SessionType sessionType, List<SessionChatRecordEntity> records) {
         switch (sessionType) {
             case NORMAL_CHAT:
-                normalWindowRecordCache.refresh(sessionId);
+                windowRecordCache.append(sessionId, records, 0, SessionType.NORMAL_CHAT.maxContextToken);
                 break;
             case EXPERT_CHAT:
             case GAME_CHAT:
-                gameWindowRecordCache.refresh(sessionId);
+                // 与loadGameWindowRecordCache一致, 保留第一条聊天记录
+                windowRecordCache.append(sessionId, records, 1, SessionType.GAME_CHAT.maxContextToken);
                 break;
             default:
         }
     }
 
+    @Override
+    public Map<String, Object> windowCacheStats() {
+        return windowRecordCache.stats();
+    }
+
     /**
      * 退出登录清除用户缓存
      *
@@ -229,9 +238,7 @@ public class ChatServiceImpl implements ChatService {
                                 .eq("user_id", userId))
                 .stream().map(UserSessionEntity::getSessionId).collect(Collectors.toList());
         for (Integer sessionId : sessionIdList) {
-            windowRecordTokensCache.remove(sessionId);
-            normalWindowRecordCache.invalidate(sessionId);
-            gameWindowRecordCache.invalidate(sessionId);
+            windowRecordCache.invalidate(sessionId);
         }
     }
 
@@ -245,104 +252,42 @@ public class ChatServiceImpl implements ChatService {
      * 将最近的 [普通聊天] 记录加载到缓存中, 并且保证聊天对话的token总数不超过k
      *
      * @param sessionId 会话ID
-     * @return Deque<SessionChatRecordEntity>
+     * @return SessionWindow
      */
-    private Deque<SessionChatRecordEntity> loadNormalWindowRecordCache(Integer sessionId) {
-        List<SessionChatRecordEntity> sessionRecords = sessionChatRecordService.getSessionRecord(sessionId);
-        Deque<SessionChatRecordEntity> windowRecords = new LinkedList<>();
-
-        if (CollectionUtils.isEmpty(sessionRecords)) {
-            return windowRecords;
-        }
-
-        int curSessionTokens = 0;
-        int size = sessionRecords.size();
-        for (int i = size - 1; i >= 0; i--) {
-            SessionChatRecordEntity record = sessionRecords.get(i);
-            int tokenNum = record.getTokenNum();
-            // 保证加上当前轮次的聊天对话时token总数不超过最大数量限制
-            if (curSessionTokens + tokenNum > SessionType.NORMAL_CHAT.maxContextToken) {
-                break;
-            }
-            windowRecords.offerFirst(record);
-            curSessionTokens += tokenNum;
-        }
-        windowRecordTokensCache.put(sessionId, curSessionTokens);
-        return windowRecords;
+    private SessionWindow loadNormalWindowRecordCache(Integer sessionId) {
+        int maxTokens = SessionType.NORMAL_CHAT.maxContextToken;
+        SessionWindow window = SessionWindow.of(
+                sessionChatRecordService.getRecentSessionRecord(sessionId, maxTokens, false));
+        // 扫描token数和读取记录之间可能有新的记录写入, 再按预算裁剪一次
+        return window.trim(0, window.totalTokens(), maxTokens);
     }
 
     /**
      * 将最近的 [游戏/专家系统] 聊天记录加载到缓存中, 并保留第一条聊天记录, 并且保证聊天对话的token总数不超过k
      *
      * @param sessionId 会话ID
-     * @return Deque<SessionChatRecordEntity>
-     */
-    private Deque<SessionChatRecordEntity> loadGameWindowRecordCache(Integer sessionId) {
-        List<SessionChatRecordEntity> sessionRecords = sessionChatRecordService.getSessionRecord(sessionId);
-        Deque<SessionChatRecordEntity> windowRecords = new LinkedList<>();
-
-        if (CollectionUtils.isEmpty(sessionRecords)) {
-            return windowRecords;
-        }
-
-        SessionChatRecordEntity firstRecord = sessionRecords.get(0);
-        int curSessionTokens = firstRecord.getTokenNum();
-        int size = sessionRecords.size();
-        for (int i = size - 1; i >= 1; i--) {
-            SessionChatRecordEntity record = sessionRecords.get(i);
-            int tokenNum = record.getTokenNum();
-            // 保证加上当前轮次的聊天对话时token总数不超过K
-            if (curSessionTokens + tokenNum > SessionType.GAME_CHAT.maxContextToken) {
-                break;
-            }
-            windowRecords.offerFirst(record);
-            curSessionTokens += tokenNum;
-        }
-        windowRecords.offerFirst(firstRecord);
-        windowRecordTokensCache.put(sessionId, curSessionTokens);
-        return windowRecords;
-    }
-
-    /**
-     * 指定windowRecords, 从下标为index开始弹出多余聊天记录, 保证当前窗口总token数curTokenNum不超过k
-     *
-     * @param windowRecords
-     * @param curTokenNum
-     * @param index
-     * @return 弹出操作后剩余的窗口总token数
+     * @return SessionWindow
      */
-    private int pollWindowRecordsKeepKToken(Deque<SessionChatRecordEntity> windowRecords,
-                                            int curTokenNum, int index, int maxTokenNum) {
-        // 下标为index前的记录先暂时弹出
-        Deque<SessionChatRecordEntity> temp = new LinkedList<>();
-        while (!windowRecords.isEmpty() && index-- != 0) {
-            temp.offerLast(windowRecords.pollFirst());
-        }
-
-        // 维护窗口记录
-        while (!windowRecords.isEmpty() && curTokenNum > maxTokenNum) {
-            curTokenNum -= windowRecords.pollFirst().getTokenNum();
-        }
-
-        // 还原下标为index前的记录
-        while (!temp.isEmpty()) {
-            windowRecords.offerFirst(temp.pollLast());
-        }
-        return curTokenNum;
+    private SessionWindow loadGameWindowRecordCache(Integer sessionId) {
+        int maxTokens = SessionType.GAME_CHAT.maxContextToken;
+        SessionWindow window = SessionWindow.of(
+                sessionChatRecordService.getRecentSessionRecord(sessionId, maxTokens, true));
+        // 扫描token数和读取记录之间可能有新的记录写入, 再按预算裁剪一次
+        return window.trim(1, window.totalTokens(), maxTokens);
     }
 
     /**
-     * 根据sessionType和sessionId获取带上下文窗口的聊天记录
+     * 根据sessionType和sessionId获取[会话窗口]
      */
-    private Deque<SessionChatRecordEntity> getWindowRecordsBySessionTypeAndId(SessionType sessionType, Integer sessionId) {
+    private SessionWindow getWindowBySessionTypeAndId(SessionType sessionType, Integer sessionId) {
         switch (sessionType) {
             case NORMAL_CHAT:
-                return new LinkedList<>(normalWindowRecordCache.get(sessionId));
+                return windowRecordCache.get(sessionId, this::loadNormalWindowRecordCache);
             case EXPERT_CHAT:
             case GAME_CHAT:
-                return new LinkedList<>(gameWindowRecordCache.get(sessionId));
+                return windowRecordCache.get(sessionId, this::loadGameWindowRecordCache);
             default:
         }
-        return new LinkedList<>();
+        return SessionWindow.empty();
     }
 }
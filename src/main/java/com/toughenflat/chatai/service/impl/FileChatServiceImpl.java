@@ -1,8 +1,5 @@
 package com.toughenflat.chatai.service.impl;
 
-import cn.hutool.core.collection.CollUtil;
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.toughenflat.chatai.api.openai.ChatGPTApi;
 import com.toughenflat.chatai.api.openai.enums.Role;
@@ -22,11 +19,15 @@ import com.toughenflat.chatai.enums.Prompt;
 import com.toughenflat.chatai.enums.SessionType;
 import com.toughenflat.chatai.exception.BaseException;
 import com.toughenflat.chatai.redis.ChatRedisHelper;
+import com.toughenflat.chatai.redis.SessionWindowRedisHelper;
 import com.toughenflat.chatai.service.*;
+import com.toughenflat.chatai.service.helper.EmbeddingPipeline;
 import com.toughenflat.chatai.sse.OpenAISessionChatSSEListener;
 import com.toughenflat.chatai.utils.MilvusClientUtil;
 import com.toughenflat.chatai.utils.RecursiveCharacterTextSplitter;
 import com.toughenflat.chatai.utils.ResultCode;
+import com.toughenflat.chatai.utils.SessionWindow;
+import com.toughenflat.chatai.utils.SessionWindowCache;
 import com.toughenflat.chatai.utils.VerificationCodeGenerator;
 import io.milvus.client.MilvusServiceClient;
 import io.milvus.grpc.MutationResult;
@@ -40,17 +41,19 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -73,15 +76,23 @@ public class FileChatServiceImpl implements FileChatService {
     private TaskExecutor queueThreadPool;
     @Resource
     private ChatRedisHelper chatRedisHelper;
+    @Resource
+    private EmbeddingPipeline embeddingPipeline;
+    @Resource
+    private SessionWindowRedisHelper sessionWindowRedisHelper;
+
+    /**
+     * [会话窗口]缓存的容量 (MB), 按窗口内容的字节数计算
+     */
+    @Value("${window.cache.maxMegabytes:64}")
+    private long windowCacheMaxMegabytes;
 
-    //缓存填充策略：同步加载。缓存中有则用，没有则调用loadWindowRecordCache获得value并存入缓存中
-    private LoadingCache<Integer, Deque<SessionChatRecordEntity>> windowRecordCache =
-            Caffeine.newBuilder().initialCapacity(1024)
-                    .expireAfterAccess(10L, TimeUnit.MINUTES)  // 手动设置10分钟缓存过期，
-                    .build(sessionId -> this.loadWindowRecordCache(sessionId));
+    // 是否在redis中共享会话窗口, 本地缓存作为近端缓存
+    @Value("${window.cache.redis.enabled:true}")
+    private boolean windowCacheRedisEnabled;
 
-    // 缓存某个会话窗口的token总数
-    private Map<Integer, Integer> windowRecordTokensCache = new HashMap<>();
+    // 缓存文件会话的[会话窗口], 窗口的token总数保存在SessionWindow中, 10分钟未访问过期
+    private SessionWindowCache windowRecordCache;
 
     private static final int K = SessionType.PDF_CHAT.maxContextToken;
     private static final int MAX_HISTORY_TOKENS = 500;
@@ -98,6 +109,12 @@ public class FileChatServiceImpl implements FileChatService {
     // 初始化向量库
     private static final MilvusServiceClient milvusClient = MilvusClientUtil.getMilvusClient();
 
+    @PostConstruct
+    public void initWindowRecordCache() {
+        windowRecordCache = new SessionWindowCache("file", windowCacheMaxMegabytes << 20, 10L,
+                windowCacheRedisEnabled ? sessionWindowRedisHelper : null);
+    }
+
     /**
      * 将上传的文件处理并存入向量库中
      */
@@ -161,7 +178,7 @@ public class FileChatServiceImpl implements FileChatService {
                 vectors.add(new PineconeVectorsReq(ids.get(i), dataSqlEntity.getLl().get(i), contents.get(i)));
             }
             PineconeInsertReq pineconeIndexReq = PineconeInsertReq.builder().vectors(vectors).namespace(collectionName).build();
-            result = PineconeApi.insertEmbedding(pineconeIndexReq, adminApiKeyService.roundRobinGetByType(ApiType.PINECONE));
+            result = PineconeApi.insertEmbedding(pineconeIndexReq, adminApiKeyService.selectByType(ApiType.PINECONE));
             log.info("插入{}条数据成功！", result);
         }else {
             MilvusClientUtil.createCollection(8000, collectionName);
@@ -228,35 +245,78 @@ public class FileChatServiceImpl implements FileChatService {
     public ChatGPTResp chatWithFile(String userId, Integer sessionId, String message, String apiKey, ChatGPTReq chatGPTReq, boolean usePinecone) {
 
         String collectionName = "id_" + userId +"_" + sessionId;
-        Deque<SessionChatRecordEntity> windowRecords = new LinkedList<>(windowRecordCache.get(sessionId));
+        SessionWindow window = trimWindow(windowRecordCache.get(sessionId, this::loadWindowRecordCache), message, sessionId, apiKey, userId);
 
         // 优化问题
-        String newQaPrompt = getStandaloneQuestion(message, windowRecords, sessionId, apiKey, userId);
+        ChatGPTReq cgr = buildStandaloneQuestionReq(message, window);
+        String newMessage = resolveStandaloneQuestion(ChatGPTApi.sessionReq(cgr, apiKey), message, userId, sessionId);
+
+        // 根据优化后的问题 和 索引信息，构造文件对话问题。如果需要用回v1版本只需要将window设置为null
+        String dialogueMessage = getContext(collectionName, newMessage, apiKey, window, usePinecone);
+        log.info("dialogueMessage:{} ", dialogueMessage);
+        chatGPTReq.setMessages(Collections.singletonList(new ContextMessage(Role.USER.name, dialogueMessage)));
+        ChatGPTResp resp = ChatGPTApi.sessionReq(chatGPTReq, apiKey);
+
+        handleChatWithFileResp(userId, sessionId, message, resp, collectionName, usePinecone);
+        return resp;
+    }
+
+    @Override
+    public CompletableFuture<ChatGPTResp> chatWithFileAsync(String userId, Integer sessionId, String message, String apiKey, ChatGPTReq chatGPTReq, boolean usePinecone) {
 
-        ChatGPTReq cgr = ChatGPTReq.builder().temperature(0.0).messages(
+        String collectionName = "id_" + userId +"_" + sessionId;
+        SessionWindow window = trimWindow(windowRecordCache.get(sessionId, this::loadWindowRecordCache), message, sessionId, apiKey, userId);
+
+        // 优化问题 -> 编码问题 -> 检索上下文 -> 最终问答, 各阶段的上游请求均不占用请求线程
+        ChatGPTReq cgr = buildStandaloneQuestionReq(message, window);
+        return ChatGPTApi.sessionReqAsync(cgr, apiKey)
+                .thenCompose(qaresp -> {
+                    String newMessage = resolveStandaloneQuestion(qaresp, message, userId, sessionId);
+                    // 向量库检索是同步调用, 放到业务线程池中执行, 避免阻塞OkHttp的回调线程
+                    return ChatGPTApi.embeddingsAsync(Collections.singletonList(newMessage), apiKey)
+                            .thenApplyAsync(embed -> buildContext(collectionName, newMessage, embed, window, usePinecone),
+                                    queueThreadPool);
+                })
+                .thenCompose(dialogueMessage -> {
+                    log.info("dialogueMessage:{} ", dialogueMessage);
+                    chatGPTReq.setMessages(Collections.singletonList(new ContextMessage(Role.USER.name, dialogueMessage)));
+                    return ChatGPTApi.sessionReqAsync(chatGPTReq, apiKey);
+                })
+                .thenApply(resp -> {
+                    handleChatWithFileResp(userId, sessionId, message, resp, collectionName, usePinecone);
+                    return resp;
+                });
+    }
+
+    /**
+     * 构造优化问题的请求
+     */
+    private ChatGPTReq buildStandaloneQuestionReq(String message, SessionWindow window){
+        String newQaPrompt = getStandaloneQuestion(message, window);
+        return ChatGPTReq.builder().temperature(0.0).messages(
                 Collections.singletonList(new ContextMessage(Role.USER.name, newQaPrompt))).build();
-        String newMessage;
-        ChatGPTResp qaresp = ChatGPTApi.sessionReq(cgr, apiKey);
+    }
 
+    /**
+     * 获取优化后的问题, 优化失败则使用原问题
+     */
+    private String resolveStandaloneQuestion(ChatGPTResp qaresp, String message, String userId, Integer sessionId){
         if(qaresp == null || qaresp.getMessage().isEmpty()){
-            newMessage = message;
-            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中优化问题失败！！");
-        }
-        else {
-            newMessage = qaresp.getMessage();
-            log.info("问题优化成功，新的问题是：{}", newMessage);
+            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中优化问题失败！！", userId, sessionId);
+            return message;
         }
+        log.info("问题优化成功，新的问题是：{}", qaresp.getMessage());
+        return qaresp.getMessage();
+    }
 
-        // 根据优化后的问题 和 索引信息，构造文件对话问题。如果需要用回v1版本只需要将windowRecords设置为null
-        String dialogueMessage = getContext(collectionName, newMessage, apiKey, windowRecords, usePinecone);
-        log.info("dialogueMessage:{} ", dialogueMessage);
-        chatGPTReq.setMessages(Collections.singletonList(new ContextMessage(Role.USER.name, dialogueMessage)));
-        ChatGPTResp resp = ChatGPTApi.sessionReq(chatGPTReq, apiKey);
-
+    /**
+     * 处理文件对话的应答: 应答成功则异步持久化并更新[会话窗口]缓存
+     */
+    private void handleChatWithFileResp(String userId, Integer sessionId, String message, ChatGPTResp resp, String collectionName, boolean usePinecone){
         // 请求失败，则把刚刚的问题撤回
         if(resp == null){
-            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中应答失败！！");
-            return null;
+            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中应答失败！！", userId, sessionId);
+            return;
         }
         log.info("远方的ChatGPT对userId={}的用户在session_id={}的会话中应答成功，响应token数量为{}。正准备将响应信息给前端...",
                 userId, sessionId, resp.getUsage().getCompletion_tokens());
@@ -270,18 +330,17 @@ public class FileChatServiceImpl implements FileChatService {
         // 异步处理持久化和缓存更新
         queueThreadPool.execute(()->{
             // 持久化数据
-            sessionChatRecordService.saveBatch(ImmutableList.of(askRecord, replyRecord));
+            List<SessionChatRecordEntity> records = ImmutableList.of(askRecord, replyRecord);
+            sessionChatRecordService.saveBatch(records);
 
             // 更新[会话窗口]缓存数据。
-            windowRecordCache.refresh(sessionId);
+            appendWindowRecords(sessionId, records);
 
             if(!usePinecone){
                 // 释放连接
                 MilvusClientUtil.releaseCollection(collectionName);
             }
         });
-
-        return resp;
     }
 
     // 文件流式对话
@@ -292,26 +351,13 @@ public class FileChatServiceImpl implements FileChatService {
 
         /* ↓优化问题 */
         // 从缓存中获取[会话窗口]
-        Deque<SessionChatRecordEntity> windowRecords = new LinkedList<>(windowRecordCache.get(sessionId));
+        SessionWindow window = trimWindow(windowRecordCache.get(sessionId, this::loadWindowRecordCache), message, sessionId, apiKey, userId);
 
-        String newQaPrompt = getStandaloneQuestion(message, windowRecords, sessionId, apiKey, userId);
-
-        ChatGPTReq cgr = ChatGPTReq.builder().temperature(0.0).messages(
-                Collections.singletonList(new ContextMessage(Role.USER.name, newQaPrompt))).build();
-        String newMessage;
-        ChatGPTResp qaresp = ChatGPTApi.sessionReq(cgr, apiKey);
-
-        if(qaresp == null || qaresp.getMessage().isEmpty()){
-            newMessage = message;
-            log.error("远方的ChatGPT对userId={}的用户在session_id={}的会话中优化问题失败！！");
-        }
-        else {
-            newMessage = qaresp.getMessage();
-            log.info("问题优化成功，新的问题是：{}", newMessage);
-        }
+        ChatGPTReq cgr = buildStandaloneQuestionReq(message, window);
+        String newMessage = resolveStandaloneQuestion(ChatGPTApi.sessionReq(cgr, apiKey), message, userId, sessionId);
 
-        // 根据优化后的问题 和 索引信息，构造文件对话问题。如果需要用回v1版本只需要将windowRecords设置为null
-        String dialogueMessage = getContext(collectionName, newMessage, apiKey, windowRecords, usePinecone);
+        // 根据优化后的问题 和 索引信息，构造文件对话问题。如果需要用回v1版本只需要将window设置为null
+        String dialogueMessage = getContext(collectionName, newMessage, apiKey, window, usePinecone);
         log.info("dialogueMessage:{} ", dialogueMessage);
         chatGPTReq.setMessages(Collections.singletonList(new ContextMessage(Role.USER.name, dialogueMessage)));
 
@@ -329,40 +375,46 @@ public class FileChatServiceImpl implements FileChatService {
                 new OpenAISessionChatSSEListener(sseEmitter, askRecord, collectionName, SessionType.PDF_CHAT));
     }
 
+    /**
+     * 按token预算裁剪[会话窗口]: 保留第一条记录, 若加入当前问题后token总数超过K, 那就丢弃前面的记录
+     * 每条记录另外计入2个token, 对应的是"user"
+     */
+    private SessionWindow trimWindow(SessionWindow window, String message, Integer sessionId, String apiKey, String userId){
+        if(window.isEmpty()){
+            return window;
+        }
+        message = message.trim().replace("\n", " ");
+
+        // 获取[会话窗口]的token总数
+        int windowRecordsTokens = window.totalTokens();
+
+        log.info("userId={}的用户获取session_id={}的会话窗口成功，上下文窗口大小为：{}," +
+                        " 总tokens数为：{}，正在使用的apiKey为：{}， 当前询问的内容为：【{}】",
+                userId, sessionId, window.size(), windowRecordsTokens, apiKey, message);
+
+        int askTokenNum = ChatGPTApi.getMessageTokenNum(message);
+        int qaPromptNum = promptService.getTokenNumByTopic(Prompt.QA_PROMPT_TEMPLATE.topic);
+        return window.trim(1, windowRecordsTokens + askTokenNum + qaPromptNum, 2, K);
+    }
+
     // 获取一个独立的问题，确保ChatGPT不会回答文章无关的内容
-    private String getStandaloneQuestion(String message, Deque<SessionChatRecordEntity> windowRecords, Integer sessionId, String apiKey, String userId){
+    private String getStandaloneQuestion(String message, SessionWindow window){
 
         message = message.trim().replace("\n", " ");
         String qaPromptTemplate = promptService.getByTopic(Prompt.QA_PROMPT_TEMPLATE.topic);
-        if(windowRecords == null){
+        if(window == null){
             return null;
         }
 
-        if(CollUtil.isEmpty(windowRecords)){
+        if(window.isEmpty()){
             return String.format(qaPromptTemplate, "", message);
         }
 
-        // 获取[会话窗口]的token总数
-        int windowRecordsTokens = windowRecordTokensCache.getOrDefault(sessionId, 0);
-
-        log.info("userId={}的用户获取session_id={}的会话窗口成功，上下文窗口大小为：{}," +
-                        " 总tokens数为：{}，正在使用的apiKey为：{}， 当前询问的内容为：【{}】",
-                userId, sessionId, windowRecords.size(), windowRecordsTokens, apiKey, message);
-
-        // 若[会话窗口]加入当前对话后，token总数一旦超过K，那就把前面的记录弹出。 windowRecords.size() * 2 是对应的"user"
-        int askTokenNum = ChatGPTApi.getMessageTokenNum(message);
-        int qaPromptNum = ChatGPTApi.getTokenNum(qaPromptTemplate);
-        SessionChatRecordEntity firstRecord = windowRecords.pollFirst();
-        while(!windowRecords.isEmpty() &&  windowRecordsTokens + askTokenNum + qaPromptNum + (windowRecords.size() + 1) * 2 > K ){
-            windowRecordsTokens -= windowRecords.pollFirst().getTokenNum();
-        }
-        windowRecords.offerFirst(firstRecord);
         StringBuilder chatHistory = new StringBuilder();
-        for(SessionChatRecordEntity sessionChatRecordEntity : windowRecords){
+        for(SessionChatRecordEntity sessionChatRecordEntity : window.records()){
             chatHistory.append(sessionChatRecordEntity.getRole() + ": "
                     + sessionChatRecordEntity.getContent() + "\n");
         }
-        windowRecords.offerLast(new SessionChatRecordEntity(Role.USER.name, message));
 
         // 优化问题
         return String.format(qaPromptTemplate, chatHistory, message);
@@ -375,9 +427,20 @@ public class FileChatServiceImpl implements FileChatService {
      * @param apiKey
      * @return
      */
-    private String getContext(String collectionName, String message, String apiKey, Deque<SessionChatRecordEntity> windowRecords, boolean usePinecone) {
-        /* ↓检索文档 */
+    private String getContext(String collectionName, String message, String apiKey, SessionWindow window, boolean usePinecone) {
         EmbeddingResp embed = ChatGPTApi.embeddings(Collections.singletonList(message), apiKey);
+        return buildContext(collectionName, message, embed, window, usePinecone);
+    }
+
+    /**
+     *  根据问题的向量检索相似上下文，并且构造最终问题
+     * @param collectionName
+     * @param message
+     * @param embed 问题的向量
+     * @return
+     */
+    private String buildContext(String collectionName, String message, EmbeddingResp embed, SessionWindow window, boolean usePinecone) {
+        /* ↓检索文档 */
         if(embed == null){
             return null;
         }
@@ -385,7 +448,7 @@ public class FileChatServiceImpl implements FileChatService {
         if(usePinecone){
             List<Float> qaEmbed = embed.getData().get(0).getEmbedding();
             PineconeQueryReq pineconeQueryReq = PineconeQueryReq.builder().namespace(collectionName).topK(TOP_K).includeMetadata(true).vector(qaEmbed).build();
-            PineconeQueryResp pineconeQueryResp = PineconeApi.queryEmbedding(pineconeQueryReq, adminApiKeyService.getBestByType(ApiType.PINECONE));
+            PineconeQueryResp pineconeQueryResp = PineconeApi.queryEmbedding(pineconeQueryReq, adminApiKeyService.selectByType(ApiType.PINECONE));
             orderedCandidates = pineconeQueryResp.getMatches().stream()
                     .map(match -> match.getMetadata().get("content"))
                     .collect(Collectors.toList());
@@ -401,18 +464,15 @@ public class FileChatServiceImpl implements FileChatService {
         // 添加历史记录在最终问答
         int historyWindowRecordsTokens = 0;
         StringBuilder chatHistory = new StringBuilder();
-        if(!CollUtil.isEmpty(windowRecords)){
+        if(window != null && !window.isEmpty()){
 
-            // 最后一个问题不要，因为最后一个问题是刚问的
-            windowRecords.pollLast();
-
-            // 保留第一个问题，控制历史记录总token数不超过 maxHistoryTokens
+            // 保留第一个问题，从最近的记录往前取，控制历史记录总token数不超过 maxHistoryTokens
             Deque<String> tempList = new LinkedList<>();
-            SessionChatRecordEntity firstRecord = windowRecords.pollFirst();
+            SessionChatRecordEntity firstRecord = window.get(0);
             historyWindowRecordsTokens += firstRecord.getTokenNum();
 
-            while(!windowRecords.isEmpty() &&  historyWindowRecordsTokens < MAX_HISTORY_TOKENS){
-                SessionChatRecordEntity sessionChatRecordEntity = windowRecords.pollLast();
+            for(int i = window.size() - 1; i >= 1 && historyWindowRecordsTokens < MAX_HISTORY_TOKENS; i--){
+                SessionChatRecordEntity sessionChatRecordEntity = window.get(i);
                 if(sessionChatRecordEntity.getRole().equals(Role.USER.name)){
                     historyWindowRecordsTokens += sessionChatRecordEntity.getTokenNum();
                     tempList.offerFirst(sessionChatRecordEntity.getRole() + ": "
@@ -430,7 +490,7 @@ public class FileChatServiceImpl implements FileChatService {
         // 添加相关上下文在最终问答
         StringBuilder context = new StringBuilder();
         int contextRecordsTokens =
-                ChatGPTApi.getTokenNum(promptService.getByTopic(Prompt.FINAL_PROMPT_TEMPLATE.topic)) +
+                promptService.getTokenNumByTopic(Prompt.FINAL_PROMPT_TEMPLATE.topic) +
                 ChatGPTApi.getTokenNum(message);
         int count = 0;
         for(String candidate: orderedCandidates){
@@ -457,7 +517,7 @@ public class FileChatServiceImpl implements FileChatService {
         String collectionName = "id_" + userId +"_" + sessionId;
         if(usePinecone){
             PineconeDeleteReq pineconeDeleteReq = PineconeDeleteReq.builder().deleteAll(true).namespace(collectionName).build();
-            PineconeApi.deleteEmbedding(pineconeDeleteReq, adminApiKeyService.getBestByType(ApiType.PINECONE));
+            PineconeApi.deleteEmbedding(pineconeDeleteReq, adminApiKeyService.selectByType(ApiType.PINECONE));
         }else {
             R<RpcStatus> response1 = milvusClient.dropIndex(DropIndexParam.newBuilder()
                     .withCollectionName(collectionName)
@@ -489,7 +549,8 @@ public class FileChatServiceImpl implements FileChatService {
             return null;
         }
 
-        EmbeddingResp embeddingResp = ChatGPTApi.embeddings(content, apiKey);
+        // 分批并发编码, 大文档不再作为一个请求串行发送
+        EmbeddingResp embeddingResp = embeddingPipeline.embed(content, apiKey);
         if(embeddingResp == null){
             return null;
         }
@@ -510,33 +571,29 @@ public class FileChatServiceImpl implements FileChatService {
      * @param sessionId
      * @return
      */
-    private Deque<SessionChatRecordEntity> loadWindowRecordCache(Integer sessionId){
-        List<SessionChatRecordEntity> sessionRecords = sessionChatRecordService.getSessionRecord(sessionId);
-        Deque<SessionChatRecordEntity> windowRecords = new LinkedList<>();
-
-        int curSessionTokens = 0;
-        int size = sessionRecords.size();
-        for(int i=size-1; i>=0; i--){
-            SessionChatRecordEntity record = sessionRecords.get(i);
-            int tokenNum = record.getTokenNum();
-            // 保证加上当前轮次的聊天对话时token总数不超过K
-            if(curSessionTokens + tokenNum > K){
-                break;
-            }
-            windowRecords.offerFirst(record);
-            curSessionTokens += tokenNum;
-        }
-        this.windowRecordTokensCache.put(sessionId, curSessionTokens);
-        return windowRecords;
+    private SessionWindow loadWindowRecordCache(Integer sessionId){
+        SessionWindow window = SessionWindow.of(sessionChatRecordService.getRecentSessionRecord(sessionId, K, false));
+        // 扫描token数和读取记录之间可能有新的记录写入, 再按预算裁剪一次
+        return window.trim(0, window.totalTokens(), K);
     }
 
     /**
-     * 刷新缓存
+     * 刷新缓存: 使会话窗口失效, 下次访问时从数据库重新加载
      * @param sessionId
      */
     @Override
     public void refreshWindowRecordCache(Integer sessionId){
-        windowRecordCache.refresh(sessionId);
+        windowRecordCache.invalidate(sessionId);
+    }
+
+    @Override
+    public void appendWindowRecords(Integer sessionId, List<SessionChatRecordEntity> records){
+        windowRecordCache.append(sessionId, records, 0, K);
+    }
+
+    @Override
+    public Map<String, Object> windowCacheStats(){
+        return windowRecordCache.stats();
     }
 
     // 生成每个向量的id
@@ -1,24 +1,34 @@
 package com.toughenflat.chatai.service.impl;
 
 
+import com.alibaba.fastjson.JSON;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.core.metadata.IPage;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.google.common.collect.ImmutableMap;
+import com.toughenflat.chatai.api.openai.TokenCounter;
 import com.toughenflat.chatai.dto.PromptQueryRequest;
 import com.toughenflat.chatai.entity.PromptEntity;
 import com.toughenflat.chatai.enums.PromptType;
 import com.toughenflat.chatai.global.constant.TimeInterval;
 import com.toughenflat.chatai.mapper.PromptMapper;
 import com.toughenflat.chatai.service.PromptService;
+import com.toughenflat.chatai.service.helper.ClusterLeaderHelper;
+import com.toughenflat.chatai.utils.HighWaterMark;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -30,8 +40,23 @@ import java.util.stream.Collectors;
 @Slf4j
 public class PromptServiceImpl extends ServiceImpl<PromptMapper, PromptEntity> implements PromptService{
 
-    private Map<String, PromptEntity> topicCache = ImmutableMap.of();
-    private Map<Integer, List<PromptEntity>> typeCache = ImmutableMap.of();
+    /**
+     * 集群快照名 (见ClusterLeaderHelper)
+     */
+    private static final String SNAPSHOT_NAME = "prompt";
+
+    @Resource
+    private ClusterLeaderHelper clusterLeaderHelper;
+
+    /**
+     * 全部prompt, 按id排序, 增量刷新时在此基础上合并变更
+     */
+    private volatile Map<Integer, PromptEntity> idCache = ImmutableMap.of();
+    private volatile Map<String, PromptEntity> topicCache = ImmutableMap.of();
+    private volatile Map<Integer, List<PromptEntity>> typeCache = ImmutableMap.of();
+    private volatile Map<String, Integer> topicTokenCache = ImmutableMap.of();
+
+    private final HighWaterMark highWaterMark = new HighWaterMark();
 
     @Override
     public IPage<PromptEntity> list(int pageNum, int limit, PromptQueryRequest req) {
@@ -59,17 +84,130 @@ public class PromptServiceImpl extends ServiceImpl<PromptMapper, PromptEntity> i
         return promptEntity == null ? null : promptEntity.getContent();
     }
 
+    @Override
+    public int getTokenNumByTopic(String topic) {
+        Integer tokenNum = this.topicTokenCache.get(topic);
+        if (tokenNum != null) {
+            return tokenNum;
+        }
+        String content = getByTopic(topic);
+        return content == null ? 0 : TokenCounter.count(content);
+    }
+
     @Override
     public List<PromptEntity> getByType(PromptType promptType) {
         return this.typeCache.get(promptType.typeNo);
     }
 
-    @Scheduled(initialDelay = TimeInterval.ZERO, fixedRate = TimeInterval.ONE_HOUR)
+    @PostConstruct
+    public void initCluster() {
+        clusterLeaderHelper.onSnapshot(SNAPSHOT_NAME, this::applySnapshot);
+        clusterLeaderHelper.onReload(SNAPSHOT_NAME, this::load);
+    }
+
+    /**
+     * 全量加载: 启动时执行, 之后每天一次兜底; 日常变更由pollChanges增量刷新
+     * 集群部署时只有leader节点查库并发布快照, 其他节点直接应用快照; 还没有快照时在本地加载
+     */
+    @Scheduled(initialDelay = TimeInterval.ZERO, fixedRate = TimeInterval.ONE_DAY)
+    @Override
+    public synchronized void load() {
+        boolean leader = clusterLeaderHelper.isLeader();
+        if (!leader && applySnapshot(clusterLeaderHelper.getSnapshot(SNAPSHOT_NAME))) {
+            return;
+        }
+        List<PromptEntity> promptEntities = baseMapper.selectList(null);
+        highWaterMark.reset(promptEntities.stream().map(PromptEntity::getUpdateTime).collect(Collectors.toList()));
+        apply(promptEntities);
+        if (leader) {
+            clusterLeaderHelper.publishSnapshot(SNAPSHOT_NAME, promptEntities);
+        }
+    }
+
+    /**
+     * 增量刷新: 按update_time高水位轮询prompt的变更, 只合并变更的行, 在轮询间隔内生效
+     * 没有变更时比对行数, 不一致(如直接在数据库中物理删除)时才全量加载
+     * 集群部署时由leader轮询, 结果以快照同步到其他节点
+     */
+    @Scheduled(initialDelayString = "${cache.changeFeed.pollMillis:5000}", fixedDelayString = "${cache.changeFeed.pollMillis:5000}")
+    public synchronized void pollChanges() {
+        Date since = highWaterMark.since();
+        if (since == null || !clusterLeaderHelper.isLeader()) {
+            return;
+        }
+        try {
+            List<PromptEntity> changedRows = baseMapper.selectChangedSince(since);
+            changedRows.forEach(row -> highWaterMark.advance(row.getUpdateTime()));
+
+            Map<Integer, PromptEntity> merged = new TreeMap<>(this.idCache);
+            int changed = 0;
+            for (PromptEntity row : changedRows) {
+                if (Integer.valueOf(1).equals(row.getIsDeleted())) {
+                    changed += merged.remove(row.getId()) != null ? 1 : 0;
+                } else if (!row.equals(merged.get(row.getId()))) {
+                    merged.put(row.getId(), row);
+                    changed++;
+                }
+            }
+            if (changed > 0) {
+                List<PromptEntity> promptEntities = new ArrayList<>(merged.values());
+                apply(promptEntities);
+                clusterLeaderHelper.publishSnapshot(SNAPSHOT_NAME, promptEntities);
+                log.info("增量刷新Prompt库缓存, 变更{}个", changed);
+                return;
+            }
+            if (baseMapper.selectCount(null) != this.idCache.size()) {
+                log.info("Prompt库行数与缓存不一致, 全量加载");
+                load();
+            }
+        } catch (Exception e) {
+            log.warn("查询Prompt变更异常! {}", e.getMessage());
+        }
+    }
+
     @Override
-    public void load() {
+    public void flush() {
+        if (clusterLeaderHelper.isLeader()) {
+            load();
+        } else {
+            clusterLeaderHelper.requestReload(SNAPSHOT_NAME);
+        }
+    }
+
+    /**
+     * 应用leader发布的快照
+     * @return 快照为空或无法解析时返回false
+     */
+    private boolean applySnapshot(String json) {
+        if (StringUtils.isEmpty(json)) {
+            return false;
+        }
+        try {
+            List<PromptEntity> promptEntities = JSON.parseArray(json, PromptEntity.class);
+            apply(promptEntities);
+            // 成为leader后从快照的位置开始增量刷新
+            highWaterMark.reset(promptEntities.stream().map(PromptEntity::getUpdateTime).collect(Collectors.toList()));
+            return true;
+        } catch (Exception e) {
+            log.warn("应用Prompt快照异常! {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 替换缓存, 内容未变化的prompt沿用已计算的token数, 只对变化的prompt重新计算
+     */
+    private void apply(List<PromptEntity> promptEntities) {
+        Map<String, PromptEntity> oldTopicCache = this.topicCache;
+        Map<String, Integer> oldTopicTokenCache = this.topicTokenCache;
+
+        Map<Integer, PromptEntity> ids = new TreeMap<>();
+        promptEntities.forEach(promptEntity -> ids.put(promptEntity.getId(), promptEntity));
+        this.idCache = ImmutableMap.copyOf(ids);
+
         // 加载主键为topic的缓存
         this.topicCache = ImmutableMap.copyOf(
-                baseMapper.selectList(null).stream()
+                promptEntities.stream()
                     // 按照topic先分组 -> Map<String, List<PromptEntity>>
                     .collect(Collectors.groupingBy(PromptEntity::getTopic))
                     // 对Map的value进行操作，取得第一个元素
@@ -78,9 +216,26 @@ public class PromptServiceImpl extends ServiceImpl<PromptMapper, PromptEntity> i
 
         // 加载主键为type的缓存
         this.typeCache = ImmutableMap.copyOf(
-                baseMapper.selectList(null).stream()
+                promptEntities.stream()
                     .collect(Collectors.groupingBy(PromptEntity::getType)));
 
+        // 预先计算prompt的token数, 同时预热一轮上下文对话形式的token数(专家会话的系统提示)
+        Map<String, Integer> topicTokens = new HashMap<>();
+        for (PromptEntity promptEntity : this.topicCache.values()) {
+            if (promptEntity.getContent() == null) {
+                continue;
+            }
+            PromptEntity old = oldTopicCache.get(promptEntity.getTopic());
+            Integer oldTokens = oldTopicTokenCache.get(promptEntity.getTopic());
+            if (old != null && oldTokens != null && promptEntity.getContent().equals(old.getContent())) {
+                topicTokens.put(promptEntity.getTopic(), oldTokens);
+                continue;
+            }
+            topicTokens.put(promptEntity.getTopic(), TokenCounter.count(promptEntity.getContent()));
+            TokenCounter.countMessage(promptEntity.getContent());
+        }
+        this.topicTokenCache = ImmutableMap.copyOf(topicTokens);
+
         log.info("加载Prompt库缓存成功！, topicCache size:{}, typeCache size: {}", this.topicCache.size(), this.typeCache.size());
     }
 }
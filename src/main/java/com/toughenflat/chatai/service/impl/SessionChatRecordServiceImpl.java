@@ -7,6 +7,7 @@ import com.toughenflat.chatai.mapper.SessionChatRecordMapper;
 import com.toughenflat.chatai.service.SessionChatRecordService;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -14,6 +15,11 @@ public class SessionChatRecordServiceImpl
         extends ServiceImpl<SessionChatRecordMapper, SessionChatRecordEntity>
         implements SessionChatRecordService {
 
+    /**
+     * 从新到旧扫描token数时每页的记录数, 一页通常就能凑满一个窗口的token预算
+     */
+    private static final int TAIL_PAGE_SIZE = 50;
+
     @Override
     public List<SessionChatRecordEntity> getSessionRecord(Integer sessionId) {
         return baseMapper.selectList(new QueryWrapper<SessionChatRecordEntity>()
@@ -22,6 +28,58 @@ public class SessionChatRecordServiceImpl
         );
     }
 
+    /**
+     * 先按keyset分页从新到旧扫描索引中的token数, 确定窗口的起始id, 再只读取窗口内记录的content,
+     * 长会话加载窗口时不再读取和传输全部聊天记录
+     */
+    @Override
+    public List<SessionChatRecordEntity> getRecentSessionRecord(Integer sessionId, int maxTokens, boolean keepFirst) {
+        SessionChatRecordEntity firstRecord = null;
+        int curTokens = 0;
+        if (keepFirst) {
+            firstRecord = baseMapper.selectFirst(sessionId);
+            if (firstRecord == null) {
+                return new ArrayList<>();
+            }
+            curTokens = tokenNum(firstRecord);
+        }
+
+        Integer fromId = null;
+        Integer beforeId = Integer.MAX_VALUE;
+        scan:
+        while (true) {
+            List<SessionChatRecordEntity> page = baseMapper.selectTokenPageBefore(sessionId, beforeId, TAIL_PAGE_SIZE);
+            for (SessionChatRecordEntity record : page) {
+                if (firstRecord != null && record.getSessionChatId() <= firstRecord.getSessionChatId()) {
+                    break scan;
+                }
+                int tokenNum = tokenNum(record);
+                if (curTokens + tokenNum > maxTokens) {
+                    break scan;
+                }
+                curTokens += tokenNum;
+                fromId = record.getSessionChatId();
+            }
+            if (page.size() < TAIL_PAGE_SIZE) {
+                break;
+            }
+            beforeId = page.get(page.size() - 1).getSessionChatId();
+        }
+
+        List<SessionChatRecordEntity> records = new ArrayList<>();
+        if (firstRecord != null) {
+            records.add(firstRecord);
+        }
+        if (fromId != null) {
+            records.addAll(baseMapper.selectFromId(sessionId, fromId));
+        }
+        return records;
+    }
+
+    private static int tokenNum(SessionChatRecordEntity record) {
+        return record.getTokenNum() == null ? 0 : record.getTokenNum();
+    }
+
     @Override
     public void truncateSessionChatRecord(Integer sessionId) {
         baseMapper.delete(new QueryWrapper<SessionChatRecordEntity>().eq("session_id", sessionId));
@@ -1,11 +1,12 @@
 package com.toughenflat.chatai.sse;
 
-import cn.hutool.json.JSONUtil;
 import com.google.common.collect.ImmutableList;
 import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.ChatGPTStreamParser;
 import com.toughenflat.chatai.api.openai.enums.OpenAiRespError;
 import com.toughenflat.chatai.api.openai.enums.Role;
-import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTStreamChunk;
+import com.toughenflat.chatai.api.openai.resp.Usage;
 import com.toughenflat.chatai.entity.SessionChatRecordEntity;
 import com.toughenflat.chatai.enums.SessionType;
 import com.toughenflat.chatai.service.ChatService;
@@ -23,6 +24,7 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -44,6 +46,7 @@ public class OpenAISessionChatSSEListener extends EventSourceListener {
     private StringBuilder respContent;
     private String collectionName;
     private SessionType sessionType;
+    private Usage usage;
 
     /**
      * 增加sessionType属性用于PDF对话释放连接
@@ -78,11 +81,14 @@ public class OpenAISessionChatSSEListener extends EventSourceListener {
             return;
         }
 
-        ChatGPTResp resp = JSONUtil.toBean(data, ChatGPTResp.class);
-        if(StringUtils.isEmpty(resp)){
+        ChatGPTStreamChunk chunk = ChatGPTStreamParser.parse(data);
+        if(chunk == null){
             return;
         }
-        String content = resp.getChoices().get(0).getDelta().getContent();
+        if(chunk.getUsage() != null){
+            this.usage = chunk.getUsage();
+        }
+        String content = chunk.getContent();
 
         if(StringUtils.isEmpty(content)){
             return;
@@ -105,16 +111,21 @@ public class OpenAISessionChatSSEListener extends EventSourceListener {
 
         // 构造回复数据对象，持久化
         String respContentStr = this.respContent.toString();
+        // 上游返回了usage则直接使用, 与非流式对话保持一致, 否则自行估算
+        int replyTokenNum = this.usage != null && this.usage.getCompletion_tokens() != null
+                ? this.usage.getCompletion_tokens()
+                : ChatGPTApi.getMessageTokenNum(respContentStr);
         SessionChatRecordEntity replyRecord = new SessionChatRecordEntity(
                 this.askRecord.getSessionId(), Role.ASSISTANT.name,
-                respContentStr, ChatGPTApi.getMessageTokenNum(respContentStr));
-        sessionChatRecordService.saveBatch(ImmutableList.of(this.askRecord, replyRecord));
-
-        // 刷新缓存
-        chatService.refreshWindowRecordCache(this.askRecord.getSessionId());
+                respContentStr, replyTokenNum);
+        List<SessionChatRecordEntity> records = ImmutableList.of(this.askRecord, replyRecord);
+        sessionChatRecordService.saveBatch(records);
 
+        // 把本轮询问和应答追加到缓存的会话窗口
         if(sessionType.type.equals(SessionType.PDF_CHAT.type)) {
-            fileChatService.refreshWindowRecordCache(this.askRecord.getSessionId());
+            fileChatService.appendWindowRecords(this.askRecord.getSessionId(), records);
+        } else {
+            chatService.appendWindowRecords(this.askRecord.getSessionId(), sessionType, records);
         }
 
         if(!StringUtils.isEmpty(collectionName)){
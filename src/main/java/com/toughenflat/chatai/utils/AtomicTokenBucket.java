@@ -0,0 +1,52 @@
+package com.toughenflat.chatai.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶 (GCRA实现): 容量为capacity, 每period补满
+ * 只保存一个"理论到达时间", 获取令牌时CAS推进该时间, 不需要加锁和后台补充线程
+ */
+public class AtomicTokenBucket {
+    /**
+     * 每个令牌的间隔 (纳秒)
+     */
+    private final long interval;
+
+    /**
+     * 允许的突发量对应的时间容差 (纳秒)
+     */
+    private final long tolerance;
+
+    private final AtomicLong theoreticalArrival;
+
+    public AtomicTokenBucket(int capacity, long period, TimeUnit unit) {
+        this.interval = unit.toNanos(period) / capacity;
+        this.tolerance = interval * (capacity - 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime() - tolerance - interval);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    public boolean tryAcquire(long nowNanos) {
+        while (true) {
+            long current = theoreticalArrival.get();
+            long start = Math.max(current, nowNanos);
+            if (start - nowNanos > tolerance) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(current, start + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 清空令牌, 直到untilNanos之前都不能再获取
+     */
+    public void drainUntil(long untilNanos) {
+        theoreticalArrival.accumulateAndGet(untilNanos + tolerance, Math::max);
+    }
+}
@@ -0,0 +1,63 @@
+package com.toughenflat.chatai.utils;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按update_time增量轮询数据库变更的高水位
+ * 查询时回退OVERLAP_MILLIS, 避免同一秒内的变更或提交较晚的事务被漏掉;
+ * 重复返回的行由调用方按内容去重, 或用markProcessed跳过重叠窗口内已处理过的行
+ */
+public class HighWaterMark {
+
+    static final long OVERLAP_MILLIS = 2_000L;
+
+    /**
+     * 全量加载之前为null, 此时不做增量轮询
+     */
+    private volatile Date mark;
+
+    /**
+     * 重叠窗口内已处理过的行: id -> update_time, 高水位前进后清理窗口外的行
+     */
+    private final Map<Object, Long> processed = new ConcurrentHashMap<>();
+
+    /**
+     * 全量加载后重置为已加载行的最大update_time, 表为空时从0开始
+     */
+    public synchronized void reset(Collection<Date> updateTimes) {
+        mark = updateTimes.stream().filter(Objects::nonNull).max(Date::compareTo).orElse(new Date(0));
+        processed.clear();
+    }
+
+    public synchronized void advance(Date updateTime) {
+        if (updateTime != null && (mark == null || updateTime.after(mark))) {
+            mark = updateTime;
+            long since = updateTime.getTime() - OVERLAP_MILLIS;
+            processed.values().removeIf(time -> time < since);
+        }
+    }
+
+    /**
+     * 记录该行的这次变更已处理, 同一行同一update_time只在第一次调用时返回true
+     * update_time为null时无法判断, 总是返回true
+     */
+    public boolean markProcessed(Object id, Date updateTime) {
+        if (updateTime == null) {
+            return true;
+        }
+        Long previous = processed.put(id, updateTime.getTime());
+        return previous == null || previous != updateTime.getTime();
+    }
+
+    /**
+     * 增量查询的起点 (update_time >= since), 还没有全量加载时返回null
+     */
+    public Date since() {
+        Date current = mark;
+        return current == null ? null : new Date(current.getTime() - OVERLAP_MILLIS);
+    }
+}
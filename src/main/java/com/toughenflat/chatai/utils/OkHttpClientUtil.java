@@ -1,21 +1,115 @@
 package com.toughenflat.chatai.utils;
 
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyHealthInterceptor;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyInFlightInterceptor;
+import com.toughenflat.chatai.api.openai.breaker.RateLimitRetryInterceptor;
+import com.toughenflat.chatai.config.OkHttpClientProperties;
+import com.toughenflat.chatai.enums.HttpClientProfile;
+import lombok.extern.slf4j.Slf4j;
 import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+@Slf4j
 public class OkHttpClientUtil {
 
     private OkHttpClientUtil(){}
 
-    private static final OkHttpClient OK_HTTP_CLIENT = new OkHttpClient.Builder()
-            .connectTimeout(1, TimeUnit.MINUTES)
-            .writeTimeout(1, TimeUnit.MINUTES)
-            .readTimeout(1, TimeUnit.MINUTES)
-            .connectionPool(new ConnectionPool(50, 1L, TimeUnit.MINUTES)).build();
+    /**
+     * 每种配置对应一个客户端, 未配置时使用默认参数(与原全局客户端一致)
+     */
+    private static final Map<HttpClientProfile, OkHttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private static volatile Map<HttpClientProfile, OkHttpClientProperties.Profile> profiles = Collections.emptyMap();
 
     public static OkHttpClient getClient(){
-        return OK_HTTP_CLIENT;
+        return getClient(HttpClientProfile.DEFAULT);
+    }
+
+    public static OkHttpClient getClient(HttpClientProfile profile){
+        return CLIENTS.computeIfAbsent(profile, OkHttpClientUtil::build);
+    }
+
+    /**
+     * 加载配置, 已创建的客户端会被替换并关闭: 旧客户端上进行中和排队的请求照常完成, 之后释放线程和空闲连接
+     */
+    public static void init(Map<HttpClientProfile, OkHttpClientProperties.Profile> profileMap){
+        Map<HttpClientProfile, OkHttpClientProperties.Profile> map = new EnumMap<>(HttpClientProfile.class);
+        map.putAll(profileMap);
+        profiles = map;
+        for (HttpClientProfile profile : HttpClientProfile.values()) {
+            OkHttpClient old = CLIENTS.remove(profile);
+            if (old != null) {
+                shutdown(old);
+            }
+        }
+        log.info("加载OkHttp客户端配置成功！, 已配置的profile: {}", profileMap.keySet());
+    }
+
+    private static void shutdown(OkHttpClient client){
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+    /**
+     * 每种客户端的Dispatcher排队数、执行数以及连接池使用情况
+     */
+    public static Map<String, Map<String, Integer>> stats(){
+        Map<String, Map<String, Integer>> stats = new LinkedHashMap<>();
+        for (Map.Entry<HttpClientProfile, OkHttpClient> entry : CLIENTS.entrySet()) {
+            OkHttpClient client = entry.getValue();
+            Map<String, Integer> stat = new LinkedHashMap<>();
+            stat.put("queuedCalls", client.dispatcher().queuedCallsCount());
+            stat.put("runningCalls", client.dispatcher().runningCallsCount());
+            stat.put("maxRequests", client.dispatcher().getMaxRequests());
+            stat.put("maxRequestsPerHost", client.dispatcher().getMaxRequestsPerHost());
+            stat.put("connections", client.connectionPool().connectionCount());
+            stat.put("idleConnections", client.connectionPool().idleConnectionCount());
+            stats.put(entry.getKey().profileName, stat);
+        }
+        return stats;
+    }
+
+    private static OkHttpClient build(HttpClientProfile profile){
+        OkHttpClientProperties.Profile config = profiles.get(profile);
+        if (config == null) {
+            config = new OkHttpClientProperties.Profile();
+        }
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder();
+        if (profile.keyHealthTracked) {
+            // 重试在外层, 每次尝试的结果都会计入熔断器和额度
+            // 等待重试时占用Dispatcher的并发名额, 总等待时间限制在读超时的1/4以内
+            long maxTotalWaitMillis = Math.min(config.getRateLimitMaxWaitMillis(),
+                    TimeUnit.SECONDS.toMillis(config.getReadTimeout()) / 4);
+            builder.addInterceptor(new RateLimitRetryInterceptor(config.getRateLimitMaxRetries(), maxTotalWaitMillis));
+            builder.addInterceptor(new ApiKeyHealthInterceptor());
+        }
+        if (profile.keyInFlightTracked) {
+            builder.addInterceptor(new ApiKeyInFlightInterceptor());
+        }
+        return builder
+                .connectTimeout(config.getConnectTimeout(), TimeUnit.SECONDS)
+                .writeTimeout(config.getWriteTimeout(), TimeUnit.SECONDS)
+                .readTimeout(config.getReadTimeout(), TimeUnit.SECONDS)
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAlive(), TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .protocols(config.isHttp2()
+                        ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                        : Collections.singletonList(Protocol.HTTP_1_1))
+                .build();
     }
 }
@@ -0,0 +1,237 @@
+package com.toughenflat.chatai.utils;
+
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 不可变的[会话窗口], 缓存中的窗口可以被多个请求直接共享, 不需要每次复制
+ * 1 记录、对应的ContextMessage和token前缀和在加载时一次性构造成数组
+ * 2 按token预算裁剪时二分查找裁剪位置, 返回共享数组的新窗口
+ * 3 请求的messages是窗口的视图, 不逐条复制
+ * 4 新的询问和应答追加到窗口末尾生成新窗口, 不需要重新查库
+ *
+ * 裁剪时可以保留开头的若干条记录(游戏/专家会话的第一条), 窗口由两段组成: 数组的[0, head) 和 [from, to)
+ */
+public final class SessionWindow {
+
+    /**
+     * 每条记录的SessionChatRecordEntity、ContextMessage、数组槽位等对象开销的估计值
+     */
+    private static final int RECORD_OVERHEAD_BYTES = 128;
+
+    private static final SessionWindow EMPTY = of(new SessionChatRecordEntity[0]);
+
+    private final SessionChatRecordEntity[] records;
+
+    private final ContextMessage[] messages;
+
+    /**
+     * prefixTokens[i]为records[0, i)的token总数, 长度为records.length + 1
+     */
+    private final int[] prefixTokens;
+
+    private final int head;
+
+    private final int from;
+
+    private final int to;
+
+    private SessionWindow(SessionChatRecordEntity[] records, ContextMessage[] messages, int[] prefixTokens,
+                          int head, int from, int to) {
+        this.records = records;
+        this.messages = messages;
+        this.prefixTokens = prefixTokens;
+        this.head = head;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static SessionWindow empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 按顺序(从旧到新)构造窗口
+     */
+    public static SessionWindow of(List<SessionChatRecordEntity> records) {
+        return records.isEmpty() ? EMPTY : of(records.toArray(new SessionChatRecordEntity[0]));
+    }
+
+    private static SessionWindow of(SessionChatRecordEntity[] records) {
+        ContextMessage[] messages = new ContextMessage[records.length];
+        int[] prefixTokens = new int[records.length + 1];
+        for (int i = 0; i < records.length; i++) {
+            SessionChatRecordEntity record = records[i];
+            messages[i] = new ContextMessage(record.getRole(), record.getContent());
+            prefixTokens[i + 1] = prefixTokens[i] + tokenNum(record);
+        }
+        return new SessionWindow(records, messages, prefixTokens, 0, 0, records.length);
+    }
+
+    private static int tokenNum(SessionChatRecordEntity record) {
+        return record.getTokenNum() == null ? 0 : record.getTokenNum();
+    }
+
+    public int size() {
+        return head + to - from;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public SessionChatRecordEntity get(int index) {
+        return records[arrayIndex(index)];
+    }
+
+    /**
+     * 估算窗口占用的内存(字节), 用于缓存按容量淘汰: 内容按每个字符2字节计算, 另加每条记录的对象开销
+     */
+    public int weightBytes() {
+        long bytes = 0;
+        for (int i = 0; i < size(); i++) {
+            String content = get(i).getContent();
+            bytes += RECORD_OVERHEAD_BYTES + (content == null ? 0 : 2L * content.length());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    /**
+     * 窗口中所有记录的token总数
+     */
+    public int totalTokens() {
+        return prefixTokens[head] + prefixTokens[to] - prefixTokens[from];
+    }
+
+    /**
+     * 保留前keepHead条记录, 从第keepHead条开始丢弃最早的记录, 直到
+     * curTokens - 丢弃记录的token数 + perRecordTokens * (keepHead之后剩余的记录数 + 1) 不超过maxTokens, 或者没有可丢弃的记录
+     *
+     * @param curTokens       裁剪前计入预算的token数, 通常为窗口的token总数加上本次询问等固定开销
+     * @param perRecordTokens 每条记录额外计入预算的token数, 不需要时为0
+     * @return 裁剪后的窗口, 与当前窗口共享数组
+     */
+    public SessionWindow trim(int keepHead, int curTokens, int perRecordTokens, int maxTokens) {
+        SessionWindow window = this;
+        if (keepHead != head && head != from) {
+            // 只有两段式窗口换一个保留位置时才需要复制, 正常的调用路径不会走到这里
+            window = of(toRecordArray());
+        }
+        int keep = Math.min(keepHead, window.size());
+        int tailFrom = keep == window.head ? window.from : keep;
+        int tailTo = window.to;
+
+        // 丢弃k条记录后是否仍超出预算, 随k增大单调地由true变为false, 二分查找第一个不超出的k
+        int lo = 0;
+        int hi = tailTo - tailFrom;
+        while (lo < hi) {
+            int k = (lo + hi) >>> 1;
+            int dropped = window.prefixTokens[tailFrom + k] - window.prefixTokens[tailFrom];
+            int remaining = tailTo - tailFrom - k;
+            if (curTokens - dropped + perRecordTokens * (remaining + 1) > maxTokens) {
+                lo = k + 1;
+            } else {
+                hi = k;
+            }
+        }
+        if (lo == 0 && keep == window.head && tailFrom == window.from) {
+            return window;
+        }
+        return new SessionWindow(window.records, window.messages, window.prefixTokens, keep, tailFrom + lo, tailTo);
+    }
+
+    public SessionWindow trim(int keepHead, int curTokens, int maxTokens) {
+        return trim(keepHead, curTokens, 0, maxTokens);
+    }
+
+    /**
+     * 在窗口末尾按顺序(从旧到新)追加记录, 再保留前keepHead条并丢弃最早的记录直到token总数不超过maxTokens,
+     * 结果与把这些记录存库后重新加载窗口一致。已有记录的ContextMessage直接复用
+     *
+     * @return 新窗口, 当前窗口不变
+     */
+    public SessionWindow append(List<SessionChatRecordEntity> added, int keepHead, int maxTokens) {
+        int size = size();
+        int length = size + added.size();
+        SessionChatRecordEntity[] newRecords = new SessionChatRecordEntity[length];
+        ContextMessage[] newMessages = new ContextMessage[length];
+        int[] newPrefixTokens = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            if (i < size) {
+                int arrayIndex = arrayIndex(i);
+                newRecords[i] = records[arrayIndex];
+                newMessages[i] = messages[arrayIndex];
+            } else {
+                SessionChatRecordEntity record = added.get(i - size);
+                newRecords[i] = record;
+                newMessages[i] = new ContextMessage(record.getRole(), record.getContent());
+            }
+            newPrefixTokens[i + 1] = newPrefixTokens[i] + tokenNum(newRecords[i]);
+        }
+        SessionWindow window = new SessionWindow(newRecords, newMessages, newPrefixTokens, 0, 0, length);
+        return window.trim(keepHead, window.totalTokens(), maxTokens);
+    }
+
+    /**
+     * 窗口中的记录, 只读视图
+     */
+    public List<SessionChatRecordEntity> records() {
+        return new View<SessionChatRecordEntity>(null) {
+            @Override
+            SessionChatRecordEntity at(int arrayIndex) {
+                return records[arrayIndex];
+            }
+        };
+    }
+
+    /**
+     * 请求的上下文: 窗口中的记录依次转换成的ContextMessage, 最后加上本次询问last (为null时不加), 只读视图
+     */
+    public List<ContextMessage> toMessages(ContextMessage last) {
+        return new View<ContextMessage>(last) {
+            @Override
+            ContextMessage at(int arrayIndex) {
+                return messages[arrayIndex];
+            }
+        };
+    }
+
+    private int arrayIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return index < head ? index : from + index - head;
+    }
+
+    private SessionChatRecordEntity[] toRecordArray() {
+        SessionChatRecordEntity[] array = new SessionChatRecordEntity[size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = get(i);
+        }
+        return array;
+    }
+
+    private abstract class View<E> extends AbstractList<E> implements RandomAccess {
+        private final E last;
+
+        View(E last) {
+            this.last = last;
+        }
+
+        abstract E at(int arrayIndex);
+
+        @Override
+        public E get(int index) {
+            return last != null && index == SessionWindow.this.size() ? last : at(arrayIndex(index));
+        }
+
+        @Override
+        public int size() {
+            return SessionWindow.this.size() + (last == null ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.toughenflat.chatai.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * [会话窗口]缓存, 按sessionId缓存SessionWindow, 窗口的token总数保存在SessionWindow中
+ * 线程安全; 按窗口内容的字节数限制总容量, 超出时淘汰最近最少使用的会话, 并记录命中和淘汰情况
+ *
+ * 配置了共享存储(SessionWindowStore)时, 本地缓存作为近端缓存:
+ * 1 本地未命中时先读共享存储, 都未命中才从数据库加载, 加载结果写回共享存储
+ * 2 追加记录以共享存储中的窗口为准, 比较头部后替换, 并通知其他节点丢弃本地副本
+ * 3 共享存储异常时按单机处理
+ */
+@Slf4j
+public class SessionWindowCache {
+
+    private final Cache<Integer, SessionWindow> cache;
+
+    private final long maximumBytes;
+
+    private final String name;
+
+    private final SessionWindowStore store;
+
+    private final LongAdder appends = new LongAdder();
+
+    private final LongAdder appendConflicts = new LongAdder();
+
+    private final LongAdder sharedHits = new LongAdder();
+
+    private final LongAdder sharedMisses = new LongAdder();
+
+    private final LongAdder sharedErrors = new LongAdder();
+
+    private final LongAdder remoteInvalidations = new LongAdder();
+
+    public SessionWindowCache(long maximumBytes, long expireAfterAccessMinutes) {
+        this(null, maximumBytes, expireAfterAccessMinutes, null);
+    }
+
+    /**
+     * @param name  共享存储中区分不同窗口缓存的名称
+     * @param store 共享存储, 为null时只使用本地缓存
+     */
+    public SessionWindowCache(String name, long maximumBytes, long expireAfterAccessMinutes, SessionWindowStore store) {
+        this.name = name;
+        this.store = store;
+        this.maximumBytes = maximumBytes;
+        this.cache = Caffeine.newBuilder()
+                .initialCapacity(1024)
+                .maximumWeight(maximumBytes)
+                .weigher((Integer sessionId, SessionWindow window) -> window.weightBytes())
+                .expireAfterAccess(expireAfterAccessMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        if (store != null) {
+            store.onInvalidation(name, sessionId -> {
+                remoteInvalidations.increment();
+                cache.invalidate(sessionId);
+            });
+        }
+    }
+
+    /**
+     * 缓存中有则用, 没有则调用loader加载并存入缓存, 同一会话并发未命中时只加载一次
+     */
+    public SessionWindow get(Integer sessionId, Function<Integer, SessionWindow> loader) {
+        if (store == null) {
+            return cache.get(sessionId, loader);
+        }
+        return cache.get(sessionId, id -> {
+            byte[] bytes = getShared(id);
+            if (bytes != null) {
+                sharedHits.increment();
+                return SessionWindowCodec.decode(bytes);
+            }
+            sharedMisses.increment();
+            SessionWindow window = loader.apply(id);
+            try {
+                store.putIfAbsent(name, id, SessionWindowCodec.encode(window));
+            } catch (Exception e) {
+                sharedError("写入", id, e);
+            }
+            return window;
+        });
+    }
+
+    public void put(Integer sessionId, SessionWindow window) {
+        cache.put(sessionId, window);
+    }
+
+    /**
+     * 把刚存库的询问和应答原子地追加到缓存的窗口中并按token预算裁剪, 不查库。
+     * 缓存中没有该会话时不做处理, 下次访问时再从数据库加载;
+     * 追加记录的id不大于窗口最后一条记录的id时(并发加载的窗口已包含这些记录, 或同一会话的多个轮次乱序完成), 直接失效该会话
+     */
+    public void append(Integer sessionId, List<SessionChatRecordEntity> records, int keepHead, int maxTokens) {
+        if (store != null) {
+            try {
+                appendShared(sessionId, records, keepHead, maxTokens);
+                return;
+            } catch (Exception e) {
+                sharedError("追加", sessionId, e);
+            }
+        }
+        cache.asMap().computeIfPresent(sessionId, (id, window) -> {
+            if (!canAppend(window, records)) {
+                appendConflicts.increment();
+                return null;
+            }
+            appends.increment();
+            return window.append(records, keepHead, maxTokens);
+        });
+    }
+
+    /**
+     * 以共享存储中的窗口为准追加, 替换时头部(最后一条记录的id)不一致说明其他节点同时改过, 放弃并删除该窗口
+     */
+    private void appendShared(Integer sessionId, List<SessionChatRecordEntity> records, int keepHead, int maxTokens) {
+        byte[] bytes = store.get(name, sessionId);
+        SessionWindow window = null;
+        if (bytes != null) {
+            SessionWindow current = SessionWindowCodec.decode(bytes);
+            if (canAppend(current, records)) {
+                SessionWindow appended = current.append(records, keepHead, maxTokens);
+                if (store.compareAndSet(name, sessionId, SessionWindowCodec.header(bytes), SessionWindowCodec.encode(appended))) {
+                    window = appended;
+                }
+            } else {
+                store.delete(name, sessionId);
+            }
+        }
+        if (window != null) {
+            appends.increment();
+            cache.put(sessionId, window);
+        } else {
+            // 共享存储中没有该会话时, 其他节点也不会有有效的副本, 下次访问时重新加载
+            if (bytes != null) {
+                appendConflicts.increment();
+            }
+            cache.invalidate(sessionId);
+        }
+        store.publishInvalidation(name, sessionId);
+    }
+
+    private static boolean canAppend(SessionWindow window, List<SessionChatRecordEntity> records) {
+        return window.isEmpty() || records.isEmpty() || isAfter(records.get(0), window.get(window.size() - 1));
+    }
+
+    private static boolean isAfter(SessionChatRecordEntity record, SessionChatRecordEntity last) {
+        return record.getSessionChatId() == null || last.getSessionChatId() == null
+                || record.getSessionChatId() > last.getSessionChatId();
+    }
+
+    /**
+     * 使会话窗口失效, 配置了共享存储时同时删除共享的窗口并通知其他节点
+     */
+    public void invalidate(Integer sessionId) {
+        cache.invalidate(sessionId);
+        if (store != null) {
+            try {
+                store.delete(name, sessionId);
+                store.publishInvalidation(name, sessionId);
+            } catch (Exception e) {
+                sharedError("删除", sessionId, e);
+            }
+        }
+    }
+
+    private byte[] getShared(Integer sessionId) {
+        try {
+            return store.get(name, sessionId);
+        } catch (Exception e) {
+            sharedError("读取", sessionId, e);
+            return null;
+        }
+    }
+
+    private void sharedError(String action, Integer sessionId, Exception e) {
+        sharedErrors.increment();
+        log.warn("{}共享会话窗口{}:{}异常, 按单机处理! {}", action, name, sessionId, e.getMessage());
+    }
+
+    /**
+     * 命中、淘汰情况和当前占用
+     */
+    public Map<String, Object> stats() {
+        // 先执行挂起的淘汰, 使占用容量准确
+        cache.cleanUp();
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        result.put("evictionBytes", stats.evictionWeight());
+        result.put("loadFailures", stats.loadFailureCount());
+        result.put("appends", appends.sum());
+        result.put("appendConflicts", appendConflicts.sum());
+        if (store != null) {
+            result.put("sharedHits", sharedHits.sum());
+            result.put("sharedMisses", sharedMisses.sum());
+            result.put("sharedErrors", sharedErrors.sum());
+            result.put("remoteInvalidations", remoteInvalidations.sum());
+        }
+        result.put("size", cache.estimatedSize());
+        result.put("weightBytes", cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L)).orElse(0L));
+        result.put("maximumBytes", maximumBytes);
+        return result;
+    }
+}
@@ -0,0 +1,149 @@
+package com.toughenflat.chatai.utils;
+
+import com.toughenflat.chatai.api.openai.enums.Role;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * [会话窗口]的紧凑二进制编码, 用于在redis中共享窗口, 只保存构造上下文需要的字段
+ * 头部: 版本(1字节) + 最后一条记录的id(4字节), 用于追加时比较窗口是否被其他节点改过
+ * 之后: sessionId、记录数, 每条记录依次为角色(1字节)、id、token数、内容的UTF-8字节,
+ * 整数按varint编码, 可能为null的值编码为 值+1, 0表示null
+ */
+public final class SessionWindowCodec {
+
+    private static final byte VERSION = 1;
+
+    public static final int HEADER_LENGTH = 5;
+
+    private static final Role[] ROLES = Role.values();
+
+    private static final int OTHER_ROLE = 0xff;
+
+    public static byte[] encode(SessionWindow window) {
+        // 按窗口内容的大小预估初始容量
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + window.weightBytes() / 2);
+        out.write(VERSION);
+        int lastId = lastId(window);
+        out.write(lastId >>> 24);
+        out.write(lastId >>> 16);
+        out.write(lastId >>> 8);
+        out.write(lastId);
+        writeNullable(out, window.isEmpty() ? null : window.get(0).getSessionId());
+        writeVarint(out, window.size());
+        for (int i = 0; i < window.size(); i++) {
+            SessionChatRecordEntity record = window.get(i);
+            int role = roleCode(record.getRole());
+            out.write(role);
+            if (role == OTHER_ROLE) {
+                writeString(out, record.getRole());
+            }
+            writeNullable(out, record.getSessionChatId());
+            writeNullable(out, record.getTokenNum());
+            writeString(out, record.getContent());
+        }
+        return out.toByteArray();
+    }
+
+    public static SessionWindow decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported session window version: " + version);
+        }
+        in.getInt();
+        Integer sessionId = readNullable(in);
+        int size = readVarint(in);
+        List<SessionChatRecordEntity> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int role = in.get() & 0xff;
+            String roleName = role == OTHER_ROLE ? readString(in) : ROLES[role].name;
+            Integer sessionChatId = readNullable(in);
+            Integer tokenNum = readNullable(in);
+            SessionChatRecordEntity record = new SessionChatRecordEntity(sessionId, roleName, readString(in), tokenNum);
+            record.setSessionChatId(sessionChatId);
+            records.add(record);
+        }
+        return SessionWindow.of(records);
+    }
+
+    /**
+     * 编码结果的头部, 追加时用于比较
+     */
+    public static byte[] header(byte[] bytes) {
+        return Arrays.copyOf(bytes, HEADER_LENGTH);
+    }
+
+    private static int lastId(SessionWindow window) {
+        if (window.isEmpty()) {
+            return -1;
+        }
+        Integer id = window.get(window.size() - 1).getSessionChatId();
+        return id == null ? -1 : id;
+    }
+
+    private static int roleCode(String role) {
+        for (Role r : ROLES) {
+            if (r.name.equals(role)) {
+                return r.ordinal();
+            }
+        }
+        return OTHER_ROLE;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.position(), length - 1, StandardCharsets.UTF_8);
+        in.position(in.position() + length - 1);
+        return value;
+    }
+
+    private static void writeNullable(ByteArrayOutputStream out, Integer value) {
+        writeVarint(out, value == null ? 0 : value + 1);
+    }
+
+    private static Integer readNullable(ByteBuffer in) {
+        int value = readVarint(in);
+        return value == 0 ? null : value - 1;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private SessionWindowCodec() {}
+}
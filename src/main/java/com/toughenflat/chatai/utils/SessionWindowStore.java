@@ -0,0 +1,39 @@
+package com.toughenflat.chatai.utils;
+
+import java.util.function.Consumer;
+
+/**
+ * 多个节点共享的[会话窗口]存储层, 值为SessionWindowCodec编码后的字节, name区分不同的窗口缓存
+ * 调用方负责处理异常: 存储不可用时按单机处理
+ */
+public interface SessionWindowStore {
+
+    /**
+     * 获取窗口, 不存在时返回null
+     */
+    byte[] get(String name, Integer sessionId);
+
+    /**
+     * 窗口不存在时写入, 已存在(其他节点已追加了更新的窗口)时不覆盖
+     */
+    void putIfAbsent(String name, Integer sessionId, byte[] value);
+
+    /**
+     * 当前窗口的头部与expectedHeader一致时替换为value, 否则删除当前窗口
+     *
+     * @return 是否替换成功
+     */
+    boolean compareAndSet(String name, Integer sessionId, byte[] expectedHeader, byte[] value);
+
+    void delete(String name, Integer sessionId);
+
+    /**
+     * 通知其他节点窗口已变化, 需要丢弃本地的副本
+     */
+    void publishInvalidation(String name, Integer sessionId);
+
+    /**
+     * 注册其他节点的失效通知
+     */
+    void onInvalidation(String name, Consumer<Integer> listener);
+}
@@ -29,7 +29,10 @@ public class SnowflakeIdGenerator {
     // 最大序列号
     private static long maxSequence = ~(-1L << sequenceBits);
 
-    public static long nextId() {
+    /**
+     * 序列号和时间戳是共享状态, 并发生成sseEmitterId时需要同步, 否则会生成重复id或误报时钟回拨
+     */
+    public static synchronized long nextId() {
         long timestamp = System.currentTimeMillis();
         if (timestamp < lastTimestamp) {
             throw new RuntimeException("Clock moved backwards, refusing to generate id");
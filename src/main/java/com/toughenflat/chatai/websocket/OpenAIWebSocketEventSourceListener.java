@@ -1,8 +1,8 @@
 package com.toughenflat.chatai.websocket;
 
-import cn.hutool.json.JSONUtil;
+import com.toughenflat.chatai.api.openai.ChatGPTStreamParser;
 import com.toughenflat.chatai.api.openai.enums.OpenAiRespError;
-import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTStreamChunk;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import okhttp3.Response;
@@ -42,11 +42,11 @@ public class OpenAIWebSocketEventSourceListener extends EventSourceListener {
         }
         log.info(data);
 
-        ChatGPTResp resp = JSONUtil.toBean(data, ChatGPTResp.class);
-        if (StringUtils.isEmpty(resp)) {
+        ChatGPTStreamChunk chunk = ChatGPTStreamParser.parse(data);
+        if (chunk == null) {
             return;
         }
-        String content = resp.getChoices().get(0).getDelta().getContent();
+        String content = chunk.getContent();
 
         if (StringUtils.isEmpty(content)) {
             return;
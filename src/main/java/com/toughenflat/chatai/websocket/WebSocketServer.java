@@ -1,16 +1,17 @@
 package com.toughenflat.chatai.websocket;
 
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.http.ContentType;
-import cn.hutool.json.JSONUtil;
 import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.ApiEndpoints;
 import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
 import com.toughenflat.chatai.api.openai.enums.Role;
 import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
 import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.api.openai.req.OpenAIRequestBody;
 import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
 import com.toughenflat.chatai.entity.UserApiKeyEntity;
 import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.enums.HttpClientProfile;
 import com.toughenflat.chatai.exception.BaseException;
 import com.toughenflat.chatai.service.AdminApiKeyService;
 import com.toughenflat.chatai.service.PromptService;
@@ -19,9 +20,7 @@ import com.toughenflat.chatai.utils.OkHttpClientUtil;
 import com.toughenflat.chatai.utils.ResultCode;
 import com.toughenflat.chatai.utils.ReturnResult;
 import lombok.extern.slf4j.Slf4j;
-import okhttp3.MediaType;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.sse.EventSource;
 import okhttp3.sse.EventSources;
 import org.apache.commons.lang3.StringUtils;
@@ -143,7 +142,7 @@ public class WebSocketServer {
         UserApiKeyEntity userApiKeyEntity = userApiKeyService.getByUserIdAndType(uid, ApiType.OPENAI);
         String apiKey = userApiKeyEntity != null && !StringUtils.isEmpty(userApiKeyEntity.getApikey())
                 ? userApiKeyEntity.getApikey()
-                : adminApiKeyService.roundRobinGetByType(ApiType.OPENAI);
+                : adminApiKeyService.selectByType(ApiType.OPENAI);
         if (apiKey == null) {
             return;
         }
@@ -151,11 +150,10 @@ public class WebSocketServer {
         OpenAIWebSocketEventSourceListener eventSourceListener = new OpenAIWebSocketEventSourceListener(this.session);
 
         try {
-            EventSource.Factory factory = EventSources.createFactory(OkHttpClientUtil.getClient());
-            String requestBody = JSONUtil.parseObj(chatGPTReq).toString();
+            EventSource.Factory factory = EventSources.createFactory(OkHttpClientUtil.getClient(HttpClientProfile.OPENAI_STREAM));
             Request request = new Request.Builder()
-                    .url(OpenAIConst.HOST + OpenAIConst.CHATGPT_MAPPING)
-                    .post(RequestBody.create(MediaType.parse(ContentType.JSON.getValue()), requestBody))
+                    .url(ApiEndpoints.openAIHost() + OpenAIConst.CHATGPT_MAPPING)
+                    .post(OpenAIRequestBody.of(chatGPTReq))
                     .header(AUTHORIZATION_STR, "Bearer " + apiKey)
                     .build();
 
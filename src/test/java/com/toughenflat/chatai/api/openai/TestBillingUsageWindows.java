@@ -0,0 +1,62 @@
+package com.toughenflat.chatai.api.openai;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+
+/**
+ * 校验并发回溯与串行回溯结果一致、增量窗口按上限拆分
+ */
+public class TestBillingUsageWindows {
+
+    private static final LocalDate TODAY = LocalDate.of(2023, 6, 1);
+
+    private final List<LocalDate> queried = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * 最近7个窗口每个窗口使用100美分, 更早的没有使用
+     */
+    private final BiFunction<LocalDate, LocalDate, CompletableFuture<BigDecimal>> query = (start, end) -> {
+        queried.add(start);
+        long windowsAgo = (TODAY.toEpochDay() - end.toEpochDay()) / BillingUsageWindows.WINDOW_DAYS;
+        return CompletableFuture.completedFuture(windowsAgo < 7 ? new BigDecimal("100") : BigDecimal.ZERO);
+    };
+
+    @Test
+    public void testBackfill() {
+        Assert.assertEquals(new BigDecimal("700"), BillingUsageWindows.backfill(query, TODAY, 1).join());
+        Assert.assertEquals(8, queried.size());
+        queried.clear();
+        Assert.assertEquals(new BigDecimal("700"), BillingUsageWindows.backfill(query, TODAY, 4).join());
+        Assert.assertEquals(8, queried.size());
+        queried.clear();
+        Assert.assertEquals(new BigDecimal("700"), BillingUsageWindows.backfill(query, TODAY, 3).join());
+        Assert.assertEquals(9, queried.size());
+    }
+
+    @Test
+    public void testBackfillIoError() {
+        Assert.assertNull(BillingUsageWindows.backfill((start, end) -> CompletableFuture.completedFuture(null), TODAY, 4).join());
+    }
+
+    @Test
+    public void testSumWindows() {
+        List<long[]> windows = Collections.synchronizedList(new ArrayList<>());
+        BigDecimal total = BillingUsageWindows.sumWindows((start, end) -> {
+            windows.add(new long[]{start.toEpochDay(), end.toEpochDay()});
+            return CompletableFuture.completedFuture(BigDecimal.ONE);
+        }, TODAY.minusDays(200), TODAY).join();
+        // 200天拆成95、95、10三个窗口
+        Assert.assertEquals(new BigDecimal("3"), total);
+        Assert.assertEquals(3, windows.size());
+        windows.forEach(window -> Assert.assertTrue(window[1] - window[0] <= BillingUsageWindows.WINDOW_DAYS));
+        Assert.assertEquals(BigDecimal.ZERO, BillingUsageWindows.sumWindows(query, TODAY, TODAY).join());
+    }
+}
@@ -0,0 +1,134 @@
+package com.toughenflat.chatai.api.openai;
+
+import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.ApiEndpoints;
+import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.pinecone.PineconeApi;
+import com.toughenflat.chatai.loadtest.MockOpenAIServer;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 校验流式请求合并时, 中途加入的监听器也能收到完整有序的事件, 且单个监听器异常不影响其他监听器;
+ * 使用不同系统key的相同请求合并为一次上游调用, 用户自带的key不与系统key合并
+ */
+public class TestChatGPTSingleFlight {
+
+    private static class RecordListener extends EventSourceListener {
+        private final List<String> data = new ArrayList<>();
+        private boolean closed;
+
+        @Override
+        public void onEvent(EventSource eventSource, String id, String type, String data) {
+            this.data.add(data);
+        }
+
+        @Override
+        public void onClosed(EventSource eventSource) {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testFanOut() {
+        RecordListener first = new RecordListener();
+        RecordListener late = new RecordListener();
+        EventSourceListener broken = new EventSourceListener() {
+            @Override
+            public void onEvent(EventSource eventSource, String id, String type, String data) {
+                throw new IllegalStateException("closed");
+            }
+        };
+
+        ChatGPTSingleFlight.FanOutListener fanOut = new ChatGPTSingleFlight.FanOutListener("key", first);
+        Assert.assertTrue(fanOut.join(broken));
+        fanOut.onOpen(null, null);
+        fanOut.onEvent(null, null, null, "a");
+        fanOut.onEvent(null, null, null, "b");
+        Assert.assertTrue(fanOut.join(late));
+        fanOut.onEvent(null, null, null, "[DONE]");
+        fanOut.onClosed(null);
+
+        Assert.assertEquals(first.data, late.data);
+        Assert.assertEquals(3, late.data.size());
+        Assert.assertTrue(first.closed && late.closed);
+
+        // 结束后不能再加入
+        Assert.assertFalse(fanOut.join(new RecordListener()));
+    }
+
+    @Test
+    public void testKeyIncludesApiKey() {
+        ChatGPTReq req = ChatGPTReq.builder().messages(Collections.emptyList()).build();
+        Assert.assertEquals(ChatGPTReqHash.of(req, "sk-a"), ChatGPTReqHash.of(req, "sk-a"));
+        Assert.assertNotEquals(ChatGPTReqHash.of(req, "sk-a"), ChatGPTReqHash.of(req, "sk-b"));
+    }
+
+    @Test
+    public void testReplayBufferBounded() {
+        RecordListener first = new RecordListener();
+        ChatGPTSingleFlight.FanOutListener fanOut = new ChatGPTSingleFlight.FanOutListener("key", first);
+        fanOut.onOpen(null, null);
+        for (int i = 0; i <= ChatGPTSingleFlight.MAX_REPLAY_EVENTS; i++) {
+            fanOut.onEvent(null, null, null, String.valueOf(i));
+        }
+        // 超出补发上限后不能再加入, 已加入的监听器照常收到事件
+        Assert.assertFalse(fanOut.join(new RecordListener()));
+        fanOut.onEvent(null, null, null, "[DONE]");
+        Assert.assertEquals(ChatGPTSingleFlight.MAX_REPLAY_EVENTS + 2, first.data.size());
+    }
+
+    @Test
+    public void testAbortReturnsJoined() {
+        RecordListener first = new RecordListener();
+        RecordListener joined = new RecordListener();
+        ChatGPTSingleFlight.FanOutListener fanOut = new ChatGPTSingleFlight.FanOutListener("key", first);
+        Assert.assertTrue(fanOut.join(joined));
+
+        Assert.assertEquals(Collections.singletonList(joined), fanOut.abort());
+        Assert.assertFalse(fanOut.join(new RecordListener()));
+    }
+
+    @Test
+    public void testCoalesceAcrossAdminKeys() throws Exception {
+        MockOpenAIServer openAI = new MockOpenAIServer().completionTokens(3).tokensPerSecond(0);
+        openAI.latencyMillis(300).start(0);
+        ApiEndpoints.init(openAI.baseUrl(), null);
+        AdminApiKeyPool.update(ImmutableList.of("sk-admin-a", "sk-admin-b"));
+        try {
+            ChatGPTReq req = ChatGPTReq.builder()
+                    .messages(Collections.singletonList(new ContextMessage("user", "coalesce")))
+                    .build();
+            long upstreamCalls = ChatGPTSingleFlight.stats().get("upstreamCalls");
+
+            // 选key策略为两个相同的请求选了不同的系统key
+            CompletableFuture<ChatGPTResp> a = ChatGPTSingleFlight.oneShotReqAsync(req, "sk-admin-a");
+            CompletableFuture<ChatGPTResp> b = ChatGPTSingleFlight.oneShotReqAsync(req, "sk-admin-b");
+            Assert.assertNotNull(a.join());
+            Assert.assertEquals(a.join().getMessage(), b.join().getMessage());
+            Assert.assertEquals(upstreamCalls + 1, ChatGPTSingleFlight.stats().get("upstreamCalls").longValue());
+            Assert.assertEquals(1, openAI.getChatRequests());
+
+            // 用户自带的key不与系统key合并
+            CompletableFuture<ChatGPTResp> admin = ChatGPTSingleFlight.oneShotReqAsync(req, "sk-admin-a");
+            CompletableFuture<ChatGPTResp> user = ChatGPTSingleFlight.oneShotReqAsync(req, "sk-user");
+            admin.join();
+            user.join();
+            Assert.assertEquals(upstreamCalls + 3, ChatGPTSingleFlight.stats().get("upstreamCalls").longValue());
+        } finally {
+            AdminApiKeyPool.update(Collections.emptyList());
+            ApiEndpoints.init(OpenAIConst.HOST, PineconeApi.PINECONE_API_URL);
+            openAI.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.toughenflat.chatai.api.openai;
+
+import cn.hutool.json.JSONUtil;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTStreamChunk;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 校验ChatGPTStreamParser与JSONUtil.toBean解析出的增量内容一致
+ */
+public class TestChatGPTStreamParser {
+
+    private final String deltaChunk = "{\"id\":\"chatcmpl-7\",\"object\":\"chat.completion.chunk\",\"created\":1684888774," +
+            "\"model\":\"gpt-3.5-turbo-0301\",\"choices\":[{\"delta\":{\"content\":\"你好\\n\\\"世界\\\" \\ud83d\\ude00\"}," +
+            "\"index\":0,\"finish_reason\":null}]}";
+    private final String roleChunk = "{\"id\":\"chatcmpl-7\",\"object\":\"chat.completion.chunk\",\"created\":1684888774," +
+            "\"model\":\"gpt-3.5-turbo-0301\",\"choices\":[{\"delta\":{\"role\":\"assistant\"},\"index\":0,\"finish_reason\":null}]}";
+    private final String stopChunk = "{\"id\":\"chatcmpl-7\",\"object\":\"chat.completion.chunk\",\"created\":1684888774," +
+            "\"model\":\"gpt-3.5-turbo-0301\",\"choices\":[{\"delta\":{},\"index\":0,\"finish_reason\":\"stop\"}]," +
+            "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":34,\"total_tokens\":46}}";
+
+    @Test
+    public void testDeltaContent() {
+        ChatGPTStreamChunk chunk = ChatGPTStreamParser.parse(deltaChunk);
+        ChatGPTResp resp = JSONUtil.toBean(deltaChunk, ChatGPTResp.class);
+        Assert.assertEquals(resp.getChoices().get(0).getDelta().getContent(), chunk.getContent());
+        Assert.assertNull(chunk.getFinishReason());
+        Assert.assertNull(chunk.getUsage());
+    }
+
+    @Test
+    public void testRoleOnly() {
+        ChatGPTStreamChunk chunk = ChatGPTStreamParser.parse(roleChunk);
+        Assert.assertNull(chunk.getContent());
+    }
+
+    @Test
+    public void testFinishReasonAndUsage() {
+        ChatGPTStreamChunk chunk = ChatGPTStreamParser.parse(stopChunk);
+        Assert.assertNull(chunk.getContent());
+        Assert.assertEquals("stop", chunk.getFinishReason());
+        Assert.assertEquals(Integer.valueOf(34), chunk.getUsage().getCompletion_tokens());
+        Assert.assertEquals(Integer.valueOf(46), chunk.getUsage().getTotal_tokens());
+    }
+
+    @Test
+    public void testMalformed() {
+        Assert.assertNull(ChatGPTStreamParser.parse("{\"choices\":[{\"delta\":"));
+        Assert.assertNull(ChatGPTStreamParser.parse("[DONE"));
+    }
+}
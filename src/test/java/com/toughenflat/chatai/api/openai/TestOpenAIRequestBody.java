@@ -0,0 +1,58 @@
+package com.toughenflat.chatai.api.openai;
+
+import cn.hutool.json.JSONUtil;
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.openai.enums.Role;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.api.openai.req.EmbeddingReq;
+import com.toughenflat.chatai.api.openai.req.OpenAIRequestBody;
+import okio.Buffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+/**
+ * 校验OpenAIRequestBody的输出与JSONUtil.parseObj(req).toString()等价
+ */
+public class TestOpenAIRequestBody {
+
+    @Test
+    public void testChatGPTReq() throws IOException {
+        ChatGPTReq req = ChatGPTReq.builder()
+                .messages(ImmutableList.of(
+                        new ContextMessage(Role.SYSTEM.name, "你是一个\"翻译\"助手\n\t\\"),
+                        new ContextMessage(Role.USER.name, "😀Hello 😀\u0001"),
+                        new ContextMessage(Role.ASSISTANT.name, null)))
+                .stop(ImmutableList.of("\n"))
+                .stream(true)
+                .build();
+        assertSameJson(JSONUtil.parseObj(req).toString(), write(OpenAIRequestBody.of(req)));
+    }
+
+    @Test
+    public void testChatGPTReqWithoutMessages() throws IOException {
+        ChatGPTReq req = ChatGPTReq.builder().temperature(0.0).build();
+        assertSameJson(JSONUtil.parseObj(req).toString(), write(OpenAIRequestBody.of(req)));
+    }
+
+    @Test
+    public void testEmbeddingReq() throws IOException {
+        EmbeddingReq req = EmbeddingReq.builder()
+                .input(ImmutableList.of("第一段", "second \"chunk\"\r\n"))
+                .build();
+        assertSameJson(JSONUtil.parseObj(req).toString(), write(OpenAIRequestBody.of(req)));
+    }
+
+    private String write(OpenAIRequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+    private void assertSameJson(String expected, String actual) {
+        Assert.assertEquals(JSON.parseObject(expected), JSON.parseObject(actual));
+    }
+}
@@ -0,0 +1,41 @@
+package com.toughenflat.chatai.api.openai;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 校验TokenCounter的计数与jtokkit编码结果一致, 且重复计数命中缓存
+ */
+public class TestTokenCounter {
+    private final Encoding enc = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private final String example1 = "😀Hello 😀my name 😀is Kevin😀😀😀.";
+    private final String example2 = "No, 人民军人后勤部 is the appellant (上诉人) in this case, not the respondent (被上诉人).";
+
+    @Test
+    public void testCount() {
+        Assert.assertEquals(enc.encode(example1).size(), TokenCounter.count(example1));
+        Assert.assertEquals(enc.encode(example2).size(), TokenCounter.count(example2));
+    }
+
+    @Test
+    public void testCountMessage() {
+        Assert.assertEquals(enc.encode("role: {user}, message: {" + example2 + "}").size(), TokenCounter.countMessage(example2));
+        Assert.assertEquals(enc.encode("role: {user}, message: {null}").size(), TokenCounter.countMessage(null));
+        // 同一内容的两种计数方式互不干扰
+        Assert.assertNotEquals(TokenCounter.count(example2), TokenCounter.countMessage(example2));
+    }
+
+    @Test
+    public void testCacheHit() {
+        String text = "重复计数的内容" + System.nanoTime();
+        long hitCount = TokenCounter.stats().hitCount();
+        int first = TokenCounter.count(text);
+        int second = TokenCounter.count(text);
+        Assert.assertEquals(first, second);
+        Assert.assertEquals(hitCount + 1, TokenCounter.stats().hitCount());
+    }
+}
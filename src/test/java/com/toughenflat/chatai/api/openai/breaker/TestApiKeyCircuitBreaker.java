@@ -0,0 +1,174 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+
+/**
+ * 校验熔断器的状态转换: 连续失败熔断, 冷却后只放行一个探测请求, 探测成功恢复、失败则冷却时间翻倍,
+ * 探测请求被取消、返回其他4xx或一直没有结果时不会永久占用探测名额
+ */
+public class TestApiKeyCircuitBreaker {
+
+    @Test
+    public void testOpenAndRecover() {
+        ApiKeyCircuitBreaker breaker = new ApiKeyCircuitBreaker();
+        long now = 0;
+        breaker.onSuccess(100);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(breaker.tryAcquire(now));
+            breaker.onFailure(now);
+        }
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.isAvailable(now + 1_000));
+        Assert.assertFalse(breaker.tryAcquire(now + 1_000));
+
+        // 冷却结束, 只放行一个探测请求
+        now += 30_000;
+        Assert.assertTrue(breaker.isAvailable(now));
+        Assert.assertTrue(breaker.tryAcquire(now));
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire(now));
+
+        // 探测失败, 冷却时间翻倍
+        breaker.onFailure(now);
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire(now + 30_000));
+        Assert.assertTrue(breaker.tryAcquire(now + 60_000));
+
+        // 探测成功, 恢复
+        breaker.onSuccess(200);
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire(now + 60_000));
+    }
+
+    @Test
+    public void testFailureRate() {
+        ApiKeyCircuitBreaker breaker = new ApiKeyCircuitBreaker();
+        // 失败与成功交替, 不会连续失败3次, 但失败率达到50%
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess(100);
+            breaker.onFailure(0);
+        }
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testScore() {
+        ApiKeyCircuitBreaker fast = new ApiKeyCircuitBreaker();
+        ApiKeyCircuitBreaker slow = new ApiKeyCircuitBreaker();
+        fast.onSuccess(500);
+        slow.onSuccess(20_000);
+        Assert.assertTrue(fast.score() > slow.score());
+        Assert.assertEquals("sk-abc***wxyz", ApiKeyCircuitBreakers.mask("sk-abcdefghijklmnopqrstuvwxyz"));
+    }
+
+    @Test
+    public void testStaleProbeExpires() {
+        ApiKeyCircuitBreaker breaker = openBreaker();
+        long now = 30_000;
+        // 选中后请求没有发出(命中响应缓存、合并到其他请求), 探测名额在冷却时间后失效
+        Assert.assertTrue(breaker.tryAcquire(now));
+        Assert.assertFalse(breaker.isAvailable(now + 29_999));
+        Assert.assertTrue(breaker.isAvailable(now + 30_000));
+        Assert.assertTrue(breaker.tryAcquire(now + 30_000));
+        Assert.assertFalse(breaker.tryAcquire(now + 30_001));
+    }
+
+    @Test
+    public void testCanceledProbeReleased() throws IOException {
+        String apiKey = "sk-test-canceled-probe";
+        ApiKeyCircuitBreaker breaker = probing(apiKey);
+
+        Interceptor.Chain chain = chain(apiKey, true);
+        Mockito.when(chain.proceed(any())).thenThrow(new IOException("Canceled"));
+        try {
+            new ApiKeyHealthInterceptor().intercept(chain);
+            Assert.fail();
+        } catch (IOException expected) {
+            // 取消不计为失败
+        }
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testClientErrorProbeReleased() throws IOException {
+        String apiKey = "sk-test-400-probe";
+        ApiKeyCircuitBreaker breaker = probing(apiKey);
+
+        Interceptor.Chain chain = chain(apiKey, false);
+        Mockito.when(chain.proceed(any())).thenAnswer(invocation -> new Response.Builder()
+                .request(invocation.getArgument(0))
+                .protocol(Protocol.HTTP_1_1)
+                .code(400)
+                .message("context_length_exceeded")
+                .body(ResponseBody.create(null, "{}"))
+                .build());
+        new ApiKeyHealthInterceptor().intercept(chain).close();
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testOnlyTracksRegisteredKeys() {
+        // 用户自带的key不创建熔断器, 也不出现在统计中
+        String userKey = "sk-user-key-not-in-snapshot";
+        ApiKeyCircuitBreakers.onFailure(userKey);
+        ApiKeyCircuitBreakers.onSuccess(userKey, 100);
+        Assert.assertNull(ApiKeyCircuitBreakers.find(userKey));
+        Assert.assertTrue(ApiKeyCircuitBreakers.isAvailable(userKey));
+
+        String adminKey = "sk-admin-key-in-snapshot";
+        ApiKeyCircuitBreakers.get(adminKey);
+        Assert.assertNotNull(ApiKeyCircuitBreakers.find(adminKey));
+        ApiKeyCircuitBreakers.retain(Collections.singleton("sk-other"));
+        Assert.assertNull(ApiKeyCircuitBreakers.find(adminKey));
+    }
+
+    private static ApiKeyCircuitBreaker openBreaker() {
+        ApiKeyCircuitBreaker breaker = new ApiKeyCircuitBreaker();
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(0);
+        }
+        Assert.assertEquals(ApiKeyCircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    /**
+     * 熔断后冷却结束, 已占用探测名额的key
+     */
+    private static ApiKeyCircuitBreaker probing(String apiKey) {
+        ApiKeyCircuitBreaker breaker = ApiKeyCircuitBreakers.get(apiKey);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(now - 30_000);
+        }
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+        return breaker;
+    }
+
+    private static Interceptor.Chain chain(String apiKey, boolean canceled) {
+        Interceptor.Chain chain = Mockito.mock(Interceptor.Chain.class);
+        Call call = Mockito.mock(Call.class);
+        Mockito.when(call.isCanceled()).thenReturn(canceled);
+        Mockito.when(chain.call()).thenReturn(call);
+        Mockito.when(chain.request()).thenReturn(new Request.Builder()
+                .url("http://127.0.0.1/v1/chat/completions")
+                .header("Authorization", "Bearer " + apiKey)
+                .build());
+        return chain;
+    }
+}
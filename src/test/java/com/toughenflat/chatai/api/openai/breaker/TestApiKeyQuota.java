@@ -0,0 +1,144 @@
+package com.toughenflat.chatai.api.openai.breaker;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 校验限流响应头的解析、额度即将耗尽时受限、429按等待时间重试
+ */
+public class TestApiKeyQuota {
+
+    @Test
+    public void testParseDuration() {
+        Assert.assertEquals(20, ApiKeyQuota.parseDurationMillis("20ms"));
+        Assert.assertEquals(1500, ApiKeyQuota.parseDurationMillis("1.5s"));
+        Assert.assertEquals(360_000, ApiKeyQuota.parseDurationMillis("6m0s"));
+        Assert.assertEquals(3_723_000, ApiKeyQuota.parseDurationMillis("1h2m3s"));
+        Assert.assertEquals(2000, ApiKeyQuota.parseDurationMillis("2"));
+        Assert.assertEquals(0, ApiKeyQuota.parseDurationMillis("abc"));
+    }
+
+    @Test
+    public void testThrottled() {
+        ApiKeyQuota quota = new ApiKeyQuota();
+        long now = 1_000_000L;
+        quota.update(200, Headers.of(
+                ApiKeyQuota.LIMIT_REQUESTS, "3500", ApiKeyQuota.REMAINING_REQUESTS, "3000", ApiKeyQuota.RESET_REQUESTS, "1s",
+                ApiKeyQuota.LIMIT_TOKENS, "90000", ApiKeyQuota.REMAINING_TOKENS, "1000", ApiKeyQuota.RESET_TOKENS, "6s"), now);
+        // token剩余不足5%, 6秒内受限
+        Assert.assertTrue(quota.isThrottled(now + 5_000));
+        Assert.assertFalse(quota.isThrottled(now + 6_000));
+
+        quota.update(200, Headers.of(ApiKeyQuota.REMAINING_TOKENS, "80000"), now);
+        Assert.assertFalse(quota.isThrottled(now));
+
+        quota.update(429, Headers.of(ApiKeyQuota.RETRY_AFTER, "2"), now);
+        Assert.assertTrue(quota.isThrottled(now + 1_999));
+        Assert.assertFalse(quota.isThrottled(now + 2_000));
+    }
+
+    @Test
+    public void testRetryAfter() {
+        Assert.assertEquals(300, ApiKeyQuota.retryAfterMillis(Headers.of(ApiKeyQuota.RETRY_AFTER_MS, "300")));
+        Assert.assertEquals(500, ApiKeyQuota.retryAfterMillis(Headers.of(
+                ApiKeyQuota.REMAINING_REQUESTS, "0", ApiKeyQuota.RESET_REQUESTS, "500ms")));
+        Assert.assertEquals(1000, ApiKeyQuota.retryAfterMillis(Headers.of()));
+    }
+
+    @Test
+    public void testRetryInterceptor() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitRetryInterceptor(2, 1_000))
+                .addInterceptor(chain -> {
+                    int call = calls.incrementAndGet();
+                    return response(chain.request(), call == 1 ? 429 : 200, "{\"error\":{\"code\":\"rate_limit_exceeded\"}}");
+                })
+                .build();
+        Request request = new Request.Builder().url("http://localhost/v1/chat/completions").build();
+        try (Response response = client.newCall(request).execute()) {
+            Assert.assertEquals(200, response.code());
+        }
+        Assert.assertEquals(2, calls.get());
+
+        // 额度用完不重试
+        calls.set(0);
+        OkHttpClient quotaClient = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitRetryInterceptor(2, 1_000))
+                .addInterceptor(chain -> {
+                    calls.incrementAndGet();
+                    return response(chain.request(), 429, "{\"error\":{\"code\":\"insufficient_quota\"}}");
+                })
+                .build();
+        try (Response response = quotaClient.newCall(request).execute()) {
+            Assert.assertEquals(429, response.code());
+        }
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRetryTotalWaitCapped() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitRetryInterceptor(5, 1_000))
+                .addInterceptor(chain -> {
+                    calls.incrementAndGet();
+                    return response(chain.request(), 429, "{}").newBuilder()
+                            .header(ApiKeyQuota.RETRY_AFTER_MS, "600").build();
+                })
+                .build();
+        Request request = new Request.Builder().url("http://localhost/v1/chat/completions").build();
+        // 第二次等待会超过总等待时间, 只重试一次
+        try (Response response = client.newCall(request).execute()) {
+            Assert.assertEquals(429, response.code());
+        }
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testNoRetryWhileKeyThrottled() throws Exception {
+        String apiKey = "sk-test-throttled-key";
+        ApiKeyQuota quota = ApiKeyQuotas.get(apiKey);
+        AtomicInteger calls = new AtomicInteger();
+        OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitRetryInterceptor(2, 1_000))
+                .addInterceptor(chain -> {
+                    calls.incrementAndGet();
+                    // 额度要到5秒后才重置, 响应头的等待时间虽然很短也不重试同一个key
+                    quota.update(429, Headers.of(ApiKeyQuota.RETRY_AFTER, "5"), System.currentTimeMillis());
+                    return response(chain.request(), 429, "{}");
+                })
+                .build();
+        Request request = new Request.Builder().url("http://localhost/v1/chat/completions")
+                .header("Authorization", "Bearer " + apiKey).build();
+        try (Response response = client.newCall(request).execute()) {
+            Assert.assertEquals(429, response.code());
+        }
+        Assert.assertEquals(1, calls.get());
+
+        // 不在系统key快照中的key不记录额度
+        ApiKeyQuotas.update("sk-user-key", 429, Headers.of(ApiKeyQuota.RETRY_AFTER, "5"));
+        Assert.assertNull(ApiKeyQuotas.find("sk-user-key"));
+        Assert.assertFalse(ApiKeyQuotas.isThrottled("sk-user-key"));
+    }
+
+    private static Response response(Request request, int code, String body) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("")
+                .header(ApiKeyQuota.RETRY_AFTER_MS, "10")
+                .body(ResponseBody.create(MediaType.parse("application/json"), body))
+                .build();
+    }
+}
@@ -0,0 +1,127 @@
+package com.toughenflat.chatai.api.openai.embedding;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.toughenflat.chatai.api.openai.resp.Embedding;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import com.toughenflat.chatai.api.openai.resp.Usage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 校验向量缓存只请求未命中的文本, 结果保持原顺序; 本地存储重启后可以恢复
+ */
+public class TestEmbeddingCache {
+    private static final String MODEL = "text-embedding-ada-002";
+
+    @After
+    public void reset() {
+        EmbeddingCache.init(Collections.emptyList());
+    }
+
+    /**
+     * 模拟openai, 向量为[文本长度, 序号]
+     */
+    private EmbeddingResp fakeUpstream(List<String> input, List<List<String>> calls) {
+        calls.add(input);
+        EmbeddingResp resp = new EmbeddingResp();
+        List<Embedding> data = new ArrayList<>();
+        for (int i = 0; i < input.size(); i++) {
+            Embedding embedding = new Embedding();
+            embedding.setIndex(i);
+            embedding.setEmbedding(ImmutableList.of((float) input.get(i).length(), (float) i));
+            data.add(embedding);
+        }
+        resp.setData(data);
+        Usage usage = new Usage();
+        usage.setTotal_tokens(input.size());
+        resp.setUsage(usage);
+        return resp;
+    }
+
+    @Test
+    public void testOnlyMissesGoUpstream() throws Exception {
+        File dir = Files.createTempDirectory("embedding-cache").toFile();
+        MappedEmbeddingStore store = new MappedEmbeddingStore(dir, 4096);
+        EmbeddingCache.init(ImmutableList.of(store));
+        List<List<String>> calls = new ArrayList<>();
+
+        EmbeddingResp first = EmbeddingCache.embeddings(MODEL, ImmutableList.of("a", "bb", "a"), input -> fakeUpstream(input, calls));
+        Assert.assertEquals(ImmutableList.of("a", "bb"), calls.get(0));
+        Assert.assertEquals(3, first.getData().size());
+        Assert.assertEquals(first.getData().get(0).getEmbedding(), first.getData().get(2).getEmbedding());
+
+        EmbeddingResp second = EmbeddingCache.embeddings(MODEL, ImmutableList.of("ccc", "bb"), input -> fakeUpstream(input, calls));
+        Assert.assertEquals(ImmutableList.of("ccc"), calls.get(1));
+        Assert.assertEquals(ImmutableList.of(3f, 0f), second.getData().get(0).getEmbedding());
+        Assert.assertEquals(first.getData().get(1).getEmbedding(), second.getData().get(1).getEmbedding());
+
+        // 全部命中时不请求上游, usage为0
+        EmbeddingResp third = EmbeddingCache.embeddings(MODEL, ImmutableList.of("bb"), input -> fakeUpstream(input, calls));
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals(0, third.getUsage().getTotal_tokens().intValue());
+        store.close();
+    }
+
+    @Test
+    public void testMappedStoreReopen() throws Exception {
+        File dir = Files.createTempDirectory("embedding-cache").toFile();
+        // 段很小, 迫使写入多个段
+        MappedEmbeddingStore store = new MappedEmbeddingStore(dir, 256);
+        for (int i = 0; i < 20; i++) {
+            store.putAll(ImmutableMap.of("k" + i, new float[]{i, i + 0.5f, -i}));
+        }
+        store.close();
+
+        MappedEmbeddingStore reopened = new MappedEmbeddingStore(dir, 256);
+        Assert.assertEquals(20, reopened.size());
+        Map<String, float[]> hits = reopened.getAll(ImmutableList.of("k7", "k19", "missing"));
+        Assert.assertEquals(2, hits.size());
+        Assert.assertArrayEquals(new float[]{19, 19.5f, -19}, hits.get("k19"), 0f);
+
+        reopened.putAll(ImmutableMap.of("k20", new float[]{1f}));
+        Assert.assertArrayEquals(new float[]{1f}, reopened.getAll(ImmutableList.of("k20")).get("k20"), 0f);
+        reopened.close();
+    }
+
+    @Test
+    public void testUpstreamMissingItems() {
+        EmbeddingCache.init(Collections.emptyList());
+        List<List<String>> calls = new ArrayList<>();
+        // 上游少返回一条时整体失败, 不抛出异常
+        EmbeddingResp resp = EmbeddingCache.embeddings(MODEL, ImmutableList.of("a", "bb"),
+                input -> fakeUpstream(input.subList(0, 1), calls));
+        Assert.assertNull(resp);
+    }
+
+    @Test
+    public void testMappedStoreEvictsOldSegments() throws Exception {
+        File dir = Files.createTempDirectory("embedding-cache").toFile();
+        MappedEmbeddingStore store = new MappedEmbeddingStore(dir, 256, 2);
+        for (int i = 0; i < 40; i++) {
+            store.putAll(ImmutableMap.of("k" + i, new float[]{i, i + 0.5f, -i}));
+        }
+        Assert.assertEquals(2, store.segmentCount());
+        Assert.assertEquals(2, dir.list().length);
+        // 最早写入的向量被淘汰, 最近写入的仍可读取
+        Assert.assertTrue(store.getAll(ImmutableList.of("k0")).isEmpty());
+        Assert.assertArrayEquals(new float[]{39, 39.5f, -39}, store.getAll(ImmutableList.of("k39")).get("k39"), 0f);
+        int size = store.size();
+        Assert.assertTrue(size < 40);
+        store.close();
+
+        MappedEmbeddingStore reopened = new MappedEmbeddingStore(dir, 256, 2);
+        Assert.assertEquals(size, reopened.size());
+        reopened.putAll(ImmutableMap.of("k0", new float[]{0f}));
+        Assert.assertArrayEquals(new float[]{0f}, reopened.getAll(ImmutableList.of("k0")).get("k0"), 0f);
+        reopened.close();
+    }
+}
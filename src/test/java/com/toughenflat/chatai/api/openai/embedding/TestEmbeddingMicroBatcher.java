@@ -0,0 +1,114 @@
+package com.toughenflat.chatai.api.openai.embedding;
+
+import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.openai.AdminApiKeyPool;
+import com.toughenflat.chatai.api.openai.resp.Embedding;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiFunction;
+
+/**
+ * 校验窗口内的单条请求被合并, 且每个调用方拿到自己文本的向量;
+ * 使用不同系统key的请求合并到同一批次, 发送时只选一次key
+ */
+public class TestEmbeddingMicroBatcher {
+
+    @After
+    public void reset() {
+        EmbeddingMicroBatcher.configure(5L, 64);
+        AdminApiKeyPool.update(Collections.emptyList());
+        AdminApiKeyPool.setSelector(() -> null);
+    }
+
+    /**
+     * 模拟openai, 向量为[文本长度]
+     */
+    private BiFunction<List<String>, String, CompletableFuture<EmbeddingResp>> upstream(List<List<String>> calls) {
+        return upstream(calls, new ArrayList<>());
+    }
+
+    private BiFunction<List<String>, String, CompletableFuture<EmbeddingResp>> upstream(List<List<String>> calls,
+                                                                                      List<String> keys) {
+        return (input, apiKey) -> {
+            calls.add(input);
+            keys.add(apiKey);
+            List<Embedding> data = new ArrayList<>();
+            for (int i = 0; i < input.size(); i++) {
+                Embedding embedding = new Embedding();
+                embedding.setIndex(i);
+                embedding.setEmbedding(Collections.singletonList((float) input.get(i).length()));
+                data.add(embedding);
+            }
+            EmbeddingResp resp = new EmbeddingResp();
+            resp.setData(data);
+            return CompletableFuture.completedFuture(resp);
+        };
+    }
+
+    @Test
+    public void testBatching() {
+        EmbeddingMicroBatcher.configure(50L, 64);
+        List<List<String>> calls = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<EmbeddingResp>> futures = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            futures.add(EmbeddingMicroBatcher.submit("key", repeat(i), upstream(calls)));
+        }
+        for (int i = 1; i <= 10; i++) {
+            EmbeddingResp resp = futures.get(i - 1).join();
+            Assert.assertEquals(1, resp.getData().size());
+            Assert.assertEquals((float) i, resp.getData().get(0).getEmbedding().get(0), 0f);
+        }
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(10, calls.get(0).size());
+    }
+
+    @Test
+    public void testMaxBatchSize() {
+        EmbeddingMicroBatcher.configure(10_000L, 3);
+        List<List<String>> calls = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<EmbeddingResp>> futures = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            futures.add(EmbeddingMicroBatcher.submit("key-max", repeat(i), upstream(calls)));
+        }
+        // 批次满时立即发送, 不等待窗口结束
+        futures.forEach(CompletableFuture::join);
+        Assert.assertEquals(2, calls.size());
+    }
+
+    @Test
+    public void testAdminKeysShareBatch() {
+        EmbeddingMicroBatcher.configure(50L, 64);
+        AdminApiKeyPool.update(ImmutableList.of("sk-admin-a", "sk-admin-b", "sk-admin-c"));
+        AdminApiKeyPool.setSelector(() -> "sk-admin-c");
+        List<List<String>> calls = new CopyOnWriteArrayList<>();
+        List<String> keys = new CopyOnWriteArrayList<>();
+
+        List<CompletableFuture<EmbeddingResp>> futures = new ArrayList<>();
+        futures.add(EmbeddingMicroBatcher.submit("sk-admin-a", repeat(1), upstream(calls, keys)));
+        futures.add(EmbeddingMicroBatcher.submit("sk-admin-b", repeat(2), upstream(calls, keys)));
+        futures.add(EmbeddingMicroBatcher.submit("sk-user", repeat(3), upstream(calls, keys)));
+        futures.forEach(CompletableFuture::join);
+
+        // 两个系统key的请求合并为一次, 发送时选key; 用户自带的key单独一批
+        Assert.assertEquals(2, calls.size());
+        Assert.assertEquals(2, calls.get(keys.indexOf("sk-admin-c")).size());
+        Assert.assertTrue(keys.contains("sk-user"));
+        Assert.assertEquals(2f, futures.get(1).join().getData().get(0).getEmbedding().get(0), 0f);
+    }
+
+    private static String repeat(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+}
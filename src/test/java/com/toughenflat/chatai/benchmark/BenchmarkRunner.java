@@ -0,0 +1,107 @@
+package com.toughenflat.chatai.benchmark;
+
+import cn.hutool.core.io.FileUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 运行全部基准测试并与基线比较, 有退化时以非0退出, 用于发布前检查
+ * mvn -Pbenchmark verify, 或直接运行main
+ *
+ * 参数(系统属性):
+ * benchmark.include    运行的基准测试(正则), 默认全部 *Benchmark
+ * benchmark.result     本次结果(JMH JSON格式), 默认target/jmh-result.json
+ * benchmark.baseline   基线结果, 通常为上一次发布时保存的benchmark.result; 不存在时只记录结果
+ * benchmark.tolerance  允许的退化比例, 默认0.2, 即耗时增加或吞吐下降超过20%视为退化
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("benchmark.include", ".*Benchmark");
+        String result = System.getProperty("benchmark.result", "target/jmh-result.json");
+        String baseline = System.getProperty("benchmark.baseline", "");
+        double tolerance = Double.parseDouble(System.getProperty("benchmark.tolerance", "0.2"));
+
+        FileUtil.mkParentDirs(result);
+        Collection<RunResult> runResults = new Runner(new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build()).run();
+
+        if (baseline.isEmpty() || !new File(baseline).exists()) {
+            System.out.println("没有基线, 本次结果已保存到" + result);
+            return;
+        }
+        List<String> regressions = compare(runResults, loadBaseline(baseline), tolerance);
+        if (!regressions.isEmpty()) {
+            regressions.forEach(System.err::println);
+            System.exit(1);
+        }
+        System.out.println("与基线" + baseline + "相比没有退化");
+    }
+
+    /**
+     * 读取JMH JSON格式的结果, 返回 基准测试标识 -> 分数
+     */
+    static Map<String, Double> loadBaseline(String path) {
+        Map<String, Double> scores = new HashMap<>();
+        JSONArray results = JSONUtil.parseArray(FileUtil.readString(path, StandardCharsets.UTF_8));
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject item = results.getJSONObject(i);
+            Map<String, String> params = new TreeMap<>();
+            JSONObject paramsJson = item.getJSONObject("params");
+            if (paramsJson != null) {
+                paramsJson.forEach((key, value) -> params.put(key, String.valueOf(value)));
+            }
+            scores.put(key(item.getStr("benchmark"), item.getStr("mode"), params),
+                    item.getJSONObject("primaryMetric").getDouble("score"));
+        }
+        return scores;
+    }
+
+    static List<String> compare(Collection<RunResult> runResults, Map<String, Double> baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (RunResult runResult : runResults) {
+            BenchmarkParams params = runResult.getParams();
+            Map<String, String> paramMap = new TreeMap<>();
+            params.getParamsKeys().forEach(key -> paramMap.put(key, params.getParam(key)));
+            String key = key(params.getBenchmark(), params.getMode().shortLabel(), paramMap);
+            Double base = baseline.get(key);
+            if (base == null || base <= 0) {
+                continue;
+            }
+            double score = runResult.getPrimaryResult().getScore();
+            if (isRegression(params.getMode(), base, score, tolerance)) {
+                regressions.add(String.format("性能退化: %s 基线=%.3f 本次=%.3f %s",
+                        key, base, score, runResult.getPrimaryResult().getScoreUnit()));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * 吞吐类分数越大越好, 耗时类分数越小越好
+     */
+    static boolean isRegression(Mode mode, double base, double score, double tolerance) {
+        return mode == Mode.Throughput
+                ? score < base * (1 - tolerance)
+                : score > base * (1 + tolerance);
+    }
+
+    private static String key(String benchmark, String mode, Map<String, String> params) {
+        return benchmark + "(" + mode + ")" + params;
+    }
+}
@@ -0,0 +1,48 @@
+package com.toughenflat.chatai.benchmark;
+
+import com.toughenflat.chatai.utils.JwtUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JwtUtil: 每个请求经过的拦截器都会解析token (验签 + GZIP解压)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtBenchmark {
+    private String token;
+
+    @Setup
+    public void setUp() {
+        token = JwtUtil.createToken("1651234567890123456", "benchmark", 1);
+    }
+
+    @Benchmark
+    public String getUserId() {
+        return JwtUtil.getUserId(token);
+    }
+
+    @Benchmark
+    public boolean isTokenExpired() {
+        return JwtUtil.isTokenExpired(token);
+    }
+
+    @Benchmark
+    public String createToken() {
+        return JwtUtil.createToken("1651234567890123456", "benchmark", 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
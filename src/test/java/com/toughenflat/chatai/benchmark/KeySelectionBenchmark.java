@@ -0,0 +1,103 @@
+package com.toughenflat.chatai.benchmark;
+
+import com.google.common.collect.ImmutableMap;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.service.helper.ApiKeySelector;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 64线程并发选key: 原有的全局synchronized轮询(免费key在锁内访问redis, 以固定耗时模拟) 对比 ApiKeySelector
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class KeySelectionBenchmark {
+    private static final int KEY_NUM = 8;
+    private static final int FREE_KEY_NUM = 2;
+
+    /**
+     * 模拟一次redis往返的耗时 (微秒)
+     */
+    @Param({"0", "100"})
+    private long redisMicros;
+
+    private List<AdminApiKeyEntity> keys;
+    private int[] roundRobinIndex;
+    private ApiKeySelector selector;
+
+    @Setup
+    public void setup() {
+        keys = new ArrayList<>();
+        for (int i = 0; i < KEY_NUM; i++) {
+            keys.add(AdminApiKeyEntity.builder()
+                    .id(i)
+                    .name("sk-benchmark-key-" + i)
+                    .type(ApiType.OPENAI.typeNo)
+                    .priority(0)
+                    .isFree(i < FREE_KEY_NUM ? 1 : 0)
+                    .build());
+        }
+        roundRobinIndex = new int[26];
+        selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, keys));
+    }
+
+    @Benchmark
+    public String synchronizedRoundRobin() {
+        synchronized (KeySelectionBenchmark.class) {
+            AdminApiKeyEntity entity;
+            int index;
+            int roundTime = 0;
+            do {
+                index = roundRobinIndex[ApiType.OPENAI.typeNo];
+                if (index == Integer.MAX_VALUE) {
+                    index = 0;
+                }
+                entity = keys.get(index % keys.size());
+                roundRobinIndex[ApiType.OPENAI.typeNo] = ++index;
+                roundTime++;
+                if (roundTime > keys.size()) {
+                    return null;
+                }
+            } while (entity.getIsFree() == 1 && redisRoundTrip());
+            if (entity.getIsFree() == 1) {
+                redisRoundTrip();
+            }
+            return entity.getName();
+        }
+    }
+
+    @Benchmark
+    public String apiKeySelector() {
+        return selector.roundRobin(ApiType.OPENAI);
+    }
+
+    /**
+     * 模拟judgeOpenAiFreeKeyLimit, 返回false表示未受限
+     */
+    private boolean redisRoundTrip() {
+        if (redisMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(redisMicros));
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(KeySelectionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
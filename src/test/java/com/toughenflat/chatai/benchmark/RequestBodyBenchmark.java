@@ -0,0 +1,93 @@
+package com.toughenflat.chatai.benchmark;
+
+import cn.hutool.http.ContentType;
+import cn.hutool.json.JSONUtil;
+import com.toughenflat.chatai.api.openai.enums.Role;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.api.openai.req.EmbeddingReq;
+import com.toughenflat.chatai.api.openai.req.OpenAIRequestBody;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求体序列化: JSONUtil.parseObj(req).toString() 对比 OpenAIRequestBody直接写入BufferedSink
+ * 模拟3000+token的会话窗口以及300段的编码请求, 两者都写入okio的Buffer, 与OkHttp发送时的路径一致
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBodyBenchmark {
+    private static final MediaType JSON = MediaType.parse(ContentType.JSON.getValue());
+
+    private ChatGPTReq chatGPTReq;
+    private EmbeddingReq embeddingReq;
+
+    @Setup
+    public void setup() {
+        List<ContextMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            messages.add(new ContextMessage(i % 2 == 0 ? Role.USER.name : Role.ASSISTANT.name,
+                    "第" + i + "轮对话, 包含\"引号\"、换行\n以及一些English words, 用来模拟真实的上下文内容。"
+                            + "The quick brown fox jumps over the lazy dog. "));
+        }
+        chatGPTReq = ChatGPTReq.builder().messages(messages).build();
+
+        List<String> input = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        while (chunk.length() < 1000) {
+            chunk.append("PDF文档切分后的文本块, with some English text.\n");
+        }
+        for (int i = 0; i < 300; i++) {
+            input.add(i + chunk.toString());
+        }
+        embeddingReq = EmbeddingReq.builder().input(input).build();
+    }
+
+    @Benchmark
+    public long chatGPTReqHutool() throws IOException {
+        return write(RequestBody.create(JSON, JSONUtil.parseObj(chatGPTReq).toString()));
+    }
+
+    @Benchmark
+    public long chatGPTReqStreaming() throws IOException {
+        return write(OpenAIRequestBody.of(chatGPTReq));
+    }
+
+    @Benchmark
+    public long embeddingReqHutool() throws IOException {
+        return write(RequestBody.create(JSON, JSONUtil.parseObj(embeddingReq).toString()));
+    }
+
+    @Benchmark
+    public long embeddingReqStreaming() throws IOException {
+        return write(OpenAIRequestBody.of(embeddingReq));
+    }
+
+    private long write(RequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        long size = buffer.size();
+        buffer.clear();
+        return size;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RequestBodyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package com.toughenflat.chatai.benchmark;
+
+import com.toughenflat.chatai.api.openai.enums.Role;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import com.toughenflat.chatai.utils.SessionWindow;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 每次多轮对话构造上下文的开销, 与ChatServiceImpl.prepareSessionChatReq一致:
+ * 原有的复制LinkedList + 借助临时队列逐条弹出 + 逐条转换 对比 SessionWindow的二分裁剪 + messages视图
+ * 请求体序列化时会遍历一遍messages, 两者都计入一次遍历
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionWindowBenchmark {
+    /**
+     * 窗口中的记录数
+     */
+    @Param({"10", "100"})
+    private int windowSize;
+
+    /**
+     * 0: 普通会话, 1: 游戏/专家会话(保留第一条记录)
+     */
+    @Param({"0", "1"})
+    private int keepHead;
+
+    private Deque<SessionChatRecordEntity> cachedDeque;
+
+    private SessionWindow cachedWindow;
+
+    private int windowTokens;
+
+    private int maxTokens;
+
+    private int askTokens;
+
+    @Setup
+    public void setUp() {
+        List<SessionChatRecordEntity> records = new ArrayList<>();
+        for (int i = 0; i < windowSize; i++) {
+            String role = i % 2 == 0 ? Role.USER.name : Role.ASSISTANT.name;
+            records.add(new SessionChatRecordEntity(1, role, "第" + i + "轮对话的内容", 20));
+        }
+        cachedDeque = new LinkedList<>(records);
+        cachedWindow = SessionWindow.of(records);
+        windowTokens = windowSize * 20;
+        // 每次询问都需要丢弃一轮对话
+        maxTokens = windowTokens;
+        askTokens = 40;
+    }
+
+    @Benchmark
+    public int linkedListCopyPoll() {
+        Deque<SessionChatRecordEntity> windowRecords = new LinkedList<>(cachedDeque);
+        pollWindowRecordsKeepKToken(windowRecords, windowTokens + askTokens, keepHead, maxTokens);
+        windowRecords.offerLast(new SessionChatRecordEntity(Role.USER.name, "新的问题"));
+        List<ContextMessage> messages = windowRecords.stream()
+                .map(item -> new ContextMessage(item.getRole(), item.getContent()))
+                .collect(Collectors.toList());
+        return traverse(messages);
+    }
+
+    @Benchmark
+    public int sessionWindowTrimView() {
+        SessionWindow window = cachedWindow.trim(keepHead, windowTokens + askTokens, maxTokens);
+        return traverse(window.toMessages(new ContextMessage(Role.USER.name, "新的问题")));
+    }
+
+    private static int traverse(List<ContextMessage> messages) {
+        int length = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            length += messages.get(i).getContent().length();
+        }
+        return length;
+    }
+
+    /**
+     * 原ChatServiceImpl中的实现, 作为对比
+     */
+    private static int pollWindowRecordsKeepKToken(Deque<SessionChatRecordEntity> windowRecords,
+                                                   int curTokenNum, int index, int maxTokenNum) {
+        Deque<SessionChatRecordEntity> temp = new LinkedList<>();
+        while (!windowRecords.isEmpty() && index-- != 0) {
+            temp.offerLast(windowRecords.pollFirst());
+        }
+        while (!windowRecords.isEmpty() && curTokenNum > maxTokenNum) {
+            curTokenNum -= windowRecords.pollFirst().getTokenNum();
+        }
+        while (!temp.isEmpty()) {
+            windowRecords.offerFirst(temp.pollLast());
+        }
+        return curTokenNum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SessionWindowBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
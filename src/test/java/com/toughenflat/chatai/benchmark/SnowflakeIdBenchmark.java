@@ -0,0 +1,38 @@
+package com.toughenflat.chatai.benchmark;
+
+import com.toughenflat.chatai.utils.SnowflakeIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnowflakeIdGenerator.nextId 单线程和多线程竞争下的吞吐
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnowflakeIdBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public long nextIdSingleThread() {
+        return SnowflakeIdGenerator.nextId();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long nextIdContended() {
+        return SnowflakeIdGenerator.nextId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SnowflakeIdBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
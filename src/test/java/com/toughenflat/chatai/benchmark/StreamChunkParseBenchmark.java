@@ -0,0 +1,42 @@
+package com.toughenflat.chatai.benchmark;
+
+import cn.hutool.json.JSONUtil;
+import com.toughenflat.chatai.api.openai.ChatGPTStreamParser;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式输出数据块解析: JSONUtil.toBean(data, ChatGPTResp.class) 对比 ChatGPTStreamParser
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamChunkParseBenchmark {
+    private final String chunk = "{\"id\":\"chatcmpl-7Iv9Y3YbCz1dLRQ1mXcI4Y6zqK6Lh\",\"object\":\"chat.completion.chunk\"," +
+            "\"created\":1684888774,\"model\":\"gpt-3.5-turbo-0301\"," +
+            "\"choices\":[{\"delta\":{\"content\":\"两数之和\"},\"index\":0,\"finish_reason\":null}]}";
+
+    @Benchmark
+    public String hutoolToBean() {
+        return JSONUtil.toBean(chunk, ChatGPTResp.class).getChoices().get(0).getDelta().getContent();
+    }
+
+    @Benchmark
+    public String streamParser() {
+        return ChatGPTStreamParser.parse(chunk).getContent();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(StreamChunkParseBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
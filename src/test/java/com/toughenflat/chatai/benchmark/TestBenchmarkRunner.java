@@ -0,0 +1,36 @@
+package com.toughenflat.chatai.benchmark;
+
+import cn.hutool.core.io.FileUtil;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Mode;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class TestBenchmarkRunner {
+
+    @Test
+    public void testIsRegression() {
+        // 耗时类: 分数越小越好
+        Assert.assertFalse(BenchmarkRunner.isRegression(Mode.AverageTime, 100, 119, 0.2));
+        Assert.assertTrue(BenchmarkRunner.isRegression(Mode.AverageTime, 100, 121, 0.2));
+        // 吞吐类: 分数越大越好
+        Assert.assertFalse(BenchmarkRunner.isRegression(Mode.Throughput, 100, 81, 0.2));
+        Assert.assertTrue(BenchmarkRunner.isRegression(Mode.Throughput, 100, 79, 0.2));
+    }
+
+    @Test
+    public void testLoadBaseline() throws Exception {
+        File file = File.createTempFile("jmh-baseline", ".json");
+        file.deleteOnExit();
+        FileUtil.writeString("[{\"benchmark\":\"a.B.run\",\"mode\":\"avgt\",\"params\":{\"size\":\"10\"},"
+                + "\"primaryMetric\":{\"score\":12.5,\"scoreUnit\":\"ns/op\"}},"
+                + "{\"benchmark\":\"a.B.other\",\"mode\":\"thrpt\",\"primaryMetric\":{\"score\":3.0}}]",
+                file, StandardCharsets.UTF_8);
+        Map<String, Double> baseline = BenchmarkRunner.loadBaseline(file.getPath());
+        Assert.assertEquals(12.5, baseline.get("a.B.run(avgt){size=10}"), 1e-9);
+        Assert.assertEquals(3.0, baseline.get("a.B.other(thrpt){}"), 1e-9);
+    }
+}
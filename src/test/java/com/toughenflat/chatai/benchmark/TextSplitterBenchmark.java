@@ -0,0 +1,90 @@
+package com.toughenflat.chatai.benchmark;
+
+import com.toughenflat.chatai.utils.RecursiveCharacterTextSplitter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传文件的分块: RecursiveCharacterTextSplitter.splitText, 参数与FileChatServiceImpl一致(1000, 200)
+ * 指定-Dbenchmark.pdf=xxx.pdf时使用PDFTextStripper从真实PDF提取的文本, 否则生成按行折断的中英文混排文本
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextSplitterBenchmark {
+    private static final String[] SENTENCES = {
+            "本文提出了一种基于向量检索的文档问答方法，",
+            "实验表明该方法在多个数据集上取得了较好的效果。",
+            "The retrieval step selects the top-k chunks by cosine similarity. ",
+            "两数之和是一道经典的算法问题，可以使用哈希表在O(n)时间内求解。",
+            "Table 3 reports the latency at p50 and p99 under different loads. ",
+            "（1）数据预处理；（2）模型训练；（3）结果评估。",
+    };
+
+    /**
+     * 生成文本的字符数, 使用真实PDF时忽略
+     */
+    @Param({"20000", "200000"})
+    private int length;
+
+    private String text;
+
+    private RecursiveCharacterTextSplitter splitter;
+
+    @Setup
+    public void setUp() throws IOException {
+        String pdf = System.getProperty("benchmark.pdf");
+        text = pdf == null ? generate(length) : extract(pdf);
+        splitter = new RecursiveCharacterTextSplitter(null, 1000, 200);
+    }
+
+    /**
+     * PDFTextStripper的输出按行折断, 段落之间偶尔有空行
+     */
+    private static String generate(int length) {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(length + 100);
+        int line = 0;
+        while (text.length() < length) {
+            int lineStart = text.length();
+            while (text.length() - lineStart < 60) {
+                text.append(SENTENCES[random.nextInt(SENTENCES.length)]);
+            }
+            text.append('\n');
+            if (++line % 12 == 0) {
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private static String extract(String path) throws IOException {
+        try (PDDocument document = PDDocument.load(new File(path))) {
+            return new PDFTextStripper().getText(document);
+        }
+    }
+
+    @Benchmark
+    public List<String> splitText() {
+        return splitter.splitText(text);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextSplitterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,69 @@
+package com.toughenflat.chatai.benchmark;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * token计数: ChatGPTApi.getTokenNum 在缓存命中(重复的prompt模板)和未命中(每次都是新内容)时的耗时
+ * encode为jtokkit直接编码, 作为未命中时的下限参考
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenCountBenchmark {
+    private static final Encoding ENC = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private static final String UNIT = "😀你好呀😀，我是ChatGPT。No, 人民军人后勤部 is the appellant (上诉人) in this case. ";
+
+    /**
+     * 文本重复UNIT的次数, 1约为一条短消息, 100约为一段检索到的文档
+     */
+    @Param({"1", "100"})
+    private int repeat;
+
+    private String text;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < repeat; i++) {
+            builder.append(UNIT);
+        }
+        text = builder.toString();
+    }
+
+    @Benchmark
+    public int getTokenNumCached() {
+        return ChatGPTApi.getTokenNum(text);
+    }
+
+    @Benchmark
+    public int getTokenNumUncached() {
+        return ChatGPTApi.getTokenNum(sequence.incrementAndGet() + text);
+    }
+
+    @Benchmark
+    public int encode() {
+        return ENC.countTokens(sequence.incrementAndGet() + text);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenCountBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,42 @@
+package com.toughenflat.chatai.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录一组耗时(纳秒)并计算分位数, 线程安全
+ */
+public class LatencyStats {
+
+    private long[] samples = new long[1024];
+
+    private int size;
+
+    public synchronized void record(long nanos) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = nanos;
+    }
+
+    public synchronized int count() {
+        return size;
+    }
+
+    /**
+     * 第percentile分位的耗时 (毫秒), 没有样本时返回0
+     */
+    public synchronized double percentileMillis(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public double maxMillis() {
+        return percentileMillis(100);
+    }
+}
@@ -0,0 +1,215 @@
+package com.toughenflat.chatai.loadtest;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import okhttp3.sse.EventSources;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 端到端压测: 对运行中的服务并发调用对话接口, 输出吞吐、首token耗时(TTFT)和p99耗时
+ * 服务通过endpoint.openai-host、endpoint.pinecone-url指向MockApiServers启动的本地mock服务, 不消耗真实额度
+ *
+ * 参数(系统属性):
+ * loadtest.baseUrl      服务地址, 默认http://127.0.0.1:8888
+ * loadtest.token        登录后的token
+ * loadtest.userId       token对应的用户id
+ * loadtest.sessionId    该用户的普通会话id, 用于session、streamSession
+ * loadtest.fileSessionId 该用户的文件会话id, 用于streamFile
+ * loadtest.pdf          pdfUpload上传的文件
+ * loadtest.scenarios    逗号分隔, 默认session,streamSession,pdfUpload,streamFile
+ * loadtest.concurrency  并发数, 默认16
+ * loadtest.requests     每个场景的请求数, 默认200
+ *
+ * 注意: 测试用户需要有足够的对话/上传次数(UserChatLimitInterceptor、UserFileUploadLimitInterceptor)
+ */
+@Slf4j
+public class LoadDriver {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private static final int SUCCESS_CODE = 20000;
+
+    private static final String DONE_SIGNAL = "[DONE]";
+
+    private static final long TIMEOUT_SECONDS = 120L;
+
+    private final String baseUrl = System.getProperty("loadtest.baseUrl", "http://127.0.0.1:8888");
+    private final String token = System.getProperty("loadtest.token", "");
+    private final String userId = System.getProperty("loadtest.userId", "");
+    private final String sessionId = System.getProperty("loadtest.sessionId", "");
+    private final String fileSessionId = System.getProperty("loadtest.fileSessionId", sessionId);
+    private final String pdf = System.getProperty("loadtest.pdf", "");
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+    private final int requests = Integer.getInteger("loadtest.requests", 200);
+
+    private final OkHttpClient client;
+
+    public LoadDriver() {
+        Dispatcher dispatcher = new Dispatcher();
+        // SSE连接和对话请求同时占用连接, 留出余量
+        dispatcher.setMaxRequests(concurrency * 4);
+        dispatcher.setMaxRequestsPerHost(concurrency * 4);
+        this.client = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(concurrency * 2, 1, TimeUnit.MINUTES))
+                .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadDriver driver = new LoadDriver();
+        String scenarios = System.getProperty("loadtest.scenarios", "session,streamSession,pdfUpload,streamFile");
+        List<String> reports = new ArrayList<>();
+        for (String scenario : scenarios.split(",")) {
+            reports.add(driver.run(scenario.trim()));
+        }
+        reports.forEach(System.out::println);
+        driver.client.dispatcher().executorService().shutdown();
+        driver.client.connectionPool().evictAll();
+    }
+
+    /**
+     * 并发执行一个场景的全部请求, 返回报告
+     */
+    public String run(String scenario) throws InterruptedException {
+        Callable<Long> call = scenarioCall(scenario);
+        LatencyStats latency = new LatencyStats();
+        LatencyStats ttft = new LatencyStats();
+        AtomicInteger errors = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                try {
+                    Long firstToken = call.call();
+                    latency.record(System.nanoTime() - begin);
+                    if (firstToken != null) {
+                        ttft.record(firstToken - begin);
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                    log.warn("[{}] 请求失败: {}", scenario, e.getMessage());
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        return String.format("%-14s requests=%d errors=%d elapsed=%.1fs throughput=%.1f/s "
+                        + "latency(ms) p50=%.0f p99=%.0f max=%.0f ttft(ms) p50=%.0f p99=%.0f",
+                scenario, requests, errors.get(), seconds, latency.count() / seconds,
+                latency.percentileMillis(50), latency.percentileMillis(99), latency.maxMillis(),
+                ttft.percentileMillis(50), ttft.percentileMillis(99));
+    }
+
+    /**
+     * 单次请求, 流式场景返回收到首个token的时间点(System.nanoTime), 非流式返回null
+     */
+    private Callable<Long> scenarioCall(String scenario) {
+        switch (scenario) {
+            case "session":
+                return () -> {
+                    postJson("/chat/session", chatBody(sessionId));
+                    return null;
+                };
+            case "streamSession":
+                return () -> streamChat("/chat/getSseEmitter", "/chat/streamSessionChat", sessionId);
+            case "pdfUpload":
+                return () -> {
+                    uploadPdf();
+                    return null;
+                };
+            case "streamFile":
+                return () -> streamChat("/chatFile/getSseEmitter", "/file/streamChatWithFile", fileSessionId);
+            default:
+                throw new IllegalArgumentException("未知的压测场景: " + scenario);
+        }
+    }
+
+    private JSONObject chatBody(String sessionId) {
+        return new JSONObject()
+                .set("message", "压测消息, 请简单介绍一下你自己")
+                .set("user_id", userId)
+                .set("session_id", Integer.valueOf(sessionId));
+    }
+
+    private void postJson(String path, JSONObject body) throws IOException {
+        execute(request(path).post(RequestBody.create(JSON, body.toString())).build());
+    }
+
+    private void uploadPdf() throws IOException {
+        File file = new File(pdf);
+        RequestBody body = new MultipartBody.Builder()
+                .setType(MultipartBody.FORM)
+                .addFormDataPart("user_id", userId)
+                .addFormDataPart("file", file.getName(), RequestBody.create(MediaType.parse("application/pdf"), file))
+                .build();
+        execute(request("/file/chatPdfUpload").post(body).build());
+    }
+
+    /**
+     * 先建立SSE连接拿到sseEmitterId, 再发起流式对话, 直到收到[DONE]
+     */
+    private Long streamChat(String ssePath, String chatPath, String sessionId) throws Exception {
+        CompletableFuture<Long> emitterId = new CompletableFuture<>();
+        CompletableFuture<Long> firstToken = new CompletableFuture<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        EventSource eventSource = EventSources.createFactory(client).newEventSource(request(ssePath).build(),
+                new EventSourceListener() {
+                    @Override
+                    public void onEvent(EventSource eventSource, String id, String type, String data) {
+                        if (!emitterId.isDone()) {
+                            emitterId.complete(Long.valueOf(data));
+                        } else if (DONE_SIGNAL.equals(id)) {
+                            done.complete(null);
+                        } else {
+                            firstToken.complete(System.nanoTime());
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(EventSource eventSource, Throwable t, Response response) {
+                        IOException e = new IOException("SSE连接异常: " + (t != null ? t.getMessage() : response));
+                        emitterId.completeExceptionally(e);
+                        done.completeExceptionally(e);
+                    }
+                });
+        try {
+            JSONObject body = chatBody(sessionId).set("sse_emitter_id", emitterId.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            postJson(chatPath, body);
+            done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return firstToken.getNow(null);
+        } finally {
+            eventSource.cancel();
+        }
+    }
+
+    private Request.Builder request(String path) {
+        return new Request.Builder().url(baseUrl + path).header("token", token);
+    }
+
+    private void execute(Request request) throws IOException {
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            JSONObject result = JSONUtil.parseObj(response.body().string());
+            if (result.getInt("code", 0) != SUCCESS_CODE) {
+                throw new IOException("code=" + result.getInt("code") + ", message=" + result.getStr("message"));
+            }
+        }
+    }
+}
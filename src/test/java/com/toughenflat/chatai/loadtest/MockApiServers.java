@@ -0,0 +1,32 @@
+package com.toughenflat.chatai.loadtest;
+
+/**
+ * 启动本地的mock OpenAI/Pinecone服务, 供LoadDriver压测使用
+ * 服务端配置: endpoint.openai-host=http://127.0.0.1:18080/ endpoint.pinecone-url=http://127.0.0.1:18081
+ *
+ * 参数(系统属性):
+ * mock.openaiPort, mock.pineconePort   端口, 默认18080, 18081
+ * mock.latencyMillis                   首个token前的延迟, 默认300
+ * mock.tokensPerSecond                 输出速率, 默认50
+ * mock.completionTokens                每次回答的token数, 默认100
+ */
+public class MockApiServers {
+
+    public static void main(String[] args) throws Exception {
+        long latencyMillis = Long.getLong("mock.latencyMillis", 300L);
+        MockOpenAIServer openAI = new MockOpenAIServer()
+                .tokensPerSecond(Integer.getInteger("mock.tokensPerSecond", 50))
+                .completionTokens(Integer.getInteger("mock.completionTokens", 100));
+        openAI.latencyMillis(latencyMillis).start(Integer.getInteger("mock.openaiPort", 18080));
+        MockPineconeServer pinecone = new MockPineconeServer();
+        pinecone.latencyMillis(latencyMillis / 10).start(Integer.getInteger("mock.pineconePort", 18081));
+
+        System.out.println("endpoint.openai-host=" + openAI.baseUrl() + "/");
+        System.out.println("endpoint.pinecone-url=" + pinecone.baseUrl());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            openAI.close();
+            pinecone.close();
+        }));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,105 @@
+package com.toughenflat.chatai.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测用的本地上游服务, 基于JDK自带的HttpServer, 每个请求一个线程, 模拟的延迟不会互相阻塞
+ * 路径中连续的/会被合并, 兼容OpenAIConst中以/开头的路径拼接在以/结尾的host之后
+ */
+@Slf4j
+public abstract class MockHttpServer implements AutoCloseable {
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * 收到请求到开始响应的延迟 (毫秒)
+     */
+    protected volatile long latencyMillis = 0L;
+
+    public MockHttpServer latencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * port为0时随机选择空闲端口
+     */
+    public MockHttpServer start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                String path = exchange.getRequestURI().getPath().replaceAll("/+", "/");
+                handle(path, exchange);
+            } catch (Exception e) {
+                log.warn("mock服务处理请求异常! {}", e.getMessage());
+                sendJson(exchange, 500, "{\"error\":{\"message\":\"mock server error\"}}");
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+        log.info("{}已启动: {}", getClass().getSimpleName(), baseUrl());
+        return this;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + port();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    protected abstract void handle(String path, HttpExchange exchange) throws Exception;
+
+    protected static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    protected static void sendJson(HttpExchange exchange, int code, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    protected static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.toughenflat.chatai.loadtest;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地模拟的OpenAI接口:
+ * /v1/chat/completions (流式和非流式), /v1/embeddings, 以及系统key校验用到的账单接口
+ * 首个token前等待latencyMillis, 之后按tokensPerSecond逐个输出completionTokens个token
+ * 使用rejectApiKey标记的key请求时返回401
+ */
+public class MockOpenAIServer extends MockHttpServer {
+
+    private static final String TOKEN = "mock ";
+
+    private volatile int tokensPerSecond = 50;
+
+    private volatile int completionTokens = 100;
+
+    private volatile int embeddingDimension = 1536;
+
+    private final AtomicLong chatRequests = new AtomicLong();
+
+    private final AtomicLong embeddingRequests = new AtomicLong();
+
+    private final Set<String> rejectedApiKeys = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, AtomicLong> embeddingRequestsByKey = new ConcurrentHashMap<>();
+
+    public MockOpenAIServer tokensPerSecond(int tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    public MockOpenAIServer completionTokens(int completionTokens) {
+        this.completionTokens = completionTokens;
+        return this;
+    }
+
+    public MockOpenAIServer embeddingDimension(int embeddingDimension) {
+        this.embeddingDimension = embeddingDimension;
+        return this;
+    }
+
+    public MockOpenAIServer rejectApiKey(String apiKey) {
+        rejectedApiKeys.add(apiKey);
+        return this;
+    }
+
+    public long getChatRequests() {
+        return chatRequests.get();
+    }
+
+    public long getEmbeddingRequests() {
+        return embeddingRequests.get();
+    }
+
+    public long getEmbeddingRequests(String apiKey) {
+        AtomicLong count = embeddingRequestsByKey.get(apiKey);
+        return count == null ? 0L : count.get();
+    }
+
+    @Override
+    protected void handle(String path, HttpExchange exchange) throws Exception {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        String apiKey = authorization == null ? "" : authorization.replaceFirst("^Bearer ", "");
+        if (path.endsWith("/v1/embeddings")) {
+            embeddingRequestsByKey.computeIfAbsent(apiKey, key -> new AtomicLong()).incrementAndGet();
+        }
+        if (rejectedApiKeys.contains(apiKey)) {
+            sendJson(exchange, 401, "{\"error\":{\"message\":\"Incorrect API key provided\"}}");
+            return;
+        }
+        if (path.endsWith("/v1/chat/completions")) {
+            chatRequests.incrementAndGet();
+            JSONObject req = JSONUtil.parseObj(readBody(exchange));
+            int promptTokens = estimatePromptTokens(req);
+            sleep(latencyMillis);
+            if (req.getBool("stream", false)) {
+                streamCompletion(exchange, promptTokens);
+            } else {
+                sleep(tokenIntervalMillis() * completionTokens);
+                sendJson(exchange, 200, completion(promptTokens).toString());
+            }
+        } else if (path.endsWith("/v1/embeddings")) {
+            embeddingRequests.incrementAndGet();
+            JSONObject req = JSONUtil.parseObj(readBody(exchange));
+            sleep(latencyMillis);
+            sendJson(exchange, 200, embeddings(req).toString());
+        } else if (path.endsWith("/v1/dashboard/billing/subscription")) {
+            long accessUntil = System.currentTimeMillis() / 1000 + 365L * 24 * 3600;
+            sendJson(exchange, 200, "{\"hard_limit_usd\":120.0,\"access_until\":" + accessUntil + "}");
+        } else if (path.endsWith("/v1/dashboard/billing/usage")) {
+            sendJson(exchange, 200, "{\"total_usage\":0.0}");
+        } else {
+            sendJson(exchange, 404, "{\"error\":{\"message\":\"unknown path " + path + "\"}}");
+        }
+    }
+
+    private long tokenIntervalMillis() {
+        return tokensPerSecond <= 0 ? 0L : 1000L / tokensPerSecond;
+    }
+
+    private void streamCompletion(HttpExchange exchange, int promptTokens) throws Exception {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < completionTokens; i++) {
+                if (i > 0) {
+                    sleep(tokenIntervalMillis());
+                }
+                JSONObject delta = new JSONObject().set("content", TOKEN);
+                writeEvent(out, chunk(delta, null, null).toString());
+            }
+            writeEvent(out, chunk(new JSONObject(), "stop", usage(promptTokens)).toString());
+            writeEvent(out, "[DONE]");
+        }
+    }
+
+    private static void writeEvent(OutputStream out, String data) throws IOException {
+        out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static JSONObject chunk(JSONObject delta, String finishReason, JSONObject usage) {
+        JSONObject choice = new JSONObject().set("index", 0).set("delta", delta);
+        if (finishReason != null) {
+            choice.set("finish_reason", finishReason);
+        }
+        JSONObject chunk = new JSONObject()
+                .set("id", "chatcmpl-mock")
+                .set("object", "chat.completion.chunk")
+                .set("created", System.currentTimeMillis() / 1000)
+                .set("model", "gpt-3.5-turbo")
+                .set("choices", Collections.singletonList(choice));
+        if (usage != null) {
+            chunk.set("usage", usage);
+        }
+        return chunk;
+    }
+
+    private JSONObject completion(int promptTokens) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < completionTokens; i++) {
+            content.append(TOKEN);
+        }
+        JSONObject message = new JSONObject().set("role", "assistant").set("content", content.toString());
+        JSONObject choice = new JSONObject().set("index", 0).set("message", message).set("finish_reason", "stop");
+        return new JSONObject()
+                .set("id", "chatcmpl-mock")
+                .set("object", "chat.completion")
+                .set("created", System.currentTimeMillis() / 1000)
+                .set("model", "gpt-3.5-turbo")
+                .set("usage", usage(promptTokens))
+                .set("choices", Collections.singletonList(choice));
+    }
+
+    private JSONObject usage(int promptTokens) {
+        return new JSONObject()
+                .set("prompt_tokens", promptTokens)
+                .set("completion_tokens", completionTokens)
+                .set("total_tokens", promptTokens + completionTokens);
+    }
+
+    /**
+     * 按每4个字符一个token粗略估算, 只用于填充usage
+     */
+    private static int estimatePromptTokens(JSONObject req) {
+        int chars = 0;
+        JSONArray messages = req.getJSONArray("messages");
+        if (messages != null) {
+            for (int i = 0; i < messages.size(); i++) {
+                chars += messages.getJSONObject(i).getStr("content", "").length();
+            }
+        }
+        return Math.max(1, chars / 4);
+    }
+
+    private JSONObject embeddings(JSONObject req) {
+        Object input = req.get("input");
+        List<Object> inputs = input instanceof JSONArray ? (JSONArray) input : Collections.singletonList(input);
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < inputs.size(); i++) {
+            data.add(new JSONObject()
+                    .set("object", "embedding")
+                    .set("index", i)
+                    .set("embedding", vector(String.valueOf(inputs.get(i)))));
+        }
+        return new JSONObject()
+                .set("object", "list")
+                .set("model", "text-embedding-ada-002")
+                .set("data", data);
+    }
+
+    /**
+     * 由文本决定的单位向量, 相同文本得到相同向量
+     */
+    private float[] vector(String text) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[embeddingDimension];
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
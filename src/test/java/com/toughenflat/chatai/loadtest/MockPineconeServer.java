@@ -0,0 +1,63 @@
+package com.toughenflat.chatai.loadtest;
+
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 本地模拟的Pinecone接口: /vectors/upsert, /query, /vectors/delete
+ * upsert的内容按namespace保存在内存中, query按写入顺序返回前topK条(不计算相似度), 没有数据时返回占位内容
+ */
+public class MockPineconeServer extends MockHttpServer {
+
+    private final Map<String, List<JSONObject>> namespaces = new ConcurrentHashMap<>();
+
+    @Override
+    protected void handle(String path, HttpExchange exchange) throws Exception {
+        if (path.endsWith("/vectors/upsert")) {
+            JSONObject req = JSONUtil.parseObj(readBody(exchange));
+            JSONArray vectors = req.getJSONArray("vectors");
+            List<JSONObject> stored = namespaces.computeIfAbsent(
+                    req.getStr("namespace", ""), namespace -> new CopyOnWriteArrayList<>());
+            for (int i = 0; i < vectors.size(); i++) {
+                JSONObject vector = vectors.getJSONObject(i);
+                // 只保留id和metadata, 查询时不返回向量
+                stored.add(new JSONObject().set("id", vector.getStr("id")).set("metadata", vector.getJSONObject("metadata")));
+            }
+            sleep(latencyMillis);
+            sendJson(exchange, 200, new JSONObject().set("upsertedCount", vectors.size()).toString());
+        } else if (path.endsWith("/query")) {
+            JSONObject req = JSONUtil.parseObj(readBody(exchange));
+            sleep(latencyMillis);
+            sendJson(exchange, 200, query(req.getStr("namespace", ""), req.getInt("topK", 3)).toString());
+        } else if (path.endsWith("/vectors/delete")) {
+            JSONObject req = JSONUtil.parseObj(readBody(exchange));
+            if (req.getBool("deleteAll", false)) {
+                namespaces.remove(req.getStr("namespace", ""));
+            }
+            sleep(latencyMillis);
+            sendJson(exchange, 200, "{}");
+        } else {
+            sendJson(exchange, 404, "{\"message\":\"unknown path " + path + "\"}");
+        }
+    }
+
+    private JSONObject query(String namespace, int topK) {
+        List<JSONObject> stored = namespaces.getOrDefault(namespace, new ArrayList<>());
+        JSONArray matches = new JSONArray();
+        for (int i = 0; i < topK; i++) {
+            JSONObject match = i < stored.size()
+                    ? new JSONObject().set("id", stored.get(i).getStr("id")).set("metadata", stored.get(i).getJSONObject("metadata"))
+                    : new JSONObject().set("id", "mock-" + i).set("metadata", new JSONObject().set("content", "mock context " + i));
+            matches.add(match.set("score", 1.0f - i * 0.01f));
+        }
+        return new JSONObject().set("namespace", namespace).set("matches", matches);
+    }
+}
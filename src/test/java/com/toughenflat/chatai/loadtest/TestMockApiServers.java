@@ -0,0 +1,105 @@
+package com.toughenflat.chatai.loadtest;
+
+import com.google.common.collect.ImmutableMap;
+import com.toughenflat.chatai.api.ApiEndpoints;
+import com.toughenflat.chatai.api.openai.ChatGPTApi;
+import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import com.toughenflat.chatai.api.pinecone.PineconeApi;
+import com.toughenflat.chatai.api.pinecone.req.PineconeInsertReq;
+import com.toughenflat.chatai.api.pinecone.req.PineconeQueryReq;
+import com.toughenflat.chatai.api.pinecone.req.PineconeVectorsReq;
+import com.toughenflat.chatai.api.pinecone.resp.PineconeQueryResp;
+import okhttp3.sse.EventSource;
+import okhttp3.sse.EventSourceListener;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 确认mock服务与ChatGPTApi、PineconeApi的请求和解析兼容
+ */
+public class TestMockApiServers {
+    private static final String API_KEY = "sk-mock";
+
+    private MockOpenAIServer openAI;
+    private MockPineconeServer pinecone;
+
+    @Before
+    public void setUp() throws Exception {
+        openAI = new MockOpenAIServer().completionTokens(5).tokensPerSecond(0);
+        openAI.start(0);
+        pinecone = new MockPineconeServer();
+        pinecone.start(0);
+        ApiEndpoints.init(openAI.baseUrl(), pinecone.baseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        ApiEndpoints.init(OpenAIConst.HOST, PineconeApi.PINECONE_API_URL);
+        openAI.close();
+        pinecone.close();
+    }
+
+    private static ChatGPTReq chatReq(boolean stream) {
+        return ChatGPTReq.builder()
+                .model(OpenAIConst.MODEL_NAME_CHATGPT_3_5)
+                .messages(Collections.singletonList(new ContextMessage("user", "hello")))
+                .stream(stream)
+                .build();
+    }
+
+    @Test
+    public void testChatCompletion() {
+        ChatGPTResp resp = ChatGPTApi.sessionReq(chatReq(false), API_KEY);
+        Assert.assertNotNull(resp);
+        Assert.assertEquals("mock mock mock mock mock ", resp.getChoices().get(0).getMessage().getContent());
+        Assert.assertEquals(5, resp.getUsage().getCompletion_tokens().intValue());
+    }
+
+    @Test
+    public void testStreamCompletion() throws Exception {
+        AtomicInteger events = new AtomicInteger();
+        CountDownLatch closed = new CountDownLatch(1);
+        ChatGPTApi.streamSessionReq(chatReq(true), API_KEY, new EventSourceListener() {
+            @Override
+            public void onEvent(EventSource eventSource, String id, String type, String data) {
+                events.incrementAndGet();
+            }
+
+            @Override
+            public void onClosed(EventSource eventSource) {
+                closed.countDown();
+            }
+        });
+        Assert.assertTrue(closed.await(10, TimeUnit.SECONDS));
+        // 5个token + 带usage的结束块 + [DONE]
+        Assert.assertEquals(7, events.get());
+    }
+
+    @Test
+    public void testEmbeddingsAndPinecone() {
+        EmbeddingResp resp = ChatGPTApi.embeddings(Arrays.asList("第一段", "第二段"), API_KEY);
+        Assert.assertNotNull(resp);
+        Assert.assertEquals(2, resp.getData().size());
+        Assert.assertEquals(1536, resp.getData().get(0).getEmbedding().size());
+
+        PineconeVectorsReq vector = new PineconeVectorsReq("1", resp.getData().get(0).getEmbedding(), ImmutableMap.of("content", "第一段"));
+        PineconeApi.insertEmbedding(PineconeInsertReq.builder()
+                .vectors(Collections.singletonList(vector)).namespace("test").build(), API_KEY);
+        PineconeQueryResp queryResp = PineconeApi.queryEmbedding(PineconeQueryReq.builder()
+                .namespace("test").topK(2).vector(resp.getData().get(1).getEmbedding()).build(), API_KEY);
+        Assert.assertEquals(2, queryResp.getMatches().size());
+        Assert.assertEquals("第一段", queryResp.getMatches().get(0).getMetadata().get("content"));
+    }
+}
@@ -0,0 +1,116 @@
+package com.toughenflat.chatai.service;
+
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import com.toughenflat.chatai.mapper.SessionChatRecordMapper;
+import com.toughenflat.chatai.service.impl.SessionChatRecordServiceImpl;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+
+/**
+ * 校验按token预算从新到旧分页读取的窗口与原先全量读取后倒序累加的结果一致
+ */
+public class TestSessionChatRecordService {
+
+    private final List<SessionChatRecordEntity> table = new ArrayList<>();
+    private SessionChatRecordMapper mapper;
+    private SessionChatRecordServiceImpl service;
+
+    @Before
+    public void setUp() {
+        mapper = Mockito.mock(SessionChatRecordMapper.class);
+        Mockito.when(mapper.selectTokenPageBefore(anyInt(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            Integer sessionId = invocation.getArgument(0);
+            Integer beforeId = invocation.getArgument(1);
+            int limit = invocation.getArgument(2);
+            return table.stream()
+                    .filter(r -> r.getSessionId().equals(sessionId) && r.getSessionChatId() < beforeId)
+                    .sorted(Comparator.comparing(SessionChatRecordEntity::getSessionChatId).reversed())
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        });
+        Mockito.when(mapper.selectFromId(anyInt(), anyInt())).thenAnswer(invocation -> {
+            Integer sessionId = invocation.getArgument(0);
+            Integer fromId = invocation.getArgument(1);
+            return table.stream()
+                    .filter(r -> r.getSessionId().equals(sessionId) && r.getSessionChatId() >= fromId)
+                    .collect(Collectors.toList());
+        });
+        Mockito.when(mapper.selectFirst(anyInt())).thenAnswer(invocation -> {
+            Integer sessionId = invocation.getArgument(0);
+            return table.stream().filter(r -> r.getSessionId().equals(sessionId)).findFirst().orElse(null);
+        });
+        service = new SessionChatRecordServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+    }
+
+    /**
+     * 原有实现: 读取会话的全部记录后从最新的往前累加
+     */
+    private List<SessionChatRecordEntity> expected(int sessionId, int maxTokens, boolean keepFirst) {
+        List<SessionChatRecordEntity> records = table.stream()
+                .filter(r -> r.getSessionId() == sessionId).collect(Collectors.toList());
+        if (records.isEmpty()) {
+            return records;
+        }
+        int low = keepFirst ? 1 : 0;
+        int curTokens = keepFirst ? records.get(0).getTokenNum() : 0;
+        int start = records.size();
+        for (int i = records.size() - 1; i >= low; i--) {
+            if (curTokens + records.get(i).getTokenNum() > maxTokens) {
+                break;
+            }
+            start = i;
+            curTokens += records.get(i).getTokenNum();
+        }
+        List<SessionChatRecordEntity> window = new ArrayList<>();
+        if (keepFirst) {
+            window.add(records.get(0));
+        }
+        window.addAll(records.subList(start, records.size()));
+        return window;
+    }
+
+    @Test
+    public void testRecentRecordMatchesFullScan() {
+        Random random = new Random(3);
+        int id = 0;
+        for (int i = 0; i < 600; i++) {
+            // 两个会话交错写入, 第1个会话有足够多的记录跨越多页
+            SessionChatRecordEntity record = new SessionChatRecordEntity(
+                    random.nextInt(4) == 0 ? 2 : 1, "user", "r" + i, random.nextInt(120));
+            record.setSessionChatId(++id);
+            table.add(record);
+        }
+        for (int maxTokens : new int[]{0, 50, 500, 3000, 100000}) {
+            for (int sessionId = 1; sessionId <= 3; sessionId++) {
+                Assert.assertEquals(expected(sessionId, maxTokens, false),
+                        service.getRecentSessionRecord(sessionId, maxTokens, false));
+                Assert.assertEquals(expected(sessionId, maxTokens, true),
+                        service.getRecentSessionRecord(sessionId, maxTokens, true));
+            }
+        }
+    }
+
+    @Test
+    public void testStopsScanningOnceBudgetIsMet() {
+        for (int i = 1; i <= 1000; i++) {
+            SessionChatRecordEntity record = new SessionChatRecordEntity(1, "user", "r" + i, 100);
+            record.setSessionChatId(i);
+            table.add(record);
+        }
+        List<SessionChatRecordEntity> window = service.getRecentSessionRecord(1, 3000, false);
+        Assert.assertEquals(30, window.size());
+        Mockito.verify(mapper, Mockito.times(1)).selectTokenPageBefore(anyInt(), anyInt(), anyInt());
+    }
+}
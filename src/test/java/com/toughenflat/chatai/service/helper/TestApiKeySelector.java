@@ -0,0 +1,161 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyCircuitBreaker;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyCircuitBreakers;
+import com.toughenflat.chatai.api.openai.breaker.ApiKeyQuotas;
+import okhttp3.Headers;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.utils.AtomicTokenBucket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验轮询均匀、免费key每分钟最多使用3次且会回调对账、对账后可清空本地令牌
+ * 以及最少进行中请求、耗时加权、优先级加权三种选key策略, 额度受限的key被绕开
+ */
+public class TestApiKeySelector {
+
+    private AdminApiKeyEntity key(int id, boolean free) {
+        return AdminApiKeyEntity.builder().id(id).name("sk-selector-test-" + id)
+                .type(ApiType.OPENAI.typeNo).priority(0).isFree(free ? 1 : 0).build();
+    }
+
+    @Test
+    public void testRoundRobin() {
+        ApiKeySelector selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(key(1, false), key(2, false), key(3, false))));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            counts.merge(selector.roundRobin(ApiType.OPENAI), 1, Integer::sum);
+        }
+        Assert.assertEquals(3, counts.size());
+        counts.values().forEach(count -> Assert.assertEquals(100, count.intValue()));
+        Assert.assertNull(selector.roundRobin(ApiType.PINECONE));
+    }
+
+    @Test
+    public void testFreeKeyLimit() {
+        List<AdminApiKeyEntity> used = new ArrayList<>();
+        ApiKeySelector selector = new ApiKeySelector(used::add);
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(key(10, true), key(11, true))));
+        for (int i = 0; i < ApiKeySelector.FREE_KEY_LIMIT_PER_MINUTE * 2; i++) {
+            Assert.assertNotNull(selector.roundRobin(ApiType.OPENAI));
+        }
+        // 两个免费key的额度都已用完
+        Assert.assertNull(selector.roundRobin(ApiType.OPENAI));
+        Assert.assertEquals(ApiKeySelector.FREE_KEY_LIMIT_PER_MINUTE * 2, used.size());
+    }
+
+    @Test
+    public void testExhaust() {
+        ApiKeySelector selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(key(20, true), key(21, false))));
+        selector.exhaust(20);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("sk-selector-test-21", selector.roundRobin(ApiType.OPENAI));
+        }
+    }
+
+    @Test
+    public void testLeastInFlight() {
+        ApiKeySelector selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(key(30, false), key(31, false), key(32, false))));
+        selector.setStrategies(ImmutableMap.of(ApiType.OPENAI, ApiKeySelector.Strategy.LEAST_IN_FLIGHT));
+        ApiKeyCircuitBreakers.get("sk-selector-test-30").incrementInFlight();
+        ApiKeyCircuitBreakers.get("sk-selector-test-31").incrementInFlight();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("sk-selector-test-32", selector.select(ApiType.OPENAI));
+            }
+        } finally {
+            ApiKeyCircuitBreakers.get("sk-selector-test-30").decrementInFlight();
+            ApiKeyCircuitBreakers.get("sk-selector-test-31").decrementInFlight();
+        }
+        // 都空闲时依次分配
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            counts.merge(selector.select(ApiType.OPENAI), 1, Integer::sum);
+        }
+        Assert.assertEquals(3, counts.size());
+    }
+
+    @Test
+    public void testEwmaLatency() {
+        ApiKeySelector selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(key(40, false), key(41, false))));
+        selector.setStrategies(ImmutableMap.of(ApiType.OPENAI, ApiKeySelector.Strategy.EWMA_LATENCY));
+        ApiKeyCircuitBreakers.onSuccess("sk-selector-test-40", 5000);
+        ApiKeyCircuitBreakers.onSuccess("sk-selector-test-41", 500);
+        ApiKeyCircuitBreaker fast = ApiKeyCircuitBreakers.get("sk-selector-test-41");
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("sk-selector-test-41", selector.select(ApiType.OPENAI));
+        }
+        // 快key上进行中的请求足够多时, 慢key分到流量
+        for (int i = 0; i < 10; i++) {
+            fast.incrementInFlight();
+        }
+        try {
+            Assert.assertEquals("sk-selector-test-40", selector.select(ApiType.OPENAI));
+        } finally {
+            for (int i = 0; i < 10; i++) {
+                fast.decrementInFlight();
+            }
+        }
+    }
+
+    @Test
+    public void testPriorityWeighted() {
+        AdminApiKeyEntity high = key(50, false);
+        high.setPriority(9);
+        AdminApiKeyEntity low = key(51, false);
+        low.setPriority(1);
+        ApiKeySelector selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(high, low)));
+        selector.setStrategies(ImmutableMap.of(ApiType.OPENAI, ApiKeySelector.Strategy.PRIORITY_WEIGHTED));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            counts.merge(selector.select(ApiType.OPENAI), 1, Integer::sum);
+        }
+        int highCount = counts.get(high.getName());
+        Assert.assertTrue(highCount > 8500 && highCount < 9500);
+        // 未配置策略的类型使用轮询
+        Assert.assertEquals(ApiKeySelector.Strategy.ROUND_ROBIN, selector.getStrategy(ApiType.PINECONE));
+    }
+
+    @Test
+    public void testSkipThrottled() {
+        ApiKeySelector selector = new ApiKeySelector(entity -> { });
+        selector.update(ImmutableMap.of(ApiType.OPENAI.typeNo, ImmutableList.of(key(60, false), key(61, false))));
+        ApiKeyQuotas.update("sk-selector-test-60", 429, Headers.of("retry-after", "60"));
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("sk-selector-test-61", selector.roundRobin(ApiType.OPENAI));
+        }
+        selector.setStrategies(ImmutableMap.of(ApiType.OPENAI, ApiKeySelector.Strategy.LEAST_IN_FLIGHT));
+        Assert.assertEquals("sk-selector-test-61", selector.select(ApiType.OPENAI));
+        // 都受限时仍返回key
+        ApiKeyQuotas.update("sk-selector-test-61", 429, Headers.of("retry-after", "60"));
+        Assert.assertNotNull(selector.roundRobin(ApiType.OPENAI));
+    }
+
+    @Test
+    public void testTokenBucket() {
+        AtomicTokenBucket bucket = new AtomicTokenBucket(3, 1, TimeUnit.MINUTES);
+        long now = System.nanoTime();
+        Assert.assertTrue(bucket.tryAcquire(now));
+        Assert.assertTrue(bucket.tryAcquire(now));
+        Assert.assertTrue(bucket.tryAcquire(now));
+        Assert.assertFalse(bucket.tryAcquire(now));
+        // 20秒补充一个令牌
+        Assert.assertTrue(bucket.tryAcquire(now + TimeUnit.SECONDS.toNanos(20)));
+        Assert.assertFalse(bucket.tryAcquire(now + TimeUnit.SECONDS.toNanos(20)));
+    }
+}
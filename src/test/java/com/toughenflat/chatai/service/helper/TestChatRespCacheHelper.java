@@ -0,0 +1,73 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.openai.enums.Role;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.api.openai.resp.ChoiceMessages;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * 校验响应缓存的缓存条件和缓存键
+ */
+public class TestChatRespCacheHelper {
+
+    private ChatGPTReq req(String content, Double temperature) {
+        return ChatGPTReq.builder()
+                .messages(ImmutableList.of(new ContextMessage(Role.USER.name, content)))
+                .temperature(temperature)
+                .build();
+    }
+
+    @Test
+    public void testIsCacheable() {
+        Assert.assertTrue(ChatRespCacheHelper.isCacheable(req("hello", 0D), false));
+        Assert.assertFalse(ChatRespCacheHelper.isCacheable(req("hello", 0.8), false));
+        Assert.assertTrue(ChatRespCacheHelper.isCacheable(req("hello", 0.8), true));
+
+        ChatGPTReq stream = req("hello", 0D);
+        stream.setStream(true);
+        Assert.assertFalse(ChatRespCacheHelper.isCacheable(stream, true));
+    }
+
+    @Test
+    public void testHash() {
+        // 首尾空白不影响缓存键
+        Assert.assertEquals(ChatRespCacheHelper.hash(req("hello", 0D)), ChatRespCacheHelper.hash(req(" hello\n", 0D)));
+        Assert.assertNotEquals(ChatRespCacheHelper.hash(req("hello", 0D)), ChatRespCacheHelper.hash(req("hello", 0.8)));
+
+        // user不影响缓存键
+        ChatGPTReq other = req("hello", 0D);
+        other.setUser("other");
+        Assert.assertEquals(ChatRespCacheHelper.hash(req("hello", 0D)), ChatRespCacheHelper.hash(other));
+
+        // 消息边界不同的请求不会得到相同的缓存键
+        ChatGPTReq a = ChatGPTReq.builder().messages(ImmutableList.of(
+                new ContextMessage(Role.USER.name, "ab"), new ContextMessage(Role.USER.name, "c"))).build();
+        ChatGPTReq b = ChatGPTReq.builder().messages(ImmutableList.of(
+                new ContextMessage(Role.USER.name, "a"), new ContextMessage(Role.USER.name, "bc"))).build();
+        Assert.assertNotEquals(ChatRespCacheHelper.hash(a), ChatRespCacheHelper.hash(b));
+    }
+
+    @Test
+    public void testIsCompleted() {
+        ChatGPTResp resp = new ChatGPTResp();
+        Assert.assertFalse(ChatRespCacheHelper.isCompleted(resp));
+        resp.setChoices(Collections.emptyList());
+        Assert.assertFalse(ChatRespCacheHelper.isCompleted(resp));
+
+        ChoiceMessages choice = new ChoiceMessages();
+        choice.setFinish_reason("stop");
+        resp.setChoices(Collections.singletonList(choice));
+        Assert.assertFalse(ChatRespCacheHelper.isCompleted(resp));
+
+        choice.setMessage(new ContextMessage(Role.ASSISTANT.name, "hi"));
+        Assert.assertTrue(ChatRespCacheHelper.isCompleted(resp));
+        choice.setFinish_reason("length");
+        Assert.assertFalse(ChatRespCacheHelper.isCompleted(resp));
+    }
+}
@@ -0,0 +1,112 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.toughenflat.chatai.redis.ClusterRedisHelper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+/**
+ * 校验租约抢占/续期、redis异常时按单机处理, 以及快照通知和重新加载请求的分发
+ */
+public class TestClusterLeaderHelper {
+
+    private ClusterRedisHelper redis;
+    private ClusterLeaderHelper helper;
+    private MessageListener listener;
+
+    @Before
+    public void setUp() {
+        redis = Mockito.mock(ClusterRedisHelper.class);
+        Mockito.when(redis.deserialize(any())).thenAnswer(invocation ->
+                new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8));
+        RedisMessageListenerContainer container = Mockito.mock(RedisMessageListenerContainer.class);
+
+        helper = new ClusterLeaderHelper();
+        ReflectionTestUtils.setField(helper, "enabled", true);
+        ReflectionTestUtils.setField(helper, "leaseSeconds", 30L);
+        ReflectionTestUtils.setField(helper, "clusterRedisHelper", redis);
+        ReflectionTestUtils.setField(helper, "redisMessageListenerContainer", container);
+        ReflectionTestUtils.setField(helper, "queueThreadPool", (TaskExecutor) Runnable::run);
+        helper.init();
+
+        ArgumentCaptor<MessageListener> captor = ArgumentCaptor.forClass(MessageListener.class);
+        Mockito.verify(container).addMessageListener(captor.capture(), any(Topic.class));
+        listener = captor.getValue();
+    }
+
+    @Test
+    public void testElection() {
+        Mockito.when(redis.tryAcquireLease(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        Assert.assertFalse(helper.isLeader());
+
+        Mockito.when(redis.tryAcquireLease(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        helper.heartbeat();
+        Assert.assertTrue(helper.isLeader());
+
+        // leader只续期
+        Mockito.when(redis.renewLease(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        Mockito.when(redis.tryAcquireLease(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        helper.heartbeat();
+        Assert.assertTrue(helper.isLeader());
+
+        // 租约被其他节点抢走
+        Mockito.when(redis.renewLease(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        helper.heartbeat();
+        Assert.assertFalse(helper.isLeader());
+
+        // redis异常时按单机处理
+        Mockito.when(redis.tryAcquireLease(anyString(), anyString(), any(Duration.class))).thenThrow(new RuntimeException("down"));
+        helper.heartbeat();
+        Assert.assertTrue(helper.isLeader());
+    }
+
+    @Test
+    public void testSnapshotAndReload() {
+        List<String> applied = new ArrayList<>();
+        List<String> reloaded = new ArrayList<>();
+        helper.onSnapshot("prompt", applied::add);
+        helper.onReload("prompt", () -> reloaded.add("prompt"));
+        Mockito.when(redis.getSnapshot("prompt")).thenReturn("[]");
+
+        // 非leader应用快照, 不处理重新加载请求
+        Mockito.when(redis.tryAcquireLease(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        send("snapshot|prompt|other-node");
+        send("reload|prompt|other-node");
+        Assert.assertEquals(1, applied.size());
+        Assert.assertEquals(0, reloaded.size());
+
+        // leader处理重新加载请求, 不应用快照
+        Mockito.when(redis.tryAcquireLease(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        helper.heartbeat();
+        send("snapshot|prompt|other-node");
+        send("reload|prompt|other-node");
+        send("reload|unknown|other-node");
+        Assert.assertEquals(1, applied.size());
+        Assert.assertEquals(1, reloaded.size());
+
+        helper.publishSnapshot("prompt", new ArrayList<>());
+        Mockito.verify(redis).setSnapshot(eq("prompt"), eq("[]"));
+    }
+
+    private void send(String message) {
+        listener.onMessage(new DefaultMessage("cluster:channel".getBytes(StandardCharsets.UTF_8),
+                message.getBytes(StandardCharsets.UTF_8)), null);
+    }
+}
@@ -0,0 +1,158 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.ApiEndpoints;
+import com.toughenflat.chatai.api.openai.TokenCounter;
+import com.toughenflat.chatai.api.openai.constant.OpenAIConst;
+import com.toughenflat.chatai.api.openai.resp.Embedding;
+import com.toughenflat.chatai.api.openai.resp.EmbeddingResp;
+import com.toughenflat.chatai.api.openai.resp.Usage;
+import com.toughenflat.chatai.api.pinecone.PineconeApi;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.exception.BaseException;
+import com.toughenflat.chatai.loadtest.MockOpenAIServer;
+import com.toughenflat.chatai.service.AdminApiKeyService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 校验批次切分不超过token上限, 以及结果按原顺序拼装;
+ * 不可重试的错误不重试并取消其余批次, 有付费key时不使用免费key
+ */
+public class TestEmbeddingPipeline {
+    private static final String BAD_KEY = "sk-bad";
+    private static final String FREE_KEY = "sk-free";
+    private static final String PAID_KEY = "sk-paid";
+
+    private MockOpenAIServer openAI;
+    private ExecutorService executor;
+    private AdminApiKeyService adminApiKeyService;
+    private EmbeddingPipeline pipeline;
+
+    @Before
+    public void setUp() throws Exception {
+        openAI = new MockOpenAIServer().embeddingDimension(2).rejectApiKey(BAD_KEY);
+        openAI.start(0);
+        ApiEndpoints.init(openAI.baseUrl(), null);
+
+        executor = Executors.newFixedThreadPool(1);
+        adminApiKeyService = Mockito.mock(AdminApiKeyService.class);
+        pipeline = new EmbeddingPipeline();
+        ReflectionTestUtils.setField(pipeline, "adminApiKeyService", adminApiKeyService);
+        ReflectionTestUtils.setField(pipeline, "embeddingThreadPool", (TaskExecutor) executor::execute);
+        ReflectionTestUtils.setField(pipeline, "maxBatchTokens", 8000);
+        ReflectionTestUtils.setField(pipeline, "maxBatchSize", 2);
+        ReflectionTestUtils.setField(pipeline, "maxRetries", 3);
+        ReflectionTestUtils.setField(pipeline, "permitsPerSecondPerKey", 100D);
+    }
+
+    @After
+    public void tearDown() {
+        ApiEndpoints.init(OpenAIConst.HOST, PineconeApi.PINECONE_API_URL);
+        executor.shutdownNow();
+        openAI.close();
+    }
+
+    private static List<String> chunks(int n) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            chunks.add("pipeline chunk " + i + " " + System.nanoTime());
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testInvalidKeyFailsFast() {
+        try {
+            pipeline.embed(chunks(10), BAD_KEY);
+            Assert.fail();
+        } catch (BaseException e) {
+            Assert.assertEquals(401, e.getCode());
+        }
+        // 不重试, 其余批次被取消
+        Assert.assertEquals(1L, openAI.getEmbeddingRequests(BAD_KEY));
+    }
+
+    @Test
+    public void testSkipFreeKeyWhenPaidAvailable() {
+        Mockito.when(adminApiKeyService.getListByType(ApiType.OPENAI)).thenReturn(ImmutableList.of(
+                AdminApiKeyEntity.builder().name(FREE_KEY).isFree(1).build(),
+                AdminApiKeyEntity.builder().name(PAID_KEY).isFree(0).build()));
+        Mockito.when(adminApiKeyService.selectByType(ApiType.OPENAI)).thenReturn(FREE_KEY, PAID_KEY, FREE_KEY, PAID_KEY);
+
+        EmbeddingResp resp = pipeline.embed(chunks(6), PAID_KEY);
+        Assert.assertEquals(6, resp.getData().size());
+        Assert.assertEquals(0L, openAI.getEmbeddingRequests(FREE_KEY));
+        Assert.assertEquals(3L, openAI.getEmbeddingRequests(PAID_KEY));
+    }
+
+    @Test
+    public void testIsRetryable() {
+        Assert.assertTrue(EmbeddingPipeline.isRetryable(new BaseException(429, "limit")));
+        Assert.assertTrue(EmbeddingPipeline.isRetryable(new BaseException(503, "unavailable")));
+        Assert.assertFalse(EmbeddingPipeline.isRetryable(new BaseException(401, "invalid key")));
+        Assert.assertFalse(EmbeddingPipeline.isRetryable(new BaseException("no code")));
+    }
+
+    @Test
+    public void testSplit() {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            chunks.add("第" + i + "段内容, hello world " + i);
+        }
+        int maxTokens = 4 * TokenCounter.count(chunks.get(10));
+        List<List<String>> batches = EmbeddingPipeline.split(chunks, maxTokens, 3);
+
+        List<String> flat = new ArrayList<>();
+        for (List<String> batch : batches) {
+            Assert.assertTrue(batch.size() <= 3);
+            Assert.assertTrue(batch.stream().mapToInt(TokenCounter::count).sum() <= maxTokens);
+            flat.addAll(batch);
+        }
+        Assert.assertEquals(chunks, flat);
+
+        // 超过上限的单个分块独占一个批次
+        Assert.assertEquals(2, EmbeddingPipeline.split(ImmutableList.of("a", "b"), 0, 10).size());
+    }
+
+    private EmbeddingResp resp(int tokens, float... values) {
+        List<Embedding> data = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            Embedding embedding = new Embedding();
+            embedding.setIndex(i);
+            embedding.setEmbedding(Collections.singletonList(values[i]));
+            data.add(embedding);
+        }
+        // 上游返回的顺序不保证与index一致
+        Collections.reverse(data);
+        EmbeddingResp resp = new EmbeddingResp();
+        resp.setData(data);
+        Usage usage = new Usage();
+        usage.setTotal_tokens(tokens);
+        resp.setUsage(usage);
+        return resp;
+    }
+
+    @Test
+    public void testMerge() {
+        EmbeddingResp merged = EmbeddingPipeline.merge(ImmutableList.of(resp(3, 0f, 1f), resp(4, 2f, 3f, 4f)));
+        Assert.assertEquals(5, merged.getData().size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i, merged.getData().get(i).getIndex().intValue());
+            Assert.assertEquals((float) i, merged.getData().get(i).getEmbedding().get(0), 0f);
+        }
+        Assert.assertEquals(7, merged.getUsage().getTotal_tokens().intValue());
+    }
+}
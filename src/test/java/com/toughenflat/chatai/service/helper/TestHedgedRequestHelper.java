@@ -0,0 +1,171 @@
+package com.toughenflat.chatai.service.helper;
+
+import com.google.common.collect.ImmutableList;
+import com.toughenflat.chatai.api.openai.req.ChatGPTReq;
+import com.toughenflat.chatai.api.openai.resp.ChatGPTResp;
+import com.toughenflat.chatai.entity.AdminApiKeyEntity;
+import com.toughenflat.chatai.enums.ApiType;
+import com.toughenflat.chatai.service.AdminApiKeyService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验对冲阈值使用的耗时分位数, 以及对冲的触发、取消、预算和样本数下限
+ */
+public class TestHedgedRequestHelper {
+    private static final String PRIMARY_KEY = "sk-primary";
+    private static final String HEDGE_KEY = "sk-hedge";
+    private static final long DELAY_MILLIS = 100L;
+
+    private HedgedRequestHelper helper;
+
+    /**
+     * 模拟的上游: 记录每次调用的key, 返回的future由测试完成
+     */
+    private final List<String> calledKeys = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<ChatGPTResp>> calls = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        AdminApiKeyService adminApiKeyService = Mockito.mock(AdminApiKeyService.class);
+        Mockito.when(adminApiKeyService.getListByType(ApiType.OPENAI)).thenReturn(ImmutableList.of(
+                AdminApiKeyEntity.builder().name(PRIMARY_KEY).build(),
+                AdminApiKeyEntity.builder().name(HEDGE_KEY).build()));
+        // 选key策略先选中原请求的key, 需要跳过
+        Mockito.when(adminApiKeyService.selectByType(ApiType.OPENAI)).thenReturn(PRIMARY_KEY, HEDGE_KEY);
+
+        helper = new HedgedRequestHelper();
+        ReflectionTestUtils.setField(helper, "adminApiKeyService", adminApiKeyService);
+        ReflectionTestUtils.setField(helper, "enabled", true);
+        ReflectionTestUtils.setField(helper, "percentile", 95D);
+        ReflectionTestUtils.setField(helper, "minDelayMillis", DELAY_MILLIS);
+        ReflectionTestUtils.setField(helper, "budgetPercent", 100);
+        ReflectionTestUtils.setField(helper, "minSamples", 0);
+        helper.setUpstream((req, apiKey) -> {
+            CompletableFuture<ChatGPTResp> future = new CompletableFuture<>();
+            calledKeys.add(apiKey);
+            calls.add(future);
+            return future;
+        });
+    }
+
+    private static ChatGPTReq req() {
+        return ChatGPTReq.builder().build();
+    }
+
+    private static ChatGPTResp resp(String id) {
+        ChatGPTResp resp = new ChatGPTResp();
+        resp.setId(id);
+        return resp;
+    }
+
+    private void awaitCalls(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000L;
+        while (calls.size() < expected && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        Assert.assertEquals(expected, calls.size());
+    }
+
+    @Test
+    public void testHedgeAfterDelayAndCancelLoser() throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<ChatGPTResp> result = helper.sessionReqAsync(req(), PRIMARY_KEY);
+        Assert.assertEquals(1, calls.size());
+
+        awaitCalls(2);
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= DELAY_MILLIS);
+        // 对冲使用选key策略选出的另一个key
+        Assert.assertEquals(ImmutableList.of(PRIMARY_KEY, HEDGE_KEY), calledKeys);
+
+        calls.get(1).complete(resp("hedge"));
+        Assert.assertEquals("hedge", result.get(1, TimeUnit.SECONDS).getId());
+        // 原请求被取消
+        Assert.assertTrue(calls.get(0).isCancelled());
+        Assert.assertEquals(1L, helper.stats().get("hedges"));
+        Assert.assertEquals(1L, helper.stats().get("hedgeWins"));
+    }
+
+    @Test
+    public void testNoHedgeWhenPrimaryReturnsInTime() throws Exception {
+        CompletableFuture<ChatGPTResp> result = helper.sessionReqAsync(req(), PRIMARY_KEY);
+        calls.get(0).complete(resp("primary"));
+        Assert.assertEquals("primary", result.get(1, TimeUnit.SECONDS).getId());
+
+        TimeUnit.MILLISECONDS.sleep(DELAY_MILLIS * 2);
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(0L, helper.stats().get("hedges"));
+    }
+
+    @Test
+    public void testBudgetLimitsHedges() throws Exception {
+        // 每个请求积累半次额度, 第一个请求不能对冲, 第二个可以
+        ReflectionTestUtils.setField(helper, "budgetPercent", 50);
+        helper.sessionReqAsync(req(), PRIMARY_KEY);
+        TimeUnit.MILLISECONDS.sleep(DELAY_MILLIS * 2);
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(1L, helper.stats().get("budgetRejects"));
+
+        helper.sessionReqAsync(req(), PRIMARY_KEY);
+        awaitCalls(3);
+        Assert.assertEquals(HEDGE_KEY, calledKeys.get(2));
+        Assert.assertEquals(1L, helper.stats().get("hedges"));
+    }
+
+    @Test
+    public void testNoHedgeBelowMinSamples() throws Exception {
+        ReflectionTestUtils.setField(helper, "minSamples", 2);
+        CompletableFuture<ChatGPTResp> result = helper.sessionReqAsync(req(), PRIMARY_KEY);
+        TimeUnit.MILLISECONDS.sleep(DELAY_MILLIS * 2);
+        Assert.assertEquals(1, calls.size());
+        Assert.assertEquals(0L, helper.stats().get("requests"));
+
+        calls.get(0).complete(resp("primary"));
+        Assert.assertEquals("primary", result.get(1, TimeUnit.SECONDS).getId());
+        Assert.assertEquals(1, helper.stats().get("latencySamples"));
+    }
+
+    @Test
+    public void testLatencyWindow() {
+        HedgedRequestHelper.LatencyWindow window = new HedgedRequestHelper.LatencyWindow(128);
+        Assert.assertEquals(0L, window.percentile(95));
+        for (int i = 1; i <= 128; i++) {
+            window.add(i);
+        }
+        Assert.assertEquals(122L, window.percentile(95));
+        Assert.assertEquals(128L, window.percentile(100));
+
+        // 旧样本被覆盖
+        for (int i = 0; i < 128; i++) {
+            window.add(1000);
+        }
+        Assert.assertEquals(1000L, window.percentile(50));
+    }
+
+    @Test
+    public void testLatencyWindowRefreshInterval() {
+        HedgedRequestHelper.LatencyWindow window = new HedgedRequestHelper.LatencyWindow(128);
+        int added = 128 * 8;
+        for (int i = 0; i < added; i++) {
+            window.add(i);
+        }
+        // 窗口满了之后也只是每REFRESH_INTERVAL个样本重新排序一次
+        Assert.assertEquals(added / HedgedRequestHelper.LatencyWindow.REFRESH_INTERVAL, window.refreshes());
+
+        long p100 = window.percentile(100);
+        for (int i = 0; i < HedgedRequestHelper.LatencyWindow.REFRESH_INTERVAL - 1; i++) {
+            window.add(100_000L);
+        }
+        Assert.assertEquals(p100, window.percentile(100));
+        window.add(100_000L);
+        Assert.assertEquals(100_000L, window.percentile(100));
+    }
+}
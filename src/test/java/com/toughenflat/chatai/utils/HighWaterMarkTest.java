@@ -0,0 +1,59 @@
+package com.toughenflat.chatai.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+public class HighWaterMarkTest {
+
+    @Test
+    public void testNoPollBeforeFullLoad() {
+        Assert.assertNull(new HighWaterMark().since());
+    }
+
+    @Test
+    public void testResetToMaxUpdateTime() {
+        HighWaterMark highWaterMark = new HighWaterMark();
+        highWaterMark.reset(Arrays.asList(new Date(10_000L), null, new Date(30_000L), new Date(20_000L)));
+        Assert.assertEquals(30_000L - HighWaterMark.OVERLAP_MILLIS, highWaterMark.since().getTime());
+
+        highWaterMark.reset(Collections.emptyList());
+        Assert.assertEquals(-HighWaterMark.OVERLAP_MILLIS, highWaterMark.since().getTime());
+    }
+
+    @Test
+    public void testAdvanceOnlyForward() {
+        HighWaterMark highWaterMark = new HighWaterMark();
+        highWaterMark.reset(Collections.singletonList(new Date(30_000L)));
+        highWaterMark.advance(new Date(20_000L));
+        highWaterMark.advance(null);
+        Assert.assertEquals(30_000L - HighWaterMark.OVERLAP_MILLIS, highWaterMark.since().getTime());
+
+        highWaterMark.advance(new Date(40_000L));
+        Assert.assertEquals(40_000L - HighWaterMark.OVERLAP_MILLIS, highWaterMark.since().getTime());
+    }
+
+    @Test
+    public void testMarkProcessed() {
+        HighWaterMark highWaterMark = new HighWaterMark();
+        highWaterMark.reset(Collections.singletonList(new Date(30_000L)));
+        Assert.assertTrue(highWaterMark.markProcessed(1, new Date(30_000L)));
+        Assert.assertFalse(highWaterMark.markProcessed(1, new Date(30_000L)));
+        // 同一行再次变更
+        Assert.assertTrue(highWaterMark.markProcessed(1, new Date(31_000L)));
+        Assert.assertTrue(highWaterMark.markProcessed(2, null));
+        Assert.assertTrue(highWaterMark.markProcessed(2, null));
+
+        // 高水位前进后, 窗口外的记录被清理
+        highWaterMark.advance(new Date(40_000L));
+        Assert.assertTrue(highWaterMark.markProcessed(1, new Date(31_000L)));
+
+        // 全量加载后重新开始
+        Assert.assertFalse(highWaterMark.markProcessed(1, new Date(31_000L)));
+        highWaterMark.reset(Collections.singletonList(new Date(40_000L)));
+        Assert.assertTrue(highWaterMark.markProcessed(1, new Date(31_000L)));
+    }
+}
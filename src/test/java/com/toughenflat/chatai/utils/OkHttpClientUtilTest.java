@@ -0,0 +1,25 @@
+package com.toughenflat.chatai.utils;
+
+import com.toughenflat.chatai.enums.HttpClientProfile;
+import okhttp3.OkHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * 校验重新加载配置后替换客户端, 并关闭旧客户端的线程池
+ */
+public class OkHttpClientUtilTest {
+
+    @Test
+    public void testInitShutsDownReplacedClients() {
+        OkHttpClientUtil.init(Collections.emptyMap());
+        OkHttpClient old = OkHttpClientUtil.getClient(HttpClientProfile.DEFAULT);
+        Assert.assertSame(old, OkHttpClientUtil.getClient(HttpClientProfile.DEFAULT));
+
+        OkHttpClientUtil.init(Collections.emptyMap());
+        Assert.assertTrue(old.dispatcher().executorService().isShutdown());
+        Assert.assertNotSame(old, OkHttpClientUtil.getClient(HttpClientProfile.DEFAULT));
+    }
+}
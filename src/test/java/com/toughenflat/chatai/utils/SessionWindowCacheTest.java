@@ -0,0 +1,178 @@
+package com.toughenflat.chatai.utils;
+
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class SessionWindowCacheTest {
+
+    private static SessionWindow window(int records, int contentLength) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < contentLength; i++) {
+            content.append('x');
+        }
+        List<SessionChatRecordEntity> list = new ArrayList<>();
+        for (int i = 0; i < records; i++) {
+            list.add(new SessionChatRecordEntity(1, "user", content.toString(), 10));
+        }
+        return SessionWindow.of(list);
+    }
+
+    @Test
+    public void loadsOnceAndRecordsHits() {
+        SessionWindowCache cache = new SessionWindowCache(1 << 20, 10L);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            SessionWindow window = cache.get(1, id -> {
+                loads.incrementAndGet();
+                return window(2, 10);
+            });
+            Assert.assertEquals(20, window.totalTokens());
+        }
+        Assert.assertEquals(1, loads.get());
+
+        Map<String, Object> stats = cache.stats();
+        Assert.assertEquals(2L, stats.get("hits"));
+        Assert.assertEquals(1L, stats.get("misses"));
+
+        cache.invalidate(1);
+        cache.get(1, id -> {
+            loads.incrementAndGet();
+            return SessionWindow.empty();
+        });
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void evictsByContentBytes() {
+        // 每个窗口约 10 * (128 + 2 * 1000) 字节, 容量只够放下不到5个
+        long maximumBytes = 100_000;
+        SessionWindowCache cache = new SessionWindowCache(maximumBytes, 10L);
+        for (int i = 0; i < 20; i++) {
+            cache.put(i, window(10, 1000));
+        }
+
+        Map<String, Object> stats = cache.stats();
+        Assert.assertTrue((Long) stats.get("weightBytes") <= maximumBytes);
+        Assert.assertTrue((Long) stats.get("size") < 5);
+        Assert.assertTrue((Long) stats.get("evictions") > 0);
+    }
+
+    @Test
+    public void appendsWithoutReload() {
+        SessionWindowCache cache = new SessionWindowCache(1 << 20, 10L);
+        // 未缓存的会话不追加, 下次访问再加载
+        cache.append(1, Collections.singletonList(record(1, 10)), 0, 100);
+        Assert.assertSame(SessionWindow.empty(), cache.get(1, id -> SessionWindow.empty()));
+
+        cache.append(1, Arrays.asList(record(1, 60), record(2, 30)), 0, 100);
+        cache.append(1, Arrays.asList(record(3, 20), record(4, 10)), 0, 100);
+        SessionWindow window = cache.get(1, id -> {
+            throw new AssertionError("should not reload");
+        });
+        Assert.assertEquals(3, window.size());
+        Assert.assertEquals(60, window.totalTokens());
+
+        // 窗口已包含的记录再次追加时直接失效, 下次访问重新加载
+        cache.append(1, Collections.singletonList(record(4, 10)), 0, 100);
+        Assert.assertSame(SessionWindow.empty(), cache.get(1, id -> SessionWindow.empty()));
+        Assert.assertEquals(1L, cache.stats().get("appendConflicts"));
+    }
+
+    /**
+     * 两个节点共享同一个存储: 一个节点追加后另一个节点丢弃本地副本, 再次访问时从共享存储读取而不查库
+     */
+    @Test
+    public void sharesWindowAcrossNodes() {
+        MemoryStore store = new MemoryStore();
+        SessionWindowCache nodeA = new SessionWindowCache("chat", 1 << 20, 10L, store);
+        SessionWindowCache nodeB = new SessionWindowCache("chat", 1 << 20, 10L, store);
+        AtomicInteger loads = new AtomicInteger();
+        Function<Integer, SessionWindow> loader = id -> {
+            loads.incrementAndGet();
+            return SessionWindow.of(Collections.singletonList(record(1, 10)));
+        };
+
+        Assert.assertEquals(1, nodeA.get(1, loader).size());
+        Assert.assertEquals(1, nodeB.get(1, loader).size());
+        Assert.assertEquals(1, loads.get());
+
+        nodeA.append(1, Arrays.asList(record(2, 20), record(3, 30)), 0, 100);
+        Assert.assertEquals(3, nodeA.get(1, loader).size());
+        SessionWindow window = nodeB.get(1, loader);
+        Assert.assertEquals(3, window.size());
+        Assert.assertEquals(60, window.totalTokens());
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1L, nodeB.stats().get("remoteInvalidations"));
+
+        // 基于旧窗口的追加(另一个节点已追加了更新的记录)放弃并删除共享的窗口
+        nodeB.append(1, Collections.singletonList(record(3, 30)), 0, 100);
+        Assert.assertNull(store.values.get(1));
+        nodeA.get(1, loader);
+        Assert.assertEquals(2, loads.get());
+
+        nodeA.invalidate(1);
+        Assert.assertNull(store.values.get(1));
+    }
+
+    /**
+     * 模拟redis: 同步地分发失效通知
+     */
+    private static class MemoryStore implements SessionWindowStore {
+        private final Map<Integer, byte[]> values = new ConcurrentHashMap<>();
+        private final List<Consumer<Integer>> listeners = new ArrayList<>();
+
+        @Override
+        public byte[] get(String name, Integer sessionId) {
+            return values.get(sessionId);
+        }
+
+        @Override
+        public void putIfAbsent(String name, Integer sessionId, byte[] value) {
+            values.putIfAbsent(sessionId, value);
+        }
+
+        @Override
+        public boolean compareAndSet(String name, Integer sessionId, byte[] expectedHeader, byte[] value) {
+            byte[] current = values.get(sessionId);
+            if (current != null && Arrays.equals(SessionWindowCodec.header(current), expectedHeader)) {
+                values.put(sessionId, value);
+                return true;
+            }
+            values.remove(sessionId);
+            return false;
+        }
+
+        @Override
+        public void delete(String name, Integer sessionId) {
+            values.remove(sessionId);
+        }
+
+        @Override
+        public void publishInvalidation(String name, Integer sessionId) {
+            // 与redis不同, 发布者自己也会收到通知, 只会多一次从共享存储的读取
+            listeners.forEach(listener -> listener.accept(sessionId));
+        }
+
+        @Override
+        public void onInvalidation(String name, Consumer<Integer> listener) {
+            listeners.add(listener);
+        }
+    }
+
+    private static SessionChatRecordEntity record(int id, int tokenNum) {
+        SessionChatRecordEntity record = new SessionChatRecordEntity(1, "user", "r" + id, tokenNum);
+        record.setSessionChatId(id);
+        return record;
+    }
+}
@@ -0,0 +1,47 @@
+package com.toughenflat.chatai.utils;
+
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SessionWindowCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        List<SessionChatRecordEntity> records = new ArrayList<>();
+        records.add(record(1, "system", "你是一个翻译专家", 12));
+        records.add(record(300, "user", "hello \"world\"\n", 5));
+        records.add(record(Integer.MAX_VALUE, "function", null, null));
+        SessionWindow window = SessionWindow.of(records).trim(1, 17, 12);
+        Assert.assertEquals(2, window.size());
+
+        byte[] bytes = SessionWindowCodec.encode(window);
+        SessionWindow decoded = SessionWindowCodec.decode(bytes);
+        Assert.assertEquals(window.size(), decoded.size());
+        Assert.assertEquals(window.totalTokens(), decoded.totalTokens());
+        for (int i = 0; i < window.size(); i++) {
+            SessionChatRecordEntity expected = window.get(i);
+            SessionChatRecordEntity actual = decoded.get(i);
+            Assert.assertEquals(expected.getSessionChatId(), actual.getSessionChatId());
+            Assert.assertEquals(expected.getSessionId(), actual.getSessionId());
+            Assert.assertEquals(expected.getRole(), actual.getRole());
+            Assert.assertEquals(expected.getContent(), actual.getContent());
+            Assert.assertEquals(expected.getTokenNum(), actual.getTokenNum());
+        }
+        // 内容之外每条记录只占几个字节
+        int contentBytes = "你是一个翻译专家".getBytes(StandardCharsets.UTF_8).length;
+        Assert.assertTrue(bytes.length < contentBytes + 32);
+
+        Assert.assertEquals(0, SessionWindowCodec.decode(SessionWindowCodec.encode(SessionWindow.empty())).size());
+    }
+
+    private static SessionChatRecordEntity record(int id, String role, String content, Integer tokenNum) {
+        SessionChatRecordEntity record = new SessionChatRecordEntity(7, role, content, tokenNum);
+        record.setSessionChatId(id);
+        return record;
+    }
+}
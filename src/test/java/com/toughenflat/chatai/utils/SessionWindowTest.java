@@ -0,0 +1,113 @@
+package com.toughenflat.chatai.utils;
+
+import com.toughenflat.chatai.api.openai.req.ContextMessage;
+import com.toughenflat.chatai.entity.SessionChatRecordEntity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+public class SessionWindowTest {
+
+    private static List<SessionChatRecordEntity> records(int... tokens) {
+        List<SessionChatRecordEntity> records = new ArrayList<>();
+        for (int i = 0; i < tokens.length; i++) {
+            records.add(new SessionChatRecordEntity(1, i % 2 == 0 ? "user" : "assistant", "r" + i, tokens[i]));
+        }
+        return records;
+    }
+
+    /**
+     * 原有的逐条弹出实现, 每条记录另外计入perRecordTokens
+     */
+    private static List<SessionChatRecordEntity> poll(List<SessionChatRecordEntity> records, int keepHead,
+                                                      int curTokens, int perRecordTokens, int maxTokens) {
+        Deque<SessionChatRecordEntity> window = new LinkedList<>(records);
+        Deque<SessionChatRecordEntity> temp = new LinkedList<>();
+        while (!window.isEmpty() && keepHead-- != 0) {
+            temp.offerLast(window.pollFirst());
+        }
+        while (!window.isEmpty() && curTokens + perRecordTokens * (window.size() + 1) > maxTokens) {
+            curTokens -= window.pollFirst().getTokenNum();
+        }
+        while (!temp.isEmpty()) {
+            window.offerFirst(temp.pollLast());
+        }
+        return new ArrayList<>(window);
+    }
+
+    @Test
+    public void testTrimKeepsHead() {
+        SessionWindow window = SessionWindow.of(records(10, 20, 30, 40));
+        Assert.assertEquals(100, window.totalTokens());
+
+        SessionWindow trimmed = window.trim(1, 100 + 5, 60);
+        // 丢弃20、30后 105 - 50 = 55 <= 60
+        Assert.assertEquals(2, trimmed.size());
+        Assert.assertEquals("r0", trimmed.get(0).getContent());
+        Assert.assertEquals("r3", trimmed.get(1).getContent());
+        Assert.assertEquals(50, trimmed.totalTokens());
+
+        List<ContextMessage> messages = trimmed.toMessages(new ContextMessage("user", "ask"));
+        Assert.assertEquals(3, messages.size());
+        Assert.assertEquals("r0", messages.get(0).getContent());
+        Assert.assertEquals("r3", messages.get(1).getContent());
+        Assert.assertEquals("ask", messages.get(2).getContent());
+        Assert.assertEquals(100, window.totalTokens());
+    }
+
+    @Test
+    public void testTrimMatchesPoll() {
+        Random random = new Random(7);
+        for (int round = 0; round < 2000; round++) {
+            int[] tokens = new int[random.nextInt(12)];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = random.nextInt(50);
+            }
+            List<SessionChatRecordEntity> records = records(tokens);
+            int keepHead = random.nextInt(3);
+            int curTokens = random.nextInt(400);
+            int perRecordTokens = random.nextInt(3);
+            int maxTokens = random.nextInt(300);
+
+            List<SessionChatRecordEntity> expected = poll(records, keepHead, curTokens, perRecordTokens, maxTokens);
+            SessionWindow window = SessionWindow.of(records).trim(keepHead, curTokens, perRecordTokens, maxTokens);
+            Assert.assertEquals(expected, window.records());
+
+            // 在裁剪后的窗口上换一个保留位置再裁剪
+            int keepHead2 = random.nextInt(3);
+            Assert.assertEquals(poll(expected, keepHead2, curTokens, perRecordTokens, maxTokens / 2),
+                    window.trim(keepHead2, curTokens, perRecordTokens, maxTokens / 2).records());
+        }
+    }
+
+    @Test
+    public void testAppendMatchesReload() {
+        Random random = new Random(11);
+        for (int round = 0; round < 1000; round++) {
+            int[] tokens = new int[random.nextInt(12)];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = random.nextInt(50);
+            }
+            List<SessionChatRecordEntity> records = records(tokens);
+            int keepHead = random.nextInt(2);
+            int maxTokens = random.nextInt(300);
+            int split = tokens.length == 0 ? 0 : random.nextInt(tokens.length + 1);
+
+            // 先加载前split条, 再逐轮追加, 应与一次性加载全部记录的窗口一致
+            SessionWindow window = SessionWindow.of(records.subList(0, split));
+            window = window.trim(keepHead, window.totalTokens(), maxTokens);
+            for (int i = split; i < records.size(); i += 2) {
+                window = window.append(records.subList(i, Math.min(i + 2, records.size())), keepHead, maxTokens);
+            }
+            SessionWindow reloaded = SessionWindow.of(records);
+            reloaded = reloaded.trim(keepHead, reloaded.totalTokens(), maxTokens);
+            Assert.assertEquals(reloaded.records(), window.records());
+            Assert.assertEquals(reloaded.totalTokens(), window.totalTokens());
+        }
+    }
+}